@@ -19,7 +19,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -212,6 +214,7 @@ public class GroupListHelperImpl implements IGroupListHelper {
             default:
                 // We need to make some sort of determination as to the best
                 // root group to send back.  With luck there aren't many matches.
+                final Map<IEntityGroup, JsonEntityBean> candidates = new LinkedHashMap<>();
                 for (IPermission p : permissionsOfRelevantActivity) {
                     IEntityGroup groupMember = GroupService.findGroup(p.getTarget());
                     final JsonEntityBean candidate = getEntity(groupMember);
@@ -219,18 +222,26 @@ public class GroupListHelperImpl implements IGroupListHelper {
                     if (!candidate.getEntityTypeAsString().equalsIgnoreCase(groupType)) {
                         continue;
                     }
-                    if (rslt == null) {
-                        // First allowable selection;  run with this one
-                        // unless/until we're forced to make a choice.
-                        rslt = candidate;
-                    } else {
-                        // For the present we'll assume the match with the most
-                        // children is the best;  this approach should work
-                        // decently unless folks start putting redundant
-                        // permissions records in the DB for multiple levels of
-                        // the same rich hierarchy.
-                        if (candidate.getChildren().size() > rslt.getChildren().size()) {
-                            rslt = candidate;
+                    if (!candidates.containsKey(groupMember)) {
+                        candidates.put(groupMember, candidate);
+                    }
+                }
+                if (candidates.size() == 1) {
+                    // Only one allowable selection;  run with this one
+                    rslt = candidates.values().iterator().next();
+                } else if (candidates.size() > 1) {
+                    // For the present we'll assume the match with the most
+                    // children is the best;  this approach should work
+                    // decently unless folks start putting redundant
+                    // permissions records in the DB for multiple levels of
+                    // the same rich hierarchy.  The members of all candidates
+                    // are looked up at once.
+                    int mostChildren = -1;
+                    for (Map.Entry<IEntityGroup, Set<IGroupMember>> entry :
+                            GroupService.findMembers(candidates.keySet()).entrySet()) {
+                        if (entry.getValue().size() > mostChildren) {
+                            rslt = candidates.get(entry.getKey());
+                            mostChildren = entry.getValue().size();
                         }
                     }
                 }
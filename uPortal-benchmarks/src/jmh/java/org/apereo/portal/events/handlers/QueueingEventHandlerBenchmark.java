@@ -0,0 +1,102 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.event.SimpleApplicationEventMulticaster;
+
+/**
+ * Hands the events of a page view to a {@link QueueingEventHandler} and flushes them, with and
+ * without its {@link EventRingBuffer}. Events are either offered to the handler directly or
+ * published through the Spring {@link SimpleApplicationEventMulticaster} the way portal events are.
+ * Run with the gc profiler, {@code gc.alloc.rate.norm} is the number of bytes allocated per page
+ * view.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class QueueingEventHandlerBenchmark {
+    /** Roughly the number of events fired for a single page view */
+    private static final int EVENTS_PER_PAGE_VIEW = 30;
+
+    /** Size of the handler's ring buffer, 0 queues every event in a ConcurrentLinkedQueue */
+    @Param({"0", "1024"})
+    public int ringBufferSize;
+
+    private CountingEventHandler handler;
+    private SimpleApplicationEventMulticaster multicaster;
+    private ApplicationEvent[] events;
+
+    @Setup
+    public void setup() {
+        this.handler = new CountingEventHandler();
+        this.handler.setRingBufferSize(this.ringBufferSize);
+        this.handler.setBatchSize(EVENTS_PER_PAGE_VIEW);
+
+        this.multicaster = new SimpleApplicationEventMulticaster();
+        this.multicaster.addApplicationListener(this.handler);
+
+        this.events = new ApplicationEvent[EVENTS_PER_PAGE_VIEW];
+        for (int i = 0; i < this.events.length; i++) {
+            this.events[i] = new PageViewEvent(this);
+        }
+    }
+
+    @Benchmark
+    public long handOff() {
+        for (final ApplicationEvent event : this.events) {
+            this.handler.onApplicationEvent(event);
+        }
+        this.handler.flush();
+        return this.handler.handled;
+    }
+
+    @Benchmark
+    public long multicastHandOff() {
+        for (final ApplicationEvent event : this.events) {
+            this.multicaster.multicastEvent(event);
+        }
+        this.handler.flush();
+        return this.handler.handled;
+    }
+
+    private static final class PageViewEvent extends ApplicationEvent {
+        private static final long serialVersionUID = 1L;
+
+        PageViewEvent(Object source) {
+            super(source);
+        }
+    }
+
+    private static final class CountingEventHandler extends QueueingEventHandler<ApplicationEvent> {
+        private long handled;
+
+        @Override
+        protected void onApplicationEvents(Iterable<ApplicationEvent> events) {
+            for (final ApplicationEvent event : events) {
+                this.handled++;
+            }
+        }
+    }
+}
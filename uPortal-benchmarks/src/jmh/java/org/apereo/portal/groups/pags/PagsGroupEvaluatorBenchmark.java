@@ -0,0 +1,154 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.groups.pags.dao.IPersonAttributesGroupTestDefinition;
+import org.apereo.portal.groups.pags.dao.jpa.PersonAttributesGroupTestDefinitionImpl;
+import org.apereo.portal.groups.pags.testers.IntegerGETester;
+import org.apereo.portal.groups.pags.testers.RegexTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.groups.pags.testers.ValueMissingTester;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.provider.PersonImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Finds the PAGS groups containing a person, once by asking every {@link PagsGroup} with {@link
+ * PagsGroup#contains(IPerson)} and once with a {@link PagsGroupEvaluator} built from the same
+ * groups. The groups mix the equality tests the evaluator indexes with regex, integer and missing
+ * value tests it evaluates one at a time. Each operation is the lookup for one person.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class PagsGroupEvaluatorBenchmark {
+    private static final String[] ATTRIBUTES = {
+        "affiliation", "department", "campus", "title", "mail", "level"
+    };
+    private static final String[] VALUES = {"staff", "Staff", "student", "faculty", "ENG", "eng"};
+    private static final int PEOPLE = 512;
+
+    /** Number of PAGS groups defined */
+    @Param({"100", "800"})
+    public int groupCount;
+
+    private Map<String, PagsGroup> groups;
+    private PagsGroupEvaluator evaluator;
+    private IPerson[] people;
+    private int next;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(42);
+
+        this.groups = new LinkedHashMap<String, PagsGroup>();
+        for (int i = 0; i < this.groupCount; i++) {
+            final PagsGroup group = new PagsGroup();
+            group.setKey("group" + i);
+            group.setName("group" + i);
+            final int testGroups = 1 + random.nextInt(2);
+            for (int j = 0; j < testGroups; j++) {
+                final TestGroup testGroup = new TestGroup();
+                final int tests = 1 + random.nextInt(3);
+                for (int k = 0; k < tests; k++) {
+                    testGroup.addTest(randomTester(random));
+                }
+                group.addTestGroup(testGroup);
+            }
+            this.groups.put(group.getName(), group);
+        }
+        this.evaluator = new PagsGroupEvaluator(this.groups);
+
+        this.people = new IPerson[PEOPLE];
+        for (int i = 0; i < this.people.length; i++) {
+            final IPerson person = new PersonImpl();
+            person.setUserName("user" + i);
+            for (final String attribute : ATTRIBUTES) {
+                final List<Object> values = new ArrayList<Object>();
+                final int count = random.nextInt(3);
+                for (int j = 0; j < count; j++) {
+                    values.add(
+                            "level".equals(attribute)
+                                    ? Integer.toString(random.nextInt(10))
+                                    : VALUES[random.nextInt(VALUES.length)]);
+                }
+                if (!values.isEmpty()) {
+                    person.setAttribute(attribute, values);
+                }
+            }
+            this.people[i] = person;
+        }
+    }
+
+    @Benchmark
+    public Set<String> pagsGroupContains() {
+        final IPerson person = this.nextPerson();
+        final Set<String> result = new HashSet<String>();
+        for (final Map.Entry<String, PagsGroup> group : this.groups.entrySet()) {
+            if (group.getValue().contains(person)) {
+                result.add(group.getKey());
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Set<String> evaluatorFindContainingGroups() {
+        return this.evaluator.findContainingGroups(this.nextPerson());
+    }
+
+    private IPerson nextPerson() {
+        final IPerson person = this.people[this.next];
+        this.next = (this.next + 1) % this.people.length;
+        return person;
+    }
+
+    private static IPersonTester randomTester(Random random) {
+        final String attribute = ATTRIBUTES[random.nextInt(ATTRIBUTES.length - 1)];
+        final String value = VALUES[random.nextInt(VALUES.length)];
+        switch (random.nextInt(6)) {
+            case 0:
+                return new StringEqualsIgnoreCaseTester(def(attribute, value));
+            case 1:
+                return new RegexTester(def(attribute, value.substring(0, 2) + ".*"));
+            case 2:
+                return new IntegerGETester(def("level", Integer.toString(random.nextInt(10))));
+            case 3:
+                return new ValueMissingTester(def(attribute, value));
+            default:
+                return new StringEqualsTester(def(attribute, value));
+        }
+    }
+
+    private static IPersonAttributesGroupTestDefinition def(String attribute, String value) {
+        return new PersonAttributesGroupTestDefinitionImpl(null, attribute, null, value);
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apereo.portal.utils.threading.LoggingAbortHandler;
+import org.apereo.portal.utils.threading.VirtualThreadPoolExecutorFactoryBean;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Load test of the portlet worker thread pool configured the way portletContainerContext.xml
+ * configures it, with platform and with virtual threads. Each benchmark thread is a page request
+ * that submits one worker per portlet and waits on each with the portlet timeout, the same way
+ * PortletExecutionManager does. Workers sleep to simulate portlets blocked on remote I/O.
+ *
+ * <p>With more concurrent workers than {@code maxThreads} the pool saturates and rejects workers,
+ * the {@code rejected} and {@code timedOut} counters report the workers that would have rendered as
+ * errors. Page requests with rejected workers finish early, compare the throughput of runs with few
+ * or no rejections. Virtual threads require running the benchmark on Java 21 or later, on older
+ * JVMs the virtual thread runs fall back to platform threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Threads(100)
+public class PortletThreadPoolBenchmark {
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    /** Maximum size of the worker pool */
+    @Param({"1200", "10000"})
+    public int maxThreads;
+
+    /** Workers submitted per page request */
+    @Param({"25"})
+    public int portlets;
+
+    /** Time each worker spends blocked, simulating a remote call */
+    @Param({"200"})
+    public long portletLatencyMillis;
+
+    /** Portlet timeout used when waiting on a worker */
+    @Param({"5000"})
+    public long portletTimeoutMillis;
+
+    private VirtualThreadPoolExecutorFactoryBean threadPoolFactoryBean;
+    private ExecutorService portletThreadPool;
+
+    @Setup(Level.Trial)
+    public void setup(BenchmarkParams params) throws Exception {
+        this.threadPoolFactoryBean = new VirtualThreadPoolExecutorFactoryBean();
+        this.threadPoolFactoryBean.setVirtualThreads(this.virtualThreads);
+        this.threadPoolFactoryBean.setCorePoolSize(100);
+        this.threadPoolFactoryBean.setMaxPoolSize(this.maxThreads);
+        this.threadPoolFactoryBean.setQueueCapacity(0);
+        this.threadPoolFactoryBean.setThreadNamePrefix("uP-PortletExec-");
+        this.threadPoolFactoryBean.setDaemon(true);
+        this.threadPoolFactoryBean.setAllowCoreThreadTimeOut(true);
+        this.threadPoolFactoryBean.setKeepAliveSeconds(300);
+        this.threadPoolFactoryBean.setRejectedExecutionHandler(new LoggingAbortHandler());
+        this.threadPoolFactoryBean.afterPropertiesSet();
+        this.portletThreadPool = this.threadPoolFactoryBean.getObject();
+
+        System.out.println(
+                "\nvirtualThreads="
+                        + this.threadPoolFactoryBean.isVirtualThreads()
+                        + " (supported="
+                        + VirtualThreadPoolExecutorFactoryBean.isVirtualThreadsSupported()
+                        + ") for "
+                        + params.getThreads()
+                        + " concurrent page requests");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        final ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) this.portletThreadPool;
+        System.out.println(
+                "\nlargestPoolSize="
+                        + threadPoolExecutor.getLargestPoolSize()
+                        + " completedTaskCount="
+                        + threadPoolExecutor.getCompletedTaskCount());
+        this.threadPoolFactoryBean.destroy();
+    }
+
+    /** Per request thread counts of workers that failed */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class WorkerFailures {
+        public long rejected;
+        public long timedOut;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.rejected = 0;
+            this.timedOut = 0;
+        }
+    }
+
+    @Benchmark
+    public int renderPage(WorkerFailures failures) throws Exception {
+        final List<Future<Integer>> workers = new ArrayList<Future<Integer>>(this.portlets);
+        for (int i = 0; i < this.portlets; i++) {
+            try {
+                workers.add(this.portletThreadPool.submit(new BlockingPortletWorker(i)));
+            } catch (RejectedExecutionException e) {
+                failures.rejected++;
+            }
+        }
+
+        int rendered = 0;
+        for (final Future<Integer> worker : workers) {
+            try {
+                rendered += worker.get(this.portletTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                worker.cancel(true);
+                failures.timedOut++;
+            }
+        }
+        return rendered;
+    }
+
+    private final class BlockingPortletWorker implements Callable<Integer> {
+        private final int portlet;
+
+        BlockingPortletWorker(int portlet) {
+            this.portlet = portlet;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            Thread.sleep(portletLatencyMillis);
+            return this.portlet;
+        }
+    }
+}
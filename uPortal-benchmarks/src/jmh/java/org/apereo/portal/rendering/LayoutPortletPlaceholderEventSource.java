@@ -0,0 +1,45 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import java.util.Collection;
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import org.apereo.portal.character.stream.PortletContentPlaceholderEventSource;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+
+/**
+ * Generates portlet content placeholders directly from the layout node ID on the chunking element
+ * instead of resolving the portlet window through the portlet window registry
+ */
+final class LayoutPortletPlaceholderEventSource extends PortletContentPlaceholderEventSource {
+    private static final QName ID_ATTRIBUTE = new QName("ID");
+
+    @Override
+    public void generateCharacterEvents(
+            HttpServletRequest servletRequest,
+            XMLEventReader eventReader,
+            StartElement event,
+            Collection<CharacterEvent> eventBuffer)
+            throws XMLStreamException {
+        final Attribute idAttribute = event.getAttributeByName(ID_ATTRIBUTE);
+        this.generateCharacterEvents(
+                new StubPortletWindowId(idAttribute.getValue()), eventReader, event, eventBuffer);
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.apache.commons.io.output.NullWriter;
+import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.CharacterEventSource;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.CharacterEventTypes;
+import org.apereo.portal.rendering.cache.CachingCharacterPipelineComponent;
+import org.apereo.portal.rendering.cache.CachingStAXPipelineComponent;
+import org.apereo.portal.rendering.xslt.TransformerPool;
+import org.apereo.portal.rendering.xslt.XSLTComponent;
+import org.apereo.portal.xml.XmlUtilitiesImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Renders a page through the real rendering pipeline components: a synthetic layout is transformed
+ * by {@link XSLTComponent}, serialized and chunked by {@link StAXSerializingComponent} and has
+ * portlet output from a stub {@link org.apereo.portal.portlet.rendering.IPortletExecutionManager}
+ * incorporated by {@link PortletRenderingIncorporationComponent}. With {@code cached=true} the StAX
+ * and character caching components are placed in the pipeline the same way the portal's rendering
+ * pipeline does.
+ *
+ * <p>The build runs this with the JMH gc profiler, so {@code gc.alloc.rate.norm} is the number of
+ * bytes allocated per rendered page.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class RenderingPipelineBenchmark {
+    private static final String THEME = "/org/apereo/portal/rendering/benchmark-theme.xsl";
+
+    /** Number of distinct users, each with their own layout and cache entries */
+    @Param({"200"})
+    public int users;
+
+    @Param({"12"})
+    public int portlets;
+
+    /** Number of characters of markup rendered by each portlet */
+    @Param({"2048"})
+    public int portletOutputLength;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private CacheManager cacheManager;
+    private CharacterPipelineComponent pipeline;
+    private String[] userNames;
+    private int nextUser = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.userNames = new String[this.users];
+        for (int user = 0; user < this.users; user++) {
+            this.userNames[user] = "user" + user;
+        }
+
+        final StubResourcesElementsProvider resourcesElementsProvider =
+                new StubResourcesElementsProvider();
+        this.cacheManager = new CacheManager(new Configuration().name("renderingBenchmark"));
+
+        // Layout -> Theme XSLT
+        final XSLTComponent themeTransformComponent = new XSLTComponent();
+        themeTransformComponent.setBeanName("themeTransformComponent");
+        themeTransformComponent.setResourceLoader(new DefaultResourceLoader());
+        themeTransformComponent.setTransformerSource(new TemplatesTransformerSource(THEME));
+        themeTransformComponent.setTransformerPool(new TransformerPool());
+        themeTransformComponent.setWrappedComponent(new SyntheticLayoutComponent(this.portlets));
+
+        StAXPipelineComponent staxComponent = themeTransformComponent;
+        if (this.cached) {
+            final CachingStAXPipelineComponent themeCachingComponent =
+                    new CachingStAXPipelineComponent();
+            themeCachingComponent.setBeanName("themeCachingComponent");
+            themeCachingComponent.setCache(this.createCache("themeCache"));
+            themeCachingComponent.setResourcesElementsProvider(resourcesElementsProvider);
+            themeCachingComponent.setWrappedComponent(themeTransformComponent);
+            staxComponent = themeCachingComponent;
+        }
+
+        // Theme output -> Character chunks with portlet placeholders
+        final StAXSerializingComponent staxSerializingComponent = new StAXSerializingComponent();
+        staxSerializingComponent.setXmlUtilities(new XmlUtilitiesImpl());
+        staxSerializingComponent.setChunkingElements(
+                Collections.<String, CharacterEventSource>singletonMap(
+                        "portlet", new LayoutPortletPlaceholderEventSource()));
+        staxSerializingComponent.setChunkingPatterns(
+                Collections.<String, CharacterEventSource>emptyMap());
+        staxSerializingComponent.setWrappedComponent(staxComponent);
+
+        CharacterPipelineComponent characterComponent = staxSerializingComponent;
+        if (this.cached) {
+            final CachingCharacterPipelineComponent serializerCachingComponent =
+                    new CachingCharacterPipelineComponent();
+            serializerCachingComponent.setBeanName("serializerCachingComponent");
+            serializerCachingComponent.setCache(this.createCache("serializerCache"));
+            serializerCachingComponent.setResourcesElementsProvider(resourcesElementsProvider);
+            serializerCachingComponent.setWrappedComponent(staxSerializingComponent);
+            characterComponent = serializerCachingComponent;
+        }
+
+        // Character chunks -> Portlet output incorporated
+        final PortletRenderingIncorporationComponent portletRenderingIncorporationComponent =
+                new PortletRenderingIncorporationComponent();
+        portletRenderingIncorporationComponent.setPortletExecutionManager(
+                new StubPortletExecutionManager(this.portletOutputLength));
+        portletRenderingIncorporationComponent.setWrappedComponent(characterComponent);
+
+        this.pipeline = portletRenderingIncorporationComponent;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.cacheManager.shutdown();
+    }
+
+    /** Render a full page for the next user and write it out */
+    @Benchmark
+    public void renderPage() throws IOException {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteUser(this.userNames[this.nextUser]);
+        this.nextUser = (this.nextUser + 1) % this.users;
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader =
+                this.pipeline.getEventReader(request, response);
+
+        // Stands in for the servlet output stream, NullWriter keeps the write off the profile
+        final Writer writer = new NullWriter();
+        for (final CharacterEvent event : pipelineEventReader) {
+            if (CharacterEventTypes.CHARACTER == event.getEventType()) {
+                writer.write(((CharacterDataEvent) event).getData());
+            } else {
+                throw new IllegalStateException("Unexpected event after incorporation: " + event);
+            }
+        }
+        writer.flush();
+    }
+
+    private Cache createCache(String name) {
+        final Cache cache = new Cache(new CacheConfiguration(name, this.users * 2).eternal(true));
+        this.cacheManager.addCache(cache);
+        return cache;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
+
+/**
+ * {@link IPortletExecutionManager} that returns canned output immediately, so that benchmarks of
+ * the rendering pipeline measure the pipeline and not the portlets.
+ */
+final class StubPortletExecutionManager implements IPortletExecutionManager {
+    private final ConcurrentMap<IPortletWindowId, String> portletOutput =
+            new ConcurrentHashMap<IPortletWindowId, String>();
+    private final int outputLength;
+
+    /** @param outputLength Number of characters of markup each portlet renders */
+    StubPortletExecutionManager(int outputLength) {
+        this.outputLength = outputLength;
+    }
+
+    @Override
+    public void doPortletAction(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        // NO-OP
+    }
+
+    @Override
+    public void startPortletHeaderRender(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        // NO-OP
+    }
+
+    @Override
+    public void startPortletRender(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        // NO-OP
+    }
+
+    @Override
+    public void doPortletServeResource(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        // NO-OP
+    }
+
+    @Override
+    public boolean isPortletRenderHeaderRequested(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        return false;
+    }
+
+    @Override
+    public boolean isPortletRenderRequested(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        return true;
+    }
+
+    @Override
+    public boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        return true;
+    }
+
+    @Override
+    public String getPortletHeadOutput(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        return "";
+    }
+
+    @Override
+    public String getPortletOutput(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        String output = this.portletOutput.get(portletWindowId);
+        if (output == null) {
+            final StringBuilder builder = new StringBuilder(this.outputLength + 64);
+            builder.append("<div class=\"")
+                    .append(portletWindowId.getStringId())
+                    .append("-content\"><p>");
+            while (builder.length() < this.outputLength) {
+                builder.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ");
+            }
+            builder.append("</p></div>");
+            output = builder.toString();
+            this.portletOutput.putIfAbsent(portletWindowId, output);
+        }
+        return output;
+    }
+
+    @Override
+    public String getPortletTitle(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        return portletWindowId.getStringId();
+    }
+
+    @Override
+    public int getPortletNewItemCount(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        return 0;
+    }
+
+    @Override
+    public String getPortletLink(
+            IPortletWindowId portletWindowId,
+            String defaultUrl,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        return defaultUrl;
+    }
+}
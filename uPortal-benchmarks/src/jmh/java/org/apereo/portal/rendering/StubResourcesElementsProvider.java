@@ -0,0 +1,69 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import javax.servlet.http.HttpServletRequest;
+import org.jasig.resourceserver.aggr.om.Included;
+import org.jasig.resourceserver.aggr.om.Resources;
+import org.jasig.resourceserver.utils.aggr.ResourcesElementsProvider;
+import org.w3c.dom.NodeList;
+
+/**
+ * {@link ResourcesElementsProvider} that only reports resource aggregation as enabled, which is
+ * what the caching pipeline components check before using their caches
+ */
+final class StubResourcesElementsProvider implements ResourcesElementsProvider {
+    private Included defaultIncludedType = Included.AGGREGATED;
+
+    @Override
+    public String resolveResourceUrl(HttpServletRequest request, String resource) {
+        return resource;
+    }
+
+    @Override
+    public void setDefaultIncludedType(Included defaultIncludedType) {
+        this.defaultIncludedType = defaultIncludedType;
+    }
+
+    @Override
+    public Included getDefaultIncludedType() {
+        return this.defaultIncludedType;
+    }
+
+    @Override
+    public Included getIncludedType(HttpServletRequest request) {
+        return this.defaultIncludedType;
+    }
+
+    @Override
+    public String getResourcesParameter(HttpServletRequest request, String skinXml, String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public NodeList getResourcesXmlFragment(HttpServletRequest request, String skinXml) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getResourcesHtmlFragment(HttpServletRequest request, String skinXml) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Resources getResources(HttpServletRequest request, String skinXml) {
+        throw new UnsupportedOperationException();
+    }
+}
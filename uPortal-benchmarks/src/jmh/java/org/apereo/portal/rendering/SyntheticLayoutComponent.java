@@ -0,0 +1,66 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import java.io.StringReader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import org.apereo.portal.utils.cache.CacheKey;
+
+/**
+ * Start of the benchmark pipeline, stands in for the user layout store component by parsing a
+ * {@link SyntheticPage} layout document for the remote user of each request.
+ */
+final class SyntheticLayoutComponent implements StAXPipelineComponent {
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newFactory();
+
+    private final ConcurrentMap<String, String> layouts = new ConcurrentHashMap<String, String>();
+    private final int portlets;
+
+    SyntheticLayoutComponent(int portlets) {
+        this.portlets = portlets;
+    }
+
+    @Override
+    public CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
+        return CacheKey.build(SyntheticLayoutComponent.class.getName(), request.getRemoteUser());
+    }
+
+    @Override
+    public PipelineEventReader<XMLEventReader, XMLEvent> getEventReader(
+            HttpServletRequest request, HttpServletResponse response) {
+        final String userName = request.getRemoteUser();
+        String layout = this.layouts.get(userName);
+        if (layout == null) {
+            layout = SyntheticPage.createLayout(userName, this.portlets);
+            this.layouts.putIfAbsent(userName, layout);
+        }
+
+        final XMLEventReader eventReader;
+        try {
+            eventReader = INPUT_FACTORY.createXMLEventReader(new StringReader(layout));
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Failed to create XMLEventReader for layout", e);
+        }
+
+        return new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(eventReader);
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+/**
+ * Builds synthetic documents shaped like the ones the rendering pipeline produces for a real tab: a
+ * header, navigation and a number of columns of portlet chrome. The markup is heavily repeated
+ * between portlets and between users, with only the user name and portlet ids varying, which is
+ * what a cache of per-user renderings looks like in production.
+ */
+public final class SyntheticPage {
+    private static final int COLUMNS = 3;
+
+    private SyntheticPage() {}
+
+    /**
+     * @return A user layout document with the specified number of portlets, the input to the
+     *     benchmark theme stylesheet
+     */
+    public static String createLayout(String userName, int portlets) {
+        final StringBuilder layout = new StringBuilder(1024 + portlets * 128);
+        layout.append("<layout user=\"").append(userName).append("\">");
+        layout.append("<navigation>");
+        for (int tab = 1; tab <= 6; tab++) {
+            layout.append("<tab ID=\"s")
+                    .append(tab)
+                    .append("\" name=\"Tab ")
+                    .append(tab)
+                    .append("\" activeTab=\"")
+                    .append(tab == 1)
+                    .append("\"/>");
+        }
+        layout.append("</navigation>");
+        layout.append("<content>");
+        for (int column = 0; column < COLUMNS; column++) {
+            layout.append("<column ID=\"n").append(column + 10).append("\">");
+            for (int portlet = column; portlet < portlets; portlet += COLUMNS) {
+                layout.append("<channel ID=\"n")
+                        .append(100 + portlet)
+                        .append("\" fname=\"portlet-")
+                        .append(portlet)
+                        .append("\" title=\"Portlet ")
+                        .append(portlet)
+                        .append("\"/>");
+            }
+            layout.append("</column>");
+        }
+        layout.append("</content>");
+        layout.append("</layout>");
+        return layout.toString();
+    }
+
+    /** @return An XHTML page for the user with the specified number of portlets */
+    public static String create(String userName, int portlets) {
+        final StringBuilder page = new StringBuilder(4096 + portlets * 1024);
+        page.append("<html xmlns=\"http://www.w3.org/1999/xhtml\">");
+        page.append("<head><title>uPortal</title>");
+        page.append(
+                "<link rel=\"stylesheet\" type=\"text/css\" href=\"/uPortal/media/skins/respondr/defaultSkin.css\"/>");
+        page.append(
+                "<script type=\"text/javascript\" src=\"/uPortal/scripts/jquery.min.js\"></script>");
+        page.append("</head>");
+        page.append("<body class=\"up dashboard portal fl-theme-mist\">");
+        page.append("<div id=\"up-notification\"></div>");
+        page.append("<header class=\"portal-header\" role=\"banner\">");
+        page.append("<div class=\"portal-user\"><span class=\"user-name\">")
+                .append(userName)
+                .append(
+                        "</span><a href=\"/uPortal/Logout\" class=\"portal-logout\">Sign Out</a></div>");
+        page.append("</header>");
+        page.append("<nav class=\"portal-nav\" role=\"navigation\"><ul class=\"fl-tabs\">");
+        for (int tab = 1; tab <= 6; tab++) {
+            page.append("<li class=\"portal-navigation")
+                    .append(tab == 1 ? " active" : "")
+                    .append("\" id=\"portalNavigation_u12l1s")
+                    .append(tab)
+                    .append("\"><a href=\"/uPortal/f/u12l1s")
+                    .append(tab)
+                    .append(
+                            "/normal/render.uP\" class=\"portal-navigation-link\"><span class=\"portal-navigation-label\">Tab ")
+                    .append(tab)
+                    .append("</span></a></li>");
+        }
+        page.append("</ul></nav>");
+        page.append("<div id=\"portalPageBody\" class=\"portal-content\" role=\"main\">");
+        for (int column = 0; column < COLUMNS; column++) {
+            page.append("<div id=\"column_u12l1n")
+                    .append(column + 10)
+                    .append("\" class=\"portal-page-column col-md-4\">");
+            for (int portlet = column; portlet < portlets; portlet += COLUMNS) {
+                appendPortlet(page, portlet);
+            }
+            page.append("</div>");
+        }
+        page.append("</div>");
+        page.append("<footer class=\"portal-footer\" role=\"contentinfo\">");
+        page.append(
+                "<div class=\"portal-power\"><a href=\"https://www.apereo.org/projects/uportal\">Powered by uPortal</a></div>");
+        page.append("</footer>");
+        page.append("</body></html>");
+        return page.toString();
+    }
+
+    private static void appendPortlet(StringBuilder page, int portlet) {
+        final String id = "portlet_u12l1n" + (100 + portlet);
+        page.append("<section id=\"")
+                .append(id)
+                .append("\" class=\"up-portlet-wrapper portlet-container\" role=\"region\">");
+        page.append("<div class=\"up-portlet-wrapper-inner\">");
+        page.append("<div class=\"up-portlet-titlebar\">");
+        page.append("<h2 class=\"portlet-title\"><a name=\"")
+                .append(id)
+                .append("\" href=\"/uPortal/p/portlet-")
+                .append(portlet)
+                .append("/max/render.uP\">Portlet ")
+                .append(portlet)
+                .append("</a></h2>");
+        page.append(
+                "<div class=\"portlet-options-menu\"><ul class=\"dropdown-menu\" role=\"menu\">");
+        page.append("<li><a class=\"up-portlet-control focus\" href=\"#\">Maximize</a></li>");
+        page.append("<li><a class=\"up-portlet-control help\" href=\"#\">Help</a></li>");
+        page.append("<li><a class=\"up-portlet-control remove\" href=\"#\">Remove</a></li>");
+        page.append("</ul></div>");
+        page.append("</div>");
+        page.append("<div class=\"up-portlet-content-wrapper\">");
+        page.append("<div class=\"up-portlet-content-wrapper-inner\">");
+        page.append("<!-- content for ").append(id).append(" -->");
+        page.append("</div></div></div></section>");
+    }
+}
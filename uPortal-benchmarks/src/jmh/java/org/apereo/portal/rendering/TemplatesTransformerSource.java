@@ -0,0 +1,60 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import org.apereo.portal.rendering.xslt.TransformerSource;
+import org.apereo.portal.utils.cache.CacheKey;
+
+/** {@link TransformerSource} for a stylesheet on the classpath that is compiled once */
+final class TemplatesTransformerSource implements TransformerSource {
+    private final String stylesheet;
+    private final Templates templates;
+
+    TemplatesTransformerSource(String stylesheet) {
+        this.stylesheet = stylesheet;
+        try {
+            this.templates =
+                    TransformerFactory.newInstance()
+                            .newTemplates(
+                                    new StreamSource(
+                                            TemplatesTransformerSource.class
+                                                    .getResource(stylesheet)
+                                                    .toExternalForm()));
+        } catch (TransformerConfigurationException e) {
+            throw new RuntimeException("Failed to compile " + stylesheet, e);
+        }
+    }
+
+    @Override
+    public Transformer getTransformer(HttpServletRequest request, HttpServletResponse response) {
+        try {
+            return this.templates.newTransformer();
+        } catch (TransformerConfigurationException e) {
+            throw new RuntimeException("Failed to create Transformer for " + this.stylesheet, e);
+        }
+    }
+
+    @Override
+    public CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
+        return CacheKey.build(TemplatesTransformerSource.class.getName(), this.stylesheet);
+    }
+}
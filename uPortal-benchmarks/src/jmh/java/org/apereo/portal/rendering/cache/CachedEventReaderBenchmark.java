@@ -0,0 +1,136 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import org.apereo.portal.rendering.SyntheticPage;
+import org.apereo.portal.xml.stream.XMLEventBufferReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Compares the original {@link LinkedList} event buffer with the de-duplicated, array backed {@link
+ * CachedEventReader} used by {@link CachingStAXPipelineComponent}. Throughput of populating and
+ * replaying a cached page is measured by JMH, the retained heap per cached page is measured with
+ * JOL once per trial and printed with the results.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class CachedEventReaderBenchmark {
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newFactory();
+
+    /** Number of distinct users (and so distinct cache entries) to simulate */
+    @Param({"200"})
+    public int users;
+
+    /** Number of portlets on the synthetic page */
+    @Param({"12"})
+    public int portlets;
+
+    @Param({"linked", "compact"})
+    public String format;
+
+    private List<List<XMLEvent>> renderedPages;
+    private List<List<XMLEvent>> cachedPages;
+    private int nextPage = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws XMLStreamException {
+        this.renderedPages = new ArrayList<List<XMLEvent>>(this.users);
+        this.cachedPages = new ArrayList<List<XMLEvent>>(this.users);
+        for (int user = 0; user < this.users; user++) {
+            final List<XMLEvent> page = parse(SyntheticPage.create("user" + user, this.portlets));
+            this.renderedPages.add(page);
+            this.cachedPages.add(this.cache(page));
+        }
+
+        // Shared events are counted once, the same as they would be in the real cache
+        final long totalBytes = GraphLayout.parseInstance(this.cachedPages.toArray()).totalSize();
+        System.out.println();
+        System.out.println(
+                "# Retained heap per cached page ("
+                        + this.format
+                        + "): "
+                        + (totalBytes / this.users)
+                        + " bytes");
+    }
+
+    /** Cost of copying the events of a freshly rendered page into a cache entry */
+    @Benchmark
+    public List<XMLEvent> cachePage() {
+        return this.cache(this.renderedPages.get(this.nextIndex()));
+    }
+
+    /** Cost of replaying a cached page through the reader handed to the rest of the pipeline */
+    @Benchmark
+    public void replayPage(Blackhole blackhole) throws XMLStreamException {
+        final ListIterator<XMLEvent> events = this.cachedPages.get(this.nextIndex()).listIterator();
+        final XMLEventReader eventReader = new XMLEventBufferReader(events);
+        while (eventReader.hasNext()) {
+            blackhole.consume(eventReader.nextEvent());
+        }
+    }
+
+    private int nextIndex() {
+        final int index = this.nextPage;
+        this.nextPage = (index + 1) % this.users;
+        return index;
+    }
+
+    private List<XMLEvent> cache(List<XMLEvent> page) {
+        if ("linked".equals(this.format)) {
+            // The buffer used before events were de-duplicated
+            return Collections.unmodifiableList(new LinkedList<XMLEvent>(page));
+        }
+
+        final List<XMLEvent> eventCache = new ArrayList<XMLEvent>();
+        for (final XMLEvent event : page) {
+            eventCache.add(XMLEventDeduplicator.deduplicate(event));
+        }
+        return new CachedEventReader<XMLEvent>(eventCache, Collections.<String, String>emptyMap())
+                .getEventCache();
+    }
+
+    private static List<XMLEvent> parse(String page) throws XMLStreamException {
+        final XMLEventReader eventReader =
+                INPUT_FACTORY.createXMLEventReader(new StringReader(page));
+        final List<XMLEvent> events = new ArrayList<XMLEvent>();
+        while (eventReader.hasNext()) {
+            events.add(eventReader.nextEvent());
+        }
+        eventReader.close();
+        return events;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.threading;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Contention benchmark of the keyed round-robin queues. Every benchmark thread offers an element
+ * under one of {@code keys} keys and then polls one, so producers and consumers hit the queue at
+ * the same time and its size stays around the number of threads. Compares the lock based {@link
+ * QualityOfServiceBlockingQueue} with the lock-free {@link FairShareBlockingQueue} at 8, 32 and 128
+ * threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class FairShareBlockingQueueBenchmark {
+    @Param({"qualityOfService", "fairShare"})
+    public String queueType;
+
+    /** Number of distinct element keys, e.g. portlet fnames */
+    @Param({"16"})
+    public int keys;
+
+    private BlockingQueue<Integer> queue;
+
+    @Setup
+    public void setup() {
+        if ("fairShare".equals(this.queueType)) {
+            final int keyCount = this.keys;
+            this.queue =
+                    new FairShareBlockingQueue<Integer, Integer>() {
+                        @Override
+                        protected Integer getElementKey(Integer e) {
+                            return e % keyCount;
+                        }
+                    };
+        } else {
+            this.queue = new RoundRobinQueue(this.keys);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        private int next;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Integer offerPoll008(Producer producer) {
+        return this.offerPoll(producer);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Integer offerPoll032(Producer producer) {
+        return this.offerPoll(producer);
+    }
+
+    @Benchmark
+    @Threads(128)
+    public Integer offerPoll128(Producer producer) {
+        return this.offerPoll(producer);
+    }
+
+    private Integer offerPoll(Producer producer) {
+        this.queue.offer(producer.next++ & Integer.MAX_VALUE);
+        return this.queue.poll();
+    }
+
+    /** Round-robin over the integer keys, the ordering the fair share queue provides */
+    private static final class RoundRobinQueue
+            extends QualityOfServiceBlockingQueue<Integer, Integer> {
+        private final int keys;
+        private int nextKey = 0;
+
+        RoundRobinQueue(int keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        protected Integer getElementKey(Integer e) {
+            return e % this.keys;
+        }
+
+        @Override
+        protected Integer getNextElementKey() {
+            for (int i = 0; i < this.keys; i++) {
+                final int key = (this.nextKey + i) % this.keys;
+                if (!this.isKeyEmpty(key)) {
+                    this.nextKey = key + 1;
+                    return key;
+                }
+            }
+            throw new IllegalStateException("getNextElementKey called on an empty queue");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!--
+
+    Licensed to Apereo under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Apereo licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License.  You may obtain a
+    copy of the License at the following location:
+
+      http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on an
+    "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied.  See the License for the
+    specific language governing permissions and limitations
+    under the License.
+
+-->
+<!--
+ | Minimal theme used by the rendering pipeline benchmarks. Renders the synthetic layout into the
+ | same chrome as SyntheticPage, leaving a <portlet/> chunking element where each portlet's
+ | content is incorporated.
+ +-->
+<xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
+    <xsl:output method="xml" media-type="text/html" omit-xml-declaration="yes"/>
+
+    <xsl:template match="/layout">
+        <html>
+            <head>
+                <title>uPortal</title>
+                <link rel="stylesheet" type="text/css" href="/uPortal/media/skins/respondr/defaultSkin.css"/>
+                <script type="text/javascript" src="/uPortal/scripts/jquery.min.js"></script>
+            </head>
+            <body class="up dashboard portal fl-theme-mist">
+                <div id="up-notification"></div>
+                <header class="portal-header" role="banner">
+                    <div class="portal-user">
+                        <span class="user-name"><xsl:value-of select="@user"/></span>
+                        <a href="/uPortal/Logout" class="portal-logout">Sign Out</a>
+                    </div>
+                </header>
+                <nav class="portal-nav" role="navigation">
+                    <ul class="fl-tabs">
+                        <xsl:apply-templates select="navigation/tab"/>
+                    </ul>
+                </nav>
+                <div id="portalPageBody" class="portal-content" role="main">
+                    <xsl:apply-templates select="content/column"/>
+                </div>
+                <footer class="portal-footer" role="contentinfo">
+                    <div class="portal-power"><a href="https://www.apereo.org/projects/uportal">Powered by uPortal</a></div>
+                </footer>
+            </body>
+        </html>
+    </xsl:template>
+
+    <xsl:template match="tab">
+        <li id="portalNavigation_{@ID}">
+            <xsl:attribute name="class">
+                <xsl:text>portal-navigation</xsl:text>
+                <xsl:if test="@activeTab = 'true'"> active</xsl:if>
+            </xsl:attribute>
+            <a href="/uPortal/f/{@ID}/normal/render.uP" class="portal-navigation-link">
+                <span class="portal-navigation-label"><xsl:value-of select="@name"/></span>
+            </a>
+        </li>
+    </xsl:template>
+
+    <xsl:template match="column">
+        <div id="column_{@ID}" class="portal-page-column col-md-4">
+            <xsl:apply-templates select="channel"/>
+        </div>
+    </xsl:template>
+
+    <xsl:template match="channel">
+        <section id="portlet_{@ID}" class="up-portlet-wrapper portlet-container" role="region">
+            <div class="up-portlet-wrapper-inner">
+                <div class="up-portlet-titlebar">
+                    <h2 class="portlet-title">
+                        <a name="portlet_{@ID}" href="/uPortal/p/{@fname}/max/render.uP"><xsl:value-of select="@title"/></a>
+                    </h2>
+                    <div class="portlet-options-menu">
+                        <ul class="dropdown-menu" role="menu">
+                            <li><a class="up-portlet-control focus" href="#">Maximize</a></li>
+                            <li><a class="up-portlet-control help" href="#">Help</a></li>
+                            <li><a class="up-portlet-control remove" href="#">Remove</a></li>
+                        </ul>
+                    </div>
+                </div>
+                <div class="up-portlet-content-wrapper">
+                    <div class="up-portlet-content-wrapper-inner">
+                        <portlet ID="{@ID}"/>
+                    </div>
+                </div>
+            </div>
+        </section>
+    </xsl:template>
+</xsl:stylesheet>
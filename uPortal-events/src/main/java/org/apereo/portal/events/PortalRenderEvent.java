@@ -44,6 +44,10 @@ public final class PortalRenderEvent extends PortalEvent {
 
     private long executionTimeNano;
 
+    /** Execution times of earlier events that were folded into this event before it was stored */
+    @JsonInclude(Include.NON_NULL)
+    private long[] foldedExecutionTimesNano;
+
     PortalRenderEvent() {
         super();
         this.requestPathInfo = null;
@@ -93,6 +97,17 @@ public final class PortalRenderEvent extends PortalEvent {
         return this.executionTimeNano;
     }
 
+    /**
+     * @return The execution times in nanoseconds of earlier events for the same tab, session and
+     *     minute that were folded into this event before it was stored, empty if there were none
+     */
+    public long[] getFoldedExecutionTimesNano() {
+        if (this.foldedExecutionTimesNano == null) {
+            return new long[0];
+        }
+        return this.foldedExecutionTimesNano.clone();
+    }
+
     /** @return the requestPathInfo */
     public String getRequestPathInfo() {
         return this.requestPathInfo;
@@ -47,6 +47,10 @@ public abstract class PortletExecutionEvent extends PortalEvent {
     private long executionTimeNano;
     private final Map<String, List<String>> parameters;
 
+    /** Execution times of earlier events that were folded into this event before it was stored */
+    @JsonInclude(Include.NON_NULL)
+    private long[] foldedExecutionTimesNano;
+
     PortletExecutionEvent() {
         super();
         this.portletWindowId = null;
@@ -94,6 +98,18 @@ public abstract class PortletExecutionEvent extends PortalEvent {
         return this.executionTimeNano;
     }
 
+    /**
+     * @return The execution times in nanoseconds of earlier events for the same portlet, session
+     *     and minute that were folded into this event before it was stored, empty if there were
+     *     none
+     */
+    public long[] getFoldedExecutionTimesNano() {
+        if (this.foldedExecutionTimesNano == null) {
+            return new long[0];
+        }
+        return this.foldedExecutionTimesNano.clone();
+    }
+
     /** @return the fname */
     public String getFname() {
         return this.fname;
@@ -25,15 +25,19 @@ import javax.persistence.PreUpdate;
 import javax.persistence.Transient;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.apereo.portal.events.aggr.stat.JpaStatisticalSummary;
+import org.apereo.portal.events.aggr.stat.ValueHistogram;
 
 /** Base for aggregate entities that track timed statistics */
 @Access(AccessType.FIELD)
 @MappedSuperclass
 public abstract class BaseTimedAggregationStatsImpl<
                 K extends BaseAggregationKey, D extends BaseGroupedAggregationDiscriminator>
-        extends BaseAggregationImpl<K, D> implements TimedAggregationStatistics, Serializable {
+        extends BaseAggregationImpl<K, D> implements TimedAggregationDistribution, Serializable {
     private static final long serialVersionUID = 1L;
 
+    /** Length of the TIME_HISTOGRAM column, the stored histogram is reduced to fit it */
+    private static final int HISTOGRAM_DATA_LENGTH = 4000;
+
     @Column(name = "TIME_COUNT", nullable = false)
     private int count;
 
@@ -72,6 +76,11 @@ public abstract class BaseTimedAggregationStatsImpl<
 
     @Embedded private JpaStatisticalSummary statisticalSummary;
 
+    @Column(name = "TIME_HISTOGRAM", length = HISTOGRAM_DATA_LENGTH)
+    private String histogramData;
+
+    @Transient private ValueHistogram histogram;
+
     @Column(name = "STATS_COMPLETE", nullable = false)
     private boolean complete = false;
 
@@ -161,6 +170,20 @@ public abstract class BaseTimedAggregationStatsImpl<
         return this.secondMoment;
     }
 
+    @Override
+    public final double getPercentile(double percentile) {
+        final double value = this._getHistogram().getPercentile(percentile);
+        if (Double.isNaN(value)) {
+            return value;
+        }
+        return Math.min(Math.max(value, this.getMin()), this.getMax());
+    }
+
+    @Override
+    public final ValueHistogram getHistogram() {
+        return new ValueHistogram(this._getHistogram());
+    }
+
     /** Check if the interval is complete, must be called by super classes if overridden */
     @Override
     protected boolean isComplete() {
@@ -194,6 +217,7 @@ public abstract class BaseTimedAggregationStatsImpl<
         }
 
         this.statisticalSummary.addValue(v);
+        this._getHistogram().addValue(v);
 
         this.modified = true;
     }
@@ -222,7 +246,15 @@ public abstract class BaseTimedAggregationStatsImpl<
         this.geometricMean = this.statisticalSummary.getGeometricMean();
         this.sumOfLogs = this.statisticalSummary.getSumOfLogs();
         this.secondMoment = this.statisticalSummary.getSecondMoment();
+        this.histogramData = this._getHistogram().toCompactString(HISTOGRAM_DATA_LENGTH);
 
         this.modified = false;
     }
+
+    private ValueHistogram _getHistogram() {
+        if (this.histogram == null) {
+            this.histogram = ValueHistogram.fromString(this.histogramData);
+        }
+        return this.histogram;
+    }
 }
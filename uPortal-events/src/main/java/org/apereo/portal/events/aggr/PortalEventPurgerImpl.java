@@ -14,11 +14,15 @@
  */
 package org.apereo.portal.events.aggr;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apereo.portal.IPortalInfoProvider;
 import org.apereo.portal.concurrency.locking.IClusterLockService;
 import org.apereo.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.apereo.portal.events.handlers.db.IPortalEventDao;
 import org.apereo.portal.jpa.BaseAggrEventsJpaDao.AggrEventsTransactional;
+import org.apereo.portal.utils.MovingAverage;
+import org.apereo.portal.utils.MovingAverageSample;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
 import org.joda.time.ReadablePeriod;
@@ -26,10 +30,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Service;
 
+/**
+ * Purges raw events that have been aggregated. By default all eligible events are removed with a
+ * single delete. If a purge chunk size is set events are instead deleted in chunks of at most that
+ * many events, each committed on its own, which keeps transactions and lock times short on large
+ * event tables. A chunked purge reports its progress over JMX and can be cancelled between chunks.
+ */
+@ManagedResource("uPortal:section=Events,name=PortalEventPurger")
 @Service
-public class PortalEventPurgerImpl implements PortalEventPurger {
+public class PortalEventPurgerImpl implements PortalEventPurger, PortalEventPurgerMXBean {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     private IEventAggregationManagementDao eventAggregationManagementDao;
@@ -38,6 +50,14 @@ public class PortalEventPurgerImpl implements PortalEventPurger {
     private IClusterLockService clusterLockService;
 
     private ReadablePeriod purgeDelay = Period.days(1);
+    private int purgeChunkSize = 0;
+
+    private final MovingAverage chunkDeleteTimes = new MovingAverage();
+    private volatile MovingAverageSample lastChunkDeleteTime = new MovingAverageSample();
+    private final AtomicLong purgedEventCount = new AtomicLong();
+    private final AtomicLong runningPurgeEventCount = new AtomicLong();
+    private volatile boolean purging = false;
+    private volatile boolean cancelRequested = false;
 
     @Autowired
     public void setClusterLockService(IClusterLockService clusterLockService) {
@@ -65,6 +85,43 @@ public class PortalEventPurgerImpl implements PortalEventPurger {
         this.purgeDelay = purgeDelay;
     }
 
+    /**
+     * Maximum number of events to delete per transaction, defaults to 0 which deletes all eligible
+     * events with a single delete.
+     */
+    @Value("${org.apereo.portal.events.aggr.PortalEventPurgerImpl.purgeChunkSize:0}")
+    public void setPurgeChunkSize(int purgeChunkSize) {
+        this.purgeChunkSize = purgeChunkSize;
+    }
+
+    @Override
+    public boolean isPurging() {
+        return this.purging;
+    }
+
+    @Override
+    public long getRunningPurgeEventCount() {
+        return this.purging ? this.runningPurgeEventCount.get() : 0;
+    }
+
+    @Override
+    public long getPurgedEventCount() {
+        return this.purgedEventCount.get();
+    }
+
+    @Override
+    public MovingAverageSample getChunkDeleteTimes() {
+        return this.lastChunkDeleteTime;
+    }
+
+    @Override
+    public void cancelPurge() {
+        if (this.purging) {
+            logger.info("Cancelling the running raw event purge");
+            this.cancelRequested = true;
+        }
+    }
+
     @Override
     @AggrEventsTransactional
     public EventProcessingResult doPurgeRawEvents() {
@@ -124,11 +181,26 @@ public class PortalEventPurgerImpl implements PortalEventPurger {
 
             // Purge events
             logger.debug("Starting purge of events before {}", purgeEnd);
-            events = portalEventDao.deletePortalEventsBefore(purgeEnd);
+            if (this.purgeChunkSize > 0) {
+                events = this.deleteEventsInChunks(purgeEnd);
+            } else {
+                events = portalEventDao.deletePortalEventsBefore(purgeEnd);
+                this.purgedEventCount.addAndGet(events);
+            }
         } finally {
             currentThread.setName(currentName);
         }
 
+        if (this.cancelRequested) {
+            // Leave the status alone so the next purge picks up where this one stopped, report
+            // the purge as complete so that it is not immediately run again
+            this.cancelRequested = false;
+            logger.info("Raw event purge cancelled after deleting {} events", events);
+            eventPurgerStatus.setLastEnd(new DateTime());
+            eventAggregationManagementDao.updateEventAggregatorStatus(eventPurgerStatus);
+            return new EventProcessingResult(events, oldestEventDate, purgeEnd, true);
+        }
+
         // Update the status object and store it
         purgeEnd =
                 purgeEnd.minusMillis(
@@ -140,4 +212,47 @@ public class PortalEventPurgerImpl implements PortalEventPurger {
 
         return new EventProcessingResult(events, oldestEventDate, purgeEnd, complete);
     }
+
+    /**
+     * Delete the events before purgeEnd in chunks of at most purgeChunkSize events. Each chunk is
+     * committed by the DAO so cancelling or failing part way through keeps the completed chunks.
+     */
+    private int deleteEventsInChunks(DateTime purgeEnd) {
+        this.runningPurgeEventCount.set(0);
+        this.cancelRequested = false;
+        this.purging = true;
+        final long start = System.nanoTime();
+        try {
+            int events = 0;
+            int chunkEvents;
+            do {
+                final long chunkStart = System.nanoTime();
+                chunkEvents =
+                        portalEventDao.deletePortalEventsBefore(purgeEnd, this.purgeChunkSize);
+                this.lastChunkDeleteTime =
+                        this.chunkDeleteTimes.add(
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - chunkStart));
+
+                events += chunkEvents;
+                this.runningPurgeEventCount.addAndGet(chunkEvents);
+                this.purgedEventCount.addAndGet(chunkEvents);
+
+                if (logger.isDebugEnabled()) {
+                    final long elapsedMillis =
+                            Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    logger.debug(
+                            "Purged {} of the events before {}, {} events/second",
+                            events,
+                            purgeEnd,
+                            events * 1000L / elapsedMillis);
+                }
+            } while (chunkEvents >= this.purgeChunkSize
+                    && !this.cancelRequested
+                    && !Thread.currentThread().isInterrupted());
+
+            return events;
+        } finally {
+            this.purging = false;
+        }
+    }
 }
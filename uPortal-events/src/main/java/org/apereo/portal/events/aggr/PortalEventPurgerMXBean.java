@@ -0,0 +1,39 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import org.apereo.portal.utils.MovingAverageSample;
+
+/** JMX stats and controls for {@link PortalEventPurgerImpl} */
+public interface PortalEventPurgerMXBean {
+
+    /** @return true if this server is currently purging raw events */
+    boolean isPurging();
+
+    /** @return Number of events deleted so far by the purge that is running, 0 if none is */
+    long getRunningPurgeEventCount();
+
+    /** @return Total number of events deleted by this server */
+    long getPurgedEventCount();
+
+    /** @return Milliseconds spent deleting each chunk of events */
+    MovingAverageSample getChunkDeleteTimes();
+
+    /**
+     * Stop the running purge after the chunk that is currently being deleted, chunks that were
+     * already deleted are not restored. Does nothing if no chunked purge is running.
+     */
+    void cancelPurge();
+}
@@ -0,0 +1,44 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import org.apereo.portal.events.aggr.stat.ValueHistogram;
+
+/**
+ * Timed statistics that also track the distribution of the values, allowing percentiles to be
+ * reported. All values are returned in nanoseconds
+ */
+public interface TimedAggregationDistribution extends TimedAggregationStatistics {
+    /**
+     * Returns an estimate of the value at the specified percentile, clamped to the min and max of
+     * the values that have been added.
+     *
+     * <p>Double.NaN is returned if no values have been added or if the aggregation was completed
+     * before the distribution was tracked. Aggregations that were still in progress when the
+     * distribution started being tracked only reflect the values added since then.
+     *
+     * @param percentile Percentile between 0 (exclusive) and 100 (inclusive)
+     * @return the estimated value
+     */
+    double getPercentile(double percentile);
+
+    /**
+     * Returns a copy of the histogram of the values that have been added. Histograms of several
+     * aggregations can be combined with {@link ValueHistogram#merge(ValueHistogram)}.
+     *
+     * @return the histogram, empty if no distribution has been tracked
+     */
+    ValueHistogram getHistogram();
+}
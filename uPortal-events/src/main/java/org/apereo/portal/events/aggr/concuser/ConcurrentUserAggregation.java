@@ -16,6 +16,7 @@ package org.apereo.portal.events.aggr.concuser;
 
 import org.apereo.portal.events.PortalEvent;
 import org.apereo.portal.events.aggr.BaseAggregation;
+import org.apereo.portal.events.aggr.stat.HyperLogLog;
 
 /**
  * Tracks the number of concurrent users. Measured by unique {@link PortalEvent#getEventSessionId()}
@@ -27,4 +28,11 @@ public interface ConcurrentUserAggregation
 
     /** @return Total number of users that were active for the duration of this aggregation. */
     int getConcurrentUsers();
+
+    /**
+     * @return A copy of the estimator used to count concurrent users, null if concurrent users are
+     *     counted exactly. Estimators of several aggregations can be merged with {@link
+     *     HyperLogLog#merge(HyperLogLog)}.
+     */
+    HyperLogLog getConcurrentUsersEstimate();
 }
@@ -35,6 +35,7 @@ import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.TimeDimension;
 import org.apereo.portal.events.aggr.UniqueStrings;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.apereo.portal.events.aggr.stat.HyperLogLog;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Fetch;
@@ -93,6 +94,13 @@ public final class ConcurrentUserAggregationImpl
     @Fetch(FetchMode.JOIN)
     private UniqueStrings uniqueStrings;
 
+    @Column(name = "CONCURRENT_USERS_ESTIMATE", length = HyperLogLog.MAX_SIZE)
+    private byte[] concurrentUsersEstimate;
+
+    @Column(name = "STATS_COMPLETE")
+    private Boolean statsComplete;
+
+    @Transient private HyperLogLog hyperLogLog;
     @Transient private ConcurrentUserAggregationKey aggregationKey;
     @Transient private ConcurrentUserAggregationDiscriminator aggregationDiscriminator;
 
@@ -121,6 +129,14 @@ public final class ConcurrentUserAggregationImpl
         return this.concurrentUsers;
     }
 
+    @Override
+    public HyperLogLog getConcurrentUsersEstimate() {
+        if (this.concurrentUsersEstimate == null) {
+            return null;
+        }
+        return HyperLogLog.wrap(this.concurrentUsersEstimate.clone());
+    }
+
     @Override
     public ConcurrentUserAggregationKey getAggregationKey() {
         ConcurrentUserAggregationKey key = this.aggregationKey;
@@ -143,15 +159,31 @@ public final class ConcurrentUserAggregationImpl
 
     @Override
     protected boolean isComplete() {
-        return this.concurrentUsers > 0 && this.uniqueStrings == null;
+        return this.concurrentUsers > 0
+                && (Boolean.TRUE.equals(this.statsComplete)
+                        || (this.uniqueStrings == null && this.concurrentUsersEstimate == null));
     }
 
     @Override
     protected void completeInterval() {
+        // The estimate is small enough to keep for merging across intervals
         this.uniqueStrings = null;
+        this.statsComplete = Boolean.TRUE;
     }
 
     void countSession(String eventSessionId) {
+        this.countSession(eventSessionId, 0);
+    }
+
+    /**
+     * Count an event for the session
+     *
+     * @param eventSessionId The session of the event
+     * @param estimatePrecision The {@link HyperLogLog} precision to estimate concurrent users with,
+     *     0 to count concurrent users exactly. Ignored if the aggregation has already counted
+     *     sessions with the other method.
+     */
+    void countSession(String eventSessionId, int estimatePrecision) {
         if (isComplete()) {
             this.getLogger()
                     .warn(
@@ -162,13 +194,36 @@ public final class ConcurrentUserAggregationImpl
             return;
         }
 
-        if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+        if (this.uniqueStrings == null
+                && this.concurrentUsersEstimate == null
+                && estimatePrecision > 0) {
+            this.concurrentUsersEstimate = new HyperLogLog(estimatePrecision).getBytes();
         }
 
-        if (this.uniqueStrings.add(eventSessionId)) {
-            this.concurrentUsers++;
+        if (this.concurrentUsersEstimate != null) {
+            final HyperLogLog estimate = this.getHyperLogLog();
+            if (estimate.add(eventSessionId)) {
+                this.concurrentUsers = (int) estimate.cardinality();
+            }
+        } else {
+            if (this.uniqueStrings == null) {
+                this.uniqueStrings = new UniqueStrings();
+            }
+
+            if (this.uniqueStrings.add(eventSessionId)) {
+                this.concurrentUsers++;
+            }
+        }
+    }
+
+    /** @return The estimator operating on the persistent estimate */
+    private HyperLogLog getHyperLogLog() {
+        HyperLogLog estimate = this.hyperLogLog;
+        if (estimate == null || estimate.getBytes() != this.concurrentUsersEstimate) {
+            estimate = HyperLogLog.wrap(this.concurrentUsersEstimate);
+            this.hyperLogLog = estimate;
         }
+        return estimate;
     }
 
     @Override
@@ -23,7 +23,9 @@ import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.EventAggregationContext;
 import org.apereo.portal.events.aggr.TimeDimension;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.apereo.portal.events.aggr.stat.HyperLogLog;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Event aggregator that uses {@link ConcurrentUserAggregationPrivateDao} to aggregate concurrent
@@ -33,6 +35,7 @@ public class ConcurrentUserAggregator
         extends BaseIntervalAwarePortalEventAggregator<
                 PortalEvent, ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey> {
     private ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao;
+    private int concurrentUsersEstimatePrecision = 0;
 
     @Autowired
     public void setConcurrentUserAggregationDao(
@@ -40,6 +43,20 @@ public class ConcurrentUserAggregator
         this.concurrentUserAggregationDao = concurrentUserAggregationDao;
     }
 
+    /**
+     * Relative standard error of the {@link HyperLogLog} estimate used to count concurrent users,
+     * for example 0.02 for 2%. Defaults to 0 which counts concurrent users exactly by tracking
+     * every event session id in the interval.
+     */
+    @Value(
+            "${org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregator.concurrentUsersEstimateError:0}")
+    public void setConcurrentUsersEstimateError(double concurrentUsersEstimateError) {
+        this.concurrentUsersEstimatePrecision =
+                concurrentUsersEstimateError > 0
+                        ? HyperLogLog.getPrecision(concurrentUsersEstimateError)
+                        : 0;
+    }
+
     @Override
     protected BaseAggregationPrivateDao<ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey>
             getAggregationDao() {
@@ -60,7 +77,7 @@ public class ConcurrentUserAggregator
         final String eventSessionId = e.getEventSessionId();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countSession(eventSessionId);
+        aggregation.countSession(eventSessionId, this.concurrentUsersEstimatePrecision);
     }
 
     @Override
@@ -16,6 +16,7 @@ package org.apereo.portal.events.aggr.login;
 
 import org.apereo.portal.events.LoginEvent;
 import org.apereo.portal.events.aggr.BaseAggregation;
+import org.apereo.portal.events.aggr.stat.HyperLogLog;
 
 /** */
 public interface LoginAggregation
@@ -28,4 +29,11 @@ public interface LoginAggregation
      *     determined by {@link LoginEvent#getUserName()}
      */
     int getUniqueLoginCount();
+
+    /**
+     * @return A copy of the estimator used to count unique logins, null if unique logins are
+     *     counted exactly. Estimators of several aggregations can be merged with {@link
+     *     HyperLogLog#merge(HyperLogLog)}.
+     */
+    HyperLogLog getUniqueLoginEstimate();
 }
@@ -35,6 +35,7 @@ import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.TimeDimension;
 import org.apereo.portal.events.aggr.UniqueStrings;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.apereo.portal.events.aggr.stat.HyperLogLog;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Fetch;
@@ -93,6 +94,13 @@ public final class LoginAggregationImpl
     @Fetch(FetchMode.JOIN)
     private UniqueStrings uniqueStrings;
 
+    @Column(name = "UNIQUE_LOGIN_ESTIMATE", length = HyperLogLog.MAX_SIZE)
+    private byte[] uniqueLoginEstimate;
+
+    @Column(name = "STATS_COMPLETE")
+    private Boolean statsComplete;
+
+    @Transient private HyperLogLog hyperLogLog;
     @Transient private LoginAggregationKeyImpl aggregationKey;
     @Transient private LoginAggregationDiscriminator aggregationDiscriminator;
 
@@ -125,6 +133,14 @@ public final class LoginAggregationImpl
         return this.uniqueLoginCount;
     }
 
+    @Override
+    public HyperLogLog getUniqueLoginEstimate() {
+        if (this.uniqueLoginEstimate == null) {
+            return null;
+        }
+        return HyperLogLog.wrap(this.uniqueLoginEstimate.clone());
+    }
+
     @Override
     public LoginAggregationKey getAggregationKey() {
         LoginAggregationKeyImpl key = this.aggregationKey;
@@ -147,15 +163,31 @@ public final class LoginAggregationImpl
 
     @Override
     protected boolean isComplete() {
-        return this.loginCount > 0 && this.uniqueStrings == null;
+        return this.loginCount > 0
+                && (Boolean.TRUE.equals(this.statsComplete)
+                        || (this.uniqueStrings == null && this.uniqueLoginEstimate == null));
     }
 
     @Override
     protected void completeInterval() {
+        // The estimate is small enough to keep for merging across intervals
         this.uniqueStrings = null;
+        this.statsComplete = Boolean.TRUE;
     }
 
     void countUser(String userName) {
+        this.countUser(userName, 0);
+    }
+
+    /**
+     * Count a login by the user
+     *
+     * @param userName The user that logged in
+     * @param estimatePrecision The {@link HyperLogLog} precision to estimate unique logins with, 0
+     *     to count unique logins exactly. Ignored if the aggregation has already counted logins
+     *     with the other method.
+     */
+    void countUser(String userName, int estimatePrecision) {
         if (isComplete()) {
             this.getLogger()
                     .warn(
@@ -166,16 +198,39 @@ public final class LoginAggregationImpl
             return;
         }
 
-        if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+        if (this.uniqueStrings == null
+                && this.uniqueLoginEstimate == null
+                && estimatePrecision > 0) {
+            this.uniqueLoginEstimate = new HyperLogLog(estimatePrecision).getBytes();
         }
 
-        if (this.uniqueStrings.add(userName)) {
-            this.uniqueLoginCount++;
+        if (this.uniqueLoginEstimate != null) {
+            final HyperLogLog estimate = this.getHyperLogLog();
+            if (estimate.add(userName)) {
+                this.uniqueLoginCount = (int) estimate.cardinality();
+            }
+        } else {
+            if (this.uniqueStrings == null) {
+                this.uniqueStrings = new UniqueStrings();
+            }
+
+            if (this.uniqueStrings.add(userName)) {
+                this.uniqueLoginCount++;
+            }
         }
         this.loginCount++;
     }
 
+    /** @return The estimator operating on the persistent estimate */
+    private HyperLogLog getHyperLogLog() {
+        HyperLogLog estimate = this.hyperLogLog;
+        if (estimate == null || estimate.getBytes() != this.uniqueLoginEstimate) {
+            estimate = HyperLogLog.wrap(this.uniqueLoginEstimate);
+            this.hyperLogLog = estimate;
+        }
+        return estimate;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) return true;
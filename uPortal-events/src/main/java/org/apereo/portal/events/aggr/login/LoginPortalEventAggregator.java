@@ -24,19 +24,36 @@ import org.apereo.portal.events.aggr.DateDimension;
 import org.apereo.portal.events.aggr.EventAggregationContext;
 import org.apereo.portal.events.aggr.TimeDimension;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.apereo.portal.events.aggr.stat.HyperLogLog;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /** Event aggregator that uses {@link LoginAggregationPrivateDao} to aggregate login events */
 public class LoginPortalEventAggregator
         extends BaseIntervalAwarePortalEventAggregator<
                 LoginEvent, LoginAggregationImpl, LoginAggregationKey> {
     private LoginAggregationPrivateDao loginAggregationDao;
+    private int uniqueLoginEstimatePrecision = 0;
 
     @Autowired
     public void setLoginAggregationDao(LoginAggregationPrivateDao loginAggregationDao) {
         this.loginAggregationDao = loginAggregationDao;
     }
 
+    /**
+     * Relative standard error of the {@link HyperLogLog} estimate used to count unique logins, for
+     * example 0.02 for 2%. Defaults to 0 which counts unique logins exactly by tracking every user
+     * name in the interval.
+     */
+    @Value(
+            "${org.apereo.portal.events.aggr.login.LoginPortalEventAggregator.uniqueLoginEstimateError:0}")
+    public void setUniqueLoginEstimateError(double uniqueLoginEstimateError) {
+        this.uniqueLoginEstimatePrecision =
+                uniqueLoginEstimateError > 0
+                        ? HyperLogLog.getPrecision(uniqueLoginEstimateError)
+                        : 0;
+    }
+
     @Override
     protected BaseAggregationPrivateDao<LoginAggregationImpl, LoginAggregationKey>
             getAggregationDao() {
@@ -70,6 +87,6 @@ public class LoginPortalEventAggregator
         final String userName = e.getUserName();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countUser(userName);
+        aggregation.countUser(userName, this.uniqueLoginEstimatePrecision);
     }
 }
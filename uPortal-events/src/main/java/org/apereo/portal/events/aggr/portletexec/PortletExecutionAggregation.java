@@ -15,7 +15,7 @@
 package org.apereo.portal.events.aggr.portletexec;
 
 import org.apereo.portal.events.aggr.BaseAggregation;
-import org.apereo.portal.events.aggr.TimedAggregationStatistics;
+import org.apereo.portal.events.aggr.TimedAggregationDistribution;
 import org.apereo.portal.events.aggr.portletexec.PortletExecutionAggregationKey.ExecutionType;
 import org.apereo.portal.events.aggr.portlets.AggregatedPortletMapping;
 
@@ -23,7 +23,7 @@ import org.apereo.portal.events.aggr.portlets.AggregatedPortletMapping;
 public interface PortletExecutionAggregation
         extends BaseAggregation<
                         PortletExecutionAggregationKey, PortletExecutionAggregationDiscriminator>,
-                TimedAggregationStatistics {
+                TimedAggregationDistribution {
 
     /** @return The name of the tab */
     AggregatedPortletMapping getPortletMapping();
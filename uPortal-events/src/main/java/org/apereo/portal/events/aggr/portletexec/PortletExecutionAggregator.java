@@ -91,6 +91,9 @@ public class PortletExecutionAggregator
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
         aggregation.addValue(executionTime);
+        for (final long foldedExecutionTime : e.getFoldedExecutionTimesNano()) {
+            aggregation.addValue(foldedExecutionTime);
+        }
     }
 
     @Override
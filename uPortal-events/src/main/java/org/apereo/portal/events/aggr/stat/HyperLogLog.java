@@ -0,0 +1,226 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.stat;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HyperLogLog distinct value estimator. The state is a fixed size byte array, the first byte is the
+ * precision followed by one register per bucket, which can be persisted as-is. Instances created by
+ * {@link #wrap(byte[])} operate directly on the array they wrap.
+ *
+ * <p>The relative standard error of the estimate is about {@code 1.04 / sqrt(2^precision)}, use
+ * {@link #getPrecision(double)} to pick the precision for an error bound. Estimators are mergeable,
+ * merging an estimator with a higher precision into one with a lower precision is supported.
+ *
+ * <p>The number of registers holding each rank is tracked as registers change so {@link
+ * #cardinality()} does not have to read every register. The state must therefore only be modified
+ * through the estimator while it is in use.
+ */
+public final class HyperLogLog {
+    /** Lowest supported precision, relative standard error of 26% */
+    public static final int MIN_PRECISION = 4;
+    /** Highest supported precision, relative standard error of 0.8% */
+    public static final int MAX_PRECISION = 14;
+    /** Size of the state of an estimator with the highest precision */
+    public static final int MAX_SIZE = (1 << MAX_PRECISION) + 1;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    /** Highest rank a register can hold */
+    private static final int MAX_RANK = 64 - MIN_PRECISION + 1;
+
+    private final byte[] data;
+    private final int precision;
+    /** Number of registers holding each rank, lazily counted on the first estimate */
+    private int[] rankCounts;
+
+    /** Create a new estimator with the specified precision */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException(
+                    "precision must be between "
+                            + MIN_PRECISION
+                            + " and "
+                            + MAX_PRECISION
+                            + ": "
+                            + precision);
+        }
+        this.precision = precision;
+        this.data = new byte[(1 << precision) + 1];
+        this.data[0] = (byte) precision;
+    }
+
+    private HyperLogLog(byte[] data) {
+        this.precision = data.length > 0 ? data[0] : 0;
+        if (this.precision < MIN_PRECISION
+                || this.precision > MAX_PRECISION
+                || data.length != (1 << this.precision) + 1) {
+            throw new IllegalArgumentException(
+                    "Invalid HyperLogLog state of " + data.length + " bytes");
+        }
+        this.data = data;
+    }
+
+    /**
+     * Create an estimator that operates on the specified state, as returned by {@link #getBytes()}
+     */
+    public static HyperLogLog wrap(byte[] data) {
+        return new HyperLogLog(data);
+    }
+
+    /**
+     * @param relativeStandardError The acceptable relative standard error, for example 0.02 for 2%
+     * @return The lowest precision that provides the error bound, limited to {@link #MAX_PRECISION}
+     */
+    public static int getPrecision(double relativeStandardError) {
+        if (!(relativeStandardError > 0)) {
+            throw new IllegalArgumentException(
+                    "relativeStandardError must be greater than 0: " + relativeStandardError);
+        }
+        final double buckets = Math.pow(1.04 / relativeStandardError, 2);
+        final int precision = (int) Math.ceil(Math.log(buckets) / Math.log(2));
+        return Math.min(MAX_PRECISION, Math.max(MIN_PRECISION, precision));
+    }
+
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    /** @return The relative standard error of the estimates of this estimator */
+    public double getRelativeStandardError() {
+        return 1.04 / Math.sqrt(1 << this.precision);
+    }
+
+    /** @return The state of the estimator, not a copy */
+    public byte[] getBytes() {
+        return this.data;
+    }
+
+    /**
+     * Add a value to the estimator
+     *
+     * @return true if the state of the estimator changed
+     */
+    public boolean add(String value) {
+        final long hash = HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asLong();
+        final int bucket = (int) (hash >>> (64 - this.precision));
+        final int rank =
+                Math.min(Long.numberOfLeadingZeros(hash << this.precision), 64 - this.precision)
+                        + 1;
+        return this.update(bucket, rank);
+    }
+
+    /**
+     * Merge the values of the specified estimator into this estimator
+     *
+     * @throws IllegalArgumentException if the other estimator has a lower precision
+     */
+    public void merge(HyperLogLog other) {
+        final int shift = other.precision - this.precision;
+        if (shift < 0) {
+            throw new IllegalArgumentException(
+                    "Cannot merge an estimator with precision "
+                            + other.precision
+                            + " into one with precision "
+                            + this.precision);
+        }
+
+        final int buckets = 1 << other.precision;
+        for (int i = 0; i < buckets; i++) {
+            final int otherRank = other.data[i + 1];
+            if (otherRank == 0) {
+                continue;
+            }
+
+            // The bucket bits dropped by the lower precision become leading bits of the rank
+            final int droppedBits = i & ((1 << shift) - 1);
+            final int rank;
+            if (droppedBits == 0) {
+                rank = shift + otherRank;
+            } else {
+                rank = Integer.numberOfLeadingZeros(droppedBits) - (32 - shift) + 1;
+            }
+            this.update(i >>> shift, rank);
+        }
+    }
+
+    /** @return The estimated number of distinct values that have been added */
+    public long cardinality() {
+        final int[] rankCounts = this.getRankCounts();
+        final int buckets = 1 << this.precision;
+        double sum = 0;
+        for (int rank = 0; rank < rankCounts.length; rank++) {
+            if (rankCounts[rank] != 0) {
+                sum += (double) rankCounts[rank] / (1L << rank);
+            }
+        }
+        final int zeros = rankCounts[0];
+
+        final double estimate = getAlpha(buckets) * buckets * buckets / sum;
+        if (estimate <= 2.5 * buckets && zeros > 0) {
+            // Small range correction, linear counting
+            return Math.round(buckets * Math.log((double) buckets / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    private boolean update(int bucket, int rank) {
+        final int oldRank = this.data[bucket + 1];
+        if (oldRank >= rank) {
+            return false;
+        }
+        this.data[bucket + 1] = (byte) rank;
+
+        final int[] rankCounts = this.rankCounts;
+        if (rankCounts != null) {
+            rankCounts[oldRank]--;
+            rankCounts[rank]++;
+        }
+        return true;
+    }
+
+    private int[] getRankCounts() {
+        int[] rankCounts = this.rankCounts;
+        if (rankCounts == null) {
+            rankCounts = new int[MAX_RANK + 1];
+            for (int i = 1; i < this.data.length; i++) {
+                rankCounts[this.data[i]]++;
+            }
+            this.rankCounts = rankCounts;
+        }
+        return rankCounts;
+    }
+
+    private static double getAlpha(int buckets) {
+        switch (buckets) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / buckets);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog [precision=" + this.precision + ", cardinality=" + cardinality() + "]";
+    }
+}
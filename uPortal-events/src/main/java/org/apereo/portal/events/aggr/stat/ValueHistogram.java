@@ -0,0 +1,241 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.stat;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable histogram of non-negative values using log-linear buckets. Every power of two is split
+ * into {@value #SUB_BUCKETS} equally sized buckets so the width of a bucket is at most 1/8 of its
+ * lower bound, values below 16 each get their own bucket. The total number of buckets is fixed at
+ * {@value #BUCKET_COUNT} which covers the full range of a long.
+ *
+ * <p>Percentiles are estimated from the midpoint of the bucket the rank falls in, which keeps the
+ * relative error below about 6% regardless of how many values are added. Histograms of different
+ * intervals or groups are combined by adding their buckets with {@link #merge(ValueHistogram)}.
+ */
+public final class ValueHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+    static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private static final char OFFSET_SEPARATOR = '|';
+    private static final char COUNT_SEPARATOR = ',';
+    private static final int RADIX = Character.MAX_RADIX;
+
+    /**
+     * Length of the compact form when every bucket has a count of 1, the shortest length any
+     * histogram can be reduced to by {@link #toCompactString(int)}
+     */
+    public static final int MIN_COMPACT_LENGTH = 2 + 1 + BUCKET_COUNT * 2 - 1;
+
+    private long[] counts = new long[0];
+    private long n;
+
+    public ValueHistogram() {}
+
+    /** Copy constructor */
+    public ValueHistogram(ValueHistogram histogram) {
+        this.counts = histogram.counts.clone();
+        this.n = histogram.n;
+    }
+
+    /** Add a value, negative values are counted as 0 */
+    public void addValue(double value) {
+        final int bucket = getBucket(value);
+        ensureCapacity(bucket + 1);
+        this.counts[bucket]++;
+        this.n++;
+    }
+
+    /** Add all of the values of the specified histogram to this histogram */
+    public void merge(ValueHistogram histogram) {
+        ensureCapacity(histogram.counts.length);
+        for (int i = 0; i < histogram.counts.length; i++) {
+            this.counts[i] += histogram.counts[i];
+        }
+        this.n += histogram.n;
+    }
+
+    /** @return The number of values that have been added */
+    public long getN() {
+        return this.n;
+    }
+
+    /**
+     * Estimate the value at the specified percentile
+     *
+     * @param percentile Percentile between 0 (exclusive) and 100 (inclusive)
+     * @return The estimated value, Double.NaN if no values have been added
+     */
+    public double getPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException(
+                    "percentile must be in the range (0, 100]: " + percentile);
+        }
+        if (this.n == 0) {
+            return Double.NaN;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.n));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return getBucketMidpoint(i);
+            }
+        }
+
+        // Unreachable as long as n matches the bucket counts
+        return getBucketMidpoint(this.counts.length - 1);
+    }
+
+    /**
+     * @return A compact string form of the histogram that can be parsed by {@link
+     *     #fromString(String)}, null if no values have been added
+     */
+    public String toCompactString() {
+        return toCompactString(this.counts);
+    }
+
+    /**
+     * Same as {@link #toCompactString()} but never longer than the specified length. If the full
+     * form is too long the bucket counts are repeatedly halved, keeping every non-empty bucket at a
+     * count of at least 1, until it fits. Percentiles of the parsed histogram then remain within
+     * the bucket error for all but the rarest values.
+     *
+     * @param maxLength Maximum length of the returned string, must be at least {@value
+     *     #MIN_COMPACT_LENGTH}
+     * @return A compact string form of the histogram that can be parsed by {@link
+     *     #fromString(String)}, null if no values have been added
+     */
+    public String toCompactString(int maxLength) {
+        if (maxLength < MIN_COMPACT_LENGTH) {
+            throw new IllegalArgumentException(
+                    "maxLength must be at least " + MIN_COMPACT_LENGTH + ": " + maxLength);
+        }
+
+        long[] scaled = this.counts;
+        String value = toCompactString(scaled);
+        while (value != null && value.length() > maxLength) {
+            scaled = scaled.clone();
+            for (int i = 0; i < scaled.length; i++) {
+                scaled[i] = (scaled[i] + 1) / 2;
+            }
+            value = toCompactString(scaled);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "ValueHistogram [n=" + this.n + ", buckets=" + toCompactString() + "]";
+    }
+
+    private static String toCompactString(long[] counts) {
+        int first = 0;
+        while (first < counts.length && counts[first] == 0) {
+            first++;
+        }
+        if (first == counts.length) {
+            return null;
+        }
+        int last = counts.length - 1;
+        while (counts[last] == 0) {
+            last--;
+        }
+
+        final StringBuilder builder = new StringBuilder((last - first + 2) * 3);
+        builder.append(Integer.toString(first, RADIX)).append(OFFSET_SEPARATOR);
+        for (int i = first; i <= last; i++) {
+            if (i > first) {
+                builder.append(COUNT_SEPARATOR);
+            }
+            if (counts[i] != 0) {
+                builder.append(Long.toString(counts[i], RADIX));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Parse the string form of a histogram
+     *
+     * @param value Value returned by {@link #toCompactString()}, may be null
+     * @return The parsed histogram, an empty histogram if the value is null
+     */
+    public static ValueHistogram fromString(String value) {
+        final ValueHistogram histogram = new ValueHistogram();
+        if (value == null || value.isEmpty()) {
+            return histogram;
+        }
+
+        final int offsetEnd = value.indexOf(OFFSET_SEPARATOR);
+        if (offsetEnd < 0) {
+            throw new IllegalArgumentException("Invalid histogram: " + value);
+        }
+        final int first = Integer.parseInt(value.substring(0, offsetEnd), RADIX);
+
+        int bucket = first;
+        int start = offsetEnd + 1;
+        while (start <= value.length()) {
+            int end = value.indexOf(COUNT_SEPARATOR, start);
+            if (end < 0) {
+                end = value.length();
+            }
+            if (end > start) {
+                final long count = Long.parseLong(value.substring(start, end), RADIX);
+                histogram.ensureCapacity(bucket + 1);
+                histogram.counts[bucket] = count;
+                histogram.n += count;
+            }
+            bucket++;
+            start = end + 1;
+        }
+        return histogram;
+    }
+
+    static int getBucket(double value) {
+        if (!(value >= 1)) {
+            return 0;
+        }
+        final long v = value >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) value;
+        if (v < LINEAR_BUCKETS) {
+            return (int) v;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(v);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static double getBucketMidpoint(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final int subBucket = bucket % SUB_BUCKETS;
+        final double width = Math.scalb(1.0, shift);
+        return (SUB_BUCKETS + subBucket + 0.5) * width;
+    }
+
+    private void ensureCapacity(int length) {
+        if (this.counts.length < length) {
+            this.counts = Arrays.copyOf(this.counts, length);
+        }
+    }
+}
@@ -15,13 +15,13 @@
 package org.apereo.portal.events.aggr.tabrender;
 
 import org.apereo.portal.events.aggr.BaseAggregation;
-import org.apereo.portal.events.aggr.TimedAggregationStatistics;
+import org.apereo.portal.events.aggr.TimedAggregationDistribution;
 import org.apereo.portal.events.aggr.tabs.AggregatedTabMapping;
 
 /** Tracks tab render stats, all times are in nanoseconds. */
 public interface TabRenderAggregation
         extends BaseAggregation<TabRenderAggregationKey, TabRenderAggregationDiscriminator>,
-                TimedAggregationStatistics {
+                TimedAggregationDistribution {
 
     /** @return Number of times the tab was rendered */
     int getRenderCount();
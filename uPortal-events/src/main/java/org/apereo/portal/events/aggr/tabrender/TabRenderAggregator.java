@@ -71,6 +71,9 @@ public class TabRenderAggregator
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
         aggregation.addValue(executionTime);
+        for (final long foldedExecutionTime : e.getFoldedExecutionTimesNano()) {
+            aggregation.addValue(foldedExecutionTime);
+        }
     }
 
     @Override
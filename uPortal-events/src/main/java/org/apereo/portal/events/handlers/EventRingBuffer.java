@@ -0,0 +1,94 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producer threads and a single consumer thread. The slots are
+ * allocated up front and reused so, unlike {@link java.util.concurrent.ConcurrentLinkedQueue},
+ * offering an event does not allocate a node. Producers claim a slot by incrementing the producer
+ * index and then write the event into it, the consumer empties slots in order.
+ *
+ * <p>{@link #poll()} MUST only be called by one thread at a time.
+ */
+final class EventRingBuffer<E> {
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    /** @param capacity Minimum number of slots, rounded up to the next power of two */
+    EventRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<E>(Math.max(size, 1));
+        this.mask = this.slots.length() - 1;
+    }
+
+    /** @return The number of slots in the buffer */
+    int capacity() {
+        return this.slots.length();
+    }
+
+    /** @return The number of events waiting to be polled */
+    int size() {
+        return (int) (this.producerIndex.get() - this.consumerIndex.get());
+    }
+
+    /** @return false if the buffer is full and the event was not added */
+    boolean offer(E event) {
+        if (event == null) {
+            throw new NullPointerException("event cannot be null");
+        }
+
+        long index;
+        do {
+            index = this.producerIndex.get();
+            if (index - this.consumerIndex.get() >= this.slots.length()) {
+                return false;
+            }
+        } while (!this.producerIndex.compareAndSet(index, index + 1));
+
+        this.slots.lazySet((int) index & this.mask, event);
+        return true;
+    }
+
+    /** @return The oldest event in the buffer, null if it is empty */
+    E poll() {
+        final long index = this.consumerIndex.get();
+        final int slot = (int) index & this.mask;
+
+        E event = this.slots.get(slot);
+        if (event == null) {
+            if (index == this.producerIndex.get()) {
+                return null;
+            }
+
+            // The slot has been claimed but the producer has not written the event yet
+            do {
+                Thread.yield();
+                event = this.slots.get(slot);
+            } while (event == null);
+        }
+
+        this.slots.lazySet(slot, null);
+        this.consumerIndex.lazySet(index + 1);
+        return event;
+    }
+}
@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.apereo.portal.spring.context.FilteringApplicationListener;
@@ -28,13 +29,19 @@ import org.springframework.context.ApplicationEvent;
  * Queues PortalEvents in a local {@link ConcurrentLinkedQueue} and flushes the events to the
  * configured {@link BatchingEventHandler} when {@link #flush()} is called. This class must be used
  * with some external timer that will call {@link #flush()} at regular intervals
+ *
+ * <p>If a ring buffer size is set events are first offered to a preallocated {@link
+ * EventRingBuffer}, the {@link ConcurrentLinkedQueue} is then only used once the ring buffer is
+ * full.
  */
 public abstract class QueueingEventHandler<E extends ApplicationEvent>
         extends FilteringApplicationListener<E> implements DisposableBean {
 
     private final Queue<E> eventQueue = new ConcurrentLinkedQueue<E>();
+    private final AtomicInteger eventQueueSize = new AtomicInteger();
     private final Lock flushLock = new ReentrantLock();
     private int batchSize = 25;
+    private EventRingBuffer<E> ringBuffer = null;
 
     // Used to hold events to flush, MUST only be read/written from within the flushLock
     private List<E> eventBuffer = new ArrayList<E>(this.batchSize);
@@ -45,12 +52,27 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
         eventBuffer = new ArrayList<E>(this.batchSize);
     }
 
+    /**
+     * Number of events that can be queued without allocating a queue node per event, defaults to 0
+     * which disables the ring buffer.
+     */
+    public void setRingBufferSize(int ringBufferSize) {
+        this.ringBuffer = ringBufferSize > 0 ? new EventRingBuffer<E>(ringBufferSize) : null;
+    }
+
+    /** @return The number of events waiting to be flushed */
+    public int getQueueSize() {
+        final EventRingBuffer<E> ringBuffer = this.ringBuffer;
+        final int ringBufferSize = ringBuffer != null ? ringBuffer.size() : 0;
+        return this.eventQueueSize.get() + ringBufferSize;
+    }
+
     /* (non-Javadoc)
      * @see org.springframework.beans.factory.DisposableBean#destroy()
      */
     @Override
     public final void destroy() throws Exception {
-        this.flush();
+        this.flush(true);
     }
 
     /* (non-Javadoc)
@@ -58,7 +80,13 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      */
     @Override
     protected final void onFilteredApplicationEvent(E event) {
+        final EventRingBuffer<E> ringBuffer = this.ringBuffer;
+        if (ringBuffer != null && ringBuffer.offer(event)) {
+            return;
+        }
+
         this.eventQueue.offer(event);
+        this.eventQueueSize.incrementAndGet();
     }
 
     /**
@@ -69,6 +97,14 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      */
     protected abstract void onApplicationEvents(Iterable<E> events);
 
+    /**
+     * Called at the end of every flush while the flush lock is still held, even if no events were
+     * queued. Subclasses that hold on to events between flushes can hand them off here.
+     *
+     * @param shutdown true if this is the last flush before the handler is destroyed
+     */
+    protected void onFlushComplete(boolean shutdown) {}
+
     /**
      * Flushes the queued PortalEvents to the configured {@link BatchingEventHandler}. If <code>
      * force</code> is false flushing only happens if there are enough events in the queue and a
@@ -80,28 +116,32 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      *     fewer than <code>flushCount</code> PortalEvents in the queue.
      */
     public final void flush() {
-        if (eventQueue.isEmpty()) {
-            // No events to flush
-            logger.trace("No events to flush, returning.");
-            return;
-        }
+        this.flush(false);
+    }
 
-        // Only one thread should be flushing at a time, try to get the flush lock and if it
-        // is already held just return.
-        if (!this.flushLock.tryLock()) {
+    private void flush(boolean shutdown) {
+        if (shutdown) {
+            // Wait for any running flush to finish so nothing is left behind
+            this.flushLock.lock();
+        } else if (!this.flushLock.tryLock()) {
+            // Only one thread should be flushing at a time, if the flush lock is already held
+            // just return.
             logger.trace("FlushLock already held, returning.");
             return;
         }
         try {
-            while (!this.eventQueue.isEmpty()) {
+            while (true) {
                 // Clear the buffer for re-use
                 eventBuffer.clear();
 
                 // Pop events off the queue into the buffer
-                while (!this.eventQueue.isEmpty() && eventBuffer.size() < this.batchSize) {
-                    final E event = eventQueue.poll();
+                E event;
+                while (eventBuffer.size() < this.batchSize && (event = this.pollEvent()) != null) {
                     eventBuffer.add(event);
                 }
+                if (eventBuffer.isEmpty()) {
+                    break;
+                }
 
                 if (this.logger.isDebugEnabled()) {
                     this.logger.debug("Flushing " + eventBuffer.size() + " events");
@@ -138,6 +178,11 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
                 }
             }
 
+            try {
+                this.onFlushComplete(shutdown);
+            } catch (Throwable t) {
+                this.logger.error("An exception was thrown while completing a flush", t);
+            }
         } finally {
             // Clear the buffer to avoid memory leaks
             eventBuffer.clear();
@@ -145,4 +190,21 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
             this.flushLock.unlock();
         }
     }
+
+    /** MUST only be called from within the flushLock */
+    private E pollEvent() {
+        final EventRingBuffer<E> ringBuffer = this.ringBuffer;
+        if (ringBuffer != null) {
+            final E event = ringBuffer.poll();
+            if (event != null) {
+                return event;
+            }
+        }
+
+        final E event = this.eventQueue.poll();
+        if (event != null) {
+            this.eventQueueSize.decrementAndGet();
+        }
+        return event;
+    }
 }
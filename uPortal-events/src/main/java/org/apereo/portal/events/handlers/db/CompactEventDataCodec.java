@@ -0,0 +1,434 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.apereo.portal.events.PortalEvent;
+
+/**
+ * Compact encoding of the EVENT_DATA of a {@link PersistentPortalEvent}. The JSON token stream of
+ * the event is written as a binary stream and deflated, the result is stored as a Base64 string so
+ * it fits the existing character column next to JSON rows.
+ *
+ * <ul>
+ *   <li>The type id, server id, event session id and user name are left out, they are restored from
+ *       the columns of the row when the event is read.
+ *   <li>Field names and string values are written once per event, repeats refer back to the first
+ *       occurrence.
+ *   <li>Integer values, including timestamps, are written as zig-zag varints.
+ *   <li>Each event is deflated on its own using a preset dictionary of the field names and values
+ *       common to all events, so rows stay independently readable while still compressing well.
+ * </ul>
+ *
+ * Encoded data starts with {@link #PREFIX}, which can never start a JSON object. The format, and
+ * the preset dictionary, must not change without also changing the prefix.
+ */
+final class CompactEventDataCodec {
+    static final String PREFIX = "~1:";
+
+    private static final String TYPE_FIELD = "@c";
+    private static final String SERVER_ID_FIELD = "serverId";
+    private static final String EVENT_SESSION_ID_FIELD = "eventSessionId";
+    private static final String USER_NAME_FIELD = "userName";
+
+    private static final int OMIT_TYPE = 1;
+    private static final int OMIT_SERVER_ID = 1 << 1;
+    private static final int OMIT_EVENT_SESSION_ID = 1 << 2;
+    private static final int OMIT_USER_NAME = 1 << 3;
+
+    private static final int START_OBJECT = 1;
+    private static final int END_OBJECT = 2;
+    private static final int START_ARRAY = 3;
+    private static final int END_ARRAY = 4;
+    private static final int FIELD_NAME = 5;
+    private static final int FIELD_NAME_REF = 6;
+    private static final int STRING = 7;
+    private static final int STRING_REF = 8;
+    private static final int LONG = 9;
+    private static final int DOUBLE = 10;
+    private static final int TRUE = 11;
+    private static final int FALSE = 12;
+    private static final int NULL = 13;
+    private static final int BIG_INTEGER = 14;
+    private static final int BIG_DECIMAL = 15;
+
+    private static final byte[] DICTIONARY =
+            ("timestamp fname windowState portletMode executionTimeNano parameters normal view "
+                            + "edit help maximized minimized exclusive targeted usedPortalCache "
+                            + "usedBrowserCache cached resourceId eventName layoutId layoutOwner "
+                            + "parentFolderId newParentFolderId oldParentFolderId newFolderId "
+                            + "movedFolderId deletedFolderId deletedFolderName requestPathInfo "
+                            + "urlState urlType targetedLayoutNodeId NORMAL RENDER groups "
+                            + "attributes username")
+                    .getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            new ThreadLocal<Deflater>() {
+                @Override
+                protected Deflater initialValue() {
+                    return new Deflater(Deflater.BEST_SPEED, true);
+                }
+            };
+
+    private static final ThreadLocal<Inflater> INFLATER =
+            new ThreadLocal<Inflater>() {
+                @Override
+                protected Inflater initialValue() {
+                    return new Inflater(true);
+                }
+            };
+
+    private CompactEventDataCodec() {}
+
+    /** @return true if the event data was written by {@link #encode(ObjectWriter, PortalEvent)} */
+    static boolean isEncoded(String eventData) {
+        return eventData.startsWith(PREFIX);
+    }
+
+    /** @return The encoded event data, null if the event can't be encoded and JSON must be used */
+    static String encode(ObjectWriter writer, PortalEvent event) throws IOException {
+        final TokenBuffer tokens = new TokenBuffer(null, false);
+        writer.writeValue(tokens, event);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        final Map<String, Integer> strings = new HashMap<>();
+        try (final JsonParser parser = tokens.asParser()) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            // Leave out the top level fields that are stored in their own columns
+            final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+            body.write(START_OBJECT);
+            int omitted = 0;
+            for (JsonToken token = parser.nextToken();
+                    token == JsonToken.FIELD_NAME;
+                    token = parser.nextToken()) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken valueToken = parser.nextToken();
+                if (valueToken == JsonToken.VALUE_STRING) {
+                    final int omit = getOmitFlag(fieldName, parser.getText(), event, omitted);
+                    if (omit != 0) {
+                        omitted |= omit;
+                        continue;
+                    }
+                }
+                writeString(body, FIELD_NAME, FIELD_NAME_REF, fieldName, strings);
+                if (!writeValue(parser, body, strings)) {
+                    return null;
+                }
+            }
+            body.write(END_OBJECT);
+
+            out.write(omitted);
+            body.writeTo(out);
+        }
+
+        final Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(out.toByteArray());
+        deflater.finish();
+
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(out.size());
+        final byte[] buffer = new byte[256];
+        while (!deflater.finished()) {
+            final int length = deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+        }
+
+        return PREFIX + Base64.getEncoder().encodeToString(compressed.toByteArray());
+    }
+
+    /**
+     * Decodes event data written by {@link #encode(ObjectWriter, PortalEvent)}, restoring the
+     * fields that were left out from the columns of the row.
+     */
+    static <E extends PortalEvent> E decode(
+            ObjectMapper mapper, PersistentPortalEvent persistentPortalEvent, Class<E> eventType)
+            throws IOException {
+        final byte[] data = inflate(persistentPortalEvent.getEventData());
+
+        final TokenBuffer tokens = new TokenBuffer(mapper, false);
+        final List<String> strings = new ArrayList<>();
+        final int[] position = {0};
+
+        final int omitted = data[position[0]++];
+        if (data[position[0]++] != START_OBJECT) {
+            throw new IOException("Encoded event data must start with an object");
+        }
+        tokens.writeStartObject();
+        if ((omitted & OMIT_TYPE) != 0) {
+            tokens.writeStringField(TYPE_FIELD, eventType.getName());
+        }
+        if ((omitted & OMIT_SERVER_ID) != 0) {
+            tokens.writeStringField(SERVER_ID_FIELD, persistentPortalEvent.getServerId());
+        }
+        if ((omitted & OMIT_EVENT_SESSION_ID) != 0) {
+            tokens.writeStringField(
+                    EVENT_SESSION_ID_FIELD, persistentPortalEvent.getEventSessionId());
+        }
+        if ((omitted & OMIT_USER_NAME) != 0) {
+            tokens.writeStringField(USER_NAME_FIELD, persistentPortalEvent.getUserName());
+        }
+
+        int depth = 1;
+        while (depth > 0) {
+            final int code = data[position[0]++];
+            switch (code) {
+                case START_OBJECT:
+                    depth++;
+                    tokens.writeStartObject();
+                    break;
+                case END_OBJECT:
+                    depth--;
+                    tokens.writeEndObject();
+                    break;
+                case START_ARRAY:
+                    depth++;
+                    tokens.writeStartArray();
+                    break;
+                case END_ARRAY:
+                    depth--;
+                    tokens.writeEndArray();
+                    break;
+                case FIELD_NAME:
+                case FIELD_NAME_REF:
+                    tokens.writeFieldName(readString(data, position, code == FIELD_NAME, strings));
+                    break;
+                case STRING:
+                case STRING_REF:
+                    tokens.writeString(readString(data, position, code == STRING, strings));
+                    break;
+                case LONG:
+                    tokens.writeNumber(readVarLong(data, position));
+                    break;
+                case DOUBLE:
+                    tokens.writeNumber(Double.longBitsToDouble(readVarLong(data, position)));
+                    break;
+                case TRUE:
+                    tokens.writeBoolean(true);
+                    break;
+                case FALSE:
+                    tokens.writeBoolean(false);
+                    break;
+                case NULL:
+                    tokens.writeNull();
+                    break;
+                case BIG_INTEGER:
+                    tokens.writeNumber(new BigInteger(readString(data, position, true, strings)));
+                    break;
+                case BIG_DECIMAL:
+                    tokens.writeNumber(new BigDecimal(readString(data, position, true, strings)));
+                    break;
+                default:
+                    throw new IOException("Unknown token " + code + " in encoded event data");
+            }
+        }
+
+        try (final JsonParser parser = tokens.asParser()) {
+            return mapper.readValue(parser, eventType);
+        }
+    }
+
+    private static int getOmitFlag(String fieldName, String value, PortalEvent event, int omitted) {
+        final int flag;
+        final String columnValue;
+        switch (fieldName) {
+            case TYPE_FIELD:
+                // Restored from the EVENT_TYPE column
+                return (omitted & OMIT_TYPE) == 0 ? OMIT_TYPE : 0;
+            case SERVER_ID_FIELD:
+                flag = OMIT_SERVER_ID;
+                columnValue = event.getServerId();
+                break;
+            case EVENT_SESSION_ID_FIELD:
+                flag = OMIT_EVENT_SESSION_ID;
+                columnValue = event.getEventSessionId();
+                break;
+            case USER_NAME_FIELD:
+                flag = OMIT_USER_NAME;
+                columnValue = event.getUserName();
+                break;
+            default:
+                return 0;
+        }
+        return (omitted & flag) == 0 && value.equals(columnValue) ? flag : 0;
+    }
+
+    /** @return false if the current value can't be encoded */
+    private static boolean writeValue(
+            JsonParser parser, ByteArrayOutputStream out, Map<String, Integer> strings)
+            throws IOException {
+        final JsonToken token = parser.getCurrentToken();
+        switch (token) {
+            case START_OBJECT:
+                out.write(START_OBJECT);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    writeString(out, FIELD_NAME, FIELD_NAME_REF, parser.getCurrentName(), strings);
+                    parser.nextToken();
+                    if (!writeValue(parser, out, strings)) {
+                        return false;
+                    }
+                }
+                out.write(END_OBJECT);
+                return true;
+            case START_ARRAY:
+                out.write(START_ARRAY);
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (!writeValue(parser, out, strings)) {
+                        return false;
+                    }
+                }
+                out.write(END_ARRAY);
+                return true;
+            case VALUE_STRING:
+                writeString(out, STRING, STRING_REF, parser.getText(), strings);
+                return true;
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                    case LONG:
+                        out.write(LONG);
+                        writeVarLong(out, parser.getLongValue());
+                        return true;
+                    default:
+                        writeLiteral(out, BIG_INTEGER, parser.getBigIntegerValue().toString());
+                        return true;
+                }
+            case VALUE_NUMBER_FLOAT:
+                switch (parser.getNumberType()) {
+                    case BIG_DECIMAL:
+                        writeLiteral(out, BIG_DECIMAL, parser.getDecimalValue().toString());
+                        return true;
+                    default:
+                        out.write(DOUBLE);
+                        writeVarLong(out, Double.doubleToLongBits(parser.getDoubleValue()));
+                        return true;
+                }
+            case VALUE_TRUE:
+                out.write(TRUE);
+                return true;
+            case VALUE_FALSE:
+                out.write(FALSE);
+                return true;
+            case VALUE_NULL:
+                out.write(NULL);
+                return true;
+            default:
+                // Embedded objects and anything else only JSON can represent
+                return false;
+        }
+    }
+
+    private static void writeString(
+            ByteArrayOutputStream out,
+            int newCode,
+            int refCode,
+            String value,
+            Map<String, Integer> strings) {
+        final Integer index = strings.get(value);
+        if (index != null) {
+            out.write(refCode);
+            writeVarLong(out, index);
+            return;
+        }
+        strings.put(value, strings.size());
+        writeLiteral(out, newCode, value);
+    }
+
+    private static void writeLiteral(ByteArrayOutputStream out, int code, String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(code);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(
+            byte[] data, int[] position, boolean literal, List<String> strings) {
+        if (!literal) {
+            return strings.get((int) readVarLong(data, position));
+        }
+        final int length = (int) readVarLong(data, position);
+        final String value = new String(data, position[0], length, StandardCharsets.UTF_8);
+        position[0] += length;
+        strings.add(value);
+        return value;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        // Zig-zag so small negative numbers stay small
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarLong(byte[] data, int[] position) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = data[position[0]++];
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static byte[] inflate(String eventData) throws IOException {
+        final byte[] compressed = Base64.getDecoder().decode(eventData.substring(PREFIX.length()));
+
+        final Inflater inflater = INFLATER.get();
+        inflater.reset();
+        // Raw deflate streams don't ask for the dictionary, it is always set
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(compressed);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+        final byte[] buffer = new byte[512];
+        try {
+            while (!inflater.finished()) {
+                final int length = inflater.inflate(buffer);
+                if (length == 0 && inflater.needsInput()) {
+                    throw new IOException("Encoded event data is truncated");
+                }
+                out.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Encoded event data is corrupt", e);
+        }
+        return out.toByteArray();
+    }
+}
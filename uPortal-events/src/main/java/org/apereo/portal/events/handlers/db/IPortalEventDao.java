@@ -74,4 +74,13 @@ public interface IPortalEventDao {
 
     /** Delete events with timestamps from before the specified date (exclusive) */
     int deletePortalEventsBefore(DateTime endTime);
+
+    /**
+     * Delete up to maxEvents of the events with timestamps from before the specified date
+     * (exclusive). Events are deleted in event id order and each call completes in its own
+     * transaction, so a large purge can be done as a series of short deletes.
+     *
+     * @return The number of events deleted, less than maxEvents if there are no more to delete
+     */
+    int deletePortalEventsBefore(DateTime endTime, int maxEvents);
 }
@@ -17,15 +17,33 @@ package org.apereo.portal.events.handlers.db;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.common.base.Function;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Root;
+import org.apache.commons.lang.Validate;
 import org.apereo.portal.concurrency.FunctionWithoutResult;
 import org.apereo.portal.events.PortalEvent;
 import org.apereo.portal.jpa.BaseRawEventsJpaDao;
@@ -33,37 +51,100 @@ import org.hibernate.FlushMode;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Stores portal events using JPA/Hibenate no internal batch segmentation is done to the passed list
  * of {@link PortalEvent}s. If a {@link PortalEvent} is not mapped as a persistent entity a message
  * is logged at the WARN level and the event is ignored.
+ *
+ * <p>When JDBC batch inserts are enabled batches of events are written with a single JDBC batch
+ * statement instead of being persisted through the EntityManager. Event IDs still come from the
+ * Hibernate identifier generator, which hands them out of pre-allocated blocks, and column values
+ * are bound using the mapped Hibernate types so the stored rows are identical.
+ *
+ * <p>When decode threads are configured the event data for a batch of unaggregated events is
+ * deserialized concurrently while the aggregation handler works through the batch on the calling
+ * thread, in the same order as the events are read.
  */
 @Repository
-public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao {
+public class JpaPortalEventStore extends BaseRawEventsJpaDao
+        implements IPortalEventDao, DisposableBean {
 
     private ObjectMapper mapper;
+    private ObjectWriter writer;
+    private PortalEventStoreStatistics portalEventStoreStatistics;
+    private boolean jdbcBatchInsert = false;
+    private int jdbcBatchSize = 100;
+    private boolean compactEventData = false;
+    private volatile BatchInsert batchInsert;
     private String deleteQuery;
+    private String deleteChunkQuery;
+    private String selectDeleteChunkEndQuery;
     private String selectQuery;
     private String selectUnaggregatedQuery;
     private int flushPeriod = 1000;
+    private int aggregationDecodeThreads = 0;
+    private int aggregationDecodeBatchSize = 500;
+    private ThreadPoolExecutor decodeExecutor;
     private CriteriaQuery<DateTime> findNewestPersistentPortalEventTimestampQuery;
     private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampQuery;
     private ParameterExpression<DateTime> startTimeParameter;
     private ParameterExpression<DateTime> endTimeParameter;
+    private ParameterExpression<Long> maxIdParameter;
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Autowired
     public void setMapper(ObjectMapper mapper) {
         this.mapper = mapper;
+        this.writer = mapper.writer();
+    }
+
+    @Autowired(required = false)
+    public void setPortalEventStoreStatistics(
+            PortalEventStoreStatistics portalEventStoreStatistics) {
+        this.portalEventStoreStatistics = portalEventStoreStatistics;
+    }
+
+    /**
+     * If batches of events should be inserted with JDBC batch statements instead of being persisted
+     * through the EntityManager, defaults to false.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.jdbcBatchInsert:false}")
+    public void setJdbcBatchInsert(boolean jdbcBatchInsert) {
+        this.jdbcBatchInsert = jdbcBatchInsert;
+    }
+
+    /** Maximum number of rows per JDBC batch statement, at least 1, defaults to 100. */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.jdbcBatchSize:100}")
+    public void setJdbcBatchSize(int jdbcBatchSize) {
+        Validate.isTrue(jdbcBatchSize > 0, "jdbcBatchSize must be at least 1: ", jdbcBatchSize);
+        this.jdbcBatchSize = jdbcBatchSize;
+    }
+
+    /**
+     * If new events should be stored with the compact binary encoding of {@link
+     * CompactEventDataCodec} instead of JSON, defaults to false. Events stored in either format are
+     * always readable.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.compactEventData:false}")
+    public void setCompactEventData(boolean compactEventData) {
+        this.compactEventData = compactEventData;
     }
 
     /**
@@ -76,10 +157,33 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         this.flushPeriod = flushPeriod;
     }
 
+    /**
+     * Number of threads used to decode event data ahead of the aggregation handler during a call to
+     * aggregatePortalEvents(DateTime, DateTime, int, Function), defaults to 0 which decodes each
+     * event on the aggregating thread. Events are always handed to the handler in timestamp order.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.aggregationDecodeThreads:0}")
+    public void setAggregationDecodeThreads(int aggregationDecodeThreads) {
+        this.aggregationDecodeThreads = aggregationDecodeThreads;
+    }
+
+    /**
+     * Number of events read and decoded at a time when aggregationDecodeThreads is set, defaults to
+     * 500.
+     */
+    @Value(
+            "${org.apereo.portal.events.handlers.db.JpaPortalEventStore.aggregationDecodeBatchSize:500}")
+    public void setAggregationDecodeBatchSize(int aggregationDecodeBatchSize) {
+        this.aggregationDecodeBatchSize = Math.max(1, aggregationDecodeBatchSize);
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
+        this.initDecodeExecutor();
+
         this.startTimeParameter = this.createParameterExpression(DateTime.class, "startTime");
         this.endTimeParameter = this.createParameterExpression(DateTime.class, "endTime");
+        this.maxIdParameter = this.createParameterExpression(Long.class, "maxId");
 
         this.selectQuery =
                 "SELECT e "
@@ -138,6 +242,29 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                         + " < :"
                         + this.endTimeParameter.getName();
 
+        this.deleteChunkQuery =
+                this.deleteQuery
+                        + " AND e."
+                        + PersistentPortalEvent_.id.getName()
+                        + " <= :"
+                        + this.maxIdParameter.getName();
+
+        this.selectDeleteChunkEndQuery =
+                "SELECT e."
+                        + PersistentPortalEvent_.id.getName()
+                        + " "
+                        + "FROM "
+                        + PersistentPortalEvent.class.getName()
+                        + " e "
+                        + "WHERE e."
+                        + PersistentPortalEvent_.timestamp.getName()
+                        + " < :"
+                        + this.endTimeParameter.getName()
+                        + " "
+                        + "ORDER BY e."
+                        + PersistentPortalEvent_.id.getName()
+                        + " ASC";
+
         this.findNewestPersistentPortalEventTimestampQuery =
                 this.createCriteriaQuery(
                         new Function<CriteriaBuilder, CriteriaQuery<DateTime>>() {
@@ -186,26 +313,51 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public void storePortalEvents(PortalEvent... portalEvents) {
-        for (final PortalEvent portalEvent : portalEvents) {
-            try {
-                storePortalEvent(portalEvent);
-            } catch (IllegalArgumentException iae) {
-                this.logger.warn(
-                        portalEvent.getClass().getName()
-                                + " is not mapped as a persistent entity and will not be stored. "
-                                + portalEvent
-                                + " Exception="
-                                + iae.getMessage());
-            }
-        }
+        this.storePortalEvents(Arrays.asList(portalEvents));
     }
 
     @Override
     @RawEventsTransactional
     public void storePortalEvents(Iterable<PortalEvent> portalEvents) {
+        final long start = System.nanoTime();
+        final int count;
+        if (this.jdbcBatchInsert) {
+            count = this.batchInsertPortalEvents(portalEvents);
+        } else {
+            count = this.persistPortalEvents(portalEvents);
+        }
+        this.recordInsert(count, start);
+    }
+
+    /**
+     * Records the insert once the transaction commits. The JPA path only queues its INSERTs until
+     * the commit flushes them, so timing up to the commit makes both paths comparable, and events
+     * of a rolled back transaction are not counted.
+     */
+    private void recordInsert(final int count, final long start) {
+        final PortalEventStoreStatistics statistics = this.portalEventStoreStatistics;
+        if (statistics == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter() {
+                        @Override
+                        public void afterCommit() {
+                            statistics.recordInsert(count, start);
+                        }
+                    });
+        } else {
+            statistics.recordInsert(count, start);
+        }
+    }
+
+    private int persistPortalEvents(Iterable<PortalEvent> portalEvents) {
+        int count = 0;
         for (final PortalEvent portalEvent : portalEvents) {
             try {
                 storePortalEvent(portalEvent);
+                count++;
             } catch (IllegalArgumentException iae) {
                 this.logger.warn(
                         portalEvent.getClass().getName()
@@ -215,6 +367,79 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                                 + iae.getMessage());
             }
         }
+        return count;
+    }
+
+    /**
+     * Inserts the events with JDBC batch statements on the connection of the current transaction.
+     * The persistence context is bypassed so the events never enter the first-level cache.
+     */
+    private int batchInsertPortalEvents(Iterable<PortalEvent> portalEvents) {
+        final SessionImplementor session =
+                (SessionImplementor) this.getEntityManager().unwrap(Session.class);
+        final BatchInsert batchInsert = this.getBatchInsert(session.getFactory());
+
+        final List<PersistentPortalEvent> persistentPortalEvents = new ArrayList<>();
+        for (final PortalEvent portalEvent : portalEvents) {
+            persistentPortalEvents.add(this.wrapPortalEvent(portalEvent));
+        }
+        if (persistentPortalEvents.isEmpty()) {
+            return 0;
+        }
+
+        ((Session) session)
+                .doWork(
+                        new Work() {
+                            @Override
+                            public void execute(Connection connection) throws SQLException {
+                                batchInsert.insert(connection, session, persistentPortalEvents);
+                            }
+                        });
+        return persistentPortalEvents.size();
+    }
+
+    private BatchInsert getBatchInsert(SessionFactoryImplementor sessionFactory) {
+        BatchInsert batchInsert = this.batchInsert;
+        if (batchInsert == null) {
+            final AbstractEntityPersister persister =
+                    (AbstractEntityPersister)
+                            sessionFactory.getEntityPersister(
+                                    PersistentPortalEvent.class.getName());
+            batchInsert = new BatchInsert(persister, this.jdbcBatchSize);
+            this.batchInsert = batchInsert;
+        }
+        return batchInsert;
+    }
+
+    /** Start the executor used to decode event data if aggregationDecodeThreads is set */
+    void initDecodeExecutor() {
+        if (this.aggregationDecodeThreads > 0) {
+            this.decodeExecutor =
+                    new ThreadPoolExecutor(
+                            this.aggregationDecodeThreads,
+                            this.aggregationDecodeThreads,
+                            60,
+                            TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactoryBuilder()
+                                    .setNameFormat("uP-PortalEventDecoder-%d")
+                                    .setDaemon(true)
+                                    .build());
+            this.decodeExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (this.decodeExecutor != null) {
+            // Cancel the queued decodes so an aggregation waiting on them stops instead of
+            // blocking forever
+            for (final Runnable task : this.decodeExecutor.shutdownNow()) {
+                if (task instanceof Future) {
+                    ((Future<?>) task).cancel(false);
+                }
+            }
+        }
     }
 
     @Override
@@ -249,66 +474,163 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
             query.setMaxResults(maxEvents);
         }
 
-        int resultCount = 0;
-        for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
-                results.next(); ) {
-            final PersistentPortalEvent persistentPortalEvent =
-                    (PersistentPortalEvent) results.get(0);
-            final PortalEvent portalEvent;
-            try {
-                portalEvent =
-                        this.toPortalEvent(
-                                persistentPortalEvent.getEventData(),
-                                persistentPortalEvent.getEventType());
-            } catch (RuntimeException e) {
-                this.logger.warn(
-                        "Failed to convert PersistentPortalEvent to PortalEvent: "
-                                + persistentPortalEvent,
-                        e);
-
-                // Mark the event as error and store the mark to prevent trying to reprocess the
-                // broken event data
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
+        final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        return this.aggregatePortalEvents(session, results, handler);
+    }
 
-                continue;
+    /**
+     * Pass the events in the results to the handler and mark them as aggregated, or as erred if
+     * their data cannot be decoded or the handler fails.
+     *
+     * @return false if the handler requested a stop or the thread was interrupted while waiting for
+     *     event data, true if all results were processed
+     */
+    boolean aggregatePortalEvents(
+            Session session, ScrollableResults results, Function<PortalEvent, Boolean> handler) {
+        final int decodeBatchSize =
+                this.decodeExecutor != null ? this.aggregationDecodeBatchSize : 1;
+        final List<PersistentPortalEvent> batch =
+                new ArrayList<PersistentPortalEvent>(decodeBatchSize);
+        int resultCount = 0;
+        int lastFlushCount = 0;
+        boolean moreResults = true;
+        while (moreResults) {
+            batch.clear();
+            while (batch.size() < decodeBatchSize && (moreResults = results.next())) {
+                batch.add((PersistentPortalEvent) results.get(0));
             }
 
-            try {
-
-                final Boolean eventHandled = handler.apply(portalEvent);
-                if (!eventHandled) {
-                    this.logger.debug(
-                            "Aggregation stop requested before processing event {}", portalEvent);
+            // Event data can be decoded out of order, the handler still sees the events one at a
+            // time in timestamp order so the aggregation results are the same as decoding inline
+            final List<Future<PortalEvent>> portalEvents = this.decodePortalEvents(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                final PersistentPortalEvent persistentPortalEvent = batch.get(i);
+                final PortalEvent portalEvent;
+                try {
+                    portalEvent = getDecodedPortalEvent(portalEvents.get(i));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.logger.warn(
+                            "Interrupted while waiting for PortalEvent data, stopping aggregation before event {}",
+                            persistentPortalEvent);
+                    cancelDecoding(portalEvents);
+                    return false;
+                } catch (CancellationException e) {
+                    this.logger.warn(
+                            "Decoding of PortalEvent data was cancelled, stopping aggregation before event {}",
+                            persistentPortalEvent);
+                    cancelDecoding(portalEvents);
                     return false;
+                } catch (RuntimeException e) {
+                    this.logger.warn(
+                            "Failed to convert PersistentPortalEvent to PortalEvent: "
+                                    + persistentPortalEvent,
+                            e);
+
+                    // Mark the event as error and store the mark to prevent trying to reprocess
+                    // the broken event data
+                    persistentPortalEvent.setErrorAggregating(true);
+                    session.persist(persistentPortalEvent);
+
+                    continue;
                 }
 
-                // Mark the event as aggregated and store the mark
-                persistentPortalEvent.setAggregated(true);
-                session.persist(persistentPortalEvent);
-
-                // periodic flush and clear of session to manage memory demands
-                if (++resultCount % this.flushPeriod == 0) {
-                    this.logger.debug(
-                            "Aggregated {} events, flush and clear {} EntityManager.",
-                            resultCount,
-                            BaseRawEventsJpaDao.PERSISTENCE_UNIT_NAME);
-                    session.flush();
-                    session.clear();
+                try {
+
+                    final Boolean eventHandled = handler.apply(portalEvent);
+                    if (!eventHandled) {
+                        this.logger.debug(
+                                "Aggregation stop requested before processing event {}",
+                                portalEvent);
+                        cancelDecoding(portalEvents);
+                        return false;
+                    }
+
+                    // Mark the event as aggregated and store the mark
+                    persistentPortalEvent.setAggregated(true);
+                    session.persist(persistentPortalEvent);
+                    resultCount++;
+
+                } catch (Exception e) {
+                    this.logger.warn(
+                            "Failed to aggregate portal event: " + persistentPortalEvent, e);
+                    // mark the event as erred and move on. This will not be picked up by
+                    // processing again
+                    persistentPortalEvent.setErrorAggregating(true);
+                    session.persist(persistentPortalEvent);
                 }
+            }
 
-            } catch (Exception e) {
-                this.logger.warn("Failed to aggregate portal event: " + persistentPortalEvent, e);
-                // mark the event as erred and move on. This will not be picked up by processing
-                // again
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
+            // periodic flush and clear of session to manage memory demands, only done between
+            // batches as clearing detaches the events still waiting in the batch
+            if (resultCount - lastFlushCount >= this.flushPeriod) {
+                this.logger.debug(
+                        "Aggregated {} events, flush and clear {} EntityManager.",
+                        resultCount,
+                        BaseRawEventsJpaDao.PERSISTENCE_UNIT_NAME);
+                session.flush();
+                session.clear();
+                lastFlushCount = resultCount;
             }
         }
 
         return true;
     }
 
+    /**
+     * Start decoding the data of the events, if no decode executor is configured the events are
+     * decoded by the calling thread before returning.
+     */
+    private List<Future<PortalEvent>> decodePortalEvents(
+            List<PersistentPortalEvent> persistentPortalEvents) {
+        final List<Future<PortalEvent>> portalEvents =
+                new ArrayList<Future<PortalEvent>>(persistentPortalEvents.size());
+        for (final PersistentPortalEvent persistentPortalEvent : persistentPortalEvents) {
+            final FutureTask<PortalEvent> task =
+                    new FutureTask<PortalEvent>(
+                            new Callable<PortalEvent>() {
+                                @Override
+                                public PortalEvent call() throws Exception {
+                                    return toPortalEvent(
+                                            persistentPortalEvent,
+                                            persistentPortalEvent.getEventType());
+                                }
+                            });
+            if (this.decodeExecutor != null) {
+                try {
+                    this.decodeExecutor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // The executor has been shut down, finish the aggregation on this thread
+                    this.logger.debug("Decode executor is shut down, decoding event data inline");
+                    task.run();
+                }
+            } else {
+                task.run();
+            }
+            portalEvents.add(task);
+        }
+        return portalEvents;
+    }
+
+    private static PortalEvent getDecodedPortalEvent(Future<PortalEvent> portalEvent)
+            throws InterruptedException {
+        try {
+            return portalEvent.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Failed to deserialize PortalEvent data", cause);
+        }
+    }
+
+    private static void cancelDecoding(List<Future<PortalEvent>> portalEvents) {
+        for (final Future<PortalEvent> portalEvent : portalEvents) {
+            portalEvent.cancel(false);
+        }
+    }
+
     @Override
     public void getPortalEvents(
             DateTime startTime, DateTime endTime, FunctionWithoutResult<PortalEvent> handler) {
@@ -334,9 +656,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
             final PersistentPortalEvent persistentPortalEvent =
                     (PersistentPortalEvent) results.get(0);
             final PortalEvent portalEvent =
-                    this.toPortalEvent(
-                            persistentPortalEvent.getEventData(),
-                            persistentPortalEvent.getEventType());
+                    this.toPortalEvent(persistentPortalEvent, persistentPortalEvent.getEventType());
             handler.apply(portalEvent);
             persistentPortalEvent.setAggregated(true);
             session.evict(persistentPortalEvent);
@@ -351,11 +671,52 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         return query.executeUpdate();
     }
 
+    @Override
+    @RawEventsTransactional
+    public int deletePortalEventsBefore(DateTime time, int maxEvents) {
+        // Find the id of the last event in the chunk, if there are fewer events left than the
+        // chunk size all of them are deleted
+        final TypedQuery<Long> chunkEndQuery =
+                this.getEntityManager().createQuery(this.selectDeleteChunkEndQuery, Long.class);
+        chunkEndQuery.setParameter(this.endTimeParameter.getName(), time);
+        chunkEndQuery.setFirstResult(maxEvents - 1);
+        chunkEndQuery.setMaxResults(1);
+        final Long maxId = DataAccessUtils.uniqueResult(chunkEndQuery.getResultList());
+        if (maxId == null) {
+            return this.deletePortalEventsBefore(time);
+        }
+
+        final Query query = this.getEntityManager().createQuery(this.deleteChunkQuery);
+        query.setParameter(this.endTimeParameter.getName(), time);
+        query.setParameter(this.maxIdParameter.getName(), maxId);
+        return query.executeUpdate();
+    }
+
     protected PersistentPortalEvent wrapPortalEvent(PortalEvent event) {
-        final String portalEventData = this.toString(event);
+        String portalEventData = null;
+        if (this.compactEventData) {
+            portalEventData = this.toCompactString(event);
+        }
+        if (portalEventData == null) {
+            portalEventData = this.toString(event);
+        }
         return new PersistentPortalEvent(event, portalEventData);
     }
 
+    protected <E extends PortalEvent> E toPortalEvent(
+            final PersistentPortalEvent persistentPortalEvent, Class<E> eventType) {
+        final String eventData = persistentPortalEvent.getEventData();
+        if (!CompactEventDataCodec.isEncoded(eventData)) {
+            return this.toPortalEvent(eventData, eventType);
+        }
+
+        try {
+            return CompactEventDataCodec.decode(mapper, persistentPortalEvent, eventType);
+        } catch (IOException | RuntimeException e) {
+            throw new RuntimeException("Failed to deserialize compact PortalEvent data", e);
+        }
+    }
+
     protected <E extends PortalEvent> E toPortalEvent(final String eventData, Class<E> eventType) {
         try {
             return mapper.readValue(eventData, eventType);
@@ -370,7 +731,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
 
     protected String toString(PortalEvent event) {
         try {
-            return mapper.writeValueAsString(event);
+            return writer.writeValueAsString(event);
         } catch (JsonParseException e) {
             throw new RuntimeException("Failed to serialize PortalEvent data", e);
         } catch (JsonMappingException e) {
@@ -379,4 +740,91 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
             throw new RuntimeException("Failed to serialize PortalEvent data", e);
         }
     }
+
+    /** @return The compact encoding of the event, null if it must be stored as JSON */
+    protected String toCompactString(PortalEvent event) {
+        try {
+            return CompactEventDataCodec.encode(writer, event);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        }
+    }
+
+    /** Insert statement for {@link PersistentPortalEvent} built from its Hibernate mapping */
+    private static final class BatchInsert {
+        private final AbstractEntityPersister persister;
+        private final int batchSize;
+        private final String sql;
+        private final boolean[] insertable;
+
+        BatchInsert(AbstractEntityPersister persister, int batchSize) {
+            if (persister.getEntityMetamodel().hasSubclasses()) {
+                throw new IllegalStateException(
+                        PersistentPortalEvent.class.getName()
+                                + " has mapped subclasses, JDBC batch inserts only support a single table");
+            }
+
+            this.persister = persister;
+            this.batchSize = batchSize;
+            this.insertable = persister.getPropertyInsertability();
+
+            final List<String> columns = new ArrayList<>();
+            columns.addAll(Arrays.asList(persister.getIdentifierColumnNames()));
+            for (int i = 0; i < this.insertable.length; i++) {
+                if (this.insertable[i]) {
+                    columns.addAll(Arrays.asList(persister.getPropertyColumnNames(i)));
+                }
+            }
+
+            final StringBuilder sql = new StringBuilder("INSERT INTO ");
+            sql.append(persister.getTableName()).append(" (");
+            final StringBuilder values = new StringBuilder(") VALUES (");
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                    values.append(", ");
+                }
+                sql.append(columns.get(i));
+                values.append('?');
+            }
+            this.sql = sql.append(values).append(')').toString();
+        }
+
+        void insert(
+                Connection connection,
+                SessionImplementor session,
+                List<PersistentPortalEvent> persistentPortalEvents)
+                throws SQLException {
+            final Type identifierType = this.persister.getIdentifierType();
+            final Type[] propertyTypes = this.persister.getPropertyTypes();
+
+            try (final PreparedStatement ps = connection.prepareStatement(this.sql)) {
+                int batchCount = 0;
+                for (final PersistentPortalEvent persistentPortalEvent : persistentPortalEvents) {
+                    final Serializable id =
+                            this.persister
+                                    .getIdentifierGenerator()
+                                    .generate(session, persistentPortalEvent);
+                    identifierType.nullSafeSet(ps, id, 1, session);
+
+                    int index = 1 + identifierType.getColumnSpan(session.getFactory());
+                    final Object[] values = this.persister.getPropertyValues(persistentPortalEvent);
+                    for (int i = 0; i < values.length; i++) {
+                        if (this.insertable[i]) {
+                            propertyTypes[i].nullSafeSet(ps, values[i], index, session);
+                            index += propertyTypes[i].getColumnSpan(session.getFactory());
+                        }
+                    }
+
+                    ps.addBatch();
+                    if (++batchCount % this.batchSize == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                if (batchCount % this.batchSize != 0) {
+                    ps.executeBatch();
+                }
+            }
+        }
+    }
 }
@@ -14,13 +14,39 @@
  */
 package org.apereo.portal.events.handlers.db;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.apereo.portal.events.PortalEvent;
 import org.apereo.portal.events.handlers.QueueingEventHandler;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.Period;
+import org.joda.time.ReadablePeriod;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Hands off queued portal events for storage by the IPortalEventDao. If folded event types are
+ * configured events of those types are first folded by a {@link PortalEventFolder} and stored once
+ * the minute they happened in has ended.
+ *
+ * <p>A folded event is stored up to a minute plus the flush period after its timestamp, the raw
+ * event aggregator never goes back to events older than the last one it aggregated so its
+ * aggregation delay must be longer than that. This is checked on startup when folding is enabled.
+ */
+public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<PortalEvent>
+        implements InitializingBean {
+    private static final long MINUTE_MILLIS = 60 * 1000;
 
-/** Hands off queued portal events for storage by the IPortalEventDao */
-public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<PortalEvent> {
     private IPortalEventDao portalEventDao;
+    private PortalEventStoreStatistics portalEventStoreStatistics;
+    private ObjectMapper mapper;
+    private Class<? extends PortalEvent>[] foldedEventTypes;
+    private PortalEventFolder portalEventFolder;
+    private ReadablePeriod aggregationDelay = Period.seconds(30);
+    private long flushPeriod = 997;
 
     /** @param portalEventDao the portalEventDao to set */
     @Autowired
@@ -28,8 +54,104 @@ public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<Port
         this.portalEventDao = portalEventDao;
     }
 
+    @Autowired(required = false)
+    public void setPortalEventStoreStatistics(
+            PortalEventStoreStatistics portalEventStoreStatistics) {
+        this.portalEventStoreStatistics = portalEventStoreStatistics;
+    }
+
+    @Autowired
+    public void setMapper(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Timed event types to fold into one stored event per session, portlet or tab and minute,
+     * defaults to none. Only {@link org.apereo.portal.events.PortletExecutionEvent}s and {@link
+     * org.apereo.portal.events.PortalRenderEvent}s can be folded.
+     */
+    public void setFoldedEventTypes(Class<? extends PortalEvent>[] foldedEventTypes) {
+        this.foldedEventTypes = foldedEventTypes;
+    }
+
+    /** Delay of the raw event aggregator, used to check that folded events are aggregated */
+    @Value("${org.apereo.portal.events.aggr.PortalRawEventsAggregatorImpl.aggregationDelay:PT30S}")
+    public void setAggregationDelay(ReadablePeriod aggregationDelay) {
+        this.aggregationDelay = aggregationDelay;
+    }
+
+    /** Milliseconds between calls to {@link #flush()}, defaults to 997 */
+    @Value(
+            "${org.apereo.portal.events.handlers.db.PortalEventDaoQueuingEventHandler.flushPeriod:997}")
+    public void setFlushPeriod(long flushPeriod) {
+        this.flushPeriod = flushPeriod;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (this.foldedEventTypes != null && this.foldedEventTypes.length > 0) {
+            final long storeDelay = MINUTE_MILLIS + this.flushPeriod;
+            final long aggregationDelayMillis =
+                    this.aggregationDelay.toPeriod().toStandardDuration().getMillis();
+            if (aggregationDelayMillis <= storeDelay) {
+                throw new IllegalStateException(
+                        "Folded events are stored up to "
+                                + storeDelay
+                                + "ms after they happen, PortalRawEventsAggregatorImpl.aggregationDelay of "
+                                + this.aggregationDelay
+                                + " would skip them. Set the aggregationDelay to more than a minute plus the flush period, for example PT2M, or disable folding.");
+            }
+
+            this.portalEventFolder =
+                    new PortalEventFolder(this.mapper, Arrays.asList(this.foldedEventTypes));
+        }
+    }
+
     @Override
     protected void onApplicationEvents(Iterable<PortalEvent> events) {
+        if (this.portalEventStoreStatistics != null) {
+            this.portalEventStoreStatistics.recordQueueDepth(this.getQueueSize());
+        }
+
+        if (this.portalEventFolder == null) {
+            this.portalEventDao.storePortalEvents(events);
+            return;
+        }
+
+        final List<PortalEvent> unfoldedEvents = new ArrayList<PortalEvent>();
+        for (final PortalEvent event : events) {
+            if (!this.portalEventFolder.add(event)) {
+                unfoldedEvents.add(event);
+            }
+        }
+        if (!unfoldedEvents.isEmpty()) {
+            this.portalEventDao.storePortalEvents(unfoldedEvents);
+        }
+    }
+
+    @Override
+    protected void onFlushComplete(boolean shutdown) {
+        if (this.portalEventFolder == null) {
+            return;
+        }
+
+        final long foldedEventCount = this.portalEventFolder.getFoldedEventCount();
+        final List<PortalEvent> events =
+                this.portalEventFolder.drain(
+                        shutdown ? Long.MAX_VALUE : DateTimeUtils.currentTimeMillis());
+        if (events.isEmpty()) {
+            return;
+        }
+
+        this.logger.debug(
+                "Storing {} folded events, {} events still pending",
+                events.size(),
+                this.portalEventFolder.getPendingEventCount());
         this.portalEventDao.storePortalEvents(events);
+
+        if (this.portalEventStoreStatistics != null) {
+            this.portalEventStoreStatistics.recordFoldedEvents(
+                    this.portalEventFolder.getFoldedEventCount() - foldedEventCount);
+        }
     }
 }
@@ -0,0 +1,236 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.events.PortalRenderEvent;
+import org.apereo.portal.events.PortletExecutionEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Folds high volume timed events into a single event per session, portlet or tab and minute before
+ * they are stored. The event with the latest timestamp is kept and the execution times of the other
+ * events are recorded on it, the timed aggregators add all of those times so the aggregated
+ * statistics are the same as if each event had been stored. Details of the folded events that are
+ * not aggregated, such as request parameters, are not kept.
+ *
+ * <p>Events are held until the minute they happened in has ended. The smallest aggregation interval
+ * is a minute so a folded event never spans an interval boundary. Not thread safe, the caller must
+ * make sure only one thread uses the folder at a time.
+ */
+final class PortalEventFolder {
+    static final String FOLDED_EXECUTION_TIMES_PROPERTY = "foldedExecutionTimesNano";
+
+    private static final long MINUTE_MILLIS = 60 * 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ObjectMapper mapper;
+    private final Set<Class<? extends PortalEvent>> foldedEventTypes;
+
+    // Folds for each minute that has not been drained yet, keyed by the start of the minute
+    private final SortedMap<Long, Map<List<Object>, Fold>> pendingFolds =
+            new TreeMap<Long, Map<List<Object>, Fold>>();
+    private int pendingEventCount = 0;
+    private long foldedEventCount = 0;
+
+    /**
+     * @param mapper Used to create the folded copies of events
+     * @param foldedEventTypes Event types to fold, must be {@link PortletExecutionEvent}s or {@link
+     *     PortalRenderEvent}s
+     */
+    PortalEventFolder(
+            ObjectMapper mapper, Collection<Class<? extends PortalEvent>> foldedEventTypes) {
+        for (final Class<? extends PortalEvent> foldedEventType : foldedEventTypes) {
+            if (!PortletExecutionEvent.class.isAssignableFrom(foldedEventType)
+                    && !PortalRenderEvent.class.isAssignableFrom(foldedEventType)) {
+                throw new IllegalArgumentException(
+                        "Only PortletExecutionEvents and PortalRenderEvents can be folded: "
+                                + foldedEventType.getName());
+            }
+        }
+
+        this.mapper = mapper;
+        this.foldedEventTypes = new LinkedHashSet<Class<? extends PortalEvent>>(foldedEventTypes);
+    }
+
+    /** @return The number of events being held until their minute ends */
+    int getPendingEventCount() {
+        return this.pendingEventCount;
+    }
+
+    /** @return Total number of events that were folded into another event */
+    long getFoldedEventCount() {
+        return this.foldedEventCount;
+    }
+
+    /**
+     * @return true if the event is held to be folded, false if it is not of a folded type and
+     *     should be stored as-is
+     */
+    boolean add(PortalEvent event) {
+        final List<Object> key = this.getFoldKey(event);
+        if (key == null) {
+            return false;
+        }
+
+        final long minute = event.getTimestampAsDate().minuteOfHour().roundFloorCopy().getMillis();
+        Map<List<Object>, Fold> folds = this.pendingFolds.get(minute);
+        if (folds == null) {
+            folds = new HashMap<List<Object>, Fold>();
+            this.pendingFolds.put(minute, folds);
+        }
+
+        final Fold fold = folds.get(key);
+        if (fold == null) {
+            folds.put(key, new Fold(event));
+        } else {
+            fold.add(event);
+        }
+        this.pendingEventCount++;
+
+        return true;
+    }
+
+    /**
+     * @param now Current time in milliseconds, {@link Long#MAX_VALUE} to drain all held events
+     * @return One event for each fold in every minute that ended at or before now
+     */
+    List<PortalEvent> drain(long now) {
+        final List<PortalEvent> events = new ArrayList<PortalEvent>();
+        for (final Iterator<Map.Entry<Long, Map<List<Object>, Fold>>> minuteItr =
+                        this.pendingFolds.entrySet().iterator();
+                minuteItr.hasNext(); ) {
+            final Map.Entry<Long, Map<List<Object>, Fold>> minuteEntry = minuteItr.next();
+            if (now != Long.MAX_VALUE && minuteEntry.getKey() + MINUTE_MILLIS > now) {
+                break;
+            }
+
+            for (final Fold fold : minuteEntry.getValue().values()) {
+                events.add(fold.toPortalEvent());
+                this.pendingEventCount -= fold.size + 1;
+                this.foldedEventCount += fold.size;
+            }
+            minuteItr.remove();
+        }
+        return events;
+    }
+
+    /** @return The properties that must match for two events to be folded, null if not folded */
+    private List<Object> getFoldKey(PortalEvent event) {
+        final Class<? extends PortalEvent> eventType = event.getClass();
+        if (!this.isFoldedEventType(eventType)) {
+            return null;
+        }
+
+        final String target;
+        if (event instanceof PortletExecutionEvent) {
+            target = ((PortletExecutionEvent) event).getFname();
+        } else {
+            target = ((PortalRenderEvent) event).getTargetedLayoutNodeId();
+        }
+
+        return Arrays.<Object>asList(
+                eventType,
+                event.getServerId(),
+                event.getEventSessionId(),
+                event.getUserName(),
+                target);
+    }
+
+    private boolean isFoldedEventType(Class<? extends PortalEvent> eventType) {
+        for (final Class<? extends PortalEvent> foldedEventType : this.foldedEventTypes) {
+            if (foldedEventType.isAssignableFrom(eventType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getExecutionTimeNano(PortalEvent event) {
+        if (event instanceof PortletExecutionEvent) {
+            return ((PortletExecutionEvent) event).getExecutionTimeNano();
+        }
+        return ((PortalRenderEvent) event).getExecutionTimeNano();
+    }
+
+    /** The latest event of a fold and the execution times of the earlier events */
+    private final class Fold {
+        private PortalEvent lastEvent;
+        private long[] executionTimes = new long[4];
+        private int size = 0;
+
+        Fold(PortalEvent event) {
+            this.lastEvent = event;
+        }
+
+        void add(PortalEvent event) {
+            final PortalEvent earlierEvent;
+            if (event.getTimestamp() >= this.lastEvent.getTimestamp()) {
+                earlierEvent = this.lastEvent;
+                this.lastEvent = event;
+            } else {
+                earlierEvent = event;
+            }
+
+            if (this.size == this.executionTimes.length) {
+                this.executionTimes = Arrays.copyOf(this.executionTimes, this.size * 2);
+            }
+            this.executionTimes[this.size++] = getExecutionTimeNano(earlierEvent);
+        }
+
+        PortalEvent toPortalEvent() {
+            if (this.size == 0) {
+                return this.lastEvent;
+            }
+
+            final ObjectNode eventTree = mapper.valueToTree(this.lastEvent);
+            final ArrayNode executionTimesTree =
+                    eventTree.putArray(FOLDED_EXECUTION_TIMES_PROPERTY);
+            for (int i = 0; i < this.size; i++) {
+                executionTimesTree.add(this.executionTimes[i]);
+            }
+
+            try {
+                return mapper.treeToValue(eventTree, PortalEvent.class);
+            } catch (IOException e) {
+                logger.error(
+                        "Failed to fold "
+                                + this.size
+                                + " events into "
+                                + this.lastEvent
+                                + ", only the latest event will be stored",
+                        e);
+                return this.lastEvent;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apereo.portal.utils.MovingAverage;
+import org.apereo.portal.utils.MovingAverageSample;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+/**
+ * Tracks how raw portal events flow into the event store, the depth of the queue in {@link
+ * PortalEventDaoQueuingEventHandler} and the size and insert time of each batch written by {@link
+ * IPortalEventDao} and how many events were folded into other events before being stored.
+ */
+@ManagedResource("uPortal:section=Events,name=PortalEventStoreStatistics")
+@Service("portalEventStoreStatistics")
+public class PortalEventStoreStatistics implements PortalEventStoreStatisticsMXBean {
+    private final MovingAverage queueDepths = new MovingAverage();
+    private final MovingAverage batchSizes = new MovingAverage();
+    private final MovingAverage insertTimes = new MovingAverage();
+    private final AtomicLong insertedEventCount = new AtomicLong();
+    private final AtomicLong foldedEventCount = new AtomicLong();
+    private volatile MovingAverageSample lastQueueDepth = new MovingAverageSample();
+    private volatile MovingAverageSample lastBatchSize = new MovingAverageSample();
+    private volatile MovingAverageSample lastInsertTime = new MovingAverageSample();
+
+    @Override
+    public MovingAverageSample getQueueDepths() {
+        return this.lastQueueDepth;
+    }
+
+    @Override
+    public MovingAverageSample getBatchSizes() {
+        return this.lastBatchSize;
+    }
+
+    @Override
+    public MovingAverageSample getInsertTimes() {
+        return this.lastInsertTime;
+    }
+
+    @Override
+    public long getInsertedEventCount() {
+        return this.insertedEventCount.get();
+    }
+
+    @Override
+    public long getFoldedEventCount() {
+        return this.foldedEventCount.get();
+    }
+
+    /** @param queueDepth Number of events still queued when a batch is handed off */
+    public void recordQueueDepth(int queueDepth) {
+        this.lastQueueDepth = this.queueDepths.add(queueDepth);
+    }
+
+    /** @param foldedEventCount Number of events folded into other events instead of being stored */
+    public void recordFoldedEvents(long foldedEventCount) {
+        this.foldedEventCount.addAndGet(foldedEventCount);
+    }
+
+    /**
+     * @param batchSize Number of events inserted
+     * @param startNanos {@link System#nanoTime()} when the insert started
+     */
+    public void recordInsert(int batchSize, long startNanos) {
+        this.insertedEventCount.addAndGet(batchSize);
+        this.lastBatchSize = this.batchSizes.add(batchSize);
+        this.lastInsertTime =
+                this.insertTimes.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import org.apereo.portal.utils.MovingAverageSample;
+
+/** JMX stats for {@link PortalEventStoreStatistics} */
+public interface PortalEventStoreStatisticsMXBean {
+
+    /** @return Number of events waiting to be stored each time a batch was handed off */
+    MovingAverageSample getQueueDepths();
+
+    /** @return Number of events stored per batch */
+    MovingAverageSample getBatchSizes();
+
+    /** @return Milliseconds from the start of each batch of events until it was committed */
+    MovingAverageSample getInsertTimes();
+
+    /** @return Total number of events inserted */
+    long getInsertedEventCount();
+
+    /** @return Total number of events folded into other events instead of being stored */
+    long getFoldedEventCount();
+}
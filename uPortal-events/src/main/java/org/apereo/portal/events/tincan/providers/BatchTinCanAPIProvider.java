@@ -14,25 +14,171 @@
  */
 package org.apereo.portal.events.tincan.providers;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import org.apache.commons.lang3.StringUtils;
 import org.apereo.portal.events.tincan.om.LrsStatement;
+import org.apereo.portal.utils.MovingAverage;
+import org.apereo.portal.utils.MovingAverageSample;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatus.Series;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
 import org.springframework.web.client.HttpClientErrorException;
 
 /**
  * Batch up a set of statements and send them in a single request. This probably won't have a huge
  * impact on the portal performance, but may reduce some of the overhead to the LRS.
  *
+ * <p>{@link #sendEvent(LrsStatement)} never blocks on the LRS, statements are serialized and held
+ * in a bounded queue until the next call to {@link #sendBatch()}. If the queue is full statements
+ * spill over to files in the spill-directory, if one is configured, otherwise they are dropped.
+ * Statements still queued when the portal shuts down are written to the spill-directory and are
+ * delivered after the next start. When the LRS cannot be reached or returns a server error the
+ * batch is kept and retried with an exponential backoff. Batches rejected by the LRS with a client
+ * error (other than 408 or 429) are dropped since resending them would fail the same way.
+ *
+ * <p>In addition to the properties described in {@link DefaultTinCanAPIProvider} the following
+ * properties may be configured:
+ *
+ * <table>
+ *     <tr>
+ *         <th>property</th>
+ *         <th>default value</th>
+ *         <th>description</th>
+ *     </tr>
+ *     <tr>
+ *         <td>org.apereo.portal.tincan-api.{ID}.max-queue-size</td>
+ *         <td>10000</td>
+ *         <td>The number of statements to hold in memory waiting to be sent.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>org.apereo.portal.tincan-api.{ID}.max-batch-size</td>
+ *         <td>500</td>
+ *         <td>The maximum number of statements to send in a single request.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>org.apereo.portal.tincan-api.{ID}.spill-directory</td>
+ *         <td>&nbsp;</td>
+ *         <td>
+ *             Directory to write statements to when the queue is full or the portal is shut
+ *             down. If not set those statements are dropped.
+ *         </td>
+ *     </tr>
+ *     <tr>
+ *         <td>org.apereo.portal.tincan-api.{ID}.max-spilled-statements</td>
+ *         <td>100000</td>
+ *         <td>The number of statements that may be waiting in the spill-directory.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>org.apereo.portal.tincan-api.{ID}.retry-initial-delay</td>
+ *         <td>2000</td>
+ *         <td>Milliseconds to wait before retrying after the first failed request.</td>
+ *     </tr>
+ *     <tr>
+ *         <td>org.apereo.portal.tincan-api.{ID}.retry-max-delay</td>
+ *         <td>300000</td>
+ *         <td>The longest time in milliseconds to wait between retries.</td>
+ *     </tr>
+ * </table>
+ *
  * <p>IMPORTANT: If you configure a BatchTinCanAPIProvider you MUST also add a scheduler that calls
  * the sendBatch() method regularly. An example configuration is available in tincanAPIContext.xml.
  */
-public class BatchTinCanAPIProvider extends DefaultTinCanAPIProvider {
-    private final Queue<LrsStatement> statementQueue = new ConcurrentLinkedQueue<LrsStatement>();
+@ManagedResource
+public class BatchTinCanAPIProvider extends DefaultTinCanAPIProvider
+        implements BatchTinCanAPIProviderMXBean, SelfNaming {
+    private static final String SPILL_FILE_SUFFIX = ".spill";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private final Object spillLock = new Object();
+
+    // Only touched by the thread holding sendLock
+    private final List<PendingStatement> pendingBatch = new ArrayList<PendingStatement>();
+    private final Deque<PendingStatement> reloadedStatements = new ArrayDeque<PendingStatement>();
+    private int failedAttempts = 0;
+
+    // Guarded by spillLock
+    private final Deque<File> spillFiles = new ArrayDeque<File>();
+    private BufferedWriter spillWriter;
+    private int spillWriterCount;
+    private long nextSpillFileNumber;
+    private boolean droppingStatements = false;
+
+    private final AtomicLong sentStatementCount = new AtomicLong();
+    private final AtomicLong droppedStatementCount = new AtomicLong();
+    private final AtomicLong failedPostCount = new AtomicLong();
+    private final AtomicLong spilledStatementCount = new AtomicLong();
+    private final MovingAverage batchSizes = new MovingAverage();
+    private final MovingAverage postTimes = new MovingAverage();
+    private final MovingAverage deliveryLags = new MovingAverage();
+    private volatile MovingAverageSample lastBatchSize = new MovingAverageSample();
+    private volatile MovingAverageSample lastPostTime = new MovingAverageSample();
+    private volatile MovingAverageSample lastDeliveryLag = new MovingAverageSample();
+    private volatile long nextAttemptTime = 0;
+    private volatile long pendingBatchQueuedTime = Long.MAX_VALUE;
+
+    private int maxQueueSize = 10000;
+    private int maxBatchSize = 500;
+    private File spillDirectory;
+    private int maxSpilledStatements = 100000;
+    private long retryInitialDelay = 2000;
+    private long retryMaxDelay = 300000;
+    private BlockingQueue<PendingStatement> statementQueue =
+            new LinkedBlockingQueue<PendingStatement>(maxQueueSize);
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName(
+                "uPortal:section=Events,name=BatchTinCanAPIProvider,id="
+                        + ObjectName.quote(getId()));
+    }
+
+    @Override
+    protected void loadConfig() {
+        super.loadConfig();
+
+        if (!isEnabled()) {
+            return;
+        }
+
+        maxQueueSize = getProviderProperty("max-queue-size", Integer.class, maxQueueSize);
+        maxBatchSize = getProviderProperty("max-batch-size", Integer.class, maxBatchSize);
+        maxSpilledStatements =
+                getProviderProperty("max-spilled-statements", Integer.class, maxSpilledStatements);
+        retryInitialDelay =
+                getProviderProperty("retry-initial-delay", Long.class, retryInitialDelay);
+        retryMaxDelay = getProviderProperty("retry-max-delay", Long.class, retryMaxDelay);
+        statementQueue = new LinkedBlockingQueue<PendingStatement>(maxQueueSize);
+
+        final String spillPath = getProviderProperty("spill-directory", String.class, null);
+        if (StringUtils.isNotEmpty(spillPath)) {
+            openSpillDirectory(new File(spillPath));
+        }
+    }
 
     @Override
     public boolean sendEvent(LrsStatement statement) {
@@ -40,60 +186,384 @@ public class BatchTinCanAPIProvider extends DefaultTinCanAPIProvider {
             return false;
         }
 
-        statementQueue.add(statement);
+        final String json;
+        try {
+            json = objectMapper.writeValueAsString(statement);
+        } catch (JsonProcessingException e) {
+            logger.error("Failed to serialize LRS statement: {}", statement, e);
+            return false;
+        }
+
+        final PendingStatement pending = new PendingStatement(System.currentTimeMillis(), json);
+        if (!statementQueue.offer(pending)) {
+            return spill(pending);
+        }
         return true;
     }
 
     /**
-     * Send a batch of LRS statements. MUST BE SCHEDULED! Failure to properly configure this class
-     * will result in memory leaks.
+     * Send batches of LRS statements until the queue is empty or the LRS fails a request. MUST BE
+     * SCHEDULED! Failure to properly configure this class will result in memory leaks.
      */
     public void sendBatch() {
-        LrsStatement statement = null;
-        List<LrsStatement> list = new ArrayList<LrsStatement>();
+        if (!sendLock.tryLock()) {
+            // Previous call is still sending
+            return;
+        }
+        try {
+            while (System.currentTimeMillis() >= nextAttemptTime) {
+                if (pendingBatch.isEmpty()) {
+                    fillBatch();
+                }
+                if (pendingBatch.isEmpty() || !postBatch()) {
+                    return;
+                }
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /** Write any statements that were not sent to the spill-directory. */
+    @Override
+    public void destroy() {
+        sendLock.lock();
+        try {
+            final List<PendingStatement> unsent = new ArrayList<PendingStatement>(pendingBatch);
+            unsent.addAll(reloadedStatements);
+            statementQueue.drainTo(unsent);
+            pendingBatch.clear();
+            reloadedStatements.clear();
+
+            for (final PendingStatement pending : unsent) {
+                spill(pending);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+
+        synchronized (spillLock) {
+            closeSpillWriter();
+        }
+    }
+
+    @Override
+    public int getQueuedStatementCount() {
+        return statementQueue.size();
+    }
+
+    @Override
+    public long getSpilledStatementCount() {
+        return spilledStatementCount.get();
+    }
+
+    @Override
+    public long getSentStatementCount() {
+        return sentStatementCount.get();
+    }
+
+    @Override
+    public long getDroppedStatementCount() {
+        return droppedStatementCount.get();
+    }
+
+    @Override
+    public long getFailedPostCount() {
+        return failedPostCount.get();
+    }
+
+    @Override
+    public long getRetryDelay() {
+        return Math.max(0, nextAttemptTime - System.currentTimeMillis());
+    }
+
+    @Override
+    public long getOldestStatementAge() {
+        long oldestQueuedTime = pendingBatchQueuedTime;
+        final PendingStatement oldest = statementQueue.peek();
+        if (oldest != null) {
+            oldestQueuedTime = Math.min(oldestQueuedTime, oldest.queuedTime);
+        }
+        return oldestQueuedTime == Long.MAX_VALUE
+                ? 0
+                : System.currentTimeMillis() - oldestQueuedTime;
+    }
+
+    @Override
+    public MovingAverageSample getBatchSizes() {
+        return lastBatchSize;
+    }
+
+    @Override
+    public MovingAverageSample getPostTimes() {
+        return lastPostTime;
+    }
 
-        while ((statement = statementQueue.poll()) != null) {
-            list.add(statement);
+    @Override
+    public MovingAverageSample getDeliveryLags() {
+        return lastDeliveryLag;
+    }
+
+    /** Fill the pending batch, statements reloaded from the spill-directory go first. */
+    private void fillBatch() {
+        if (reloadedStatements.isEmpty() && statementQueue.isEmpty()) {
+            reloadedStatements.addAll(readSpillFile());
         }
 
-        if (!list.isEmpty()) {
-            postStatementList(list);
+        while (pendingBatch.size() < maxBatchSize && !reloadedStatements.isEmpty()) {
+            pendingBatch.add(reloadedStatements.poll());
         }
+        statementQueue.drainTo(pendingBatch, maxBatchSize - pendingBatch.size());
     }
 
     /**
-     * Send the list of batched LRS statements to the LRS.
+     * Send the pending batch of statements to the LRS.
      *
-     * @param list the list of statements.
+     * @return true if the batch is done with, false if it needs to be retried
      */
-    private void postStatementList(List<LrsStatement> list) {
+    private boolean postBatch() {
+        final List<RawValue> list = new ArrayList<RawValue>(pendingBatch.size());
+        long oldestQueuedTime = Long.MAX_VALUE;
+        for (final PendingStatement pending : pendingBatch) {
+            list.add(new RawValue(pending.json));
+            oldestQueuedTime = Math.min(oldestQueuedTime, pending.queuedTime);
+        }
+        pendingBatchQueuedTime = oldestQueuedTime;
+
+        final long start = System.nanoTime();
         try {
             ResponseEntity<Object> response =
                     sendRequest(
                             STATEMENTS_REST_ENDPOINT, HttpMethod.POST, null, list, Object.class);
             if (response.getStatusCode().series() == Series.SUCCESSFUL) {
                 logger.trace(
-                        "LRS provider successfully sent to {}, statement list: {}",
-                        getLRSUrl(),
-                        list);
-                logger.trace("Sent batch statement.  RESULTS: " + response.getBody().toString());
-            } else {
-                logger.error(
-                        "LRS provider failed to send to {}, statement list: {}", getLRSUrl(), list);
-                logger.error("- Response: {}", response);
+                        "LRS provider successfully sent {} statements to {}",
+                        list.size(),
+                        getLRSUrl());
+
+                lastPostTime =
+                        postTimes.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                lastBatchSize = batchSizes.add(list.size());
+                lastDeliveryLag = deliveryLags.add(System.currentTimeMillis() - oldestQueuedTime);
+                sentStatementCount.addAndGet(list.size());
+                batchDone();
+                return true;
             }
-            // todo: Need to think through a strategy for handling errors submitting
-            // to the LRS.
-        } catch (HttpClientErrorException e) {
-            // log some additional info in this case...
-            logger.error(
-                    "LRS provider for URL " + getLRSUrl() + " failed to send statement list", e);
+
             logger.error(
-                    "- Status: {}, Response: {}", e.getStatusCode(), e.getResponseBodyAsString());
+                    "LRS provider failed to send {} statements to {}, will retry. Response: {}",
+                    list.size(),
+                    getLRSUrl(),
+                    response);
+        } catch (HttpClientErrorException e) {
+            final HttpStatus status = e.getStatusCode();
+            if (status != HttpStatus.TOO_MANY_REQUESTS && status != HttpStatus.REQUEST_TIMEOUT) {
+                logger.error(
+                        "LRS provider for URL "
+                                + getLRSUrl()
+                                + " rejected statement list, dropping "
+                                + list.size()
+                                + " statements",
+                        e);
+                logger.error("- Status: {}, Response: {}", status, e.getResponseBodyAsString());
+                droppedStatementCount.addAndGet(list.size());
+                batchDone();
+                return true;
+            }
 
+            logger.warn(
+                    "LRS provider for URL {} failed to send statement list, will retry. Status: {}",
+                    getLRSUrl(),
+                    status);
         } catch (Exception e) {
+            logger.warn(
+                    "LRS provider for URL "
+                            + getLRSUrl()
+                            + " failed to send statement list, will retry",
+                    e);
+        }
+
+        failedPostCount.incrementAndGet();
+        failedAttempts++;
+        final long delay =
+                Math.min(retryMaxDelay, retryInitialDelay << Math.min(failedAttempts - 1, 20));
+        nextAttemptTime = System.currentTimeMillis() + delay;
+        return false;
+    }
+
+    private void batchDone() {
+        pendingBatch.clear();
+        pendingBatchQueuedTime = Long.MAX_VALUE;
+        failedAttempts = 0;
+        nextAttemptTime = 0;
+    }
+
+    private void openSpillDirectory(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
             logger.error(
-                    "LRS provider for URL " + getLRSUrl() + " failed to send statement list", e);
+                    "Could not create spill-directory {} for LRS provider {}", directory, getId());
+            return;
+        }
+
+        final String prefix = getId() + ".";
+        final File[] files =
+                directory.listFiles(
+                        new FileFilter() {
+                            @Override
+                            public boolean accept(File file) {
+                                final String name = file.getName();
+                                return name.startsWith(prefix) && name.endsWith(SPILL_FILE_SUFFIX);
+                            }
+                        });
+
+        synchronized (spillLock) {
+            spillDirectory = directory;
+            if (files == null) {
+                return;
+            }
+
+            // File names are zero padded so they sort in the order they were written
+            Arrays.sort(files);
+            for (final File file : files) {
+                try {
+                    spilledStatementCount.addAndGet(
+                            Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+                    spillFiles.add(file);
+                } catch (IOException e) {
+                    logger.error("Failed to read spilled LRS statements from {}", file, e);
+                }
+            }
+
+            if (!spillFiles.isEmpty()) {
+                final String name = spillFiles.getLast().getName();
+                nextSpillFileNumber =
+                        Long.parseLong(
+                                        name.substring(
+                                                prefix.length(),
+                                                name.length() - SPILL_FILE_SUFFIX.length()))
+                                + 1;
+                logger.info(
+                        "LRS provider {} found {} statements in spill-directory {}",
+                        getId(),
+                        spilledStatementCount.get(),
+                        directory);
+            }
+        }
+    }
+
+    /**
+     * Append a statement to the current spill file.
+     *
+     * @return false if the statement had to be dropped
+     */
+    private boolean spill(PendingStatement pending) {
+        synchronized (spillLock) {
+            if (spillDirectory == null || spilledStatementCount.get() >= maxSpilledStatements) {
+                droppedStatementCount.incrementAndGet();
+                if (!droppingStatements) {
+                    droppingStatements = true;
+                    logger.warn(
+                            "LRS provider {} queue is full, statements are being dropped", getId());
+                }
+                return false;
+            }
+
+            try {
+                if (spillWriter == null || spillWriterCount >= maxQueueSize) {
+                    closeSpillWriter();
+                    final File file =
+                            new File(
+                                    spillDirectory,
+                                    String.format(
+                                            "%s.%019d%s",
+                                            getId(), nextSpillFileNumber++, SPILL_FILE_SUFFIX));
+                    spillWriter =
+                            Files.newBufferedWriter(
+                                    file.toPath(),
+                                    StandardCharsets.UTF_8,
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.APPEND);
+                    spillFiles.add(file);
+                }
+
+                spillWriter.write(pending.toLine());
+                spillWriter.newLine();
+                spillWriter.flush();
+                spillWriterCount++;
+                spilledStatementCount.incrementAndGet();
+                droppingStatements = false;
+                return true;
+            } catch (IOException e) {
+                logger.error("Failed to spill LRS statement to {}", spillDirectory, e);
+                droppedStatementCount.incrementAndGet();
+                return false;
+            }
+        }
+    }
+
+    /** Read and remove the oldest spill file. */
+    private List<PendingStatement> readSpillFile() {
+        synchronized (spillLock) {
+            final File file = spillFiles.poll();
+            if (file == null) {
+                return new ArrayList<PendingStatement>();
+            }
+            if (spillFiles.isEmpty()) {
+                // Reading the file that is being written
+                closeSpillWriter();
+            }
+
+            final List<PendingStatement> statements = new ArrayList<PendingStatement>();
+            try {
+                for (final String line :
+                        Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    statements.add(PendingStatement.fromLine(line));
+                }
+            } catch (IOException | RuntimeException e) {
+                // Leave the file alone, it will be tried again after a restart
+                logger.error("Failed to read spilled LRS statements from {}", file, e);
+                return new ArrayList<PendingStatement>();
+            }
+
+            spilledStatementCount.addAndGet(-statements.size());
+            if (!file.delete()) {
+                logger.warn("Failed to delete spill file {}", file);
+            }
+            return statements;
+        }
+    }
+
+    private void closeSpillWriter() {
+        if (spillWriter == null) {
+            return;
+        }
+        try {
+            spillWriter.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close spill file for LRS provider {}", getId(), e);
+        }
+        spillWriter = null;
+        spillWriterCount = 0;
+    }
+
+    /** A serialized statement and the time it was queued */
+    private static final class PendingStatement {
+        private final long queuedTime;
+        private final String json;
+
+        PendingStatement(long queuedTime, String json) {
+            this.queuedTime = queuedTime;
+            this.json = json;
+        }
+
+        String toLine() {
+            return queuedTime + "\t" + json;
+        }
+
+        static PendingStatement fromLine(String line) {
+            final int tab = line.indexOf('\t');
+            return new PendingStatement(
+                    Long.parseLong(line.substring(0, tab)), line.substring(tab + 1));
         }
     }
 }
@@ -0,0 +1,54 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.tincan.providers;
+
+import org.apereo.portal.utils.MovingAverageSample;
+
+/** JMX stats for {@link BatchTinCanAPIProvider}, one instance is registered per LRS */
+public interface BatchTinCanAPIProviderMXBean {
+
+    /** @return Number of statements held in memory waiting to be sent */
+    int getQueuedStatementCount();
+
+    /** @return Number of statements waiting to be sent in the spill-directory */
+    long getSpilledStatementCount();
+
+    /** @return Total number of statements accepted by the LRS */
+    long getSentStatementCount();
+
+    /**
+     * @return Total number of statements dropped because the queue was full or the LRS rejected
+     *     them
+     */
+    long getDroppedStatementCount();
+
+    /** @return Total number of requests to the LRS that failed and were retried */
+    long getFailedPostCount();
+
+    /** @return Milliseconds until the next retry, 0 if not waiting to retry */
+    long getRetryDelay();
+
+    /** @return Age in milliseconds of the oldest statement held in memory */
+    long getOldestStatementAge();
+
+    /** @return Number of statements sent per request */
+    MovingAverageSample getBatchSizes();
+
+    /** @return Milliseconds spent on each request to the LRS */
+    MovingAverageSample getPostTimes();
+
+    /** @return Milliseconds between the oldest statement in each batch being queued and sent */
+    MovingAverageSample getDeliveryLags();
+}
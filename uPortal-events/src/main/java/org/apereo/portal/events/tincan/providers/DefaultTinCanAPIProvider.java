@@ -222,6 +222,27 @@ public class DefaultTinCanAPIProvider implements ITinCanAPIProvider {
         return LRSUrl;
     }
 
+    /**
+     * Get the id of this provider.
+     *
+     * @return the provider id
+     */
+    protected String getId() {
+        return id;
+    }
+
+    /**
+     * Read a provider specific property, org.apereo.portal.tincan-api.{ID}.{name}
+     *
+     * @param name the name of the property, relative to this provider
+     * @param type the type of the property value
+     * @param defaultValue the value to use if the property is not set
+     * @return the property value
+     */
+    protected <T> T getProviderProperty(String name, Class<T> type, T defaultValue) {
+        return propertyResolver.getProperty(format(PROPERTY_FORMAT, id, name), type, defaultValue);
+    }
+
     /**
      * Initialize the API. Just sends an initialization event to the LRS provider. This uses the
      * activities/state API to do the initial test.
@@ -0,0 +1,324 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable transitive closure of the group-in-group memberships of one local group service. Each
+ * group key is given a dense int id, the direct parents of a group are held as an <code>int[]
+ * </code> and its ancestors (parents, their parents, and so on) as a {@link BitSet} over those ids,
+ * so answering whether one group is an ancestor of another is a single bit lookup.
+ *
+ * <p>Changes are applied with {@link #withMembershipChanges(String, Collection, Collection)} which
+ * returns a new index and leaves this one untouched; only the closures of the changed groups and of
+ * the groups below them are recomputed. Groups of other services are not part of the index.
+ *
+ * @see RDBMEntityGroupStore#getAncestryIndex()
+ */
+final class GroupAncestryIndex {
+    private static final int[] NO_PARENTS = new int[0];
+
+    private final String serviceName;
+    private final String nodeSeparator;
+    private final String version;
+    private final Map<String, Integer> ids;
+    private final String[] keys;
+    private final int[][] parents;
+    private final BitSet[] ancestors;
+
+    private GroupAncestryIndex(
+            String serviceName,
+            String nodeSeparator,
+            String version,
+            Map<String, Integer> ids,
+            String[] keys,
+            int[][] parents,
+            BitSet[] ancestors) {
+        this.serviceName = serviceName;
+        this.nodeSeparator = nodeSeparator;
+        this.version = version;
+        this.ids = ids;
+        this.keys = keys;
+        this.parents = parents;
+        this.ancestors = ancestors;
+    }
+
+    /**
+     * @param serviceName Name of the group service the local keys belong to
+     * @param nodeSeparator Separator between the service name and the local key of a group key
+     * @param version Opaque token identifying this index
+     * @param memberships Group memberships as <code>{parentKey, childKey}</code> pairs of local
+     *     keys
+     */
+    static GroupAncestryIndex build(
+            String serviceName,
+            String nodeSeparator,
+            String version,
+            Collection<String[]> memberships) {
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<String> keys = new ArrayList<>();
+        final Map<Integer, Set<Integer>> parentIds = new HashMap<>();
+        for (final String[] membership : memberships) {
+            final int parent = assignId(membership[0], ids, keys);
+            final int child = assignId(membership[1], ids, keys);
+            Set<Integer> p = parentIds.get(child);
+            if (p == null) {
+                p = new LinkedHashSet<>();
+                parentIds.put(child, p);
+            }
+            p.add(parent);
+        }
+
+        final int size = keys.size();
+        final int[][] parents = new int[size][];
+        for (int id = 0; id < size; id++) {
+            parents[id] = toArray(parentIds.get(id));
+        }
+
+        final BitSet affected = new BitSet(size);
+        affected.set(0, size);
+        final BitSet[] ancestors = computeAncestors(parents, new BitSet[size], affected);
+
+        return new GroupAncestryIndex(
+                serviceName,
+                nodeSeparator,
+                version,
+                ids,
+                keys.toArray(new String[size]),
+                parents,
+                ancestors);
+    }
+
+    /**
+     * Applies the membership changes of a single group.
+     *
+     * @param parentKey Local key of the group whose members changed
+     * @param addedChildKeys Local keys of the member groups that were added
+     * @param removedChildKeys Local keys of the member groups that were removed
+     * @param newVersion Opaque token identifying the new index
+     * @return A new index with the changes applied
+     */
+    GroupAncestryIndex withMembershipChanges(
+            String parentKey,
+            Collection<String> addedChildKeys,
+            Collection<String> removedChildKeys,
+            String newVersion) {
+        final Map<String, Integer> newIds = new HashMap<>(this.ids);
+        final List<String> newKeys = new ArrayList<>(Arrays.asList(this.keys));
+        final int parent = assignId(parentKey, newIds, newKeys);
+        for (final String childKey : addedChildKeys) {
+            assignId(childKey, newIds, newKeys);
+        }
+
+        final int size = newKeys.size();
+        final int[][] newParents = Arrays.copyOf(this.parents, size);
+        final BitSet[] newAncestors = Arrays.copyOf(this.ancestors, size);
+        for (int id = this.keys.length; id < size; id++) {
+            newParents[id] = NO_PARENTS;
+            newAncestors[id] = new BitSet();
+        }
+
+        final BitSet changed = new BitSet(size);
+        for (final String childKey : removedChildKeys) {
+            final Integer child = newIds.get(childKey);
+            if (child != null && contains(newParents[child], parent)) {
+                newParents[child] = remove(newParents[child], parent);
+                changed.set(child);
+            }
+        }
+        for (final String childKey : addedChildKeys) {
+            final int child = newIds.get(childKey);
+            if (!contains(newParents[child], parent)) {
+                newParents[child] = add(newParents[child], parent);
+                changed.set(child);
+            }
+        }
+
+        // Changing the parents of a group changes its own closure and those of its descendants,
+        // the set of descendants itself is not affected by the change.
+        final BitSet affected = (BitSet) changed.clone();
+        if (!changed.isEmpty()) {
+            for (int id = 0; id < size; id++) {
+                if (newAncestors[id].intersects(changed)) {
+                    affected.set(id);
+                }
+            }
+        }
+
+        return new GroupAncestryIndex(
+                this.serviceName,
+                this.nodeSeparator,
+                newVersion,
+                newIds,
+                newKeys.toArray(new String[size]),
+                newParents,
+                computeAncestors(newParents, newAncestors, affected));
+    }
+
+    /** @return Name of the group service whose groups are indexed */
+    String getServiceName() {
+        return this.serviceName;
+    }
+
+    /** @return Opaque token identifying this index */
+    String getVersion() {
+        return this.version;
+    }
+
+    /** @return Number of groups that are a member of, or have a member in, another group */
+    int size() {
+        return this.keys.length;
+    }
+
+    /** @return true if the group belongs to the indexed group service */
+    boolean isIndexed(IEntityGroup group) {
+        final Object groupServiceName = group.getServiceName();
+        return groupServiceName != null && this.serviceName.equals(groupServiceName.toString());
+    }
+
+    /**
+     * @param ancestorKey Local key of the possible ancestor
+     * @param key Local key of the group
+     * @return true if the group is, directly or recursively, a member of the ancestor
+     */
+    boolean isAncestor(String ancestorKey, String key) {
+        final Integer ancestor = this.ids.get(ancestorKey);
+        final Integer id = this.ids.get(key);
+        return ancestor != null && id != null && this.ancestors[id].get(ancestor);
+    }
+
+    /**
+     * @param key Local key of the group
+     * @return Full group keys (service name, separator and local key) of all ancestors of the group
+     */
+    List<String> getAncestorGroupKeys(String key) {
+        final Integer id = this.ids.get(key);
+        if (id == null) {
+            return Collections.emptyList();
+        }
+
+        final BitSet groupAncestors = this.ancestors[id];
+        final List<String> rslt = new ArrayList<>(groupAncestors.cardinality());
+        for (int a = groupAncestors.nextSetBit(0); a >= 0; a = groupAncestors.nextSetBit(a + 1)) {
+            rslt.add(this.serviceName + this.nodeSeparator + this.keys[a]);
+        }
+        return rslt;
+    }
+
+    private static int assignId(String key, Map<String, Integer> ids, List<String> keys) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = keys.size();
+            ids.put(key, id);
+            keys.add(key);
+        }
+        return id;
+    }
+
+    /**
+     * Recomputes the ancestors of the affected groups by walking up their parents. The walk stops
+     * at groups whose closure is already known, which is every group that is not affected and every
+     * affected group handled earlier in the loop. Cycles in the memberships are harmless, a group
+     * in a cycle ends up as its own ancestor.
+     */
+    private static BitSet[] computeAncestors(int[][] parents, BitSet[] ancestors, BitSet affected) {
+        final BitSet pending = (BitSet) affected.clone();
+        final BitSet visited = new BitSet(parents.length);
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (int id = affected.nextSetBit(0); id >= 0; id = affected.nextSetBit(id + 1)) {
+            final BitSet rslt = new BitSet();
+            visited.clear();
+            queue.add(id);
+            while (!queue.isEmpty()) {
+                for (final int parent : parents[queue.poll()]) {
+                    if (visited.get(parent)) {
+                        continue;
+                    }
+                    visited.set(parent);
+                    rslt.set(parent);
+                    if (pending.get(parent)) {
+                        queue.add(parent);
+                    } else {
+                        rslt.or(ancestors[parent]);
+                    }
+                }
+            }
+            ancestors[id] = rslt;
+            pending.clear(id);
+        }
+        return ancestors;
+    }
+
+    private static int[] toArray(Set<Integer> ids) {
+        if (ids == null) {
+            return NO_PARENTS;
+        }
+        final int[] rslt = new int[ids.size()];
+        int i = 0;
+        for (final Integer id : ids) {
+            rslt[i++] = id;
+        }
+        return rslt;
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (final int i : ids) {
+            if (i == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] add(int[] ids, int id) {
+        final int[] rslt = Arrays.copyOf(ids, ids.length + 1);
+        rslt[ids.length] = id;
+        return rslt;
+    }
+
+    private static int[] remove(int[] ids, int id) {
+        final int[] rslt = new int[ids.length - 1];
+        int i = 0;
+        for (final int p : ids) {
+            if (p != id) {
+                rslt[i++] = p;
+            }
+        }
+        return rslt;
+    }
+
+    @Override
+    public String toString() {
+        return "GroupAncestryIndex [serviceName="
+                + this.serviceName
+                + ", version="
+                + this.version
+                + ", size="
+                + this.keys.length
+                + "]";
+    }
+}
@@ -135,7 +135,43 @@ public abstract class GroupMemberImpl implements IGroupMember {
      */
     @Override
     public boolean isDeepMemberOf(IEntityGroup group) throws GroupsException {
-        return isMemberOf(group) ? true : group.deepContains(this);
+        if (isMemberOf(group)) {
+            return true;
+        }
+        final GroupAncestryIndex index = RDBMEntityGroupStore.getAncestryIndex();
+        if (index == null || !index.isIndexed(group)) {
+            return group.deepContains(this);
+        }
+        return primIsDeepMemberOf(this, group, index, new HashSet<>());
+    }
+
+    /**
+     * Walks up from the member until it reaches a group covered by the ancestry index, which then
+     * answers for all of that group's ancestors at once.
+     */
+    private boolean primIsDeepMemberOf(
+            IGroupMember member,
+            IEntityGroup group,
+            GroupAncestryIndex index,
+            Set<IEntityGroup> visited)
+            throws GroupsException {
+        for (IEntityGroup parent : member.getParentGroups()) {
+            if (parent.equals(group)) {
+                return true;
+            }
+            // avoid stack overflow in case of circular group dependencies
+            if (!visited.add(parent)) {
+                continue;
+            }
+            if (index.isIndexed(parent)) {
+                if (index.isAncestor(group.getLocalKey(), parent.getLocalKey())) {
+                    return true;
+                }
+            } else if (primIsDeepMemberOf(parent, group, index, visited)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /** @return boolean */
@@ -172,11 +208,22 @@ public abstract class GroupMemberImpl implements IGroupMember {
      */
     protected Set<IEntityGroup> primGetAncestorGroups(IGroupMember member, Set<IEntityGroup> rslt)
             throws GroupsException {
+        final GroupAncestryIndex index = RDBMEntityGroupStore.getAncestryIndex();
         for (IEntityGroup group : member.getParentGroups()) {
             // avoid stack overflow in case of circular group dependencies
             if (!rslt.contains(group)) {
                 rslt.add(group);
-                primGetAncestorGroups(group, rslt);
+                if (index != null && index.isIndexed(group)) {
+                    // Local groups only have local parents, all of which are in the index
+                    for (String key : index.getAncestorGroupKeys(group.getLocalKey())) {
+                        final IEntityGroup ancestor = GroupService.findGroup(key);
+                        if (ancestor != null) {
+                            rslt.add(ancestor);
+                        }
+                    }
+                } else {
+                    primGetAncestorGroups(group, rslt);
+                }
             }
         }
         return rslt;
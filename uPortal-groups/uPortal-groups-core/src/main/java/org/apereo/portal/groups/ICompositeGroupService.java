@@ -14,7 +14,12 @@
  */
 package org.apereo.portal.groups;
 
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import javax.naming.Name;
 import org.apereo.portal.EntityIdentifier;
 
@@ -37,6 +42,42 @@ public interface ICompositeGroupService extends IComponentGroupService {
      * @param gm IGroupMember
      */
     public Iterator findParentGroups(IGroupMember gm) throws GroupsException;
+
+    /**
+     * Returns the groups that contain each of the <code>IGroupMembers</code>, resolving them in as
+     * few calls to the underlying stores as possible.
+     *
+     * @param members the members to find the parent groups of
+     * @return Parent groups by member, in the order of the members
+     */
+    public default Map<IGroupMember, Set<IEntityGroup>> findParentGroups(
+            Collection<? extends IGroupMember> members) throws GroupsException {
+        final Map<IGroupMember, Set<IEntityGroup>> rslt = new LinkedHashMap<>();
+        for (IGroupMember gm : members) {
+            final Set<IEntityGroup> groups = new LinkedHashSet<>();
+            for (Iterator it = findParentGroups(gm); it.hasNext(); ) {
+                groups.add((IEntityGroup) it.next());
+            }
+            rslt.put(gm, groups);
+        }
+        return rslt;
+    }
+
+    /**
+     * Returns the members, groups and entities, of each of the <code>IEntityGroups</code>,
+     * resolving them in as few calls to the underlying stores as possible.
+     *
+     * @param groups the groups to find the members of
+     * @return Members by group, in the order of the groups
+     */
+    public default Map<IEntityGroup, Set<IGroupMember>> findMembers(
+            Collection<? extends IEntityGroup> groups) throws GroupsException {
+        final Map<IEntityGroup, Set<IGroupMember>> rslt = new LinkedHashMap<>();
+        for (IEntityGroup group : groups) {
+            rslt.put(group, new LinkedHashSet<>(group.getChildren()));
+        }
+        return rslt;
+    }
     /** Returns a pre-existing <code>IEntityGroup</code> or null if it does not exist. */
     public IEntityGroup findGroup(String key) throws GroupsException;
     /** Returns a pre-existing <code>IEntityGroup</code> or null if it does not exist. */
@@ -14,7 +14,15 @@
  */
 package org.apereo.portal.groups;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apereo.portal.EntityIdentifier;
 
 /** Interface for finding and maintaining <code>IEntityGroups</code>. */
@@ -48,6 +56,27 @@ public interface IEntityGroupStore extends IGroupConstants {
      * @param gm org.apereo.portal.groups.IEntityGroup
      */
     Iterator findParentGroups(IGroupMember gm) throws GroupsException;
+
+    /**
+     * Returns the <code>IEntityGroups</code> that each of the <code>IGroupMembers</code> belongs
+     * to. Stores that can look up many members at once should override this, the default
+     * implementation calls {@link #findParentGroups(IGroupMember)} for each member.
+     *
+     * @return Parent groups by member, in the order of the members
+     * @param members the members to find the parent groups of
+     */
+    default Map<IGroupMember, Set<IEntityGroup>> findParentGroups(
+            Collection<? extends IGroupMember> members) throws GroupsException {
+        final Map<IGroupMember, Set<IEntityGroup>> rslt = new LinkedHashMap<>();
+        for (IGroupMember gm : members) {
+            final Set<IEntityGroup> groups = new LinkedHashSet<>();
+            for (Iterator it = findParentGroups(gm); it.hasNext(); ) {
+                groups.add((IEntityGroup) it.next());
+            }
+            rslt.put(gm, groups);
+        }
+        return rslt;
+    }
     /**
      * Returns an <code>Iterator</code> over the <code>Collection</code> of <code>IEntities</code>
      * that are members of this <code>IEntityGroup</code>.
@@ -56,6 +85,27 @@ public interface IEntityGroupStore extends IGroupConstants {
      * @param group org.apereo.portal.groups.IEntityGroup
      */
     Iterator findEntitiesForGroup(IEntityGroup group) throws GroupsException;
+
+    /**
+     * Returns the <code>IEntities</code> that are members of each of the <code>IEntityGroups
+     * </code>. Stores that can look up many groups at once should override this, the default
+     * implementation calls {@link #findEntitiesForGroup(IEntityGroup)} for each group.
+     *
+     * @return Member entities by group, in the order of the groups
+     * @param groups the groups to find the member entities of
+     */
+    default Map<IEntityGroup, List<IEntity>> findEntitiesForGroups(
+            Collection<? extends IEntityGroup> groups) throws GroupsException {
+        final Map<IEntityGroup, List<IEntity>> rslt = new LinkedHashMap<>();
+        for (IEntityGroup group : groups) {
+            final List<IEntity> entities = new ArrayList<>();
+            for (Iterator it = findEntitiesForGroup(group); it.hasNext(); ) {
+                entities.add((IEntity) it.next());
+            }
+            rslt.put(group, entities);
+        }
+        return rslt;
+    }
     /**
      * Returns an instance of the <code>ILockableEntityGroup</code> from the data store.
      *
@@ -75,6 +125,24 @@ public interface IEntityGroupStore extends IGroupConstants {
      * @param group org.apereo.portal.groups.IEntityGroup
      */
     String[] findMemberGroupKeys(IEntityGroup group) throws GroupsException;
+
+    /**
+     * Returns the keys of the <code>IEntityGroups</code> that are members of each of the <code>
+     * IEntityGroups</code>, see {@link #findMemberGroupKeys(IEntityGroup)}. Stores that can look up
+     * many groups at once should override this, the default implementation calls that method for
+     * each group.
+     *
+     * @return Member group keys by group, in the order of the groups
+     * @param groups the groups to find the member group keys of
+     */
+    default Map<IEntityGroup, List<String>> findMemberGroupKeys(
+            Collection<? extends IEntityGroup> groups) throws GroupsException {
+        final Map<IEntityGroup, List<String>> rslt = new LinkedHashMap<>();
+        for (IEntityGroup group : groups) {
+            rslt.put(group, Arrays.asList(findMemberGroupKeys(group)));
+        }
+        return rslt;
+    }
     /**
      * Returns an <code>Iterator</code> over the <code>Collection</code> of <code>IEntityGroups
      * </code> that are members of this <code>IEntityGroup</code>.
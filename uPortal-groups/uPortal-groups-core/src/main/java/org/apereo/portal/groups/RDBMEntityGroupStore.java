@@ -20,14 +20,26 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apereo.portal.EntityIdentifier;
 import org.apereo.portal.jdbc.RDBMServices;
 import org.apereo.portal.services.GroupService;
+import org.apereo.portal.spring.locator.ApplicationContextLocator;
 import org.apereo.portal.spring.locator.CounterStoreLocator;
 import org.apereo.portal.spring.locator.EntityTypesLocator;
 import org.apereo.portal.utils.SqlTransaction;
@@ -63,6 +75,9 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
     private static final String MEMBER_IS_ENTITY = "F";
     private static final String MEMBER_IS_GROUP = "T";
 
+    // Max number of keys bound to a single IN list by the batch finders:
+    private static final int MAX_IN_LIST_SIZE = 500;
+
     // SQL group search string
     private static final String SEARCH_GROUPS_PARTIAL_CASE_INSENSITIVE =
             "SELECT "
@@ -107,6 +122,15 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
 
     private static final Log LOG = LogFactory.getLog(RDBMEntityGroupStore.class);
 
+    // Ancestry index of the local groups, see getAncestryIndex():
+    private static final String ANCESTRY_INDEX_CACHE_NAME =
+            "org.apereo.portal.groups.RDBMEntityGroupStore.ancestryIndex";
+    private static final String ANCESTRY_INDEX_VERSION_KEY = "version";
+    private static final Object ancestryIndexLock = new Object();
+    private static volatile GroupAncestryIndex ancestryIndex;
+    /** Resolved on first use, empty if the cache is not configured */
+    private static volatile Optional<Cache> ancestryIndexCache;
+
     private static String groupNodeSeparator;
 
     // SQL strings for GROUP crud:
@@ -128,6 +152,7 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
     private static String deleteMemberGroupSql;
     private static String deleteMemberEntitySql;
     private static String insertMemberSql;
+    private static String findGroupMembershipsSql;
 
     /** RDBMEntityGroupStore constructor. */
     public RDBMEntityGroupStore() {
@@ -264,6 +289,7 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
             } catch (SQLException sqle) {
                 throw new GroupsException("Problem deleting " + group, sqle);
             }
+            invalidateAncestryIndex();
         }
     }
 
@@ -331,6 +357,123 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
         }
     }
 
+    /**
+     * Find the groups that each of the group members belongs to. Members are looked up by type and,
+     * for groups, by service with one query per <code>MAX_IN_LIST_SIZE</code> member keys.
+     *
+     * @param members the group members in question
+     * @return Parent groups by member
+     */
+    @Override
+    public Map<IGroupMember, Set<IEntityGroup>> findParentGroups(
+            Collection<? extends IGroupMember> members) throws GroupsException {
+        final Map<IGroupMember, Set<IEntityGroup>> rslt = new LinkedHashMap<>();
+        // (memberIsGroup, serviceName, type) -> member key -> members
+        final Map<List<Object>, Map<String, List<IGroupMember>>> partitions = new LinkedHashMap<>();
+        for (IGroupMember gm : members) {
+            rslt.put(gm, new LinkedHashSet<>());
+            final List<Object> partition;
+            final String memberKey;
+            if (gm.isGroup()) {
+                final IEntityGroup group = (IEntityGroup) gm;
+                memberKey = group.getLocalKey();
+                partition =
+                        Arrays.asList(
+                                MEMBER_IS_GROUP,
+                                group.getServiceName().toString(),
+                                EntityTypesLocator.getEntityTypes()
+                                        .getEntityIDFromType(group.getLeafType()));
+            } else {
+                memberKey = gm.getKey();
+                partition =
+                        Arrays.asList(
+                                MEMBER_IS_ENTITY,
+                                null,
+                                EntityTypesLocator.getEntityTypes()
+                                        .getEntityIDFromType(gm.getLeafType()));
+            }
+            Map<String, List<IGroupMember>> membersByKey = partitions.get(partition);
+            if (membersByKey == null) {
+                membersByKey = new HashMap<>();
+                partitions.put(partition, membersByKey);
+            }
+            List<IGroupMember> keyMembers = membersByKey.get(memberKey);
+            if (keyMembers == null) {
+                keyMembers = new ArrayList<>(1);
+                membersByKey.put(memberKey, keyMembers);
+            }
+            keyMembers.add(gm);
+        }
+
+        Connection conn = null;
+        try {
+            conn = RDBMServices.getConnection();
+            for (Map.Entry<List<Object>, Map<String, List<IGroupMember>>> partition :
+                    partitions.entrySet()) {
+                final boolean isGroup = MEMBER_IS_GROUP.equals(partition.getKey().get(0));
+                final String serviceName = (String) partition.getKey().get(1);
+                final int type = (Integer) partition.getKey().get(2);
+                final Map<String, List<IGroupMember>> membersByKey = partition.getValue();
+                final Map<String, IEntityGroup> groups = new HashMap<>();
+
+                final List<String> memberKeys = new ArrayList<>(membersByKey.keySet());
+                for (int start = 0; start < memberKeys.size(); start += MAX_IN_LIST_SIZE) {
+                    final List<String> chunk =
+                            memberKeys.subList(
+                                    start, Math.min(start + MAX_IN_LIST_SIZE, memberKeys.size()));
+                    final String sql = getFindParentGroupsForMembersSql(isGroup, chunk.size());
+                    PreparedStatement ps = conn.prepareStatement(sql);
+                    try {
+                        int i = 1;
+                        ps.setInt(i++, type);
+                        if (isGroup) {
+                            ps.setString(i++, serviceName);
+                        }
+                        for (String memberKey : chunk) {
+                            ps.setString(i++, memberKey);
+                        }
+                        if (LOG.isDebugEnabled())
+                            LOG.debug(
+                                    "RDBMEntityGroupStore.findParentGroups(): "
+                                            + ps
+                                            + " ("
+                                            + type
+                                            + ", "
+                                            + serviceName
+                                            + ", "
+                                            + chunk.size()
+                                            + " member keys)");
+                        ResultSet rs = ps.executeQuery();
+                        try {
+                            while (rs.next()) {
+                                final String groupKey = rs.getString(1);
+                                IEntityGroup eg = groups.get(groupKey);
+                                if (eg == null) {
+                                    eg = instanceFromResultSet(rs);
+                                    groups.put(groupKey, eg);
+                                }
+                                for (IGroupMember gm : membersByKey.get(rs.getString(6))) {
+                                    rslt.get(gm).add(eg);
+                                }
+                            }
+                        } finally {
+                            rs.close();
+                        }
+                    } finally {
+                        ps.close();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOG.error("RDBMEntityGroupStore.findParentGroups(): " + e);
+            throw new GroupsException("Problem retrieving containing groups: " + e);
+        } finally {
+            RDBMServices.releaseConnection(conn);
+        }
+
+        return rslt;
+    }
+
     /**
      * Find the groups associated with this member key.
      *
@@ -493,6 +636,128 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
         return entities.iterator();
     }
 
+    /**
+     * Find the <code>IEntities</code> that are members of each of the <code>IEntityGroups</code>,
+     * with one query per <code>MAX_IN_LIST_SIZE</code> groups.
+     *
+     * @param groups the entity groups in question
+     * @return Member entities by group
+     */
+    @Override
+    public Map<IEntityGroup, List<IEntity>> findEntitiesForGroups(
+            Collection<? extends IEntityGroup> groups) throws GroupsException {
+        final Map<IEntityGroup, List<IEntity>> rslt = new LinkedHashMap<>();
+        final Map<String, List<IEntityGroup>> groupsByKey = new HashMap<>();
+        for (IEntityGroup group : groups) {
+            rslt.put(group, new ArrayList<>());
+            addByLocalKey(group, groupsByKey);
+        }
+
+        for (String[] row : findMembershipRows(groupsByKey.keySet(), MEMBER_IS_ENTITY)) {
+            for (IEntityGroup group : groupsByKey.get(row[0])) {
+                rslt.get(group).add(newEntity(group.getLeafType(), row[2]));
+            }
+        }
+
+        return rslt;
+    }
+
+    /**
+     * Find the keys of groups that are members of each of the groups, with one query per <code>
+     * MAX_IN_LIST_SIZE</code> groups.
+     *
+     * @param groups the IEntityGroups
+     * @return Member group keys by group
+     */
+    @Override
+    public Map<IEntityGroup, List<String>> findMemberGroupKeys(
+            Collection<? extends IEntityGroup> groups) throws GroupsException {
+        final Map<IEntityGroup, List<String>> rslt = new LinkedHashMap<>();
+        final Map<String, List<IEntityGroup>> groupsByKey = new HashMap<>();
+        for (IEntityGroup group : groups) {
+            rslt.put(group, new ArrayList<>());
+            addByLocalKey(group, groupsByKey);
+        }
+
+        for (String[] row : findMembershipRows(groupsByKey.keySet(), MEMBER_IS_GROUP)) {
+            final String groupKey = row[1] + groupNodeSeparator + row[2];
+            for (IEntityGroup group : groupsByKey.get(row[0])) {
+                rslt.get(group).add(groupKey);
+            }
+        }
+
+        return rslt;
+    }
+
+    private static void addByLocalKey(
+            IEntityGroup group, Map<String, List<IEntityGroup>> groupsByKey) {
+        List<IEntityGroup> keyGroups = groupsByKey.get(group.getLocalKey());
+        if (keyGroups == null) {
+            keyGroups = new ArrayList<>(1);
+            groupsByKey.put(group.getLocalKey(), keyGroups);
+        }
+        keyGroups.add(group);
+    }
+
+    /**
+     * Reads the membership rows of the groups.
+     *
+     * @param groupKeys local keys of the groups whose memberships are read
+     * @param isGroup <code>MEMBER_IS_GROUP</code> or <code>MEMBER_IS_ENTITY</code>
+     * @return The group id, member service and member key of each row
+     */
+    private List<String[]> findMembershipRows(Collection<String> groupKeys, String isGroup)
+            throws GroupsException {
+        final List<String[]> rslt = new ArrayList<>();
+        final List<String> keys = new ArrayList<>(groupKeys);
+        Connection conn = null;
+        try {
+            conn = RDBMServices.getConnection();
+            for (int start = 0; start < keys.size(); start += MAX_IN_LIST_SIZE) {
+                final List<String> chunk =
+                        keys.subList(start, Math.min(start + MAX_IN_LIST_SIZE, keys.size()));
+                final String sql = getFindMembershipsForGroupsSql(chunk.size());
+                PreparedStatement ps = conn.prepareStatement(sql);
+                try {
+                    int i = 1;
+                    ps.setString(i++, isGroup);
+                    for (String groupKey : chunk) {
+                        ps.setString(i++, groupKey);
+                    }
+                    if (LOG.isDebugEnabled())
+                        LOG.debug(
+                                "RDBMEntityGroupStore.findMembershipRows(): "
+                                        + ps
+                                        + " ("
+                                        + isGroup
+                                        + ", "
+                                        + chunk.size()
+                                        + " group keys)");
+                    ResultSet rs = ps.executeQuery();
+                    try {
+                        while (rs.next()) {
+                            rslt.add(
+                                    new String[] {
+                                        rs.getString(1), rs.getString(2), rs.getString(3)
+                                    });
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                } finally {
+                    ps.close();
+                }
+            }
+        } catch (SQLException sqle) {
+            LOG.error("Problem retrieving memberships for " + keys.size() + " groups", sqle);
+            throw new GroupsException("Problem retrieving memberships for groups", sqle);
+        } finally {
+            RDBMServices.releaseConnection(conn);
+        }
+
+        return rslt;
+    }
+
     /**
      * Find and return an instance of the group.
      *
@@ -826,6 +1091,77 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
 
         return findMemberGroupKeysSql;
     }
+    /**
+     * SQL to find the parent groups of up to <code>MAX_IN_LIST_SIZE</code> members of one type and,
+     * for groups, service. Selects all group columns followed by the member key.
+     */
+    private static String getFindParentGroupsForMembersSql(boolean isGroup, int memberCount) {
+        StringBuffer buff = new StringBuffer(500 + 3 * memberCount);
+        buff.append("SELECT ");
+        buff.append(getAllGroupColumnsWithTableAlias());
+        buff.append(", " + memberAlias(MEMBER_MEMBER_KEY_COLUMN));
+        buff.append(" FROM " + GROUP_TABLE_WITH_ALIAS + ", " + MEMBER_TABLE_WITH_ALIAS);
+        buff.append(" WHERE ");
+        buff.append(groupAlias(GROUP_ID_COLUMN) + EQ);
+        buff.append(memberAlias(MEMBER_GROUP_ID_COLUMN));
+        buff.append(" AND ");
+        buff.append(groupAlias(GROUP_TYPE_COLUMN) + EQUALS_PARAM);
+        if (isGroup) {
+            buff.append(" AND ");
+            buff.append(memberAlias(MEMBER_MEMBER_SERVICE_COLUMN) + EQUALS_PARAM);
+        }
+        buff.append(" AND ");
+        buff.append(memberAlias(MEMBER_IS_GROUP_COLUMN) + EQ);
+        buff.append(sqlQuote(isGroup ? MEMBER_IS_GROUP : MEMBER_IS_ENTITY));
+        buff.append(" AND ");
+        buff.append(memberAlias(MEMBER_MEMBER_KEY_COLUMN) + " IN ");
+        buff.append(getInListParams(memberCount));
+        return buff.toString();
+    }
+    /** SQL to find the membership rows of up to <code>MAX_IN_LIST_SIZE</code> groups. */
+    private static String getFindMembershipsForGroupsSql(int groupCount) {
+        StringBuffer buff = new StringBuffer(200 + 3 * groupCount);
+        buff.append("SELECT ");
+        buff.append(MEMBER_GROUP_ID_COLUMN + ", ");
+        buff.append(MEMBER_MEMBER_SERVICE_COLUMN + ", " + MEMBER_MEMBER_KEY_COLUMN);
+        buff.append(" FROM ");
+        buff.append(MEMBER_TABLE);
+        buff.append(" WHERE ");
+        buff.append(MEMBER_IS_GROUP_COLUMN + EQUALS_PARAM);
+        buff.append(" AND ");
+        buff.append(MEMBER_GROUP_ID_COLUMN + " IN ");
+        buff.append(getInListParams(groupCount));
+        return buff.toString();
+    }
+    /** @return <code>(?, ?, ...)</code> with the specified number of parameters */
+    private static String getInListParams(int count) {
+        StringBuffer buff = new StringBuffer(2 + 3 * count);
+        buff.append("(");
+        for (int i = 0; i < count; i++) {
+            buff.append(i == 0 ? "?" : ", ?");
+        }
+        buff.append(")");
+        return buff.toString();
+    }
+    /** @return String */
+    private static String getFindGroupMembershipsSql() {
+        if (findGroupMembershipsSql == null) {
+            StringBuffer buff = new StringBuffer(200);
+            buff.append("SELECT ");
+            buff.append(MEMBER_GROUP_ID_COLUMN + ", " + MEMBER_MEMBER_KEY_COLUMN);
+            buff.append(" FROM ");
+            buff.append(MEMBER_TABLE);
+            buff.append(" WHERE ");
+            buff.append(MEMBER_MEMBER_SERVICE_COLUMN + EQUALS_PARAM);
+            buff.append(" AND ");
+            buff.append(MEMBER_IS_GROUP_COLUMN + EQ);
+            buff.append(sqlQuote(MEMBER_IS_GROUP));
+
+            findGroupMembershipsSql = buff.toString();
+        }
+
+        return findGroupMembershipsSql;
+    }
     /** @return String */
     private static String getFindMemberGroupsSql() {
         if (findMemberGroupsSql == null) {
@@ -1469,6 +1805,7 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
                 }
                 primUpdateMembers((EntityGroupImpl) group, conn);
                 commit(conn);
+                updateAncestryIndex((EntityGroupImpl) group);
             } catch (Exception ex) {
                 rollback(conn);
                 throw new GroupsException("Problem updating " + this + ex);
@@ -1505,6 +1842,7 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
                 try {
                     primUpdateMembers(egi, conn);
                     commit(conn);
+                    updateAncestryIndex(egi);
                 } catch (SQLException sqle) {
                     rollback(conn);
                     throw new GroupsException("Problem updating memberships for " + egi, sqle);
@@ -1524,6 +1862,199 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
             }
     }
 
+    /**
+     * Returns the transitive closure of the group-in-group memberships of the local group service,
+     * building it from the membership table if this node has no current copy. The index is
+     * maintained incrementally as memberships are updated through this store. Other nodes in the
+     * cluster learn of a change through the replicated invalidation of a version token in the
+     * <code>org.apereo.portal.groups.RDBMEntityGroupStore.ancestryIndex</code> cache, after which
+     * they rebuild their copy on next use.
+     *
+     * @return The ancestry index, or null if it cannot be built
+     */
+    static GroupAncestryIndex getAncestryIndex() {
+        final Cache cache = getAncestryIndexCache();
+        if (cache == null) {
+            return null;
+        }
+
+        GroupAncestryIndex index = ancestryIndex;
+        if (index != null && isCurrent(index, cache)) {
+            return index;
+        }
+
+        synchronized (ancestryIndexLock) {
+            index = ancestryIndex;
+            if (index != null && isCurrent(index, cache)) {
+                return index;
+            }
+
+            try {
+                index = loadAncestryIndex();
+            } catch (Exception e) {
+                LOG.error("Failed to build the group ancestry index", e);
+                return null;
+            }
+            cache.put(new Element(ANCESTRY_INDEX_VERSION_KEY, index.getVersion()));
+            ancestryIndex = index;
+            return index;
+        }
+    }
+
+    private static boolean isCurrent(GroupAncestryIndex index, Cache cache) {
+        final Element element = cache.get(ANCESTRY_INDEX_VERSION_KEY);
+        return element != null && index.getVersion().equals(element.getObjectValue());
+    }
+
+    private static GroupAncestryIndex loadAncestryIndex() throws Exception {
+        // Read from the configuration, the index may be needed before any store is constructed
+        final GroupServiceConfiguration configuration =
+                GroupServiceConfiguration.getConfiguration();
+        final String serviceName = configuration.getDefaultService();
+        final String nodeSeparator = configuration.getNodeSeparator();
+        final List<String[]> memberships = new ArrayList<>();
+
+        final long start = System.currentTimeMillis();
+        Connection conn = RDBMServices.getConnection();
+        try {
+            PreparedStatement ps = conn.prepareStatement(getFindGroupMembershipsSql());
+            try {
+                ps.setString(1, serviceName);
+                ResultSet rs = ps.executeQuery();
+                try {
+                    while (rs.next()) {
+                        memberships.add(
+                                new String[] {
+                                    rs.getString(MEMBER_GROUP_ID_COLUMN),
+                                    rs.getString(MEMBER_MEMBER_KEY_COLUMN)
+                                });
+                    }
+                } finally {
+                    close(rs);
+                }
+            } finally {
+                close(ps);
+            }
+        } finally {
+            RDBMServices.releaseConnection(conn);
+        }
+
+        final GroupAncestryIndex rslt =
+                GroupAncestryIndex.build(
+                        serviceName, nodeSeparator, UUID.randomUUID().toString(), memberships);
+        if (LOG.isInfoEnabled()) {
+            LOG.info(
+                    "Built "
+                            + rslt
+                            + " from "
+                            + memberships.size()
+                            + " memberships in "
+                            + (System.currentTimeMillis() - start)
+                            + "ms");
+        }
+        return rslt;
+    }
+
+    /**
+     * Applies the committed membership changes of the group to the ancestry index and invalidates
+     * the copies held by other nodes.
+     */
+    private static void updateAncestryIndex(EntityGroupImpl egi) {
+        if (!egi.hasAdds() && !egi.hasDeletes()) {
+            return;
+        }
+
+        synchronized (ancestryIndexLock) {
+            final GroupAncestryIndex index = getAncestryIndex();
+            if (index == null) {
+                return;
+            }
+            if (!index.isIndexed(egi)) {
+                invalidateAncestryIndex();
+                return;
+            }
+
+            final List<String> added = new ArrayList<>();
+            for (IGroupMember gm : egi.getAddedMembers().values()) {
+                if (gm.isGroup() && index.isIndexed(gm.asGroup())) {
+                    added.add(gm.asGroup().getLocalKey());
+                }
+            }
+            final List<String> removed = new ArrayList<>();
+            for (IGroupMember gm : egi.getRemovedMembers().values()) {
+                if (gm.isGroup() && index.isIndexed(gm.asGroup())) {
+                    removed.add(gm.asGroup().getLocalKey());
+                }
+            }
+            if (added.isEmpty() && removed.isEmpty()) {
+                return;
+            }
+
+            final GroupAncestryIndex updated =
+                    index.withMembershipChanges(
+                            egi.getLocalKey(), added, removed, UUID.randomUUID().toString());
+            ancestryIndex = updated;
+            // Replacing the existing token is replicated to the other nodes as an invalidation
+            getAncestryIndexCache()
+                    .put(new Element(ANCESTRY_INDEX_VERSION_KEY, updated.getVersion()));
+        }
+    }
+
+    /** Drops the ancestry index on this and all other nodes, it is rebuilt on next use. */
+    private static void invalidateAncestryIndex() {
+        synchronized (ancestryIndexLock) {
+            ancestryIndex = null;
+            final Cache cache = getAncestryIndexCache();
+            if (cache != null) {
+                cache.remove(ANCESTRY_INDEX_VERSION_KEY);
+            }
+        }
+    }
+
+    /**
+     * Returns the cache holding the ancestry index version token, or null if it is not configured.
+     * Called on every ancestry lookup so only the first call takes a lock.
+     */
+    private static Cache getAncestryIndexCache() {
+        Optional<Cache> cache = ancestryIndexCache;
+        if (cache == null) {
+            synchronized (ancestryIndexLock) {
+                cache = ancestryIndexCache;
+                if (cache == null) {
+                    cache = resolveAncestryIndexCache();
+                    if (cache == null) {
+                        return null;
+                    }
+                    ancestryIndexCache = cache;
+                }
+            }
+        }
+        return cache.orElse(null);
+    }
+
+    /** @return The cache if configured, empty if not, null if it cannot be resolved yet */
+    private static Optional<Cache> resolveAncestryIndexCache() {
+        final CacheManager cacheManager;
+        try {
+            cacheManager =
+                    ApplicationContextLocator.getApplicationContext()
+                            .getBean("cacheManager", CacheManager.class);
+        } catch (RuntimeException e) {
+            // Not remembered, the application context may not be available yet
+            LOG.warn("Group ancestry index is not available: " + e.getMessage());
+            return null;
+        }
+
+        final Cache cache = cacheManager.getCache(ANCESTRY_INDEX_CACHE_NAME);
+        if (cache == null) {
+            LOG.warn(
+                    "Group ancestry index is disabled, no cache named '"
+                            + ANCESTRY_INDEX_CACHE_NAME
+                            + "' is configured");
+        }
+        return Optional.ofNullable(cache);
+    }
+
     private static final void close(final Statement statement) {
         if (statement != null) {
             try {
@@ -16,8 +16,11 @@ package org.apereo.portal.groups;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -64,6 +67,72 @@ public class ReferenceCompositeGroupService extends ReferenceComponentGroupServi
         }
         return allGroups.iterator();
     }
+    /**
+     * Returns groups that contain each of the <code>IGroupMembers</code>. Each component service is
+     * asked once, for the members it might actually contain a membership for.
+     *
+     * @param members the members to find the parent groups of
+     */
+    @Override
+    public Map<IGroupMember, Set<IEntityGroup>> findParentGroups(
+            Collection<? extends IGroupMember> members) throws GroupsException {
+        final Map<IGroupMember, Set<IEntityGroup>> rslt = new LinkedHashMap<>();
+        for (IGroupMember gm : members) {
+            rslt.put(gm, new LinkedHashSet<>());
+        }
+
+        for (IIndividualGroupService service :
+                (Collection<IIndividualGroupService>) getComponentServices().values()) {
+            final List<IGroupMember> serviceMembers = new ArrayList<>();
+            for (IGroupMember gm : rslt.keySet()) {
+                if (!gm.isGroup()
+                        || service.isEditable()
+                        || getComponentService(((IEntityGroup) gm).getServiceName()) == service) {
+                    serviceMembers.add(gm);
+                }
+            }
+            if (!serviceMembers.isEmpty()) {
+                for (Map.Entry<IGroupMember, Set<IEntityGroup>> entry :
+                        service.findParentGroups(serviceMembers).entrySet()) {
+                    rslt.get(entry.getKey()).addAll(entry.getValue());
+                }
+            }
+        }
+        return rslt;
+    }
+    /**
+     * Returns the members of each of the <code>IEntityGroups</code>. The groups are handed to their
+     * own component service, once per service.
+     *
+     * @param groups the groups to find the members of
+     */
+    @Override
+    public Map<IEntityGroup, Set<IGroupMember>> findMembers(
+            Collection<? extends IEntityGroup> groups) throws GroupsException {
+        final Map<IIndividualGroupService, List<IEntityGroup>> groupsByService =
+                new LinkedHashMap<>();
+        final Map<IEntityGroup, Set<IGroupMember>> rslt = new LinkedHashMap<>();
+        for (IEntityGroup group : groups) {
+            rslt.put(group, Collections.<IGroupMember>emptySet());
+            final IIndividualGroupService service = getComponentService(group.getServiceName());
+            if (service == null) {
+                rslt.put(group, new LinkedHashSet<>(group.getChildren()));
+                continue;
+            }
+            List<IEntityGroup> serviceGroups = groupsByService.get(service);
+            if (serviceGroups == null) {
+                serviceGroups = new ArrayList<>();
+                groupsByService.put(service, serviceGroups);
+            }
+            serviceGroups.add(group);
+        }
+
+        for (Map.Entry<IIndividualGroupService, List<IEntityGroup>> entry :
+                groupsByService.entrySet()) {
+            rslt.putAll(entry.getKey().findMembers(entry.getValue()));
+        }
+        return rslt;
+    }
     /**
      * Returns a pre-existing <code>IEntityGroup</code> or null if the <code>IGroupMember</code>
      * does not exist.
@@ -19,8 +19,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apereo.portal.EntityIdentifier;
 import org.apereo.portal.concurrency.CachingException;
 import org.apereo.portal.concurrency.IEntityLock;
@@ -192,6 +195,32 @@ public class ReferenceIndividualGroupService extends ReferenceCompositeGroupServ
         return groups.iterator();
     }
 
+    /**
+     * Returns and caches the containing groups of each of the <code>IGroupMembers</code>, looked up
+     * in a single call to the group store.
+     */
+    @Override
+    public Map<IGroupMember, Set<IEntityGroup>> findParentGroups(
+            Collection<? extends IGroupMember> members) throws GroupsException {
+        log.debug("Finding containing groups for {} members", members.size());
+        final Map<IGroupMember, Set<IEntityGroup>> rslt = getGroupStore().findParentGroups(members);
+        for (Set<IEntityGroup> groups : rslt.values()) {
+            for (IEntityGroup group : groups) {
+                group.setLocalGroupService(this);
+                if (cacheInUse()) {
+                    try {
+                        if (getGroupFromCache(group.getEntityIdentifier().getKey()) == null) {
+                            cacheAdd(group);
+                        }
+                    } catch (CachingException ce) {
+                        throw new GroupsException("Problem finding containing groups", ce);
+                    }
+                }
+            }
+        }
+        return rslt;
+    }
+
     /** Returns a pre-existing <code>IEntityGroup</code> or null if it does not exist. */
     @Override
     public IEntityGroup findGroup(String key) throws GroupsException {
@@ -323,6 +352,45 @@ public class ReferenceIndividualGroupService extends ReferenceCompositeGroupServ
         return groups.values().iterator();
     }
 
+    /**
+     * Returns the members of each of the <code>IEntityGroups</code>. The member group keys and the
+     * member entities of all the groups are each looked up in a single call to the group store, the
+     * member groups are then found through the <code>GroupService</code> once per distinct key.
+     */
+    @Override
+    public Map<IEntityGroup, Set<IGroupMember>> findMembers(
+            Collection<? extends IEntityGroup> groups) throws GroupsException {
+        final Map<IEntityGroup, List<String>> memberGroupKeys =
+                getGroupStore().findMemberGroupKeys(groups);
+        final Map<IEntityGroup, List<IEntity>> memberEntities =
+                getGroupStore().findEntitiesForGroups(groups);
+
+        final Map<String, IEntityGroup> memberGroups = new HashMap<>();
+        final Map<IEntityGroup, Set<IGroupMember>> rslt = new LinkedHashMap<>();
+        for (IEntityGroup group : groups) {
+            final Set<IGroupMember> members = new LinkedHashSet<>();
+            final List<String> keys = memberGroupKeys.get(group);
+            if (keys != null) {
+                for (String key : keys) {
+                    IEntityGroup memberGroup = memberGroups.get(key);
+                    if (memberGroup == null && !memberGroups.containsKey(key)) {
+                        memberGroup = GroupService.findGroup(key);
+                        memberGroups.put(key, memberGroup);
+                    }
+                    if (memberGroup != null) {
+                        members.add(memberGroup);
+                    }
+                }
+            }
+            final List<IEntity> entities = memberEntities.get(group);
+            if (entities != null) {
+                members.addAll(entities);
+            }
+            rslt.put(group, members);
+        }
+        return rslt;
+    }
+
     /**
      * Returns and members for the <code>IEntityGroup</code>.
      *
@@ -14,7 +14,10 @@
  */
 package org.apereo.portal.services;
 
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 import javax.naming.InvalidNameException;
 import javax.naming.Name;
 import org.apereo.portal.EntityIdentifier;
@@ -69,6 +72,34 @@ public final class GroupService implements IGroupConstants {
         return instance().ifindParentGroups(gm);
     }
 
+    /**
+     * Returns the groups that contain each of the <code>IGroupMembers</code>. Prefer this over
+     * calling {@link #findParentGroups(IGroupMember)} in a loop, the group stores can resolve the
+     * members in a single query.
+     *
+     * @param members the members to find the parent groups of
+     * @return Parent groups by member, in the order of the members
+     */
+    public static Map<IGroupMember, Set<IEntityGroup>> findParentGroups(
+            Collection<? extends IGroupMember> members) throws GroupsException {
+        LOGGER.trace("Invoking findParentGroups for {} IGroupMembers", members.size());
+        return instance().ifindParentGroups(members);
+    }
+
+    /**
+     * Returns the members, groups and entities, of each of the <code>IEntityGroups</code>. Prefer
+     * this over calling <code>getChildren()</code> on each group in a loop when the members are not
+     * likely to be cached, the group stores can resolve the groups in a single query.
+     *
+     * @param groups the groups to find the members of
+     * @return Members by group, in the order of the groups
+     */
+    public static Map<IEntityGroup, Set<IGroupMember>> findMembers(
+            Collection<? extends IEntityGroup> groups) throws GroupsException {
+        LOGGER.trace("Invoking findMembers for {} IEntityGroups", groups.size());
+        return instance().ifindMembers(groups);
+    }
+
     /**
      * Returns a pre-existing <code>IEntityGroup</code> or null if the <code>IGroupMember</code>
      * does not exist.
@@ -218,6 +249,26 @@ public final class GroupService implements IGroupConstants {
         return compositeGroupService.findParentGroups(gm);
     }
 
+    /**
+     * Returns the groups that contain each of the <code>IGroupMembers</code>.
+     *
+     * @param members the members to find the parent groups of
+     */
+    private Map<IGroupMember, Set<IEntityGroup>> ifindParentGroups(
+            Collection<? extends IGroupMember> members) throws GroupsException {
+        return compositeGroupService.findParentGroups(members);
+    }
+
+    /**
+     * Returns the members of each of the <code>IEntityGroups</code>.
+     *
+     * @param groups the groups to find the members of
+     */
+    private Map<IEntityGroup, Set<IGroupMember>> ifindMembers(
+            Collection<? extends IEntityGroup> groups) throws GroupsException {
+        return compositeGroupService.findMembers(groups);
+    }
+
     /**
      * Returns a pre-existing <code>IEntityGroup</code> or null if the <code>IGroupMember</code>
      * does not exist.
@@ -0,0 +1,251 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class GroupAncestryIndexTest {
+    private static final String SERVICE_NAME = "local";
+    private static final String NODE_SEPARATOR = ".";
+
+    @Test
+    public void testBuild() {
+        final GroupAncestryIndex index = build(edge("a", "b"), edge("b", "c"), edge("d", "c"));
+
+        assertEquals(SERVICE_NAME, index.getServiceName());
+        assertEquals("v1", index.getVersion());
+        assertEquals(4, index.size());
+        assertEquals(keys("a", "b", "d"), ancestors(index, "c"));
+        assertEquals(keys("a"), ancestors(index, "b"));
+        assertEquals(keys(), ancestors(index, "a"));
+        assertEquals(keys(), ancestors(index, "unknown"));
+        assertEquals(
+                new HashSet<>(Arrays.asList("local.a", "local.b", "local.d")),
+                new HashSet<>(index.getAncestorGroupKeys("c")));
+
+        assertTrue(index.isAncestor("a", "c"));
+        assertFalse(index.isAncestor("c", "a"));
+        assertFalse(index.isAncestor("d", "b"));
+        assertFalse(index.isAncestor("a", "unknown"));
+        assertFalse(index.isAncestor("unknown", "c"));
+    }
+
+    @Test
+    public void testAddMemberships() {
+        final GroupAncestryIndex index = build(edge("a", "b"), edge("c", "d"));
+
+        final GroupAncestryIndex updated =
+                index.withMembershipChanges("b", list("c"), list(), "v2");
+        assertEquals("v2", updated.getVersion());
+        assertEquals(keys("a", "b", "c"), ancestors(updated, "d"));
+        assertEquals(keys("a", "b"), ancestors(updated, "c"));
+
+        // The original index is left untouched
+        assertEquals("v1", index.getVersion());
+        assertEquals(keys("c"), ancestors(index, "d"));
+
+        // Groups that were not in the index yet are added to it
+        final GroupAncestryIndex added =
+                updated.withMembershipChanges("x", list("a", "y"), list(), "v3");
+        assertEquals(6, added.size());
+        assertEquals(keys("x", "a", "b", "c"), ancestors(added, "d"));
+        assertEquals(keys("x"), ancestors(added, "y"));
+        assertEquals(4, updated.size());
+    }
+
+    @Test
+    public void testRemoveMembership() {
+        final GroupAncestryIndex index =
+                build(edge("a", "b"), edge("b", "c"), edge("c", "d"), edge("x", "d"));
+
+        final GroupAncestryIndex updated =
+                index.withMembershipChanges("a", list(), list("b"), "v2");
+        assertEquals(keys(), ancestors(updated, "b"));
+        assertEquals(keys("b"), ancestors(updated, "c"));
+        assertEquals(keys("b", "c", "x"), ancestors(updated, "d"));
+        assertEquals(keys("a", "b", "c", "x"), ancestors(index, "d"));
+    }
+
+    @Test
+    public void testRemoveOneOfTwoPathsToAnAncestor() {
+        final GroupAncestryIndex index =
+                build(edge("a", "b"), edge("a", "c"), edge("b", "d"), edge("c", "d"));
+
+        final GroupAncestryIndex withoutB =
+                index.withMembershipChanges("b", list(), list("d"), "v2");
+        assertEquals(keys("a", "c"), ancestors(withoutB, "d"));
+        assertTrue(withoutB.isAncestor("a", "d"));
+
+        final GroupAncestryIndex withoutBoth =
+                withoutB.withMembershipChanges("c", list(), list("d"), "v3");
+        assertEquals(keys(), ancestors(withoutBoth, "d"));
+        assertFalse(withoutBoth.isAncestor("a", "d"));
+    }
+
+    @Test
+    public void testUnchangedMemberships() {
+        final GroupAncestryIndex index = build(edge("a", "b"), edge("b", "c"));
+
+        final GroupAncestryIndex updated =
+                index.withMembershipChanges("a", list("b"), list("c", "unknown"), "v2");
+        assertEquals(3, updated.size());
+        assertEquals(keys("a", "b"), ancestors(updated, "c"));
+        assertEquals(keys("a"), ancestors(updated, "b"));
+    }
+
+    @Test
+    public void testCycles() {
+        final GroupAncestryIndex index =
+                build(edge("a", "b"), edge("b", "c"), edge("c", "a"), edge("c", "d"));
+
+        // A group in a cycle is its own ancestor
+        assertEquals(keys("a", "b", "c"), ancestors(index, "a"));
+        assertEquals(keys("a", "b", "c"), ancestors(index, "c"));
+        assertEquals(keys("a", "b", "c"), ancestors(index, "d"));
+
+        final GroupAncestryIndex broken = index.withMembershipChanges("c", list(), list("a"), "v2");
+        assertEquals(keys(), ancestors(broken, "a"));
+        assertEquals(keys("a", "b"), ancestors(broken, "c"));
+        assertEquals(keys("a", "b", "c"), ancestors(broken, "d"));
+
+        final GroupAncestryIndex closed =
+                broken.withMembershipChanges("d", list("a"), list(), "v3");
+        assertEquals(keys("a", "b", "c", "d"), ancestors(closed, "a"));
+        assertEquals(keys("a", "b", "c", "d"), ancestors(closed, "d"));
+    }
+
+    @Test
+    public void testRandomGraphsAgreeWithRecursiveWalk() {
+        final Random random = new Random(8675309);
+        for (int graph = 0; graph < 20; graph++) {
+            final int groupCount = 5 + random.nextInt(40);
+            final Map<String, Set<String>> parents = new HashMap<>();
+            final List<String[]> memberships = new ArrayList<>();
+            final int edgeCount = random.nextInt(groupCount * 2);
+            for (int i = 0; i < edgeCount; i++) {
+                final String parent = "g" + random.nextInt(groupCount);
+                final String child = "g" + random.nextInt(groupCount);
+                if (addParent(parents, parent, child)) {
+                    memberships.add(edge(parent, child));
+                }
+            }
+
+            GroupAncestryIndex index =
+                    GroupAncestryIndex.build(SERVICE_NAME, NODE_SEPARATOR, "v0", memberships);
+            assertAgrees(index, parents, groupCount);
+
+            for (int change = 0; change < 30; change++) {
+                final String parent = "g" + random.nextInt(groupCount);
+                final List<String> added = new ArrayList<>();
+                final List<String> removed = new ArrayList<>();
+                for (int i = random.nextInt(4); i > 0; i--) {
+                    final String child = "g" + random.nextInt(groupCount);
+                    if (added.contains(child) || removed.contains(child)) {
+                        continue;
+                    }
+                    if (random.nextBoolean()) {
+                        if (addParent(parents, parent, child)) {
+                            added.add(child);
+                        }
+                    } else if (parents.containsKey(child) && parents.get(child).remove(parent)) {
+                        removed.add(child);
+                    }
+                }
+                index = index.withMembershipChanges(parent, added, removed, "v" + change);
+                assertAgrees(index, parents, groupCount);
+            }
+        }
+    }
+
+    private static void assertAgrees(
+            GroupAncestryIndex index, Map<String, Set<String>> parents, int groupCount) {
+        for (int g = 0; g < groupCount; g++) {
+            final String key = "g" + g;
+            final Set<String> expected = walkAncestors(key, parents, new HashSet<>());
+            assertEquals(key, expected, ancestors(index, key));
+            for (int a = 0; a < groupCount; a++) {
+                assertEquals(
+                        "g" + a + " -> " + key,
+                        expected.contains("g" + a),
+                        index.isAncestor("g" + a, key));
+            }
+        }
+    }
+
+    /** The recursive walk the index replaces, see GroupMemberImpl.primGetAncestorGroups(). */
+    private static Set<String> walkAncestors(
+            String key, Map<String, Set<String>> parents, Set<String> rslt) {
+        final Set<String> keyParents = parents.get(key);
+        if (keyParents != null) {
+            for (String parent : keyParents) {
+                if (rslt.add(parent)) {
+                    walkAncestors(parent, parents, rslt);
+                }
+            }
+        }
+        return rslt;
+    }
+
+    private static boolean addParent(
+            Map<String, Set<String>> parents, String parent, String child) {
+        Set<String> childParents = parents.get(child);
+        if (childParents == null) {
+            childParents = new HashSet<>();
+            parents.put(child, childParents);
+        }
+        return childParents.add(parent);
+    }
+
+    private static GroupAncestryIndex build(String[]... memberships) {
+        return GroupAncestryIndex.build(
+                SERVICE_NAME, NODE_SEPARATOR, "v1", Arrays.asList(memberships));
+    }
+
+    private static Set<String> ancestors(GroupAncestryIndex index, String key) {
+        final Set<String> rslt = new HashSet<>();
+        for (String groupKey : index.getAncestorGroupKeys(key)) {
+            assertTrue(groupKey, groupKey.startsWith(SERVICE_NAME + NODE_SEPARATOR));
+            rslt.add(groupKey.substring(SERVICE_NAME.length() + NODE_SEPARATOR.length()));
+        }
+        return rslt;
+    }
+
+    private static String[] edge(String parentKey, String childKey) {
+        return new String[] {parentKey, childKey};
+    }
+
+    private static Set<String> keys(String... keys) {
+        return new LinkedHashSet<>(Arrays.asList(keys));
+    }
+
+    private static Collection<String> list(String... keys) {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+}
@@ -0,0 +1,474 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.apereo.portal.EntityTypes;
+import org.apereo.portal.jdbc.PortalDbLocator;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.services.GroupService;
+import org.apereo.portal.spring.locator.ApplicationContextLocator;
+import org.apereo.portal.spring.locator.EntityTypesLocator;
+import org.apereo.portal.spring.locator.ReferenceEntitySearcherLocator;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Tests RDBMEntityGroupStore against an in-memory HSQL database, through the group services of
+ * <code>/properties/groups/compositeGroupServices.xml</code>.
+ */
+public class RDBMEntityGroupStoreTest {
+    private static final int GROUP_TYPE_ID = 1;
+    private static final int PERSON_TYPE_ID = 3;
+    private static final String ANCESTRY_INDEX_CACHE_NAME =
+            "org.apereo.portal.groups.RDBMEntityGroupStore.ancestryIndex";
+    private static final String ANCESTRY_INDEX_VERSION_KEY = "version";
+    /** More groups and people than fit in a single IN list of the store */
+    private static final int BATCH_GROUP_COUNT = 600;
+
+    private static final int BATCH_PERSON_COUNT = 1200;
+
+    private static EmbeddedDatabase dataSource;
+    private static JdbcTemplate jdbcTemplate;
+    private static CacheManager cacheManager;
+    private static PortalDbLocator portalDbLocator;
+    private static EntityTypesLocator entityTypesLocator;
+    private static ApplicationContextLocator applicationContextLocator;
+    private static ReferenceEntitySearcherLocator entitySearcherLocator;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        dataSource =
+                new EmbeddedDatabaseBuilder()
+                        .setType(EmbeddedDatabaseType.HSQL)
+                        .setName(RDBMEntityGroupStoreTest.class.getSimpleName())
+                        .build();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute(
+                "CREATE TABLE UP_ENTITY_TYPE (ENTITY_TYPE_ID INTEGER PRIMARY KEY,"
+                        + " ENTITY_TYPE_NAME VARCHAR(255), DESCRIPTIVE_NAME VARCHAR(255))");
+        jdbcTemplate.update(
+                "INSERT INTO UP_ENTITY_TYPE VALUES (?, ?, ?)",
+                GROUP_TYPE_ID,
+                IEntityGroup.class.getName(),
+                "Group");
+        jdbcTemplate.update(
+                "INSERT INTO UP_ENTITY_TYPE VALUES (?, ?, ?)",
+                PERSON_TYPE_ID,
+                IPerson.class.getName(),
+                "Person");
+        jdbcTemplate.execute(
+                "CREATE TABLE UP_GROUP (GROUP_ID VARCHAR(240) PRIMARY KEY,"
+                        + " CREATOR_ID VARCHAR(240) NOT NULL, ENTITY_TYPE_ID INTEGER NOT NULL,"
+                        + " GROUP_NAME VARCHAR(255) NOT NULL, DESCRIPTION VARCHAR(255))");
+        jdbcTemplate.execute(
+                "CREATE TABLE UP_GROUP_MEMBERSHIP (GROUP_ID VARCHAR(200) NOT NULL,"
+                        + " MEMBER_SERVICE VARCHAR(80) NOT NULL, MEMBER_KEY VARCHAR(200) NOT NULL,"
+                        + " MEMBER_IS_GROUP VARCHAR(1) NOT NULL,"
+                        + " PRIMARY KEY (GROUP_ID, MEMBER_SERVICE, MEMBER_KEY, MEMBER_IS_GROUP))");
+
+        final Configuration configuration = new Configuration();
+        configuration.setName(RDBMEntityGroupStoreTest.class.getName());
+        configuration.setUpdateCheck(false);
+        configuration.addDefaultCache(new CacheConfiguration("default", 0));
+        cacheManager = new CacheManager(configuration);
+        cacheManager.addCache(ANCESTRY_INDEX_CACHE_NAME);
+        cacheManager.addCache("org.apereo.portal.groups.EntityGroupImpl.children");
+        cacheManager.addCache("org.apereo.portal.groups.GroupMemberImpl.parentGroups");
+
+        final StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getBeanFactory().registerSingleton("cacheManager", cacheManager);
+        applicationContext.refresh();
+
+        final EntityTypes entityTypes = new EntityTypes();
+        entityTypes.setJdbcOperations(jdbcTemplate);
+
+        portalDbLocator = new PortalDbLocator(dataSource);
+        portalDbLocator.afterPropertiesSet();
+        entityTypesLocator = new EntityTypesLocator(entityTypes);
+        entityTypesLocator.afterPropertiesSet();
+        applicationContextLocator = new ApplicationContextLocator(applicationContext);
+        applicationContextLocator.afterPropertiesSet();
+        entitySearcherLocator = new ReferenceEntitySearcherLocator(mock(IEntitySearcher.class));
+        entitySearcherLocator.afterPropertiesSet();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        entitySearcherLocator.destroy();
+        applicationContextLocator.destroy();
+        entityTypesLocator.destroy();
+        portalDbLocator.destroy();
+        cacheManager.shutdown();
+        dataSource.shutdown();
+    }
+
+    @Before
+    public void setUp() {
+        jdbcTemplate.update("DELETE FROM UP_GROUP_MEMBERSHIP");
+        jdbcTemplate.update("DELETE FROM UP_GROUP");
+        cacheManager.clearAll();
+        ReflectionTestUtils.setField(RDBMEntityGroupStore.class, "ancestryIndexCache", null);
+
+        // L1 > L2 > L3 < L4, O1 > L1 and L2 > O2 where the O groups belong to the other service
+        addGroups("L1", "L2", "L3", "L4", "O1", "O2");
+        addMembership("L1", "local", "L2", true);
+        addMembership("L2", "local", "L3", true);
+        addMembership("L4", "local", "L3", true);
+        addMembership("O1", "local", "L1", true);
+        addMembership("L2", "other", "O2", true);
+        addMembership("L3", "local", "alice", false);
+    }
+
+    @Test
+    public void testAncestryIndexIsBuiltFromMemberships() throws Exception {
+        final GroupAncestryIndex index = RDBMEntityGroupStore.getAncestryIndex();
+        assertNotNull(index);
+        assertEquals("local", index.getServiceName());
+        assertTrue(index.isAncestor("L1", "L3"));
+        assertTrue(index.isAncestor("L4", "L3"));
+        assertFalse(index.isAncestor("L4", "L2"));
+        // Memberships of groups of other services are not indexed
+        assertFalse(index.isAncestor("L2", "O2"));
+        assertSame(index, RDBMEntityGroupStore.getAncestryIndex());
+
+        for (String key : new String[] {"local.L1", "local.L2", "local.L3", "local.L4"}) {
+            final IEntityGroup group = GroupService.findGroup(key);
+            assertEquals(key, walkAncestors(group, new HashSet<>()), group.getAncestorGroups());
+        }
+        final IGroupMember alice = GroupService.getGroupMember("alice", IPerson.class);
+        assertEquals(walkAncestors(alice, new HashSet<>()), alice.getAncestorGroups());
+        assertTrue(alice.isDeepMemberOf(GroupService.findGroup("local.L1")));
+        assertFalse(alice.isDeepMemberOf(GroupService.findGroup("other.O2")));
+    }
+
+    @Test
+    public void testMembershipUpdatesAreAppliedToTheIndex() throws Exception {
+        final GroupAncestryIndex index = RDBMEntityGroupStore.getAncestryIndex();
+
+        final IEntityGroup l4 = GroupService.findGroup("local.L4");
+        l4.addChild(GroupService.findGroup("local.L1"));
+        l4.updateMembers();
+
+        final GroupAncestryIndex added = RDBMEntityGroupStore.getAncestryIndex();
+        assertNotEquals(index.getVersion(), added.getVersion());
+        assertEquals(added.getVersion(), getAncestryIndexVersion());
+        assertTrue(added.isAncestor("L4", "L2"));
+        assertFalse(index.isAncestor("L4", "L2"));
+
+        l4.removeChild(GroupService.findGroup("local.L3"));
+        l4.updateMembers();
+
+        final GroupAncestryIndex removed = RDBMEntityGroupStore.getAncestryIndex();
+        assertNotEquals(added.getVersion(), removed.getVersion());
+        assertEquals(removed.getVersion(), getAncestryIndexVersion());
+        // L3 is still below L4 through L1 and L2
+        assertTrue(removed.isAncestor("L4", "L3"));
+        assertEquals(
+                new HashSet<>(removed.getAncestorGroupKeys("L3")),
+                new HashSet<>(rebuildAncestryIndex().getAncestorGroupKeys("L3")));
+    }
+
+    @Test
+    public void testMembershipUpdateOfOtherServiceInvalidatesIndex() throws Exception {
+        final GroupAncestryIndex index = RDBMEntityGroupStore.getAncestryIndex();
+
+        final EntityGroupImpl o2 = (EntityGroupImpl) GroupService.findGroup("other.O2");
+        final IEntityGroup l4 = GroupService.findGroup("local.L4");
+        o2.getAddedMembers().put(l4.getEntityIdentifier().getKey(), l4);
+        RDBMEntityGroupStore.singleton().updateMembers(o2);
+
+        assertNull(getAncestryIndexVersion());
+        final GroupAncestryIndex rebuilt = RDBMEntityGroupStore.getAncestryIndex();
+        assertNotEquals(index.getVersion(), rebuilt.getVersion());
+        assertEquals(rebuilt.getVersion(), getAncestryIndexVersion());
+    }
+
+    @Test
+    public void testDeleteInvalidatesIndex() throws Exception {
+        final GroupAncestryIndex index = RDBMEntityGroupStore.getAncestryIndex();
+        assertTrue(index.isAncestor("L1", "L3"));
+
+        RDBMEntityGroupStore.singleton().delete(GroupService.findGroup("local.L2"));
+
+        assertNull(getAncestryIndexVersion());
+        final GroupAncestryIndex rebuilt = RDBMEntityGroupStore.getAncestryIndex();
+        assertNotEquals(index.getVersion(), rebuilt.getVersion());
+        assertFalse(rebuilt.isAncestor("L1", "L3"));
+        assertTrue(rebuilt.isAncestor("L4", "L3"));
+    }
+
+    @Test
+    public void testIndexIsRebuiltAfterChangeOnAnotherNode() throws Exception {
+        final GroupAncestryIndex index = RDBMEntityGroupStore.getAncestryIndex();
+        addMembership("L3", "local", "L4", true);
+        assertSame(index, RDBMEntityGroupStore.getAncestryIndex());
+
+        // Replacing the token is what other nodes see of an update on this node
+        cacheManager
+                .getCache(ANCESTRY_INDEX_CACHE_NAME)
+                .put(new Element(ANCESTRY_INDEX_VERSION_KEY, "another node"));
+
+        final GroupAncestryIndex rebuilt = RDBMEntityGroupStore.getAncestryIndex();
+        assertNotEquals(index.getVersion(), rebuilt.getVersion());
+        assertTrue(rebuilt.isAncestor("L3", "L4"));
+        assertTrue(rebuilt.isAncestor("L4", "L4"));
+    }
+
+    @Test
+    public void testMissingCacheIsResolvedOnce() throws Exception {
+        cacheManager.removeCache(ANCESTRY_INDEX_CACHE_NAME);
+        try {
+            assertNull(RDBMEntityGroupStore.getAncestryIndex());
+            assertTrue(
+                    GroupService.findGroup("local.L3")
+                            .isDeepMemberOf(GroupService.findGroup("local.L1")));
+
+            // The missing cache is remembered rather than looked up again
+            cacheManager.addCache(ANCESTRY_INDEX_CACHE_NAME);
+            assertNull(RDBMEntityGroupStore.getAncestryIndex());
+        } finally {
+            if (!cacheManager.cacheExists(ANCESTRY_INDEX_CACHE_NAME)) {
+                cacheManager.addCache(ANCESTRY_INDEX_CACHE_NAME);
+            }
+        }
+
+        ReflectionTestUtils.setField(RDBMEntityGroupStore.class, "ancestryIndexCache", null);
+        assertNotNull(RDBMEntityGroupStore.getAncestryIndex());
+    }
+
+    @Test
+    public void testBatchFindParentGroupsMatchesPerMember() throws Exception {
+        addBatchMemberships();
+        final List<IGroupMember> members = new ArrayList<>(getBatchGroups());
+        for (int i = 0; i < BATCH_PERSON_COUNT; i++) {
+            members.add(GroupService.getGroupMember("p" + i, IPerson.class));
+        }
+        // Not a member of any group
+        members.add(GroupService.getGroupMember("nobody", IPerson.class));
+
+        final RDBMEntityGroupStore store = RDBMEntityGroupStore.singleton();
+        final Map<IGroupMember, Set<IEntityGroup>> batch = store.findParentGroups(members);
+        assertEquals(members, new ArrayList<>(batch.keySet()));
+        for (IGroupMember member : members) {
+            assertEquals(
+                    member.getKey(),
+                    toKeys(store.findParentGroups(member)),
+                    toKeys(batch.get(member).iterator()));
+        }
+
+        final Map<IGroupMember, Set<IEntityGroup>> composite =
+                GroupService.findParentGroups(members);
+        assertEquals(members, new ArrayList<>(composite.keySet()));
+        for (IGroupMember member : members) {
+            assertEquals(
+                    member.getKey(),
+                    toKeys(GroupService.findParentGroups(member)),
+                    toKeys(composite.get(member).iterator()));
+        }
+    }
+
+    @Test
+    public void testBatchFindMembershipsMatchesPerGroup() throws Exception {
+        addBatchMemberships();
+        final List<IEntityGroup> groups = getBatchGroups();
+
+        final RDBMEntityGroupStore store = RDBMEntityGroupStore.singleton();
+        final Map<IEntityGroup, List<IEntity>> entities = store.findEntitiesForGroups(groups);
+        final Map<IEntityGroup, List<String>> groupKeys = store.findMemberGroupKeys(groups);
+        assertEquals(groups, new ArrayList<>(entities.keySet()));
+        assertEquals(groups, new ArrayList<>(groupKeys.keySet()));
+        for (IEntityGroup group : groups) {
+            assertEquals(
+                    group.getKey(),
+                    toKeys(store.findEntitiesForGroup(group)),
+                    toKeys(entities.get(group).iterator()));
+            assertEquals(
+                    group.getKey(),
+                    new HashSet<>(Arrays.asList(store.findMemberGroupKeys(group))),
+                    new HashSet<>(groupKeys.get(group)));
+        }
+    }
+
+    @Test
+    public void testBatchFindMembersMatchesPerGroup() throws Exception {
+        addBatchMemberships();
+        final List<IEntityGroup> groups = getBatchGroups();
+
+        final Map<IEntityGroup, Set<IGroupMember>> composite = GroupService.findMembers(groups);
+        assertEquals(groups, new ArrayList<>(composite.keySet()));
+        for (IEntityGroup group : groups) {
+            assertEquals(
+                    group.getKey(),
+                    toKeys(group.getChildren().iterator()),
+                    toKeys(composite.get(group).iterator()));
+        }
+
+        final List<IEntityGroup> localGroups = new ArrayList<>();
+        for (IEntityGroup group : groups) {
+            if ("local".equals(group.getServiceName().toString())) {
+                localGroups.add(group);
+            }
+        }
+        final IIndividualGroupService local =
+                (IIndividualGroupService)
+                        ((ReferenceCompositeGroupService) GroupService.getCompositeGroupService())
+                                .getComponentServices()
+                                .get(GroupService.parseServiceName("local"));
+        final Map<IEntityGroup, Set<IGroupMember>> individual = local.findMembers(localGroups);
+        assertEquals(localGroups, new ArrayList<>(individual.keySet()));
+        for (IEntityGroup group : localGroups) {
+            assertEquals(
+                    group.getKey(),
+                    toKeys(local.findMembers(group)),
+                    toKeys(individual.get(group).iterator()));
+        }
+    }
+
+    private static Set<IEntityGroup> walkAncestors(IGroupMember member, Set<IEntityGroup> rslt)
+            throws GroupsException {
+        for (IEntityGroup parent : member.getParentGroups()) {
+            if (rslt.add(parent)) {
+                walkAncestors(parent, rslt);
+            }
+        }
+        return rslt;
+    }
+
+    private static GroupAncestryIndex rebuildAncestryIndex() {
+        cacheManager.getCache(ANCESTRY_INDEX_CACHE_NAME).removeAll();
+        return RDBMEntityGroupStore.getAncestryIndex();
+    }
+
+    private static Object getAncestryIndexVersion() {
+        final Cache cache = cacheManager.getCache(ANCESTRY_INDEX_CACHE_NAME);
+        final Element element = cache.get(ANCESTRY_INDEX_VERSION_KEY);
+        return element != null ? element.getObjectValue() : null;
+    }
+
+    /**
+     * Adds <code>BATCH_GROUP_COUNT</code> local groups, B0 to B599, to the fixture. Each contains
+     * two people and another B group, some contain the group O2 of the other service and some are
+     * contained by O1.
+     */
+    private static void addBatchMemberships() {
+        final List<Object[]> groups = new ArrayList<>();
+        final List<Object[]> memberships = new ArrayList<>();
+        for (int i = 0; i < BATCH_GROUP_COUNT; i++) {
+            groups.add(new Object[] {"B" + i, "admin", PERSON_TYPE_ID, "Group B" + i, null});
+            memberships.add(
+                    new Object[] {"B" + i, "local", "B" + (i * 7 + 1) % BATCH_GROUP_COUNT, "T"});
+            if (i % 50 == 0) {
+                memberships.add(new Object[] {"B" + i, "other", "O2", "T"});
+            }
+            if (i % 25 == 0) {
+                memberships.add(new Object[] {"O1", "local", "B" + i, "T"});
+            }
+        }
+        for (int i = 0; i < BATCH_PERSON_COUNT; i++) {
+            memberships.add(new Object[] {"B" + i % BATCH_GROUP_COUNT, "local", "p" + i, "F"});
+            final int other = (i * 13 + 5) % BATCH_GROUP_COUNT;
+            if (other != i % BATCH_GROUP_COUNT) {
+                memberships.add(new Object[] {"B" + other, "local", "p" + i, "F"});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO UP_GROUP VALUES (?, ?, ?, ?, ?)", groups);
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO UP_GROUP_MEMBERSHIP VALUES (?, ?, ?, ?)", memberships);
+    }
+
+    /** The groups of the fixture, of both services, and the B groups. */
+    private static List<IEntityGroup> getBatchGroups() throws GroupsException {
+        final List<IEntityGroup> rslt = new ArrayList<>();
+        for (String key :
+                new String[] {
+                    "local.L1", "local.L2", "local.L3", "local.L4", "other.O1", "other.O2"
+                }) {
+            rslt.add(GroupService.findGroup(key));
+        }
+        for (int i = 0; i < BATCH_GROUP_COUNT; i++) {
+            rslt.add(GroupService.findGroup("local.B" + i));
+        }
+        return rslt;
+    }
+
+    /**
+     * Keys of the members, after dropping those equal to an earlier one the way <code>
+     * getParentGroups()</code> does. Groups of different services with the same local key are
+     * equal.
+     */
+    private static Set<String> toKeys(Iterator<?> members) {
+        final Set<IGroupMember> distinct = new LinkedHashSet<>();
+        while (members.hasNext()) {
+            distinct.add((IGroupMember) members.next());
+        }
+        final Set<String> rslt = new HashSet<>();
+        for (IGroupMember member : distinct) {
+            rslt.add(member.getEntityIdentifier().getKey());
+        }
+        return rslt;
+    }
+
+    private static void addGroups(String... keys) {
+        for (String key : keys) {
+            jdbcTemplate.update(
+                    "INSERT INTO UP_GROUP VALUES (?, ?, ?, ?, ?)",
+                    key,
+                    "admin",
+                    PERSON_TYPE_ID,
+                    "Group " + key,
+                    null);
+        }
+    }
+
+    private static void addMembership(
+            String groupKey, String memberService, String memberKey, boolean isGroup) {
+        jdbcTemplate.update(
+                "INSERT INTO UP_GROUP_MEMBERSHIP VALUES (?, ?, ?, ?)",
+                groupKey,
+                memberService,
+                memberKey,
+                isGroup ? "T" : "F");
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apereo.portal.groups.pags.testers.BaseAttributeTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.security.IPerson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds all of the {@link PagsGroup}s that contain a person in a single pass instead of calling
+ * {@link PagsGroup#contains(IPerson)} on each group.
+ *
+ * <ul>
+ *   <li>{@link StringEqualsTester} and {@link StringEqualsIgnoreCaseTester} tests are indexed by
+ *       attribute name and test value, each of the person's values for those attributes is looked
+ *       up once to find every equality test that passes.
+ *   <li>All other testers with the same class, attribute name and test value are evaluated at most
+ *       once per person and only when a test group still needs the answer.
+ *   <li>Each test group is checked with its indexed tests first, so a failed equality test skips
+ *       the more expensive testers in the same test group.
+ * </ul>
+ *
+ * <p>Non-String attribute values never match an equality test and a tester that throws is treated
+ * as failed, rather than failing every group that uses it.
+ *
+ * <p>Instances are immutable and thread-safe, a new evaluator has to be created when the group
+ * definitions change.
+ */
+public final class PagsGroupEvaluator {
+    private static final Logger logger = LoggerFactory.getLogger(PagsGroupEvaluator.class);
+
+    private final Set<String> groupNames;
+    private final String[] groupKeys;
+    /** group -> test group -> test ids */
+    private final int[][][] groupClauses;
+    /** Testers by test id, null for the indexed tests */
+    private final IPersonTester[] testers;
+    /** Test ids below this are indexed, their result is known after the index lookups */
+    private final int indexedTestCount;
+    /** attribute name -> test value -> test ids */
+    private final Map<String, Map<String, int[]>> equalsIndex;
+    /** attribute name -> case folded test value -> test ids */
+    private final Map<String, Map<String, int[]>> equalsIgnoreCaseIndex;
+
+    /**
+     * @param groups Group definitions by group name, null definitions are groups that could not be
+     *     initialized and never contain anyone
+     */
+    public PagsGroupEvaluator(Map<String, PagsGroup> groups) {
+        this.groupNames = Collections.unmodifiableSet(new HashSet<String>(groups.keySet()));
+
+        final Map<List<Object>, Integer> indexedTests = new LinkedHashMap<List<Object>, Integer>();
+        final Map<Object, IPersonTester> otherTests = new LinkedHashMap<Object, IPersonTester>();
+        final Map<String, Map<String, List<Integer>>> equals =
+                new HashMap<String, Map<String, List<Integer>>>();
+        final Map<String, Map<String, List<Integer>>> equalsIgnoreCase =
+                new HashMap<String, Map<String, List<Integer>>>();
+
+        // First pass, find the distinct tests and index the equality tests
+        for (final PagsGroup group : groups.values()) {
+            if (group == null) {
+                continue;
+            }
+            for (final TestGroup testGroup : group.getTestGroups()) {
+                for (final IPersonTester tester : testGroup.getTests()) {
+                    if (tester == null) {
+                        continue;
+                    }
+                    final List<Object> indexKey = getIndexKey(tester);
+                    if (indexKey == null) {
+                        final Object key = getTestKey(tester);
+                        if (!otherTests.containsKey(key)) {
+                            otherTests.put(key, tester);
+                        }
+                    } else if (!indexedTests.containsKey(indexKey)) {
+                        final int id = indexedTests.size();
+                        indexedTests.put(indexKey, id);
+
+                        final boolean ignoreCase = (Boolean) indexKey.get(0);
+                        final String attributeName = (String) indexKey.get(1);
+                        final String value = (String) indexKey.get(2);
+                        if (value != null) {
+                            final Map<String, Map<String, List<Integer>>> index =
+                                    ignoreCase ? equalsIgnoreCase : equals;
+                            Map<String, List<Integer>> values = index.get(attributeName);
+                            if (values == null) {
+                                values = new HashMap<String, List<Integer>>();
+                                index.put(attributeName, values);
+                            }
+                            List<Integer> ids = values.get(value);
+                            if (ids == null) {
+                                ids = new ArrayList<Integer>(1);
+                                values.put(value, ids);
+                            }
+                            ids.add(id);
+                        }
+                    }
+                }
+            }
+        }
+
+        this.indexedTestCount = indexedTests.size();
+        this.testers = new IPersonTester[this.indexedTestCount + otherTests.size()];
+        final Map<Object, Integer> otherTestIds = new HashMap<Object, Integer>();
+        int nextId = this.indexedTestCount;
+        for (final Map.Entry<Object, IPersonTester> otherTest : otherTests.entrySet()) {
+            otherTestIds.put(otherTest.getKey(), nextId);
+            this.testers[nextId++] = otherTest.getValue();
+        }
+        this.equalsIndex = toIndex(equals);
+        this.equalsIgnoreCaseIndex = toIndex(equalsIgnoreCase);
+
+        // Second pass, compile each test group into an array of test ids
+        final List<String> keys = new ArrayList<String>(groups.size());
+        final List<int[][]> clauses = new ArrayList<int[][]>(groups.size());
+        for (final Map.Entry<String, PagsGroup> groupEntry : groups.entrySet()) {
+            final PagsGroup group = groupEntry.getValue();
+            if (group == null) {
+                continue;
+            }
+
+            final List<int[]> groupClauses = new ArrayList<int[]>();
+            testGroups:
+            for (final TestGroup testGroup : group.getTestGroups()) {
+                final List<IPersonTester> tests = testGroup.getTests();
+                final int[] ids = new int[tests.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    final IPersonTester tester = tests.get(i);
+                    if (tester == null) {
+                        // TestGroup fails on a null tester, this test group can never pass
+                        continue testGroups;
+                    }
+                    final List<Object> indexKey = getIndexKey(tester);
+                    ids[i] =
+                            indexKey != null
+                                    ? indexedTests.get(indexKey)
+                                    : otherTestIds.get(getTestKey(tester));
+                }
+                // Indexed tests have the lowest ids, check them first
+                Arrays.sort(ids);
+                groupClauses.add(ids);
+            }
+
+            if (!groupClauses.isEmpty()) {
+                keys.add(groupEntry.getKey());
+                clauses.add(groupClauses.toArray(new int[groupClauses.size()][]));
+            }
+        }
+        this.groupKeys = keys.toArray(new String[keys.size()]);
+        this.groupClauses = clauses.toArray(new int[clauses.size()][][]);
+    }
+
+    /** @return The names of the groups this evaluator was created with */
+    public Set<String> getGroupNames() {
+        return this.groupNames;
+    }
+
+    /** @return The names of all groups that contain the person */
+    public Set<String> findContainingGroups(IPerson person) {
+        final BitSet passed = new BitSet(this.testers.length);
+        final BitSet evaluated = new BitSet(this.testers.length);
+        lookupValues(person, this.equalsIndex, false, passed);
+        lookupValues(person, this.equalsIgnoreCaseIndex, true, passed);
+
+        final Set<String> result = new HashSet<String>();
+        for (int group = 0; group < this.groupKeys.length; group++) {
+            for (final int[] clause : this.groupClauses[group]) {
+                if (passes(person, clause, passed, evaluated)) {
+                    result.add(this.groupKeys[group]);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean passes(IPerson person, int[] clause, BitSet passed, BitSet evaluated) {
+        for (final int id : clause) {
+            if (id >= this.indexedTestCount && !evaluated.get(id)) {
+                evaluated.set(id);
+                final IPersonTester tester = this.testers[id];
+                try {
+                    if (tester.test(person)) {
+                        passed.set(id);
+                    }
+                } catch (Exception e) {
+                    logger.error("Tester {} failed for person {}", tester, person, e);
+                }
+            }
+            if (!passed.get(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void lookupValues(
+            IPerson person,
+            Map<String, Map<String, int[]>> index,
+            boolean ignoreCase,
+            BitSet passed) {
+        for (final Map.Entry<String, Map<String, int[]>> attributeEntry : index.entrySet()) {
+            final Object[] values = person.getAttributeValues(attributeEntry.getKey());
+            if (values == null) {
+                continue;
+            }
+            for (final Object value : values) {
+                if (!(value instanceof String)) {
+                    continue;
+                }
+                final String key = ignoreCase ? foldCase((String) value) : (String) value;
+                final int[] ids = attributeEntry.getValue().get(key);
+                if (ids != null) {
+                    for (final int id : ids) {
+                        passed.set(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /** @return Key for an indexed equality test, null if the tester is not indexed */
+    private static List<Object> getIndexKey(IPersonTester tester) {
+        final Class<?> testerClass = tester.getClass();
+        if (testerClass == StringEqualsTester.class) {
+            final BaseAttributeTester attributeTester = (BaseAttributeTester) tester;
+            return Arrays.<Object>asList(
+                    Boolean.FALSE,
+                    attributeTester.getAttributeName(),
+                    attributeTester.getTestValue());
+        }
+        if (testerClass == StringEqualsIgnoreCaseTester.class) {
+            final BaseAttributeTester attributeTester = (BaseAttributeTester) tester;
+            final String testValue = attributeTester.getTestValue();
+            return Arrays.<Object>asList(
+                    Boolean.TRUE,
+                    attributeTester.getAttributeName(),
+                    testValue != null ? foldCase(testValue) : null);
+        }
+        return null;
+    }
+
+    /**
+     * @return Key that is equal for testers that always give the same answer, attribute testers are
+     *     configured entirely by their attribute name and test value
+     */
+    private static Object getTestKey(IPersonTester tester) {
+        if (tester instanceof BaseAttributeTester) {
+            final BaseAttributeTester attributeTester = (BaseAttributeTester) tester;
+            return Arrays.<Object>asList(
+                    tester.getClass(),
+                    attributeTester.getAttributeName(),
+                    attributeTester.getTestValue());
+        }
+        return tester;
+    }
+
+    /** Folds case the same way {@link String#equalsIgnoreCase(String)} compares characters */
+    private static String foldCase(String value) {
+        final char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    private static Map<String, Map<String, int[]>> toIndex(
+            Map<String, Map<String, List<Integer>>> index) {
+        final Map<String, Map<String, int[]>> result = new HashMap<String, Map<String, int[]>>();
+        for (final Map.Entry<String, Map<String, List<Integer>>> attributeEntry :
+                index.entrySet()) {
+            final Map<String, int[]> values = new HashMap<String, int[]>();
+            for (final Map.Entry<String, List<Integer>> valueEntry :
+                    attributeEntry.getValue().entrySet()) {
+                final List<Integer> ids = valueEntry.getValue();
+                final int[] idArray = new int[ids.size()];
+                for (int i = 0; i < idArray.length; i++) {
+                    idArray[i] = ids.get(i);
+                }
+                values.put(valueEntry.getKey(), idArray);
+            }
+            result.put(attributeEntry.getKey(), values);
+        }
+        return result;
+    }
+}
@@ -16,11 +16,16 @@ package org.apereo.portal.groups.pags.dao;
 
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
@@ -37,6 +42,7 @@ import org.apereo.portal.groups.IGroupMember;
 import org.apereo.portal.groups.ILockableEntityGroup;
 import org.apereo.portal.groups.pags.IPersonTester;
 import org.apereo.portal.groups.pags.PagsGroup;
+import org.apereo.portal.groups.pags.PagsGroupEvaluator;
 import org.apereo.portal.groups.pags.TestGroup;
 import org.apereo.portal.security.IPerson;
 import org.apereo.portal.security.PersonFactory;
@@ -74,6 +80,11 @@ public class EntityPersonAttributesGroupStore
      */
     private final Cache membershipCache;
 
+    /** Evaluates all groups at once in findParentGroups, see getGroupEvaluator */
+    private volatile PagsGroupEvaluator groupEvaluator;
+
+    private volatile long groupEvaluatorCreated;
+
     public EntityPersonAttributesGroupStore() {
         super();
         ApplicationContext applicationContext = ApplicationContextLocator.getApplicationContext();
@@ -243,6 +254,47 @@ public class EntityPersonAttributesGroupStore
         return rslt;
     }
 
+    /**
+     * Finds the containing groups of many members. The group definitions and the evaluator are
+     * looked up once for all the people among the members, other members are handled one at a time
+     * as in {@link #findParentGroups(IGroupMember)}.
+     */
+    @Override
+    public Map<IGroupMember, Set<IEntityGroup>> findParentGroups(
+            Collection<? extends IGroupMember> members) throws GroupsException {
+        final Map<IGroupMember, Set<IEntityGroup>> rslt =
+                new LinkedHashMap<IGroupMember, Set<IEntityGroup>>();
+        final List<IEntity> people = new ArrayList<IEntity>();
+        for (IGroupMember member : members) {
+            if (!member.isGroup() && IPERSON_CLASS.equals(member.getLeafType())) {
+                rslt.put(member, null); // Keeps the order of the members
+                people.add((IEntity) member);
+            } else {
+                final Set<IEntityGroup> groups = new LinkedHashSet<IEntityGroup>();
+                for (Iterator<IEntityGroup> it = findParentGroups(member); it.hasNext(); ) {
+                    groups.add(it.next());
+                }
+                rslt.put(member, groups);
+            }
+        }
+
+        if (!people.isEmpty()) {
+            logger.debug("finding containing groups for {} people", people.size());
+            final Set<IPersonAttributesGroupDefinition> pagsGroups =
+                    personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions();
+            final PagsGroupEvaluator evaluator = getGroupEvaluator(pagsGroups);
+            final Map<String, IEntityGroup> entityGroups = convertPagsGroupsToEntities(pagsGroups);
+            for (IEntity person : people) {
+                rslt.put(
+                        person,
+                        new LinkedHashSet<IEntityGroup>(
+                                findParentGroupsForEntity(person, evaluator, entityGroups)));
+            }
+        }
+
+        return rslt;
+    }
+
     private Iterator<IEntityGroup> findParentGroupsForGroup(IEntityGroup group) {
         logger.debug(
                 "Finding containing groups for group {} (key {})", group.getName(), group.getKey());
@@ -255,14 +307,96 @@ public class EntityPersonAttributesGroupStore
 
         Set<IPersonAttributesGroupDefinition> pagsGroups =
                 personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions();
+        return findParentGroupsForEntity(
+                        member,
+                        getGroupEvaluator(pagsGroups),
+                        convertPagsGroupsToEntities(pagsGroups))
+                .iterator();
+    }
+
+    /** @param entityGroups Entity groups for every group the evaluator knows, by group name */
+    private List<IEntityGroup> findParentGroupsForEntity(
+            IEntity member, PagsGroupEvaluator evaluator, Map<String, IEntityGroup> entityGroups) {
+
+        /*
+         * Evaluate every group for the member at once, this reads the member's attributes once
+         * and runs each distinct test once instead of once per group.
+         */
+        Set<String> containingGroups = Collections.emptySet();
+        try {
+            final IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
+            final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
+
+            if (personAttributes != null) {
+                final RestrictedPerson rp = PersonFactory.createRestrictedPerson();
+                rp.setAttributes(personAttributes.getAttributes());
+                containingGroups = evaluator.findContainingGroups(rp);
+            }
+        } catch (Exception ex) {
+            logger.error(
+                    "Exception acquiring attributes for member "
+                            + member
+                            + " while finding the groups that contain this member.",
+                    ex);
+            return Collections.emptyList();
+        }
+
         List<IEntityGroup> results = new ArrayList<IEntityGroup>();
-        for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-            IEntityGroup group = convertPagsGroupToEntity(pagsGroup);
-            if (contains(group, member)) {
+        for (Map.Entry<String, IEntityGroup> entityGroup : entityGroups.entrySet()) {
+            final IEntityGroup group = entityGroup.getValue();
+            final boolean answer = containingGroups.contains(entityGroup.getKey());
+
+            // Remember the answers for later calls to contains()
+            final MembershipCacheKey cacheKey =
+                    new MembershipCacheKey(
+                            group.getEntityIdentifier(), member.getUnderlyingEntityIdentifier());
+            membershipCache.put(new Element(cacheKey, answer));
+
+            if (answer) {
                 results.add(group);
             }
         }
-        return results.iterator();
+        return results;
+    }
+
+    private Map<String, IEntityGroup> convertPagsGroupsToEntities(
+            Set<IPersonAttributesGroupDefinition> pagsGroups) {
+        final Map<String, IEntityGroup> rslt = new LinkedHashMap<String, IEntityGroup>();
+        for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
+            rslt.put(pagsGroup.getName(), convertPagsGroupToEntity(pagsGroup));
+        }
+        return rslt;
+    }
+
+    /**
+     * Returns the evaluator for the current group definitions, it is rebuilt when groups are added
+     * or removed and as often as the PagsGroup instances it is built from expire.
+     */
+    private PagsGroupEvaluator getGroupEvaluator(Set<IPersonAttributesGroupDefinition> pagsGroups) {
+        final Set<String> names = new HashSet<String>();
+        for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
+            names.add(pagsGroup.getName());
+        }
+
+        final long maxAge =
+                TimeUnit.SECONDS.toMillis(
+                        this.pagsGroupCache.getCacheConfiguration().getTimeToLiveSeconds());
+        final long now = System.currentTimeMillis();
+        PagsGroupEvaluator evaluator = this.groupEvaluator;
+        if (evaluator != null
+                && evaluator.getGroupNames().equals(names)
+                && (maxAge == 0 || now - this.groupEvaluatorCreated < maxAge)) {
+            return evaluator;
+        }
+
+        final Map<String, PagsGroup> groupDefs = new LinkedHashMap<String, PagsGroup>();
+        for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
+            groupDefs.put(pagsGroup.getName(), initGroupDef(pagsGroup));
+        }
+        evaluator = new PagsGroupEvaluator(groupDefs);
+        this.groupEvaluator = evaluator;
+        this.groupEvaluatorCreated = now;
+        return evaluator;
     }
 
     @Override
@@ -0,0 +1,167 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.apereo.portal.groups.pags.testers.IntegerGETester;
+import org.apereo.portal.groups.pags.testers.RegexTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.groups.pags.testers.ValueMissingTester;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.provider.PersonImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Compares {@link PagsGroupEvaluator} with calling {@link PagsGroup#contains(IPerson)} */
+public class PagsGroupEvaluatorTest {
+    private static final String[] ATTRIBUTES = {
+        "affiliation", "department", "campus", "title", "mail", "level"
+    };
+    private static final String[] VALUES = {"staff", "Staff", "student", "faculty", "ENG", "eng"};
+
+    private final Random random = new Random(42);
+    private Map<String, PagsGroup> groups;
+    private List<IPerson> people;
+
+    @Before
+    public void setUp() {
+        groups = new LinkedHashMap<String, PagsGroup>();
+        for (int i = 0; i < 800; i++) {
+            final PagsGroup group = new PagsGroup();
+            group.setKey("group" + i);
+            group.setName("group" + i);
+            final int testGroups = random.nextInt(3);
+            for (int j = 0; j < testGroups; j++) {
+                final TestGroup testGroup = new TestGroup();
+                final int tests = 1 + random.nextInt(3);
+                for (int k = 0; k < tests; k++) {
+                    testGroup.addTest(randomTester());
+                }
+                group.addTestGroup(testGroup);
+            }
+            groups.put(group.getName(), group);
+        }
+        // A group that failed to initialize
+        groups.put("broken", null);
+
+        people = new ArrayList<IPerson>();
+        for (int i = 0; i < 500; i++) {
+            final IPerson person = new PersonImpl();
+            person.setUserName("user" + i);
+            for (final String attribute : ATTRIBUTES) {
+                final List<Object> values = new ArrayList<Object>();
+                final int count = random.nextInt(3);
+                for (int j = 0; j < count; j++) {
+                    values.add(
+                            "level".equals(attribute)
+                                    ? Integer.toString(random.nextInt(10))
+                                    : VALUES[random.nextInt(VALUES.length)]);
+                }
+                if (!values.isEmpty()) {
+                    person.setAttribute(attribute, values);
+                }
+            }
+            people.add(person);
+        }
+    }
+
+    @Test
+    public void testSimpleGroups() {
+        final Map<String, PagsGroup> simpleGroups = new LinkedHashMap<String, PagsGroup>();
+        simpleGroups.put("staff", group(new StringEqualsTester(def("affiliation", "staff"))));
+        simpleGroups.put(
+                "anyStaff", group(new StringEqualsIgnoreCaseTester(def("affiliation", "STAFF"))));
+        simpleGroups.put("eng", group(new RegexTester(def("department", "E.*"))));
+        simpleGroups.put("noTests", new PagsGroup());
+
+        final PagsGroupEvaluator evaluator = new PagsGroupEvaluator(simpleGroups);
+        assertEquals(simpleGroups.keySet(), evaluator.getGroupNames());
+
+        final IPerson person = new PersonImpl();
+        person.setAttribute("affiliation", Arrays.<Object>asList("student", "Staff"));
+        person.setAttribute("department", "ENG");
+        assertEquals(
+                new HashSet<String>(Arrays.asList("anyStaff", "eng")),
+                evaluator.findContainingGroups(person));
+
+        assertEquals(Collections.emptySet(), evaluator.findContainingGroups(new PersonImpl()));
+    }
+
+    @Test
+    public void testMatchesPagsGroupContains() {
+        final List<Set<String>> expected = new ArrayList<Set<String>>();
+        for (final IPerson person : people) {
+            expected.add(containingGroups(person));
+        }
+
+        final PagsGroupEvaluator evaluator = new PagsGroupEvaluator(groups);
+        final List<Set<String>> actual = new ArrayList<Set<String>>();
+        for (final IPerson person : people) {
+            actual.add(evaluator.findContainingGroups(person));
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    private Set<String> containingGroups(IPerson person) {
+        final Set<String> result = new HashSet<String>();
+        for (final Map.Entry<String, PagsGroup> group : groups.entrySet()) {
+            if (group.getValue() != null && group.getValue().contains(person)) {
+                result.add(group.getKey());
+            }
+        }
+        return result;
+    }
+
+    private IPersonTester randomTester() {
+        final String attribute = ATTRIBUTES[random.nextInt(ATTRIBUTES.length - 1)];
+        final String value = VALUES[random.nextInt(VALUES.length)];
+        switch (random.nextInt(6)) {
+            case 0:
+                return new StringEqualsIgnoreCaseTester(def(attribute, value));
+            case 1:
+                return new RegexTester(def(attribute, value.substring(0, 2) + ".*"));
+            case 2:
+                return new IntegerGETester(def("level", Integer.toString(random.nextInt(10))));
+            case 3:
+                return new ValueMissingTester(def(attribute, value));
+            default:
+                return new StringEqualsTester(def(attribute, value));
+        }
+    }
+
+    private static PagsGroup group(IPersonTester tester) {
+        final TestGroup testGroup = new TestGroup();
+        testGroup.addTest(tester);
+        final PagsGroup group = new PagsGroup();
+        group.addTestGroup(testGroup);
+        return group;
+    }
+
+    private static TestPersonAttributesGroupTestDefinition def(String attribute, String value) {
+        return new TestPersonAttributesGroupTestDefinition(attribute, value);
+    }
+}
@@ -0,0 +1,301 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import javax.naming.CompositeName;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.apereo.portal.EntityTypes;
+import org.apereo.portal.groups.EntityGroupImpl;
+import org.apereo.portal.groups.EntityImpl;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.groups.pags.dao.jpa.PersonAttributesGroupDefinitionImpl;
+import org.apereo.portal.groups.pags.dao.jpa.PersonAttributesGroupTestDefinitionImpl;
+import org.apereo.portal.groups.pags.dao.jpa.PersonAttributesGroupTestGroupDefinitionImpl;
+import org.apereo.portal.groups.pags.testers.IntegerGETester;
+import org.apereo.portal.groups.pags.testers.RegexTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.spring.locator.ApplicationContextLocator;
+import org.apereo.portal.spring.locator.EntityTypesLocator;
+import org.apereo.portal.spring.locator.PersonAttributeDaoLocator;
+import org.apereo.services.persondir.support.ComplexStubPersonAttributeDao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.context.support.StaticApplicationContext;
+
+/**
+ * Compares finding the containing groups of many members at once with finding them one member at a
+ * time and with {@link EntityPersonAttributesGroupStore#contains(IEntityGroup, IGroupMember)}.
+ */
+public class EntityPersonAttributesGroupStoreTest {
+    private static final String CACHE_PREFIX =
+            "org.apereo.portal.groups.pags.dao.EntityPersonAttributesGroupStore.";
+    private static final int PERSON_COUNT = 600;
+
+    private final Random random = new Random(42);
+    private final Map<String, PersonAttributesGroupDefinitionImpl> definitions =
+            new LinkedHashMap<>();
+    private CacheManager cacheManager;
+    private EntityTypesLocator entityTypesLocator;
+    private ApplicationContextLocator applicationContextLocator;
+    private PersonAttributeDaoLocator personAttributeDaoLocator;
+    private EntityPersonAttributesGroupStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        addDefinition("Staff", test("affiliation", StringEqualsTester.class, "staff"));
+        addDefinition("Students", test("affiliation", StringEqualsTester.class, "student"));
+        addDefinition("Engineering", test("department", RegexTester.class, "^Eng.*"));
+        addDefinition("Senior", test("years", IntegerGETester.class, "10"));
+        // Test groups are or-ed together, the tests of a test group are and-ed together
+        addDefinition(
+                "Staff or Senior",
+                test("affiliation", StringEqualsTester.class, "staff"),
+                test("years", IntegerGETester.class, "10"));
+        addDefinition(
+                "Engineering Staff",
+                test(
+                        "affiliation",
+                        StringEqualsTester.class,
+                        "staff",
+                        "department",
+                        RegexTester.class,
+                        "^Eng.*"));
+        addDefinition("All Engineering");
+        addDefinition("Everyone");
+        addMembers("All Engineering", "Engineering", "Engineering Staff");
+        addMembers("Everyone", "Staff", "Students", "All Engineering");
+
+        final IPersonAttributesGroupDefinitionDao dao =
+                mock(IPersonAttributesGroupDefinitionDao.class);
+        when(dao.getPersonAttributesGroupDefinitions())
+                .thenReturn(
+                        new LinkedHashSet<IPersonAttributesGroupDefinition>(definitions.values()));
+        when(dao.getPersonAttributesGroupDefinitionByName(any(String.class)))
+                .thenAnswer(
+                        new Answer<Set<IPersonAttributesGroupDefinition>>() {
+                            @Override
+                            public Set<IPersonAttributesGroupDefinition> answer(
+                                    InvocationOnMock invocation) {
+                                final IPersonAttributesGroupDefinition definition =
+                                        definitions.get(invocation.getArgument(0));
+                                return definition != null
+                                        ? Collections.singleton(definition)
+                                        : Collections.emptySet();
+                            }
+                        });
+        when(dao.getParentPersonAttributesGroupDefinitions(
+                        any(IPersonAttributesGroupDefinition.class)))
+                .thenAnswer(
+                        new Answer<Set<IPersonAttributesGroupDefinition>>() {
+                            @Override
+                            public Set<IPersonAttributesGroupDefinition> answer(
+                                    InvocationOnMock invocation) {
+                                final Set<IPersonAttributesGroupDefinition> rslt = new HashSet<>();
+                                for (IPersonAttributesGroupDefinition definition :
+                                        definitions.values()) {
+                                    if (definition
+                                            .getMembers()
+                                            .contains(invocation.getArgument(0))) {
+                                        rslt.add(definition);
+                                    }
+                                }
+                                return rslt;
+                            }
+                        });
+
+        final Configuration configuration = new Configuration();
+        configuration.setName(EntityPersonAttributesGroupStoreTest.class.getName());
+        configuration.setUpdateCheck(false);
+        configuration.addDefaultCache(new CacheConfiguration("default", 0));
+        cacheManager = new CacheManager(configuration);
+        cacheManager.addCache(CACHE_PREFIX + "entityGroup");
+        cacheManager.addCache(CACHE_PREFIX + "pagsGroup");
+        cacheManager.addCache(CACHE_PREFIX + "membership");
+        cacheManager.addCache("org.apereo.portal.groups.EntityGroupImpl.children");
+        cacheManager.addCache("org.apereo.portal.groups.GroupMemberImpl.parentGroups");
+
+        final StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getBeanFactory().registerSingleton("cacheManager", cacheManager);
+        applicationContext
+                .getBeanFactory()
+                .registerSingleton("personAttributesGroupDefinitionDao", dao);
+        applicationContext.refresh();
+
+        final EntityTypes entityTypes = mock(EntityTypes.class);
+        when(entityTypes.getEntityIDFromType(any(Class.class))).thenReturn(3);
+
+        final Map<String, Map<String, List<Object>>> people = new LinkedHashMap<>();
+        for (int i = 0; i < PERSON_COUNT; i++) {
+            final Map<String, List<Object>> attributes = new LinkedHashMap<>();
+            attributes.put(IPerson.USERNAME, Arrays.<Object>asList("user" + i));
+            putRandom(attributes, "affiliation", "staff", "student", "faculty");
+            putRandom(attributes, "department", "Engineering", "English", "Eng Tech");
+            putRandom(attributes, "years", "0", "5", "10", "25");
+            people.put("user" + i, attributes);
+        }
+
+        entityTypesLocator = new EntityTypesLocator(entityTypes);
+        entityTypesLocator.afterPropertiesSet();
+        applicationContextLocator = new ApplicationContextLocator(applicationContext);
+        applicationContextLocator.afterPropertiesSet();
+        personAttributeDaoLocator =
+                new PersonAttributeDaoLocator(new ComplexStubPersonAttributeDao(people));
+        personAttributeDaoLocator.afterPropertiesSet();
+
+        store = new EntityPersonAttributesGroupStore();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        personAttributeDaoLocator.destroy();
+        applicationContextLocator.destroy();
+        entityTypesLocator.destroy();
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testBatchFindParentGroupsMatchesPerMember() throws Exception {
+        final List<IGroupMember> members = new ArrayList<>();
+        for (int i = 0; i < PERSON_COUNT; i++) {
+            members.add(new EntityImpl("user" + i, IPerson.class));
+        }
+        // A person without attributes, a group of another service and an entity that is no person
+        members.add(new EntityImpl("unknown", IPerson.class));
+        final EntityGroupImpl local = new EntityGroupImpl("Staff", IPerson.class);
+        local.setServiceName(new CompositeName("local"));
+        members.add(local);
+        members.add(new EntityImpl("portlet", IPortletDefinition.class));
+        for (String name : definitions.keySet()) {
+            final EntityGroupImpl group = (EntityGroupImpl) store.find(name);
+            group.setServiceName(new CompositeName("pags"));
+            members.add(group);
+        }
+
+        final Map<IGroupMember, Set<IEntityGroup>> batch = store.findParentGroups(members);
+        assertEquals(members, new ArrayList<>(batch.keySet()));
+        for (IGroupMember member : members) {
+            assertEquals(
+                    member.getKey(),
+                    toNames(store.findParentGroups(member)),
+                    toNames(batch.get(member).iterator()));
+        }
+
+        assertEquals(
+                new HashSet<>(Arrays.asList("All Engineering", "Everyone")),
+                toNames(batch.get(store.find("Engineering Staff")).iterator()));
+        int engineeringStaff = 0;
+        for (Set<IEntityGroup> groups : batch.values()) {
+            if (toNames(groups.iterator()).contains("Engineering Staff")) {
+                engineeringStaff++;
+            }
+        }
+        assertTrue(engineeringStaff > 0 && engineeringStaff < PERSON_COUNT);
+
+        // contains() evaluates each group on its own, without the answers cached above
+        cacheManager.getCache(CACHE_PREFIX + "membership").removeAll();
+        for (IGroupMember member : members) {
+            if (member.isGroup()) {
+                continue;
+            }
+            final Set<String> containing = new HashSet<>();
+            for (String name : definitions.keySet()) {
+                if (store.contains(store.find(name), member)) {
+                    containing.add(name);
+                }
+            }
+            assertEquals(member.getKey(), containing, toNames(batch.get(member).iterator()));
+        }
+    }
+
+    private void addDefinition(String name, String[]... testGroups) {
+        final PersonAttributesGroupDefinitionImpl definition =
+                new PersonAttributesGroupDefinitionImpl(name, name);
+        final Set<IPersonAttributesGroupTestGroupDefinition> testGroupDefinitions = new HashSet<>();
+        for (String[] tests : testGroups) {
+            final PersonAttributesGroupTestGroupDefinitionImpl testGroup =
+                    new PersonAttributesGroupTestGroupDefinitionImpl(definition);
+            final Set<IPersonAttributesGroupTestDefinition> testDefinitions = new HashSet<>();
+            for (int i = 0; i < tests.length; i += 3) {
+                testDefinitions.add(
+                        new PersonAttributesGroupTestDefinitionImpl(
+                                testGroup, tests[i], tests[i + 1], tests[i + 2]));
+            }
+            testGroup.setTests(testDefinitions);
+            testGroupDefinitions.add(testGroup);
+        }
+        definition.setTestGroups(testGroupDefinitions);
+        definition.setMembers(new HashSet<IPersonAttributesGroupDefinition>());
+        definitions.put(name, definition);
+    }
+
+    private void addMembers(String name, String... memberNames) {
+        final Set<IPersonAttributesGroupDefinition> members = new HashSet<>();
+        for (String memberName : memberNames) {
+            members.add(definitions.get(memberName));
+        }
+        definitions.get(name).setMembers(members);
+    }
+
+    /** Attribute name, tester class and test value of each test of a test group */
+    private static String[] test(Object... tests) {
+        final String[] rslt = new String[tests.length];
+        for (int i = 0; i < tests.length; i++) {
+            rslt[i] =
+                    tests[i] instanceof Class ? ((Class<?>) tests[i]).getName() : (String) tests[i];
+        }
+        return rslt;
+    }
+
+    /** Leaves the attribute out as often as it picks each of the values */
+    private void putRandom(Map<String, List<Object>> attributes, String name, String... values) {
+        final int i = random.nextInt(values.length + 1);
+        if (i < values.length) {
+            attributes.put(name, Arrays.<Object>asList(values[i]));
+        }
+    }
+
+    private static Set<String> toNames(Iterator<IEntityGroup> groups) {
+        final Set<String> rslt = new HashSet<>();
+        while (groups.hasNext()) {
+            rslt.add(groups.next().getName());
+        }
+        return rslt;
+    }
+}
@@ -14,17 +14,28 @@
  */
 package org.apereo.portal.groups.smartldap;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import javax.naming.directory.SearchControls;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.concurrent.ConcurrentException;
 import org.apache.commons.lang3.concurrent.LazyInitializer;
@@ -51,10 +62,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Required;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.ldap.control.PagedResultsDirContextProcessor;
 import org.springframework.ldap.core.AttributesMapper;
 import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.LdapOperations;
+import org.springframework.ldap.core.support.CountNameClassPairCallbackHandler;
+import org.springframework.ldap.core.support.LdapOperationsCallback;
+import org.springframework.ldap.core.support.SingleContextSource;
 
-public final class SmartLdapGroupStore implements IEntityGroupStore {
+@ManagedResource("uPortal:section=Groups,name=SmartLdapGroupStore")
+public final class SmartLdapGroupStore implements IEntityGroupStore, SmartLdapGroupStoreMXBean {
+
+    /** Allowance for the clocks of the portal and the LDAP server being out of step. */
+    private static final long CHANGE_DETECTION_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(5);
 
     // Instance Members.
     private String memberOfAttributeName = "memberOf"; // default
@@ -131,9 +152,46 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         this.groupsTreeRefreshIntervalSeconds = groupsTreeRefreshIntervalSeconds;
     }
 
+    /**
+     * Name of an operational attribute that holds the time of the last change to a group, e.g.
+     * <code>modifyTimestamp</code> or <code>whenChanged</code> (Active Directory). When set, a
+     * scheduled refresh first asks LDAP whether any group was changed, added or removed since the
+     * current tree was built and keeps the tree if none was. Not used with resolveMemberGroups,
+     * since member groups may live outside baseGroupDn.
+     */
+    private String changeDetectionAttributeName = null;
+
+    public void setChangeDetectionAttributeName(String changeDetectionAttributeName) {
+        this.changeDetectionAttributeName = changeDetectionAttributeName;
+    }
+
+    /**
+     * Page size of the LDAP searches that list the groups under baseGroupDn, both to build the tree
+     * and to detect changes. A value of zero or less disables paging and the tree is then built by
+     * init.crn, which is also used with resolveMemberGroups.
+     */
+    private int searchPageSize = 1000; // default
+
+    public void setSearchPageSize(int searchPageSize) {
+        this.searchPageSize = searchPageSize;
+    }
+
     /** Timestamp (milliseconds) of the last tree refresh. */
     private volatile long lastTreeRefreshTime = 0;
 
+    /** Guards against starting a second refresh worker while one is running. */
+    private final AtomicBoolean refreshInProgress = new AtomicBoolean();
+
+    /** Serializes building the first tree, the only time callers wait on LDAP. */
+    private final Object initialTreeLock = new Object();
+
+    // Refresh statistics, see SmartLdapGroupStoreMXBean...
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong unchangedRefreshCount = new AtomicLong();
+    private final AtomicLong failedRefreshCount = new AtomicLong();
+    private volatile long lastRefreshDuration = -1;
+    private volatile long lastRefreshCompleted = 0;
+
     // Cernunnos tech...
     private final ScriptRunner runner = new ScriptRunner();
     private final Task initTask =
@@ -174,7 +232,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
      *       case. Includes ROOT_GROUP.
      * </ul>
      */
-    private GroupsTree groupsTree;
+    private volatile GroupsTree groupsTree;
 
     /*
      * Public API.
@@ -266,6 +324,50 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         return rslt.iterator();
     }
 
+    /**
+     * Returns the groups that each of the <code>IGroupMembers</code> belongs to, see {@link
+     * #findParentGroups(IGroupMember)}. The tree is checked for a refresh once and the ancestors of
+     * each group are collected once, however many of the members belong to it.
+     */
+    @Override
+    public Map<IGroupMember, Set<IEntityGroup>> findParentGroups(
+            Collection<? extends IGroupMember> members) throws GroupsException {
+        if (isTreeRefreshRequired()) {
+            refreshTree();
+        }
+        log.debug("Invoking findParentGroups() for {} group members", members.size());
+        final Map<IGroupMember, Set<IEntityGroup>> rslt = new LinkedHashMap<>();
+        final Map<String, Set<IEntityGroup>> parentsByKey = new HashMap<>();
+        final IEntityGroup root = getRootGroup();
+        for (IGroupMember gm : members) {
+            final Set<IEntityGroup> groups = new HashSet<>();
+            if (gm.isGroup()) {
+                groups.addAll(getParentGroups(((IEntityGroup) gm).getLocalKey(), parentsByKey));
+            } else if (gm.getLeafType().equals(root.getLeafType())) {
+                for (Object o : getPersonGroupMemberKeys(gm)) {
+                    String s = (String) o;
+                    IEntityGroup group = groupsTree.getGroups().get(s);
+                    if (group != null) {
+                        groups.add(group);
+                    }
+                    groups.addAll(getParentGroups(s, parentsByKey));
+                }
+            }
+            rslt.put(gm, groups);
+        }
+        return rslt;
+    }
+
+    private Set<IEntityGroup> getParentGroups(
+            String key, Map<String, Set<IEntityGroup>> parentsByKey) {
+        Set<IEntityGroup> rslt = parentsByKey.get(key);
+        if (rslt == null) {
+            rslt = getParentGroups(key, new HashSet<>());
+            parentsByKey.put(key, rslt);
+        }
+        return rslt;
+    }
+
     // gm should already be determined to be reference to person
     private Object[] getPersonGroupMemberKeys(IGroupMember gm) {
         Object[] keys = null;
@@ -283,16 +385,17 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     private Set<IEntityGroup> getParentGroups(String key, Set<IEntityGroup> groups) {
         // groups is an ongoing collection to avoid recursion
         log.debug("Getting parents of group: {}", key);
-        IEntityGroup group = groupsTree.getGroups().get(key);
+        final GroupsTree tree = groupsTree;
+        IEntityGroup group = tree.getGroups().get(key);
         if (group == null) {
             log.warn("SmartLdap group not found for key: {}", key);
             return groups;
         }
-        List<String> parentKeys = groupsTree.getParents().get(key);
+        List<String> parentKeys = tree.getParents().get(key);
         parentKeys = parentKeys != null ? parentKeys : Collections.emptyList();
         log.debug("Parent keys for {}: {}", key, String.join(",", parentKeys));
         for (String parentKey : parentKeys) {
-            IEntityGroup parent = groupsTree.getGroups().get(parentKey);
+            IEntityGroup parent = tree.getGroups().get(parentKey);
             if (parent == null) {
                 log.warn("Group tree inconsistent -- missing parent: {}", parentKey);
             } else if (groups.contains(parent)) {
@@ -394,11 +497,12 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
 
         List<IEntityGroup> rslt = new ArrayList<>();
 
-        List<String> list = groupsTree.getChildren().get(group.getLocalKey());
+        final GroupsTree tree = groupsTree;
+        List<String> list = tree.getChildren().get(group.getLocalKey());
         if (list != null) {
             // should only reach this code if its a SmartLdap managed group...
             for (String s : list) {
-                rslt.add(groupsTree.getGroups().get(s));
+                rslt.add(tree.getGroups().get(s));
             }
         }
 
@@ -613,50 +717,192 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
 
     /**
      * Verifies that the collection of groups needs rebuilding and, if so, spawns a new worker
-     * <code>Thread</code> for that purpose.
+     * <code>Thread</code> for that purpose. Only the first tree is built on the calling thread;
+     * after that, callers keep using the current tree until the worker publishes its replacement.
      */
-    private synchronized void refreshTree() {
+    private void refreshTree() {
 
-        if (!isTreeRefreshRequired()) {
-            // The groupsTree was already re-built while
-            // we were waiting to enter this method.
+        if (groupsTree == null) {
+            synchronized (initialTreeLock) {
+                if (groupsTree == null) {
+                    log.info("Building groups tree for SmartLdap");
+                    refreshGroupsTree();
+                    // Even if the build failed, don't try
+                    // again for another groupsTreeRefreshIntervalSeconds.
+                    lastTreeRefreshTime = System.currentTimeMillis();
+                }
+            }
             return;
         }
 
-        log.info("Refreshing groups tree for SmartLdap");
+        if (!refreshInProgress.compareAndSet(false, true)) {
+            // Another request already started the worker
+            return;
+        }
+        if (!isTreeRefreshRequired()) {
+            // The groupsTree was already refreshed since we checked
+            refreshInProgress.set(false);
+            return;
+        }
 
-        // We must join the builder thread if
-        // we don't have an existing groupsTree.
-        final boolean doJoin = groupsTree == null;
+        // Even if the refresh thread fails, don't try
+        // again for another groupsTreeRefreshIntervalSeconds.
+        lastTreeRefreshTime = System.currentTimeMillis();
 
-        // In most cases, re-build the tree in a separate thread;  the current
-        // request can proceed with the newly-expired groupsTree.
+        log.info("Refreshing groups tree for SmartLdap");
         Thread refresh =
                 new Thread("SmartLdap Refresh Worker") {
                     @Override
                     public void run() {
-                        // Replace the old with the new...
                         try {
-                            groupsTree = buildGroupsTree();
-                        } catch (Throwable t) {
-                            log.error("SmartLdapGroupStore failed to build the groups tree", t);
+                            refreshGroupsTree();
+                        } finally {
+                            refreshInProgress.set(false);
                         }
                     }
                 };
         refresh.setDaemon(true);
         refresh.start();
-        if (doJoin) {
-            try {
-                log.info("Joining the SmartLdap Refresh Worker Thread");
-                refresh.join();
-            } catch (InterruptedException ie) {
-                throw new RuntimeException(ie);
+    }
+
+    /** Replaces the groupsTree with a newly-built one, unless LDAP reports no changes. */
+    private void refreshGroupsTree() {
+        final long start = System.currentTimeMillis();
+        try {
+            final GroupsTree current = groupsTree;
+            if (current != null && !isChangedSince(current)) {
+                log.info(
+                        "No SmartLdap groups changed since {};  keeping the groups tree",
+                        new Date(current.getCreated()));
+                unchangedRefreshCount.incrementAndGet();
+            } else {
+                final int ldapGroupCount = isChangeDetectionEnabled() ? countLdapGroups(null) : -1;
+                // Replace the old with the new...
+                groupsTree = buildGroupsTree(start, ldapGroupCount);
+                refreshCount.incrementAndGet();
             }
+            lastRefreshCompleted = System.currentTimeMillis();
+            lastRefreshDuration = lastRefreshCompleted - start;
+        } catch (Throwable t) {
+            failedRefreshCount.incrementAndGet();
+            log.error("SmartLdapGroupStore failed to build the groups tree", t);
         }
+    }
 
-        // Even if the refresh thread failed, don't try
-        // again for another groupsTreeRefreshIntervalSeconds.
-        lastTreeRefreshTime = System.currentTimeMillis();
+    private boolean isChangeDetectionEnabled() {
+        return StringUtils.isNotBlank(changeDetectionAttributeName) && !resolveMemberGroups;
+    }
+
+    /**
+     * Answers whether any group under baseGroupDn was changed or added since the specified tree was
+     * built (allowing for clock skew), or whether the number of groups differs because some were
+     * removed.
+     */
+    private boolean isChangedSince(GroupsTree tree) {
+        if (!isChangeDetectionEnabled() || tree.getLdapGroupCount() < 0) {
+            return true;
+        }
+
+        final SimpleDateFormat generalizedTime = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
+        generalizedTime.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final String since =
+                generalizedTime.format(new Date(tree.getCreated() - CHANGE_DETECTION_SKEW_MILLIS));
+        final int changed =
+                countLdapGroups("(" + changeDetectionAttributeName + ">=" + since + ")");
+        if (changed > 0) {
+            log.debug("Found {} SmartLdap groups changed since {}", changed, since);
+            return true;
+        }
+
+        final int count = countLdapGroups(null);
+        log.debug("SmartLdap group count was {} and is {}", tree.getLdapGroupCount(), count);
+        return count != tree.getLdapGroupCount();
+    }
+
+    /**
+     * Counts the groups under baseGroupDn that match the filter and, if specified, the additional
+     * filter. Uses searches that return no attributes, paged unless searchPageSize is zero or less.
+     */
+    private int countLdapGroups(String additionalFilter) {
+        final String searchFilter =
+                additionalFilter != null ? "(&" + filter + additionalFilter + ")" : filter;
+        final SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setReturningAttributes(new String[] {"1.1"}); // no attributes
+        return SingleContextSource.doWithSingleContext(
+                ldapContext,
+                new LdapOperationsCallback<Integer>() {
+                    @Override
+                    public Integer doWithLdapOperations(LdapOperations operations) {
+                        final CountNameClassPairCallbackHandler handler =
+                                new CountNameClassPairCallbackHandler();
+                        if (searchPageSize <= 0) {
+                            operations.search(baseGroupDn, searchFilter, controls, handler);
+                            return handler.getNoOfRows();
+                        }
+                        final PagedResultsDirContextProcessor processor =
+                                new PagedResultsDirContextProcessor(searchPageSize);
+                        // Servers that ignore the paged results control return no cookie
+                        do {
+                            operations.search(
+                                    baseGroupDn, searchFilter, controls, handler, processor);
+                        } while (processor.hasMore() && processor.getCookie() != null);
+                        return handler.getNoOfRows();
+                    }
+                });
+    }
+
+    /*
+     * SmartLdapGroupStoreMXBean
+     */
+
+    @Override
+    public long getSnapshotAge() {
+        final GroupsTree tree = groupsTree;
+        return tree != null ? System.currentTimeMillis() - tree.getCreated() : -1;
+    }
+
+    @Override
+    public long getLastRefreshAge() {
+        final long completed = lastRefreshCompleted;
+        return completed != 0 ? System.currentTimeMillis() - completed : -1;
+    }
+
+    @Override
+    public long getLastRefreshDuration() {
+        return lastRefreshDuration;
+    }
+
+    @Override
+    public int getGroupCount() {
+        final GroupsTree tree = groupsTree;
+        return tree != null ? tree.getGroups().size() : 0;
+    }
+
+    @Override
+    public int getLdapGroupCount() {
+        final GroupsTree tree = groupsTree;
+        return tree != null ? tree.getLdapGroupCount() : -1;
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    @Override
+    public long getUnchangedRefreshCount() {
+        return unchangedRefreshCount.get();
+    }
+
+    @Override
+    public long getFailedRefreshCount() {
+        return failedRefreshCount.get();
+    }
+
+    @Override
+    public boolean isRefreshInProgress() {
+        return refreshInProgress.get();
     }
 
     private String getContainingFolder(final String groupName) {
@@ -664,51 +910,56 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         return (index > 0) ? groupName.substring(0, index) : "";
     }
 
-    private GroupsTree buildGroupsTree() {
-
-        long timestamp = System.currentTimeMillis();
+    /**
+     * @param timestamp Time the refresh started; changes made after it are picked up by the next
+     *     refresh
+     * @param ldapGroupCount Number of groups under baseGroupDn, or -1 if not counted
+     */
+    private GroupsTree buildGroupsTree(long timestamp, int ldapGroupCount) {
 
-        // Prepare the new local indices...
-        Map<String, IEntityGroup> newGroups =
-                Collections.synchronizedMap(new HashMap<String, IEntityGroup>());
-        Map<String, List<String>> newParents =
-                Collections.synchronizedMap(new HashMap<String, List<String>>());
-        Map<String, List<String>> newChildren =
-                Collections.synchronizedMap(new HashMap<String, List<String>>());
-        Map<String, List<String>> newKeysByUpperCaseName =
-                Collections.synchronizedMap(new HashMap<String, List<String>>());
-        Map<String, List<String>> newChildrenPersons =
-                Collections.synchronizedMap(new HashMap<String, List<String>>());
-        Map<String, IEntityGroup> newFolders =
-                Collections.synchronizedMap(new HashMap<String, IEntityGroup>());
+        // Prepare the new local indices;  they are only
+        // seen by other threads once the tree is published...
+        Map<String, IEntityGroup> newGroups = new HashMap<String, IEntityGroup>();
+        Map<String, List<String>> newParents = new HashMap<String, List<String>>();
+        Map<String, List<String>> newChildren = new HashMap<String, List<String>>();
+        Map<String, List<String>> newKeysByUpperCaseName = new HashMap<String, List<String>>();
+        Map<String, List<String>> newChildrenPersons = new HashMap<String, List<String>>();
+        Map<String, IEntityGroup> newFolders = new HashMap<String, IEntityGroup>();
 
-        // Gather IEntityGroup objects from LDAP...
-        RuntimeRequestResponse req = new RuntimeRequestResponse();
-        Set<LdapRecord> set = new HashSet<>();
-        req.setAttribute("GROUPS", set);
-        req.setAttribute("smartLdapGroupStore", this);
-        SubQueryCounter queryCounter = new SubQueryCounter();
-        req.setAttribute("queryCounter", queryCounter);
-        req.setAttribute("filter", filter); // This one changes iteratively...
-        req.setAttribute("baseFilter", filter); // while this one stays the same.
         if (StringUtils.isBlank(baseGroupDn)) {
             throw new IllegalStateException("baseGroupDn property not set");
         }
-        req.setAttribute("baseGroupDn", baseGroupDn);
         if (ldapContext == null) {
             throw new IllegalStateException("ldapContext property not set");
         }
-        req.setAttribute("childGroupKeyRegex", childGroupKeyRegex);
-        req.setAttribute("groupTreeSeparator", groupTreeSeparator);
         if (groupTreeSeparator == null) {
             throw new IllegalStateException("groupTreeSeparator property not set");
         }
-        req.setAttribute("ldapContext", ldapContext);
-        req.setAttribute("resolveMemberGroups", resolveMemberGroups);
-        req.setAttribute("resolveDnList", resolveDnList);
-        req.setAttribute("memberOfAttributeName", memberOfAttributeName);
-        req.setAttribute("attributesMapper", attributesMapper);
-        runner.run(initTask, req);
+
+        // Gather IEntityGroup objects from LDAP...
+        final Set<LdapRecord> set = new HashSet<>();
+        final int queryCount;
+        if (searchPageSize > 0 && !resolveMemberGroups) {
+            queryCount = searchLdapRecords(set);
+        } else {
+            RuntimeRequestResponse req = new RuntimeRequestResponse();
+            req.setAttribute("GROUPS", set);
+            req.setAttribute("smartLdapGroupStore", this);
+            SubQueryCounter queryCounter = new SubQueryCounter();
+            req.setAttribute("queryCounter", queryCounter);
+            req.setAttribute("filter", filter); // This one changes iteratively...
+            req.setAttribute("baseFilter", filter); // while this one stays the same.
+            req.setAttribute("baseGroupDn", baseGroupDn);
+            req.setAttribute("childGroupKeyRegex", childGroupKeyRegex);
+            req.setAttribute("groupTreeSeparator", groupTreeSeparator);
+            req.setAttribute("ldapContext", ldapContext);
+            req.setAttribute("resolveMemberGroups", resolveMemberGroups);
+            req.setAttribute("resolveDnList", resolveDnList);
+            req.setAttribute("memberOfAttributeName", memberOfAttributeName);
+            req.setAttribute("attributesMapper", attributesMapper);
+            runner.run(initTask, req);
+            queryCount = queryCounter.getCount() + 1;
+        }
 
         log.info("init() found {} records", set.size());
 
@@ -739,7 +990,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
                 // Adds the containing folder as a parent of this current path
                 List<String> parentsList = newParents.get(currentPath);
                 if (parentsList == null) {
-                    parentsList = Collections.synchronizedList(new ArrayList<String>());
+                    parentsList = new ArrayList<String>();
                     newParents.put(currentPath, parentsList);
                 }
                 parentsList.add(containingFolder);
@@ -747,7 +998,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
                 // Adds the current path as a child of the containing folder.
                 List<String> childrenList = newChildren.get(containingFolder);
                 if (childrenList == null) {
-                    childrenList = Collections.synchronizedList(new ArrayList<String>());
+                    childrenList = new ArrayList<String>();
                     newChildren.put(containingFolder, childrenList);
                 }
                 childrenList.add(currentPath);
@@ -789,7 +1040,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
                     if (parentsList == null) {
                         log.debug("First parent for {}", childKey);
                         // first parent for this child...
-                        parentsList = Collections.synchronizedList(new ArrayList<String>());
+                        parentsList = new ArrayList<String>();
                         newParents.put(childKey, parentsList);
                     }
                     log.debug("Adding {} to parent list for {}", g.getLocalKey(), childKey);
@@ -798,8 +1049,8 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             }
 
             // new_children...
-            List<String> childrenList = Collections.synchronizedList(new ArrayList<String>());
-            List<String> childrenPersonList = Collections.synchronizedList(new ArrayList<String>());
+            List<String> childrenList = new ArrayList<String>();
+            List<String> childrenPersonList = new ArrayList<String>();
             for (String childKey : r.getKeysOfChildren()) {
                 log.debug("Child-processing child {} for group {}", childKey, g.getLocalKey());
                 // NB:  We're only interested in relationships between
@@ -825,7 +1076,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             List<String> groupsWithMyName = newKeysByUpperCaseName.get(g.getName().toUpperCase());
             if (groupsWithMyName == null) {
                 // I am the first group with my name (pretty likely)...
-                groupsWithMyName = Collections.synchronizedList(new ArrayList<String>());
+                groupsWithMyName = new ArrayList<String>();
                 newKeysByUpperCaseName.put(g.getName().toUpperCase(), groupsWithMyName);
             }
             groupsWithMyName.add(g.getLocalKey());
@@ -840,12 +1091,11 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         newGroups.put(root.getLocalKey(), root);
 
         // newParents (I am a parent for all groups that have no other parent)...
-        List<String> childrenOfRoot =
-                Collections.synchronizedList(new ArrayList<String>()); // for later...
+        List<String> childrenOfRoot = new ArrayList<String>(); // for later...
         for (String possibleChildKey : newGroups.keySet()) {
             if (!possibleChildKey.equals(root.getLocalKey())
                     && !newParents.containsKey(possibleChildKey)) {
-                List<String> p = Collections.synchronizedList(new ArrayList<String>());
+                List<String> p = new ArrayList<String>();
                 p.add(root.getLocalKey());
                 newParents.put(possibleChildKey, p);
                 childrenOfRoot.add(possibleChildKey); // for later...
@@ -859,14 +1109,14 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         List<String> groupsWithMyName = newKeysByUpperCaseName.get(root.getName().toUpperCase());
         if (groupsWithMyName == null) {
             // I am the first group with my name (pretty likely)...
-            groupsWithMyName = Collections.synchronizedList(new ArrayList<String>());
+            groupsWithMyName = new ArrayList<String>();
             newKeysByUpperCaseName.put(root.getName().toUpperCase(), groupsWithMyName);
         }
         groupsWithMyName.add(root.getLocalKey());
 
         final long benchmark = System.currentTimeMillis() - timestamp;
         log.info("Refresh of groups tree completed in {} milliseconds", benchmark);
-        log.info("Total number of LDAP queries:  {}", queryCounter.getCount() + 1);
+        log.info("Total number of LDAP queries:  {}", queryCount);
         final String msg =
                 "init() :: final size of each collection is as follows..."
                         + "\n\tgroups={}"
@@ -927,7 +1177,111 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         }
 
         return new GroupsTree(
-                newGroups, newParents, newChildren, newChildrenPersons, newKeysByUpperCaseName);
+                timestamp,
+                ldapGroupCount,
+                newGroups,
+                newParents,
+                newChildren,
+                newChildrenPersons,
+                newKeysByUpperCaseName);
+    }
+
+    /**
+     * Reads the groups under baseGroupDn with paged searches into the specified set and adds a
+     * group for each folder in their names, the way init.crn does when it doesn't resolve member
+     * groups.
+     *
+     * @return Number of pages read
+     */
+    private int searchLdapRecords(final Set<LdapRecord> records) {
+        final Pattern childGroupKeyPattern =
+                StringUtils.isNotBlank(childGroupKeyRegex)
+                        ? Pattern.compile(childGroupKeyRegex)
+                        : null;
+        // Keys of the groups and folders in each folder, by folder name
+        final Map<String, List<String>> folders = new LinkedHashMap<>();
+        final SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        final int pages =
+                SingleContextSource.doWithSingleContext(
+                        ldapContext,
+                        new LdapOperationsCallback<Integer>() {
+                            @Override
+                            public Integer doWithLdapOperations(LdapOperations operations) {
+                                final PagedResultsDirContextProcessor processor =
+                                        new PagedResultsDirContextProcessor(searchPageSize);
+                                int rslt = 0;
+                                // Servers that ignore the paged results control return no cookie
+                                do {
+                                    final List<?> page =
+                                            operations.search(
+                                                    baseGroupDn,
+                                                    filter,
+                                                    controls,
+                                                    attributesMapper,
+                                                    processor);
+                                    ++rslt;
+                                    for (Object o : page) {
+                                        addLdapRecord(
+                                                (LdapRecord) o,
+                                                childGroupKeyPattern,
+                                                records,
+                                                folders);
+                                    }
+                                } while (processor.hasMore() && processor.getCookie() != null);
+                                return rslt;
+                            }
+                        });
+
+        for (Map.Entry<String, List<String>> y : folders.entrySet()) {
+            final IEntityGroup g = new EntityTestingGroupImpl(y.getKey(), IPerson.class);
+            g.setCreatorID("System");
+            g.setName(y.getKey());
+            g.setDescription("Group associated to a folder in grouper.");
+            records.add(new LdapRecord(g, y.getValue()));
+        }
+        return pages;
+    }
+
+    private void addLdapRecord(
+            LdapRecord record,
+            Pattern childGroupKeyPattern,
+            Set<LdapRecord> records,
+            Map<String, List<String>> folders) {
+        if (records.contains(record)) {
+            // Seen before
+            return;
+        }
+
+        // Extract the keys of the children from their DNs, dropping the ones that don't match
+        if (childGroupKeyPattern != null) {
+            final List<String> children = new ArrayList<>();
+            for (String child : record.getKeysOfChildren()) {
+                final Matcher matcher = childGroupKeyPattern.matcher(child);
+                if (matcher.matches()) {
+                    children.add(matcher.group(1));
+                }
+            }
+            record = new LdapRecord(record.getGroup(), children);
+        }
+        records.add(record);
+
+        // Add the group to its folder, and each folder to the folder above it
+        String current = record.getGroup().getName();
+        String member = record.getGroup().getLocalKey();
+        int sepPos;
+        while ((sepPos = current.lastIndexOf(groupTreeSeparator)) > 0) {
+            current = current.substring(0, sepPos);
+            final boolean known = folders.containsKey(current);
+            if (!known) {
+                folders.put(current, new ArrayList<String>());
+            }
+            folders.get(current).add(member);
+            if (known) {
+                break;
+            }
+            member = current;
+        }
     }
 
     /*
@@ -960,6 +1314,8 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     private static final class GroupsTree {
 
         // Instance Members.
+        private final long created;
+        private final int ldapGroupCount;
         private final Map<String, IEntityGroup> groups;
         private final Map<String, List<String>> parents;
         private final Map<String, List<String>> children;
@@ -971,6 +1327,8 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
          */
 
         public GroupsTree(
+                long created,
+                int ldapGroupCount,
                 Map<String, IEntityGroup> groups,
                 Map<String, List<String>> parents,
                 Map<String, List<String>> children,
@@ -1000,11 +1358,30 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             }
 
             // Instance Members.
-            this.groups = groups;
-            this.parents = parents;
-            this.children = children;
-            this.personChildren = personChildren;
-            this.keysByUpperCaseName = keysByUpperCaseName;
+            this.created = created;
+            this.ldapGroupCount = ldapGroupCount;
+            this.groups = Collections.unmodifiableMap(groups);
+            this.parents = unmodifiableLists(parents);
+            this.children = unmodifiableLists(children);
+            this.personChildren = unmodifiableLists(personChildren);
+            this.keysByUpperCaseName = unmodifiableLists(keysByUpperCaseName);
+        }
+
+        private static Map<String, List<String>> unmodifiableLists(Map<String, List<String>> map) {
+            for (Map.Entry<String, List<String>> y : map.entrySet()) {
+                y.setValue(Collections.unmodifiableList(y.getValue()));
+            }
+            return Collections.unmodifiableMap(map);
+        }
+
+        /** @return Time the refresh that built this tree started */
+        public long getCreated() {
+            return created;
+        }
+
+        /** @return Number of groups under baseGroupDn when this tree was built, or -1 if unknown */
+        public int getLdapGroupCount() {
+            return ldapGroupCount;
         }
 
         public Map<String, IEntityGroup> getGroups() {
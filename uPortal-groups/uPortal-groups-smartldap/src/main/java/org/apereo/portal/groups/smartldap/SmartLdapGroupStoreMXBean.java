@@ -0,0 +1,46 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.smartldap;
+
+/** Statistics about the groups tree of the {@link SmartLdapGroupStore} and its refreshes. */
+public interface SmartLdapGroupStoreMXBean {
+
+    /** @return Age (ms) of the current groups tree, measured from the start of its refresh */
+    long getSnapshotAge();
+
+    /** @return Time (ms) since the last successful refresh completed, -1 if none has */
+    long getLastRefreshAge();
+
+    /** @return Duration (ms) of the last successful refresh, -1 if none has completed */
+    long getLastRefreshDuration();
+
+    /** @return Number of groups in the current tree, including folders and the root group */
+    int getGroupCount();
+
+    /** @return Number of LDAP groups found when the current tree was built, -1 if not counted */
+    int getLdapGroupCount();
+
+    /** @return Number of times the tree was rebuilt */
+    long getRefreshCount();
+
+    /** @return Number of refreshes that kept the tree because LDAP reported no changes */
+    long getUnchangedRefreshCount();
+
+    /** @return Number of refreshes that failed */
+    long getFailedRefreshCount();
+
+    /** @return true if a refresh worker is currently running */
+    boolean isRefreshInProgress();
+}
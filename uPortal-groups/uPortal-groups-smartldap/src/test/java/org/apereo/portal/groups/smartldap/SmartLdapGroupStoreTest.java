@@ -0,0 +1,405 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.smartldap;
+
+import static org.apereo.portal.groups.smartldap.SmartLdapGroupStore.ROOT_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.ReadOnlySearchRequest;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.EntityTypes;
+import org.apereo.portal.groups.EntityImpl;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupConstants.SearchMethod;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.spring.locator.ApplicationContextLocator;
+import org.apereo.portal.spring.locator.EntityTypesLocator;
+import org.apereo.services.persondir.IPersonAttributeDao;
+import org.apereo.services.persondir.support.NamedPersonImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/** Tests building and refreshing the SmartLdap groups tree against an in-memory LDAP server. */
+public class SmartLdapGroupStoreTest {
+    private static final String BASE_DN = "dc=example,dc=org";
+    private static final String GROUPS_DN = "ou=groups," + BASE_DN;
+    /** Groups added by the fixture are older than any tree, skew allowance included */
+    private static final String OLD_TIMESTAMP = "20200101000000Z";
+
+    private InMemoryDirectoryServer directoryServer;
+    private LdapContextSource contextSource;
+    private CacheManager cacheManager;
+    private EntityTypesLocator entityTypesLocator;
+    private ApplicationContextLocator applicationContextLocator;
+    private final IPersonAttributeDao personAttributeDao = mock(IPersonAttributeDao.class);
+
+    /** Number of searches that listed groups (not counted them), and how many were paged */
+    private final AtomicInteger groupSearches = new AtomicInteger();
+
+    private final AtomicInteger pagedGroupSearches = new AtomicInteger();
+    /** Searches that list groups wait for this latch */
+    private volatile CountDownLatch groupSearchLatch = new CountDownLatch(0);
+
+    @Before
+    public void setUp() throws Exception {
+        final InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+        // Without a schema the fixture may set modifyTimestamp
+        config.setSchema(null);
+        config.addInMemoryOperationInterceptor(
+                new InMemoryOperationInterceptor() {
+                    @Override
+                    public void processSearchRequest(InMemoryInterceptedSearchRequest request) {
+                        final ReadOnlySearchRequest search = request.getRequest();
+                        if (!search.getAttributeList().contains("1.1")) {
+                            groupSearches.incrementAndGet();
+                            if (search.hasControl(SimplePagedResultsControl.PAGED_RESULTS_OID)) {
+                                pagedGroupSearches.incrementAndGet();
+                            }
+                            try {
+                                groupSearchLatch.await(30, TimeUnit.SECONDS);
+                            } catch (InterruptedException ie) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }
+                });
+        directoryServer = new InMemoryDirectoryServer(config);
+        directoryServer.startListening();
+        directoryServer.add("dn: " + BASE_DN, "objectClass: domain", "dc: example");
+        directoryServer.add("dn: " + GROUPS_DN, "objectClass: organizationalUnit", "ou: groups");
+        addGroup("Staff", dn("Admins"), "uid=alice," + BASE_DN);
+        addGroup("Admins", "uid=bob," + BASE_DN);
+        addGroup("Students");
+        addGroup("Faculty");
+        addGroup("Research:Physics", dn("Faculty"));
+        addGroup("Research:Chemistry");
+
+        contextSource = new LdapContextSource();
+        contextSource.setUrl("ldap://localhost:" + directoryServer.getListenPort());
+        contextSource.setAnonymousReadOnly(true);
+        contextSource.afterPropertiesSet();
+
+        final Configuration configuration = new Configuration();
+        configuration.setName(SmartLdapGroupStoreTest.class.getName());
+        configuration.setUpdateCheck(false);
+        configuration.addDefaultCache(new CacheConfiguration("default", 0));
+        cacheManager = new CacheManager(configuration);
+        cacheManager.addCache("org.apereo.portal.groups.EntityGroupImpl.children");
+
+        final StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getBeanFactory().registerSingleton("cacheManager", cacheManager);
+        applicationContext.refresh();
+
+        final EntityTypes entityTypes = mock(EntityTypes.class);
+        when(entityTypes.getEntityIDFromType(any(Class.class))).thenReturn(3);
+
+        entityTypesLocator = new EntityTypesLocator(entityTypes);
+        entityTypesLocator.afterPropertiesSet();
+        applicationContextLocator = new ApplicationContextLocator(applicationContext);
+        applicationContextLocator.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        groupSearchLatch.countDown();
+        applicationContextLocator.destroy();
+        entityTypesLocator.destroy();
+        cacheManager.shutdown();
+        directoryServer.shutDown(true);
+    }
+
+    @Test
+    public void testPagedSearchesBuildTheSameTreeAsInitScript() throws Exception {
+        // Keyed by DN, and keyed by name with the keys of the children extracted from their DNs
+        final String[][] configurations = {
+            {"distinguishedName", null}, {"cn", "cn=([^,]*)," + GROUPS_DN}
+        };
+        for (String[] configuration : configurations) {
+            final SmartLdapGroupStore script = newStore(0);
+            script.setAttributesMapper(newAttributesMapper(configuration[0]));
+            script.setChildGroupKeyRegex(configuration[1]);
+            final SmartLdapGroupStore paged = newStore(2);
+            paged.setAttributesMapper(newAttributesMapper(configuration[0]));
+            paged.setChildGroupKeyRegex(configuration[1]);
+
+            groupSearches.set(0);
+            final Set<String> keys = getGroupKeys(script);
+            assertEquals(1, groupSearches.get());
+            assertEquals(0, pagedGroupSearches.get());
+
+            // 6 groups, 2 per page
+            groupSearches.set(0);
+            assertEquals(keys, getGroupKeys(paged));
+            assertTrue(groupSearches.get() >= 3);
+            assertEquals(groupSearches.get(), pagedGroupSearches.getAndSet(0));
+
+            // 6 groups, the Research folder and the root group
+            assertEquals(8, keys.size());
+            for (String key : keys) {
+                final IEntityGroup expected = script.find(key);
+                final IEntityGroup actual = paged.find(key);
+                assertEquals(key, expected.getName(), actual.getName());
+                assertEquals(
+                        key,
+                        toKeys(script.findMemberGroups(expected)),
+                        toKeys(paged.findMemberGroups(actual)));
+                assertEquals(
+                        key,
+                        toKeys(script.findParentGroups(expected)),
+                        toKeys(paged.findParentGroups(actual)));
+            }
+
+            final IEntityGroup research = paged.find("Research");
+            assertEquals(2, toKeys(paged.findMemberGroups(research)).size());
+            final IEntityGroup admins = paged.find(getGroupKey(paged, "Admins"));
+            assertEquals(
+                    new HashSet<>(Arrays.asList(getGroupKey(paged, "Staff"), ROOT_KEY)),
+                    toKeys(paged.findParentGroups(admins)));
+        }
+    }
+
+    @Test
+    public void testUnchangedGroupsKeepTheTree() throws Exception {
+        final SmartLdapGroupStore store = newStore(2);
+        final IEntityGroup staff = store.find(dn("Staff"));
+        assertNotNull(staff);
+        assertEquals(6, store.getLdapGroupCount());
+
+        groupSearches.set(0);
+        refresh(store);
+        assertEquals(0, groupSearches.get());
+        assertEquals(1, store.getRefreshCount());
+        assertEquals(1, store.getUnchangedRefreshCount());
+        assertSame(staff, store.find(dn("Staff")));
+    }
+
+    @Test
+    public void testModifiedGroupRebuildsTheTree() throws Exception {
+        final SmartLdapGroupStore store = newStore(2);
+        final IEntityGroup students = store.find(dn("Students"));
+        assertFalse(store.findMemberGroups(students).hasNext());
+
+        directoryServer.modify(
+                dn("Students"),
+                new Modification(ModificationType.ADD, "member", dn("Research:Chemistry")));
+        refresh(store);
+        assertEquals(2, store.getRefreshCount());
+        assertEquals(0, store.getUnchangedRefreshCount());
+        assertNotSame(students, store.find(dn("Students")));
+        assertEquals(
+                Collections.singleton(dn("Research:Chemistry")),
+                toKeys(store.findMemberGroups(store.find(dn("Students")))));
+    }
+
+    @Test
+    public void testRemovedGroupRebuildsTheTree() throws Exception {
+        final SmartLdapGroupStore store = newStore(2);
+        assertNotNull(store.find(dn("Faculty")));
+
+        // Removing a group changes no timestamp of the others, only their number
+        directoryServer.delete(dn("Faculty"));
+        refresh(store);
+        assertEquals(2, store.getRefreshCount());
+        assertEquals(5, store.getLdapGroupCount());
+        assertNull(store.find(dn("Faculty")));
+        assertFalse(store.findMemberGroups(store.find(dn("Research:Physics"))).hasNext());
+    }
+
+    @Test
+    public void testReadersUseTheCurrentTreeDuringRefresh() throws Exception {
+        final SmartLdapGroupStore store = newStore(2);
+        final IEntityGroup students = store.find(dn("Students"));
+        directoryServer.modify(
+                dn("Students"), new Modification(ModificationType.ADD, "member", dn("Faculty")));
+
+        groupSearchLatch = new CountDownLatch(1);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1) + 100);
+        // Starts the refresh worker, which waits for the latch in its search
+        assertSame(students, store.find(dn("Students")));
+        assertTrue(store.isRefreshInProgress());
+        assertSame(students, store.find(dn("Students")));
+        assertFalse(store.findMemberGroups(students).hasNext());
+
+        groupSearchLatch.countDown();
+        awaitRefresh(store);
+        assertEquals(
+                Collections.singleton(dn("Faculty")),
+                toKeys(store.findMemberGroups(store.find(dn("Students")))));
+    }
+
+    @Test
+    public void testBatchFindParentGroupsMatchesPerMember() throws Exception {
+        addPerson("alice", dn("Admins"), dn("Research:Physics"));
+        addPerson("bob", dn("Staff"), dn("Students"));
+        addPerson("carol", dn("Research:Chemistry"), dn("Admins"));
+        final SmartLdapGroupStore store = newStore(2);
+
+        final List<IGroupMember> members = new ArrayList<>();
+        for (String key : getGroupKeys(store)) {
+            members.add(store.find(key));
+        }
+        members.add(new EntityImpl("alice", IPerson.class));
+        members.add(new EntityImpl("bob", IPerson.class));
+        members.add(new EntityImpl("carol", IPerson.class));
+        // No attributes, and not a person
+        members.add(new EntityImpl("dave", IPerson.class));
+        members.add(new EntityImpl("portlet", IPortletDefinition.class));
+
+        final Map<IGroupMember, Set<IEntityGroup>> batch = store.findParentGroups(members);
+        assertEquals(members.size(), batch.size());
+        for (IGroupMember member : members) {
+            assertEquals(
+                    member.getKey(),
+                    toKeys(store.findParentGroups(member)),
+                    toKeys(batch.get(member).iterator()));
+        }
+        assertEquals(
+                new HashSet<>(
+                        Arrays.asList(
+                                dn("Admins"),
+                                dn("Staff"),
+                                dn("Research:Physics"),
+                                "Research",
+                                ROOT_KEY)),
+                toKeys(batch.get(new EntityImpl("alice", IPerson.class)).iterator()));
+        assertTrue(batch.get(new EntityImpl("dave", IPerson.class)).isEmpty());
+    }
+
+    /** Returns a store whose tree expires after one second and has been built. */
+    private SmartLdapGroupStore newStore(int searchPageSize) throws Exception {
+        final SmartLdapGroupStore rslt = new SmartLdapGroupStore();
+        rslt.setLdapContext(contextSource);
+        rslt.setBaseGroupDn(GROUPS_DN);
+        rslt.setFilter("(objectClass=groupOfNames)");
+        rslt.setAttributesMapper(newAttributesMapper("distinguishedName"));
+        rslt.setGroupsTreeRefreshIntervalSeconds(1);
+        rslt.setChangeDetectionAttributeName("modifyTimestamp");
+        rslt.setSearchPageSize(searchPageSize);
+        ReflectionTestUtils.setField(rslt, "personAttributeDao", personAttributeDao);
+        return rslt;
+    }
+
+    private static SimpleAttributesMapper newAttributesMapper(String keyAttributeName) {
+        final SimpleAttributesMapper rslt = new SimpleAttributesMapper();
+        rslt.setKeyAttributeName(keyAttributeName);
+        rslt.setGroupNameAttributeName("cn");
+        rslt.setMembershipAttributeName("member");
+        return rslt;
+    }
+
+    /** Waits for the tree to expire and refreshes it. */
+    private static void refresh(SmartLdapGroupStore store) throws Exception {
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1) + 100);
+        // Any lookup starts the refresh worker
+        store.find(ROOT_KEY);
+        awaitRefresh(store);
+    }
+
+    private static void awaitRefresh(SmartLdapGroupStore store) throws Exception {
+        final long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (store.isRefreshInProgress()) {
+            assertTrue("Refresh did not complete", System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+        assertEquals(0, store.getFailedRefreshCount());
+    }
+
+    /** Keys of all groups of the tree, including folders and the root group */
+    private static Set<String> getGroupKeys(SmartLdapGroupStore store) throws Exception {
+        final Set<String> rslt = new HashSet<>();
+        for (EntityIdentifier ei :
+                store.searchForGroups("", SearchMethod.CONTAINS, IPerson.class)) {
+            rslt.add(ei.getKey());
+        }
+        return rslt;
+    }
+
+    private static String getGroupKey(SmartLdapGroupStore store, String name) throws Exception {
+        final EntityIdentifier[] rslt =
+                store.searchForGroups(name, SearchMethod.DISCRETE, IPerson.class);
+        assertEquals(1, rslt.length);
+        return rslt[0].getKey();
+    }
+
+    private static Set<String> toKeys(Iterator<?> groups) {
+        final Set<String> rslt = new HashSet<>();
+        while (groups.hasNext()) {
+            rslt.add(((IEntityGroup) groups.next()).getLocalKey());
+        }
+        return rslt;
+    }
+
+    private static String dn(String cn) {
+        return "cn=" + cn + "," + GROUPS_DN;
+    }
+
+    private void addPerson(String username, String... groups) {
+        final Map<String, List<Object>> attributes = new HashMap<>();
+        attributes.put(IPerson.USERNAME, Collections.<Object>singletonList(username));
+        attributes.put("memberOf", Arrays.<Object>asList(groups));
+        when(personAttributeDao.getPerson(username))
+                .thenReturn(new NamedPersonImpl(username, attributes));
+    }
+
+    private void addGroup(String cn, String... members) throws Exception {
+        final Entry entry = new Entry(dn(cn));
+        entry.addAttribute("objectClass", "groupOfNames");
+        entry.addAttribute("cn", cn);
+        entry.addAttribute("distinguishedName", dn(cn));
+        entry.addAttribute("modifyTimestamp", OLD_TIMESTAMP);
+        if (members.length > 0) {
+            entry.addAttribute("member", members);
+        }
+        directoryServer.addEntries(entry);
+    }
+}
@@ -0,0 +1,415 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.apereo.portal.PortalException;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.utils.IFragmentDefinitionUtils;
+import org.apereo.portal.utils.MovingAverage;
+import org.apereo.portal.utils.MovingAverageSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.w3c.dom.Document;
+
+/**
+ * Loads the fragments that are incorporated into a user's layout and tracks how long each phase of
+ * assembling the ILF takes. By default fragment audiences are evaluated and fragment layouts are
+ * fetched one at a time on the request thread. In parallel mode both phases are spread over a
+ * bounded pool of threads, the results are always returned in fragment precedence order so the
+ * merged layout is the same in either mode. When the pool is saturated the request thread does the
+ * work itself.
+ *
+ * <p>Most users receive one of a few distinct combinations of fragments, so the merge of each
+ * combination is cached and shared by all users that receive it. A cached merge is only used while
+ * it was built from the fragment layouts currently cached by {@link FragmentActivator}, any reload
+ * of a fragment layout causes the merge to be rebuilt on next use.
+ */
+@ManagedResource("uPortal:section=Framework,name=FragmentLayoutAssembler")
+@Service("fragmentLayoutAssembler")
+public class FragmentLayoutAssembler
+        implements FragmentLayoutAssemblerMXBean, InitializingBean, DisposableBean {
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final MovingAverage plfLoadTimes = new MovingAverage();
+    private final MovingAverage audienceEvaluationTimes = new MovingAverage();
+    private final MovingAverage fragmentFetchTimes = new MovingAverage();
+    private final MovingAverage mergeTimes = new MovingAverage();
+    private volatile MovingAverageSample lastPlfLoad = new MovingAverageSample();
+    private volatile MovingAverageSample lastAudienceEvaluation = new MovingAverageSample();
+    private volatile MovingAverageSample lastFragmentFetch = new MovingAverageSample();
+    private volatile MovingAverageSample lastMerge = new MovingAverageSample();
+
+    private IFragmentDefinitionUtils fragmentUtils;
+    private Ehcache mergedLayoutCache;
+    private boolean cacheMergedLayouts = true;
+    private boolean parallel = false;
+    private int maxThreads = 8;
+    private int queueSize = 500;
+    private ThreadPoolExecutor executor;
+
+    @Autowired
+    public void setFragmentDefinitionUtils(IFragmentDefinitionUtils fragmentUtils) {
+        this.fragmentUtils = fragmentUtils;
+    }
+
+    @Autowired
+    public void setMergedLayoutCache(
+            @Qualifier("org.apereo.portal.layout.dlm.FragmentLayoutAssembler.mergedLayoutCache")
+                    Ehcache mergedLayoutCache) {
+        this.mergedLayoutCache = mergedLayoutCache;
+    }
+
+    /**
+     * @param cacheMergedLayouts If the merge of each distinct combination of fragments should be
+     *     cached. Defaults to true
+     */
+    @Value("${org.apereo.portal.layout.dlm.FragmentLayoutAssembler.cacheMergedLayouts:true}")
+    public void setCacheMergedLayouts(boolean cacheMergedLayouts) {
+        this.cacheMergedLayouts = cacheMergedLayouts;
+    }
+
+    /** @param parallel If fragments should be loaded concurrently. Defaults to false */
+    @Value("${org.apereo.portal.layout.dlm.FragmentLayoutAssembler.parallel:false}")
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /** @param maxThreads Size of the pool used to load fragments concurrently. Defaults to 8 */
+    @Value("${org.apereo.portal.layout.dlm.FragmentLayoutAssembler.maxThreads:8}")
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * @param queueSize Number of fragment tasks that can wait for a pool thread before the request
+     *     thread runs them itself. Defaults to 500
+     */
+    @Value("${org.apereo.portal.layout.dlm.FragmentLayoutAssembler.queueSize:500}")
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!this.parallel) {
+            return;
+        }
+
+        this.executor =
+                new ThreadPoolExecutor(
+                        this.maxThreads,
+                        this.maxThreads,
+                        60,
+                        TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(this.queueSize),
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("uP-FragmentLoader-%d")
+                                .setDaemon(true)
+                                .build(),
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void destroy() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isParallel() {
+        return this.executor != null;
+    }
+
+    @Override
+    public int getMaxThreads() {
+        return this.maxThreads;
+    }
+
+    @Override
+    public MovingAverageSample getPlfLoadTimes() {
+        return this.lastPlfLoad;
+    }
+
+    @Override
+    public MovingAverageSample getAudienceEvaluationTimes() {
+        return this.lastAudienceEvaluation;
+    }
+
+    @Override
+    public MovingAverageSample getFragmentFetchTimes() {
+        return this.lastFragmentFetch;
+    }
+
+    @Override
+    public MovingAverageSample getMergeTimes() {
+        return this.lastMerge;
+    }
+
+    /** @return The fragments whose audience includes the person, in precedence order */
+    public List<FragmentDefinition> getApplicableFragmentDefinitions(final IPerson person) {
+        final long start = System.nanoTime();
+        final List<FragmentDefinition> result;
+
+        final List<FragmentDefinition> definitions = this.fragmentUtils.getFragmentDefinitions();
+        if (this.isParallel(definitions)) {
+            final List<Callable<Boolean>> tasks = new ArrayList<>(definitions.size());
+            for (final FragmentDefinition definition : definitions) {
+                tasks.add(() -> definition.isApplicable(person));
+            }
+            final List<Boolean> applicable = this.invokeAll(tasks);
+
+            result = new ArrayList<>();
+            for (int i = 0; i < definitions.size(); i++) {
+                if (applicable.get(i)) {
+                    result.add(definitions.get(i));
+                }
+            }
+        } else {
+            result = this.fragmentUtils.getFragmentDefinitionsApplicableToPerson(person);
+        }
+
+        this.lastAudienceEvaluation = this.audienceEvaluationTimes.add(millisSince(start));
+        return result;
+    }
+
+    /** @return The layouts of the fragments in the same order as the fragments */
+    public List<Document> getFragmentLayouts(
+            final List<FragmentDefinition> definitions, final Locale locale) {
+        final long start = System.nanoTime();
+        final List<Document> result;
+
+        if (this.isParallel(definitions)) {
+            final List<Callable<UserView>> tasks = new ArrayList<>(definitions.size());
+            for (final FragmentDefinition definition : definitions) {
+                tasks.add(() -> this.fragmentUtils.getUserView(definition, locale));
+            }
+            final List<UserView> userViews = this.invokeAll(tasks);
+
+            result = new ArrayList<>(userViews.size());
+            for (final UserView userView : userViews) {
+                if (userView != null) {
+                    result.add(userView.getLayout());
+                }
+            }
+        } else {
+            result = this.fragmentUtils.getFragmentDefinitionUserViewLayouts(definitions, locale);
+        }
+
+        this.lastFragmentFetch = this.fragmentFetchTimes.add(millisSince(start));
+        return result;
+    }
+
+    /**
+     * @param definitions The fragments applicable to a user, in precedence order
+     * @param layouts The layouts of the fragments, as returned by {@link #getFragmentLayouts(List,
+     *     Locale)}
+     * @return The layouts to merge into the ILF of the user. When more than one fragment applies
+     *     this is a single shared document that holds all of the fragments already merged in
+     *     precedence order, it must not be modified.
+     */
+    public List<Document> getMergedFragmentLayouts(
+            final List<FragmentDefinition> definitions,
+            final List<Document> layouts,
+            final Locale locale) {
+        if (this.mergedLayoutCache == null || !this.cacheMergedLayouts || layouts.size() < 2) {
+            return layouts;
+        }
+
+        final MergedLayoutKey key = new MergedLayoutKey(definitions, locale);
+        final Element element = this.mergedLayoutCache.get(key);
+        if (element != null) {
+            final MergedLayout mergedLayout = (MergedLayout) element.getObjectValue();
+            if (mergedLayout.isMergeOf(layouts)) {
+                return Collections.singletonList(mergedLayout.getLayout());
+            }
+        }
+
+        final MergedLayout mergedLayout =
+                new MergedLayout(layouts, ILFBuilder.mergeFragments(layouts));
+        this.mergedLayoutCache.put(new Element(key, mergedLayout));
+        this.logger.debug("Cached merged layout for {}", key);
+        return Collections.singletonList(mergedLayout.getLayout());
+    }
+
+    /** Drops the cached merged layouts that include the fragment owned by the specified user */
+    public void clearMergedLayouts(String ownerId) {
+        if (this.mergedLayoutCache == null) {
+            return;
+        }
+
+        for (final Object key : this.mergedLayoutCache.getKeys()) {
+            if (key instanceof MergedLayoutKey
+                    && ((MergedLayoutKey) key).ownerIds.contains(ownerId)) {
+                this.mergedLayoutCache.remove(key);
+            }
+        }
+    }
+
+    void recordPlfLoad(long startNanos) {
+        this.lastPlfLoad = this.plfLoadTimes.add(millisSince(startNanos));
+    }
+
+    void recordMerge(long startNanos) {
+        this.lastMerge = this.mergeTimes.add(millisSince(startNanos));
+    }
+
+    private boolean isParallel(List<FragmentDefinition> definitions) {
+        return this.executor != null && definitions.size() > 1;
+    }
+
+    /**
+     * Runs the tasks on the pool and returns their results in task order. The request attributes of
+     * the calling thread are made available to tasks that run on pool threads.
+     */
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        final Thread callingThread = Thread.currentThread();
+        final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+
+        final List<Callable<T>> boundTasks = new ArrayList<>(tasks.size());
+        for (final Callable<T> task : tasks) {
+            boundTasks.add(
+                    () -> {
+                        // Tasks rejected by a saturated pool run on the calling thread
+                        if (Thread.currentThread() == callingThread) {
+                            return task.call();
+                        }
+                        RequestContextHolder.setRequestAttributes(requestAttributes);
+                        try {
+                            return task.call();
+                        } finally {
+                            RequestContextHolder.resetRequestAttributes();
+                        }
+                    });
+        }
+
+        final List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (final Future<T> future : this.executor.invokeAll(boundTasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PortalException("Interrupted while loading layout fragments", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new PortalException("Failed to load layout fragments", cause);
+        }
+        return results;
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /** Identifies a combination of fragments in precedence order */
+    static final class MergedLayoutKey implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> ownerIds;
+        private final Locale locale;
+        private final int hashCode;
+
+        MergedLayoutKey(List<FragmentDefinition> definitions, Locale locale) {
+            final List<String> ownerIds = new ArrayList<>(definitions.size());
+            for (final FragmentDefinition definition : definitions) {
+                ownerIds.add(definition.getOwnerId());
+            }
+            this.ownerIds = ownerIds;
+            this.locale = locale;
+            this.hashCode = 31 * ownerIds.hashCode() + (locale == null ? 0 : locale.hashCode());
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof MergedLayoutKey)) return false;
+            final MergedLayoutKey other = (MergedLayoutKey) obj;
+            return this.hashCode == other.hashCode
+                    && this.ownerIds.equals(other.ownerIds)
+                    && (this.locale == null
+                            ? other.locale == null
+                            : this.locale.equals(other.locale));
+        }
+
+        @Override
+        public String toString() {
+            return "MergedLayoutKey [ownerIds=" + this.ownerIds + ", locale=" + this.locale + "]";
+        }
+    }
+
+    /** A merge of fragment layouts along with the layouts it was built from */
+    private static final class MergedLayout {
+        private final List<Document> sources;
+        private final Document layout;
+
+        MergedLayout(List<Document> sources, Document layout) {
+            this.sources = new ArrayList<>(sources);
+            this.layout = layout;
+        }
+
+        Document getLayout() {
+            return this.layout;
+        }
+
+        /** @return true if this was merged from exactly the specified layout instances */
+        boolean isMergeOf(List<Document> layouts) {
+            if (this.sources.size() != layouts.size()) {
+                return false;
+            }
+            for (int i = 0; i < layouts.size(); i++) {
+                if (this.sources.get(i) != layouts.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import org.apereo.portal.utils.MovingAverageSample;
+
+/** JMX stats for {@link FragmentLayoutAssembler} */
+public interface FragmentLayoutAssemblerMXBean {
+
+    /** @return If fragment audiences and layouts are loaded concurrently */
+    boolean isParallel();
+
+    /** @return Maximum number of threads used to load fragments concurrently */
+    int getMaxThreads();
+
+    /** @return Milliseconds spent loading the PLF of users that receive fragments */
+    MovingAverageSample getPlfLoadTimes();
+
+    /** @return Milliseconds spent evaluating the audiences of all fragments for a user */
+    MovingAverageSample getAudienceEvaluationTimes();
+
+    /** @return Milliseconds spent getting the layouts of the fragments applicable to a user */
+    MovingAverageSample getFragmentFetchTimes();
+
+    /** @return Milliseconds spent merging the fragment layouts and PLF into the ILF */
+    MovingAverageSample getMergeTimes();
+}
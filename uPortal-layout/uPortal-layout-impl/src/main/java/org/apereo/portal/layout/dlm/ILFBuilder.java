@@ -83,6 +83,24 @@ public class ILFBuilder {
         return result;
     }
 
+    /**
+     * Merges the fragments into a single document without removing any channels. The result can be
+     * passed to {@link #constructILF(Document, List, IPerson)} in place of the fragments to build
+     * the same ILF. No changes are made to the fragments passed in.
+     */
+    public static Document mergeFragments(List<Document> sequence) {
+        final Document result = DocumentFactory.getThreadDocument();
+        final Element fragmentLayout = sequence.get(0).getDocumentElement();
+        final Element layout = (Element) result.importNode(fragmentLayout, false);
+        result.appendChild(layout);
+        layout.appendChild(result.importNode(fragmentLayout.getFirstChild(), false));
+
+        for (final Document document : sequence) {
+            mergeFragment(document, result, null);
+        }
+        return result;
+    }
+
     /**
      * Passes the layout root of each of these documents to mergeChildren causing all children of
      * newLayout to be merged into compositeLayout following merging protocal for distributed layout
@@ -103,7 +121,8 @@ public class ILFBuilder {
     /**
      * @param source parent of children
      * @param dest receiver of children
-     * @param ap User's authorization principal for determining if they can view a channel
+     * @param ap User's authorization principal for determining if they can view a channel, null to
+     *     merge all channels
      * @param visitedNodes A Set of nodes from the source tree that have been visited to get to this
      *     node, used to ensure a loop doesn't exist in the source tree.
      * @throws AuthorizationException
@@ -168,7 +187,7 @@ public class ILFBuilder {
      */
     private static boolean mergeAllowed(Element child, IAuthorizationPrincipal ap)
             throws AuthorizationException {
-        if (!child.getTagName().equals("channel")) return true;
+        if (ap == null || !child.getTagName().equals("channel")) return true;
 
         String channelPublishId = child.getAttribute("chanID");
         return ap.canRender(channelPublishId);
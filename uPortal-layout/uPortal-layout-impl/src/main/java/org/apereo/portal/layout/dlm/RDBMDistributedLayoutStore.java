@@ -127,6 +127,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     private IPortletEntityDao portletEntityDao;
     private IPortalDataHandlerService portalDataHandlerService;
     private IFragmentDefinitionUtils fragmentUtils;
+    private FragmentLayoutAssembler fragmentLayoutAssembler;
 
     @Autowired private NodeReferenceFactory nodeReferenceFactory;
 
@@ -161,6 +162,11 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         this.fragmentUtils = utils;
     }
 
+    @Autowired
+    public void setFragmentLayoutAssembler(FragmentLayoutAssembler fragmentLayoutAssembler) {
+        this.fragmentLayoutAssembler = fragmentLayoutAssembler;
+    }
+
     @Autowired
     public void setFragmentNodeInfoCache(
             @Qualifier(
@@ -1237,7 +1243,9 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         final Set<String> fragmentNames = new LinkedHashSet<>();
 
         final Document ILF;
+        final long plfStart = System.nanoTime();
         final Document PLF = this.getPLF(person, profile);
+        this.fragmentLayoutAssembler.recordPlfLoad(plfStart);
 
         // If this user is an owner then ownedFragment will be non null. For
         // fragment owners and owners of any default layout from which a
@@ -1274,12 +1282,17 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         } else {
             final Locale locale = profile.getLocaleManager().getLocales().get(0);
             final List<FragmentDefinition> applicableFragmentDefinitions =
-                    this.fragmentUtils.getFragmentDefinitionsApplicableToPerson(person);
+                    this.fragmentLayoutAssembler.getApplicableFragmentDefinitions(person);
             final List<Document> applicableLayouts =
-                    this.fragmentUtils.getFragmentDefinitionUserViewLayouts(
+                    this.fragmentLayoutAssembler.getFragmentLayouts(
                             applicableFragmentDefinitions, locale);
             final IntegrationResult integrationResult = new IntegrationResult();
-            ILF = this.createCompositeILF(person, PLF, applicableLayouts, integrationResult);
+            final long mergeStart = System.nanoTime();
+            final List<Document> mergedLayouts =
+                    this.fragmentLayoutAssembler.getMergedFragmentLayouts(
+                            applicableFragmentDefinitions, applicableLayouts, locale);
+            ILF = this.createCompositeILF(person, PLF, mergedLayouts, integrationResult);
+            this.fragmentLayoutAssembler.recordMerge(mergeStart);
             // push optimizations made during merge back into db.
             if (integrationResult.isChangedPLF()) {
                 if (logger.isDebugEnabled()) {
@@ -1401,6 +1414,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                         + "1");
         try {
             this.fragmentActivator.clearChacheForOwner(fragment.getOwnerId());
+            this.fragmentLayoutAssembler.clearMergedLayouts(fragment.getOwnerId());
             this.fragmentUtils.getUserView(fragment, locale);
         } catch (final Exception e) {
             logger.error("An exception occurred attempting to update a layout.", e);
@@ -0,0 +1,277 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.provider.PersonImpl;
+import org.apereo.portal.utils.DocumentFactory;
+import org.apereo.portal.utils.IFragmentDefinitionUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class FragmentLayoutAssemblerTest {
+    private final IPerson person = new PersonImpl();
+    private final List<FragmentDefinition> definitions = new ArrayList<>();
+    private final List<Document> layouts = new ArrayList<>();
+    private IFragmentDefinitionUtils fragmentUtils;
+    private FragmentLayoutAssembler assembler;
+    private CacheManager cacheManager;
+
+    @Before
+    public void setUp() {
+        this.fragmentUtils = mock(IFragmentDefinitionUtils.class);
+        when(this.fragmentUtils.getFragmentDefinitions()).thenReturn(this.definitions);
+        when(this.fragmentUtils.getUserView(any(FragmentDefinition.class), any(Locale.class)))
+                .thenAnswer(
+                        invocation -> {
+                            final TestFragmentDefinition definition = invocation.getArgument(0);
+                            final UserView userView = new UserView(definition.index);
+                            userView.setLayout(this.layouts.get(definition.index));
+                            return userView;
+                        });
+
+        this.cacheManager =
+                CacheManager.newInstance(new Configuration().name("FragmentLayoutAssemblerTest"));
+        final Cache mergedLayoutCache = new Cache(new CacheConfiguration("mergedLayouts", 10));
+        this.cacheManager.addCache(mergedLayoutCache);
+
+        this.assembler = new FragmentLayoutAssembler();
+        this.assembler.setFragmentDefinitionUtils(this.fragmentUtils);
+        this.assembler.setMergedLayoutCache(mergedLayoutCache);
+        this.assembler.setParallel(true);
+        this.assembler.setMaxThreads(4);
+        this.assembler.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        this.assembler.destroy();
+        this.cacheManager.shutdown();
+    }
+
+    @Test
+    public void testParallelKeepsPrecedenceOrder() {
+        // Every other fragment applies, the earliest fragments take longest to evaluate
+        final int count = 16;
+        for (int i = 0; i < count; i++) {
+            this.definitions.add(new TestFragmentDefinition(i, i % 2 == 0, count - i, null));
+            this.layouts.add(DocumentFactory.getThreadDocument());
+        }
+
+        final List<FragmentDefinition> applicable =
+                this.assembler.getApplicableFragmentDefinitions(this.person);
+        assertEquals(count / 2, applicable.size());
+        for (int i = 0; i < applicable.size(); i++) {
+            assertSame(this.definitions.get(i * 2), applicable.get(i));
+        }
+
+        final List<Document> fragmentLayouts =
+                this.assembler.getFragmentLayouts(applicable, Locale.US);
+        assertEquals(count / 2, fragmentLayouts.size());
+        for (int i = 0; i < fragmentLayouts.size(); i++) {
+            assertSame(this.layouts.get(i * 2), fragmentLayouts.get(i));
+        }
+
+        assertEquals(1, this.assembler.getAudienceEvaluationTimes().getTotalSamples());
+        assertEquals(1, this.assembler.getFragmentFetchTimes().getTotalSamples());
+    }
+
+    @Test
+    public void testAudiencesEvaluatedConcurrently() {
+        // Each evaluation waits for all the others to start, only completes if run concurrently
+        final CountDownLatch started = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            this.definitions.add(new TestFragmentDefinition(i, true, 0, started));
+        }
+
+        final List<FragmentDefinition> applicable =
+                this.assembler.getApplicableFragmentDefinitions(this.person);
+        assertEquals(this.definitions, applicable);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEvaluationFailurePropagates() {
+        this.definitions.add(new TestFragmentDefinition(0, true, 0, null));
+        this.definitions.add(
+                new TestFragmentDefinition(1, true, 0, null) {
+                    @Override
+                    public boolean isApplicable(IPerson p) {
+                        throw new IllegalStateException();
+                    }
+                });
+
+        this.assembler.getApplicableFragmentDefinitions(this.person);
+    }
+
+    @Test
+    public void testMergedLayoutCache() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            this.definitions.add(new TestFragmentDefinition(i, true, 0, null));
+            this.layouts.add(
+                    parse(
+                            "<layout ID=\"u"
+                                    + i
+                                    + "l1\"><folder ID=\"u"
+                                    + i
+                                    + "l1s1\"><folder ID=\"u"
+                                    + i
+                                    + "l1s2\" name=\"Tab "
+                                    + i
+                                    + "\"><channel ID=\"u"
+                                    + i
+                                    + "l1n3\" chanID=\""
+                                    + i
+                                    + "\"/></folder></folder></layout>"));
+        }
+
+        final List<Document> merged =
+                this.assembler.getMergedFragmentLayouts(this.definitions, this.layouts, Locale.US);
+        assertEquals(1, merged.size());
+        final Document mergedLayout = merged.get(0);
+        final org.w3c.dom.Element root =
+                (org.w3c.dom.Element) mergedLayout.getDocumentElement().getFirstChild();
+        assertEquals(3, root.getChildNodes().getLength());
+        for (int i = 0; i < 3; i++) {
+            final org.w3c.dom.Element tab = (org.w3c.dom.Element) root.getChildNodes().item(i);
+            assertEquals("Tab " + i, tab.getAttribute("name"));
+            assertSame(tab, mergedLayout.getElementById("u" + i + "l1s2"));
+        }
+
+        // Shared by users receiving the same fragments
+        assertSame(
+                mergedLayout,
+                this.assembler
+                        .getMergedFragmentLayouts(this.definitions, this.layouts, Locale.US)
+                        .get(0));
+
+        // A different combination is merged separately
+        final List<Document> otherMerged =
+                this.assembler.getMergedFragmentLayouts(
+                        this.definitions.subList(1, 3), this.layouts.subList(1, 3), Locale.US);
+        assertNotSame(mergedLayout, otherMerged.get(0));
+
+        // A reloaded fragment layout is picked up
+        this.layouts.set(1, (Document) this.layouts.get(1).cloneNode(true));
+        assertNotSame(
+                mergedLayout,
+                this.assembler
+                        .getMergedFragmentLayouts(this.definitions, this.layouts, Locale.US)
+                        .get(0));
+
+        // Owner layout saves drop every merge including the fragment
+        this.assembler.clearMergedLayouts(this.definitions.get(2).getOwnerId());
+        assertNotSame(
+                otherMerged.get(0),
+                this.assembler
+                        .getMergedFragmentLayouts(
+                                this.definitions.subList(1, 3),
+                                this.layouts.subList(1, 3),
+                                Locale.US)
+                        .get(0));
+
+        // A single fragment is used as-is
+        assertSame(
+                this.layouts.get(0),
+                this.assembler
+                        .getMergedFragmentLayouts(
+                                this.definitions.subList(0, 1),
+                                this.layouts.subList(0, 1),
+                                Locale.US)
+                        .get(0));
+    }
+
+    @Test
+    public void testSerial() {
+        this.assembler.destroy();
+        this.assembler = new FragmentLayoutAssembler();
+        this.assembler.setFragmentDefinitionUtils(this.fragmentUtils);
+        this.assembler.afterPropertiesSet();
+
+        final List<FragmentDefinition> expected =
+                Arrays.<FragmentDefinition>asList(new TestFragmentDefinition(0, true, 0, null));
+        when(this.fragmentUtils.getFragmentDefinitionsApplicableToPerson(this.person))
+                .thenReturn(expected);
+
+        assertTrue(!this.assembler.isParallel());
+        assertSame(expected, this.assembler.getApplicableFragmentDefinitions(this.person));
+    }
+
+    private static Document parse(String xml) throws Exception {
+        final Document document =
+                DocumentFactory.getDocumentFromStream(
+                        new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "test");
+        final org.w3c.dom.NodeList elements = document.getElementsByTagName("*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            ((org.w3c.dom.Element) elements.item(i)).setIdAttribute(Constants.ATT_ID, true);
+        }
+        return document;
+    }
+
+    private static class TestFragmentDefinition extends FragmentDefinition {
+        private final int index;
+        private final boolean applicable;
+        private final long delay;
+        private final CountDownLatch started;
+
+        TestFragmentDefinition(int index, boolean applicable, long delay, CountDownLatch started) {
+            super("fragment" + index);
+            this.index = index;
+            this.applicable = applicable;
+            this.delay = delay;
+            this.started = started;
+        }
+
+        @Override
+        public String getOwnerId() {
+            return "owner" + this.index;
+        }
+
+        @Override
+        public boolean isApplicable(IPerson p) {
+            try {
+                if (this.started != null) {
+                    this.started.countDown();
+                    assertTrue(this.started.await(5, TimeUnit.SECONDS));
+                }
+                Thread.sleep(this.delay);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return this.applicable;
+        }
+    }
+}
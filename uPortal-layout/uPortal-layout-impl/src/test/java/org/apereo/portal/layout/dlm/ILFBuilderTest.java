@@ -0,0 +1,234 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.provider.PersonImpl;
+import org.apereo.portal.spring.locator.AuthorizationServiceLocator;
+import org.apereo.portal.utils.DocumentFactory;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+public class ILFBuilderTest {
+    /** Channels the user may not render, read by the principal on every canRender call */
+    private static final Set<String> deniedChannels = new HashSet<>();
+
+    private static AuthorizationServiceLocator authorizationServiceLocator;
+
+    private Document plf;
+    private List<Document> fragments;
+    private IPerson person;
+
+    @BeforeClass
+    public static void setUpAuthorization() throws Exception {
+        final IAuthorizationPrincipal principal = mock(IAuthorizationPrincipal.class);
+        when(principal.canRender(anyString()))
+                .thenAnswer(invocation -> !deniedChannels.contains(invocation.getArgument(0)));
+        final IAuthorizationService authorizationService = mock(IAuthorizationService.class);
+        when(authorizationService.newPrincipal(anyString(), any(Class.class)))
+                .thenReturn(principal);
+
+        authorizationServiceLocator = new AuthorizationServiceLocator(authorizationService);
+        authorizationServiceLocator.afterPropertiesSet();
+    }
+
+    @AfterClass
+    public static void tearDownAuthorization() throws Exception {
+        authorizationServiceLocator.destroy();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        deniedChannels.clear();
+
+        this.person = new PersonImpl();
+        this.person.setUserName("student");
+
+        this.plf =
+                parse(
+                        "<layout ID=\"u9l1\" struct=\"plf\"><folder ID=\"u9l1s1\" type=\"root\">"
+                                + "<folder ID=\"u9l1s2\" name=\"Personal\"/></folder></layout>");
+
+        // The second and third fragments reuse the first one's node IDs, the third also has
+        // channels nested below a denied one
+        this.fragments =
+                Arrays.asList(
+                        parse(
+                                "<layout ID=\"u1l1\"><folder ID=\"u1l1s1\" type=\"root\">"
+                                        + "<folder ID=\"u1l1s2\" name=\"Welcome\">"
+                                        + "<channel ID=\"u1l1n3\" chanID=\"1\"/>"
+                                        + "<channel ID=\"u1l1n4\" chanID=\"2\">"
+                                        + "<parameter name=\"p\" value=\"2\"/></channel>"
+                                        + "</folder></folder></layout>"),
+                        parse(
+                                "<layout ID=\"u1l1\"><folder ID=\"u1l1s1\" type=\"root\">"
+                                        + "<folder ID=\"u1l1s2\" name=\"Academics\">"
+                                        + "<channel ID=\"u1l1n3\" chanID=\"3\"/>"
+                                        + "<channel ID=\"u1l1n4\" chanID=\"4\"/>"
+                                        + "</folder></folder></layout>"),
+                        parse(
+                                "<layout ID=\"u3l1\"><folder ID=\"u3l1s1\" type=\"root\">"
+                                        + "<folder ID=\"u3l1s2\" name=\"Campus\">"
+                                        + "<channel ID=\"u1l1n3\" chanID=\"2\">"
+                                        + "<channel ID=\"u3l1n5\" chanID=\"5\"/></channel>"
+                                        + "<folder ID=\"u3l1s6\" name=\"Column\">"
+                                        + "<channel ID=\"u3l1n7\" chanID=\"6\"/>"
+                                        + "</folder></folder></folder></layout>"));
+    }
+
+    @Test
+    public void testMergedFragmentsBuildTheSameIlf() throws Exception {
+        assertSameIlf();
+    }
+
+    @Test
+    public void testMergedFragmentsBuildTheSameIlfWithChannelsDenied() throws Exception {
+        deniedChannels.addAll(Arrays.asList("2", "4", "6"));
+
+        final Document ilf = assertSameIlf();
+        assertEquals(2, ilf.getElementsByTagName("channel").getLength());
+        assertEquals(0, ilf.getElementsByTagName("parameter").getLength());
+        assertNull(ilf.getElementById("u3l1n5"));
+        assertNull(ilf.getElementById("u1l1n4"));
+        assertNotNull(ilf.getElementById("u3l1s6"));
+    }
+
+    @Test
+    public void testMergedFragmentsAreReusedAcrossUsers() throws Exception {
+        final Document merged = ILFBuilder.mergeFragments(this.fragments);
+        final String mergedXml = serialize(merged);
+        final List<Document> sequence = Collections.singletonList(merged);
+
+        deniedChannels.add("1");
+        final Document denied = ILFBuilder.constructILF(this.plf, sequence, this.person);
+        deniedChannels.clear();
+        final Document allowed = ILFBuilder.constructILF(this.plf, sequence, this.person);
+
+        assertEquals(
+                serialize(ILFBuilder.constructILF(this.plf, this.fragments, this.person)),
+                serialize(allowed));
+        assertFalse(serialize(denied).equals(serialize(allowed)));
+        assertEquals(mergedXml, serialize(merged));
+    }
+
+    /**
+     * Builds the ILF from each fragment and from the fragments merged up front, asserting both have
+     * the same content and resolve every node ID to the same place.
+     */
+    private Document assertSameIlf() throws Exception {
+        final Document expected = ILFBuilder.constructILF(this.plf, this.fragments, this.person);
+        final Document actual =
+                ILFBuilder.constructILF(
+                        this.plf,
+                        Collections.singletonList(ILFBuilder.mergeFragments(this.fragments)),
+                        this.person);
+
+        assertEquals(serialize(expected), serialize(actual));
+
+        final Set<String> ids = new HashSet<>();
+        ids.add("u9l1s2");
+        for (final Document fragment : this.fragments) {
+            final NodeList elements = fragment.getElementsByTagName("*");
+            for (int i = 0; i < elements.getLength(); i++) {
+                ids.add(((Element) elements.item(i)).getAttribute(Constants.ATT_ID));
+            }
+        }
+        ids.remove("");
+        for (final String id : ids) {
+            assertEquals(id, path(expected.getElementById(id)), path(actual.getElementById(id)));
+        }
+
+        // Overlapping IDs are merged rather than deduplicated
+        final NodeList channels = actual.getElementsByTagName("channel");
+        int overlapping = 0;
+        for (int i = 0; i < channels.getLength(); i++) {
+            if ("u1l1n3".equals(((Element) channels.item(i)).getAttribute(Constants.ATT_ID))) {
+                overlapping++;
+            }
+        }
+        assertTrue(overlapping > 1);
+
+        return actual;
+    }
+
+    /** Position of the element as child indexes from the document, null if not found */
+    private static String path(Element element) {
+        if (element == null) {
+            return null;
+        }
+        final StringBuilder path = new StringBuilder();
+        for (Node node = element; node.getParentNode() != null; node = node.getParentNode()) {
+            int index = 0;
+            for (Node sibling = node.getPreviousSibling();
+                    sibling != null;
+                    sibling = sibling.getPreviousSibling()) {
+                index++;
+            }
+            path.insert(0, "/" + index);
+        }
+        return path.toString();
+    }
+
+    private static String serialize(Document document) throws Exception {
+        final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        final StringWriter writer = new StringWriter();
+        transformer.transform(new DOMSource(document), new StreamResult(writer));
+        return writer.toString();
+    }
+
+    private static Document parse(String xml) throws Exception {
+        final Document document =
+                DocumentFactory.getDocumentFromStream(
+                        new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "test");
+        final NodeList elements = document.getElementsByTagName("*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            final Element element = (Element) elements.item(i);
+            if (element.hasAttribute(Constants.ATT_ID)) {
+                element.setIdAttribute(Constants.ATT_ID, true);
+            }
+        }
+        return document;
+    }
+}
@@ -24,9 +24,11 @@ import com.google.visualization.datasource.datatable.TableCell;
 import com.google.visualization.datasource.datatable.TableRow;
 import com.google.visualization.datasource.datatable.value.DateTimeValue;
 import com.google.visualization.datasource.datatable.value.DateValue;
+import com.google.visualization.datasource.datatable.value.NumberValue;
 import com.google.visualization.datasource.datatable.value.TimeOfDayValue;
 import com.google.visualization.datasource.datatable.value.Value;
 import com.google.visualization.datasource.datatable.value.ValueType;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -38,13 +40,18 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import javax.portlet.ResourceURL;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
 import org.apereo.portal.events.aggr.AggregationInterval;
 import org.apereo.portal.events.aggr.AggregationIntervalHelper;
 import org.apereo.portal.events.aggr.BaseAggregation;
 import org.apereo.portal.events.aggr.BaseAggregationDao;
 import org.apereo.portal.events.aggr.BaseAggregationKey;
 import org.apereo.portal.events.aggr.BaseGroupedAggregationDiscriminator;
+import org.apereo.portal.events.aggr.TimedAggregationDistribution;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupLookupDao;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMappingNameComparator;
@@ -55,6 +62,7 @@ import org.joda.time.format.DateTimeFormatterBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.InitBinder;
 import org.springframework.web.bind.annotation.ModelAttribute;
@@ -97,6 +105,16 @@ public abstract class BaseStatisticsReportController<
 
     @Autowired protected AggregatedGroupLookupDao aggregatedGroupDao;
 
+    /**
+     * Recently built report tables keyed by controller and report form. Aggregations keep changing
+     * until their interval closes so entries only live for a few minutes.
+     */
+    @Autowired(required = false)
+    @Qualifier(
+            value =
+                    "org.apereo.portal.portlets.statistics.BaseStatisticsReportController.reportResultCache")
+    private Cache reportResultCache;
+
     @org.springframework.beans.factory.annotation.Value(
             "${org.apereo.portal.portlets.statistics.maxIntervals}")
     private int maxIntervals = 4000;
@@ -327,12 +345,75 @@ public abstract class BaseStatisticsReportController<
      */
     protected abstract List<Value> createRowValues(T aggr, F form);
 
+    /**
+     * Add a percentile column after each of the column descriptions for each of the percentiles.
+     * Used by reports on {@link TimedAggregationDistribution}s together with {@link
+     * #addPercentileValues(List, TimedAggregationDistribution, List)}.
+     *
+     * @param columnDescriptions The column descriptions of a group
+     * @param percentiles The percentiles to add columns for
+     * @return The column descriptions including the percentile columns
+     */
+    protected final List<ColumnDescription> addPercentileColumnDescriptions(
+            List<ColumnDescription> columnDescriptions, List<Integer> percentiles) {
+        if (percentiles.isEmpty()) {
+            return columnDescriptions;
+        }
+
+        final List<ColumnDescription> result =
+                new ArrayList<ColumnDescription>(
+                        columnDescriptions.size() * (percentiles.size() + 1));
+        for (final ColumnDescription columnDescription : columnDescriptions) {
+            result.add(columnDescription);
+            for (final Integer percentile : percentiles) {
+                final String suffix = " p" + percentile + " (ms)";
+                result.add(
+                        new ColumnDescription(
+                                columnDescription.getId() + suffix,
+                                ValueType.NUMBER,
+                                columnDescription.getLabel() + suffix));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add the percentile values of the aggregation after each of the values, must match the columns
+     * added by {@link #addPercentileColumnDescriptions(List, List)}. Percentiles are reported in
+     * milliseconds, gaps in the data and aggregations without a distribution are reported as null.
+     *
+     * @param values The values of the aggregation
+     * @param aggr The aggregation, may be null
+     * @param percentiles The percentiles to add values for
+     * @return The values including the percentile values
+     */
+    protected final List<Value> addPercentileValues(
+            List<Value> values, TimedAggregationDistribution aggr, List<Integer> percentiles) {
+        if (percentiles.isEmpty()) {
+            return values;
+        }
+
+        final List<Value> result = new ArrayList<Value>(values.size() * (percentiles.size() + 1));
+        for (final Value value : values) {
+            result.add(value);
+            for (final Integer percentile : percentiles) {
+                final double nanos = aggr != null ? aggr.getPercentile(percentile) : Double.NaN;
+                if (Double.isNaN(nanos)) {
+                    result.add(NumberValue.getNullValue());
+                } else {
+                    result.add(new NumberValue(nanos / 1000000));
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * @param form The form submitted by the user
      * @return The model and view to render
      */
     protected final ModelAndView renderAggregationReport(F form) throws TypeMismatchException {
-        final DataTable table = buildAggregationReport(form);
+        final DataTable table = getAggregationReport(form);
 
         final String view;
         switch (form.getFormat()) {
@@ -404,6 +485,33 @@ public abstract class BaseStatisticsReportController<
         return showFullHeaderDescriptions;
     }
 
+    /**
+     * Get the aggregation {@link DataTable} from the report result cache, building it if the same
+     * report was not requested recently. The output format is not part of the key so switching
+     * between the chart and a CSV download reuses the table.
+     */
+    private DataTable getAggregationReport(F form) throws TypeMismatchException {
+        if (this.reportResultCache == null) {
+            return buildAggregationReport(form);
+        }
+
+        final String cacheKey =
+                this.getClass().getName()
+                        + ":"
+                        + new ReflectionToStringBuilder(form, ToStringStyle.SHORT_PREFIX_STYLE)
+                                .setExcludeFieldNames(new String[] {"format"})
+                                .toString();
+        final Element cachedTable = this.reportResultCache.get(cacheKey);
+        if (cachedTable != null) {
+            logger.debug("Using cached report table for {}", cacheKey);
+            return (DataTable) cachedTable.getObjectValue();
+        }
+
+        final DataTable table = buildAggregationReport(form);
+        this.reportResultCache.put(new Element(cacheKey, table));
+        return table;
+    }
+
     /** Build the aggregation {@link DataTable} */
     protected final DataTable buildAggregationReport(F form) throws TypeMismatchException {
         // Pull data out of form for per-group fetching
@@ -17,7 +17,7 @@ package org.apereo.portal.portlets.statistics;
 import java.util.HashSet;
 import java.util.Set;
 
-public class PortletExecutionReportForm extends BaseReportForm {
+public class PortletExecutionReportForm extends BaseTimedReportForm {
 
     private Set<String> portlets = new HashSet<String>();
     private Set<String> executionTypeNames = new HashSet<String>();
@@ -290,14 +290,19 @@ public class PortletExecutionStatisticsController
                     new TitleAndCount(groupName, groupSize)
                 };
 
-        return titleAndColumnDescriptionStrategy.getColumnDescriptions(
-                items, showFullColumnHeaderDescriptions(form), form);
+        return addPercentileColumnDescriptions(
+                titleAndColumnDescriptionStrategy.getColumnDescriptions(
+                        items, showFullColumnHeaderDescriptions(form), form),
+                form.getPercentiles());
     }
 
     @Override
     protected List<Value> createRowValues(
             PortletExecutionAggregation aggr, PortletExecutionReportForm form) {
         int count = aggr != null ? aggr.getExecutionCount() : 0;
-        return Collections.<Value>singletonList(new NumberValue(count));
+        return addPercentileValues(
+                Collections.<Value>singletonList(new NumberValue(count)),
+                aggr,
+                form.getPercentiles());
     }
 }
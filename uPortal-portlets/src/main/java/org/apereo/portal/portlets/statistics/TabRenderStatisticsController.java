@@ -224,13 +224,18 @@ public class TabRenderStatisticsController
                             groupName, form.getGroups().size())
                 };
 
-        return titleAndColumnDescriptionStrategy.getColumnDescriptions(
-                items, showFullColumnHeaderDescriptions(form), form);
+        return addPercentileColumnDescriptions(
+                titleAndColumnDescriptionStrategy.getColumnDescriptions(
+                        items, showFullColumnHeaderDescriptions(form), form),
+                form.getPercentiles());
     }
 
     @Override
     protected List<Value> createRowValues(TabRenderAggregation aggr, TabRenderReportForm form) {
         int count = aggr != null ? aggr.getRenderCount() : 0;
-        return Collections.<Value>singletonList(new NumberValue(count));
+        return addPercentileValues(
+                Collections.<Value>singletonList(new NumberValue(count)),
+                aggr,
+                form.getPercentiles());
     }
 }
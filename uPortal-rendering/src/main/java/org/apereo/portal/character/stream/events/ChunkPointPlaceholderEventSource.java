@@ -22,12 +22,15 @@ import org.apereo.portal.rendering.StAXSerializingComponent;
 import org.apereo.portal.xml.stream.ChunkingEventReader;
 
 /**
- * Returns an empty string event. The chunk-point element and this source are used to break up the
- * character stream created by the {@link StAXSerializingComponent} and {@link ChunkingEventReader}.
- * The <chunk-point/> element should be placed before and after sections of markup that are very
- * user or page specific (username, page title, session key, etc.). This allows the string
- * de-duplication logic of the {@link CharacterDataEventImpl} to be more effective as more users
- * will have common character event strings in their rendering pipeline.
+ * Returns a {@link ChunkPointPlaceholderEvent} which renders as an empty string. The chunk-point
+ * element and this source are used to break up the character stream created by the {@link
+ * StAXSerializingComponent} and {@link ChunkingEventReader}. The <chunk-point/> element should be
+ * placed before and after sections of markup that are very user or page specific (username, page
+ * title, session key, etc.). This allows the string de-duplication logic of the {@link
+ * CharacterDataEventImpl} to be more effective as more users will have common character event
+ * strings in their rendering pipeline. When progressive rendering is enabled chunk-points are also
+ * where the content of portlets that finished rendering late is written out, see {@link
+ * org.apereo.portal.rendering.PortletRenderingIncorporationComponent}.
  */
 public class ChunkPointPlaceholderEventSource extends BasePlaceholderEventSource {
     /** Represents <chunk-point> layout element */
@@ -38,6 +41,6 @@ public class ChunkPointPlaceholderEventSource extends BasePlaceholderEventSource
             HttpServletRequest servletRequest,
             StartElement event,
             Collection<CharacterEvent> eventBuffer) {
-        eventBuffer.add(CharacterDataEventImpl.EMPTY_CHARACTER_DATA);
+        eventBuffer.add(ChunkPointPlaceholderEvent.INSTANCE);
     }
 }
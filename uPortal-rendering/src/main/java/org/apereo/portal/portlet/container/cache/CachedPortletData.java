@@ -18,20 +18,34 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.util.concurrent.TimeUnit;
 import javax.portlet.CacheControl;
 import org.apereo.portal.portlet.rendering.PortletOutputHandler;
 
-/** Java bean to represent the data cached for a portlet request via {@link CacheControl}s. */
+/**
+ * Java bean to represent the data cached for a portlet request via {@link CacheControl}s.
+ *
+ * <p>The output can be moved to an {@link OffHeapPortletOutputStore}, see {@link
+ * #moveOffHeap(OffHeapPortletOutputStore)}. Serializing data with off-heap output writes a copy
+ * with the output back on the heap.
+ */
 public class CachedPortletData<T extends Serializable>
         implements CachedPortletResultHolder<T>, Serializable {
     private static final long serialVersionUID = 5509299103587289000L;
 
     private final T portletResult;
 
+    private static final int REPLAY_CHUNK_SIZE = 4096;
+
     private final String cachedWriterOutput;
     private final byte[] cachedStreamOutput;
 
+    // Output moved off-heap, and the buffer pinned for replay by the request that looked it up
+    private final transient OffHeapPortletOutput offHeapOutput;
+    private final transient ByteBuffer pinnedOutput;
+
     private final String contentType;
 
     private final boolean publicScope;
@@ -64,6 +78,28 @@ public class CachedPortletData<T extends Serializable>
         this.etag = etag;
         this.timeStored = System.currentTimeMillis();
         this.updateExpirationTime(expirationTime);
+
+        this.offHeapOutput = null;
+        this.pinnedOutput = null;
+    }
+
+    /** Copy of the data with different output */
+    private CachedPortletData(
+            CachedPortletData<T> data,
+            String cachedWriterOutput,
+            byte[] cachedStreamOutput,
+            OffHeapPortletOutput offHeapOutput,
+            ByteBuffer pinnedOutput) {
+        this.portletResult = data.portletResult;
+        this.cachedWriterOutput = cachedWriterOutput;
+        this.cachedStreamOutput = cachedStreamOutput;
+        this.contentType = data.contentType;
+        this.publicScope = data.publicScope;
+        this.etag = data.etag;
+        this.timeStored = data.timeStored;
+        this.expirationTime = data.expirationTime;
+        this.offHeapOutput = offHeapOutput;
+        this.pinnedOutput = pinnedOutput;
     }
 
     public void replay(PortletOutputHandler portletOutputHandler) throws IOException {
@@ -77,9 +113,109 @@ public class CachedPortletData<T extends Serializable>
         } else if (this.cachedStreamOutput != null) {
             final OutputStream outputStream = portletOutputHandler.getOutputStream();
             outputStream.write(cachedStreamOutput);
+        } else if (this.offHeapOutput != null) {
+            final ByteBuffer buffer = this.getOffHeapBuffer();
+            if (buffer == null) {
+                throw new IOException(
+                        "Cached portlet output has been evicted from off-heap storage");
+            }
+
+            if (this.offHeapOutput.isCharacterData()) {
+                final PrintWriter printWriter = portletOutputHandler.getPrintWriter();
+                final CharBuffer chars = buffer.asCharBuffer();
+                final char[] chunk = new char[Math.min(REPLAY_CHUNK_SIZE, chars.remaining())];
+                while (chars.hasRemaining()) {
+                    final int length = Math.min(chunk.length, chars.remaining());
+                    chars.get(chunk, 0, length);
+                    printWriter.write(chunk, 0, length);
+                }
+            } else {
+                final OutputStream outputStream = portletOutputHandler.getOutputStream();
+                final byte[] chunk = new byte[Math.min(REPLAY_CHUNK_SIZE, buffer.remaining())];
+                while (buffer.hasRemaining()) {
+                    final int length = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, length);
+                    outputStream.write(chunk, 0, length);
+                }
+            }
         }
     }
 
+    /**
+     * Move the output of this data into the store. Data with no output or whose output is already
+     * held by the store is returned as-is.
+     *
+     * @return Data with the output held off-heap
+     */
+    CachedPortletData<T> moveOffHeap(OffHeapPortletOutputStore store) {
+        if (this.offHeapOutput != null
+                && this.offHeapOutput.getStore() == store
+                && this.offHeapOutput.isStored()) {
+            if (this.pinnedOutput == null) {
+                return this;
+            }
+            return new CachedPortletData<T>(this, null, null, this.offHeapOutput, null);
+        }
+
+        final OffHeapPortletOutput output;
+        if (this.cachedWriterOutput != null) {
+            output = store.put(this.cachedWriterOutput);
+        } else if (this.cachedStreamOutput != null) {
+            output = store.put(this.cachedStreamOutput);
+        } else if (this.offHeapOutput != null) {
+            final ByteBuffer buffer = this.getOffHeapBuffer();
+            if (buffer == null) {
+                // Output is gone, nothing left to copy
+                return this;
+            }
+            output = store.put(buffer, this.offHeapOutput.isCharacterData());
+        } else {
+            return this;
+        }
+
+        return new CachedPortletData<T>(this, null, null, output, null);
+    }
+
+    /**
+     * Pin the off-heap output of this data for the current request so it can still be replayed if
+     * it is evicted from the store before the request is done with it.
+     *
+     * @return Data with pinned output, this if the output is on the heap or null if the output has
+     *     been evicted
+     */
+    CachedPortletData<T> pinOutput() {
+        if (this.offHeapOutput == null || this.pinnedOutput != null) {
+            return this;
+        }
+
+        final ByteBuffer buffer = this.offHeapOutput.getBuffer();
+        if (buffer == null) {
+            return null;
+        }
+        return new CachedPortletData<T>(this, null, null, this.offHeapOutput, buffer);
+    }
+
+    /** @return The handle of the off-heap output, null if the output is on the heap */
+    OffHeapPortletOutput getOffHeapOutput() {
+        return this.offHeapOutput;
+    }
+
+    private ByteBuffer getOffHeapBuffer() {
+        if (this.pinnedOutput != null) {
+            return this.pinnedOutput.duplicate();
+        }
+        return this.offHeapOutput.getBuffer();
+    }
+
+    /** Serialize a copy with the output on the heap */
+    private Object writeReplace() {
+        if (this.offHeapOutput == null) {
+            return this;
+        }
+        return new CachedPortletData<T>(
+                this, this.getCachedWriterOutput(), this.getCachedStreamOutput(), null, null);
+    }
+
     /**
      * The time since the epoch in milliseconds that this content expires. -1 if it never expires
      */
@@ -103,11 +239,26 @@ public class CachedPortletData<T extends Serializable>
         return portletResult;
     }
 
+    /** @return The cached writer output, copied back onto the heap if it is held off-heap */
     public String getCachedWriterOutput() {
+        if (this.offHeapOutput != null && this.offHeapOutput.isCharacterData()) {
+            final ByteBuffer buffer = this.getOffHeapBuffer();
+            return buffer != null ? buffer.asCharBuffer().toString() : null;
+        }
         return cachedWriterOutput;
     }
 
+    /** @return The cached stream output, copied back onto the heap if it is held off-heap */
     public byte[] getCachedStreamOutput() {
+        if (this.offHeapOutput != null && !this.offHeapOutput.isCharacterData()) {
+            final ByteBuffer buffer = this.getOffHeapBuffer();
+            if (buffer == null) {
+                return null;
+            }
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
         return cachedStreamOutput;
     }
 
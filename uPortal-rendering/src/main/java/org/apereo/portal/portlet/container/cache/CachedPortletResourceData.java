@@ -65,6 +65,17 @@ public class CachedPortletResourceData<T extends Serializable>
         this.locale = locale;
     }
 
+    /** Copy of the resource data with different portlet data */
+    private CachedPortletResourceData(
+            CachedPortletResourceData<T> data, CachedPortletData<T> cachedPortletData) {
+        this.cachedPortletData = cachedPortletData;
+        this.headers = data.headers;
+        this.status = data.status;
+        this.characterEncoding = data.characterEncoding;
+        this.contentLength = data.contentLength;
+        this.locale = data.locale;
+    }
+
     public final void replay(PortletResourceOutputHandler portletOutputHandler) throws IOException {
         // Write status
         if (status != null) {
@@ -102,6 +113,27 @@ public class CachedPortletResourceData<T extends Serializable>
         this.cachedPortletData.replay(portletOutputHandler);
     }
 
+    /** @see CachedPortletData#moveOffHeap(OffHeapPortletOutputStore) */
+    CachedPortletResourceData<T> moveOffHeap(OffHeapPortletOutputStore store) {
+        final CachedPortletData<T> data = this.cachedPortletData.moveOffHeap(store);
+        if (data == this.cachedPortletData) {
+            return this;
+        }
+        return new CachedPortletResourceData<T>(this, data);
+    }
+
+    /** @see CachedPortletData#pinOutput() */
+    CachedPortletResourceData<T> pinOutput() {
+        final CachedPortletData<T> data = this.cachedPortletData.pinOutput();
+        if (data == null) {
+            return null;
+        }
+        if (data == this.cachedPortletData) {
+            return this;
+        }
+        return new CachedPortletResourceData<T>(this, data);
+    }
+
     @Override
     public T getPortletResult() {
         return this.cachedPortletData.getPortletResult();
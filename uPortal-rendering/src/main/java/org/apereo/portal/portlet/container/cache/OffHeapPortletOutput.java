@@ -0,0 +1,60 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Handle to portlet output held in an {@link OffHeapPortletOutputStore}. Only the handle is kept on
+ * the heap, the output itself can be evicted from the store at any time in which case {@link
+ * #getBuffer()} returns null.
+ */
+final class OffHeapPortletOutput {
+    private final OffHeapPortletOutputStore store;
+    private final boolean characterData;
+
+    OffHeapPortletOutput(OffHeapPortletOutputStore store, boolean characterData) {
+        this.store = store;
+        this.characterData = characterData;
+    }
+
+    /** @return The store the output is held in */
+    OffHeapPortletOutputStore getStore() {
+        return this.store;
+    }
+
+    /** @return true if the output is UTF-16 character data, false if it is bytes */
+    boolean isCharacterData() {
+        return this.characterData;
+    }
+
+    /**
+     * @return A read-only view of the output, null if it has been evicted. The returned buffer
+     *     keeps the output memory alive even if it is evicted while the buffer is in use.
+     */
+    ByteBuffer getBuffer() {
+        return this.store.get(this);
+    }
+
+    /** @return true if the output is still held by the store */
+    boolean isStored() {
+        return this.store.contains(this);
+    }
+
+    /** Remove the output from the store */
+    void release() {
+        this.store.release(this);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import java.beans.ConstructorProperties;
+
+/** Point in time stats of an {@link OffHeapPortletOutputStore} */
+public final class OffHeapPortletOutputStatistics {
+    private final long maxBytes;
+    private final long storedBytes;
+    private final long entryCount;
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+
+    @ConstructorProperties({
+        "maxBytes",
+        "storedBytes",
+        "entryCount",
+        "hitCount",
+        "missCount",
+        "evictionCount"
+    })
+    public OffHeapPortletOutputStatistics(
+            long maxBytes,
+            long storedBytes,
+            long entryCount,
+            long hitCount,
+            long missCount,
+            long evictionCount) {
+        this.maxBytes = maxBytes;
+        this.storedBytes = storedBytes;
+        this.entryCount = entryCount;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+    }
+
+    OffHeapPortletOutputStatistics(OffHeapPortletOutputStore store) {
+        this(
+                store.getMaxBytes(),
+                store.getStoredBytes(),
+                store.getEntryCount(),
+                store.getHitCount(),
+                store.getMissCount(),
+                store.getEvictionCount());
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public long getStoredBytes() {
+        return this.storedBytes;
+    }
+
+    public long getEntryCount() {
+        return this.entryCount;
+    }
+
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds portlet output in direct {@link ByteBuffer}s outside of the Java heap. Output is evicted
+ * least recently used first once the total size of the stored output exceeds the byte budget of the
+ * store. Character data is stored as UTF-16 so it can be written back out without decoding.
+ *
+ * <p>Native memory of an evicted buffer is released once the buffer is garbage collected, readers
+ * that still hold the buffer can finish with it.
+ */
+public class OffHeapPortletOutputStore {
+    private final String name;
+    private final long maxBytes;
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final Cache<OffHeapPortletOutput, ByteBuffer> buffers;
+
+    public OffHeapPortletOutputStore(String name, long maxBytes) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.buffers =
+                CacheBuilder.newBuilder()
+                        .maximumWeight(maxBytes)
+                        .weigher(
+                                new Weigher<OffHeapPortletOutput, ByteBuffer>() {
+                                    @Override
+                                    public int weigh(OffHeapPortletOutput key, ByteBuffer value) {
+                                        return value.capacity();
+                                    }
+                                })
+                        .removalListener(
+                                new RemovalListener<OffHeapPortletOutput, ByteBuffer>() {
+                                    @Override
+                                    public void onRemoval(
+                                            RemovalNotification<OffHeapPortletOutput, ByteBuffer>
+                                                    notification) {
+                                        storedBytes.addAndGet(-notification.getValue().capacity());
+                                    }
+                                })
+                        .recordStats()
+                        .build();
+    }
+
+    /** @return The character data, stored off-heap */
+    OffHeapPortletOutput put(String characterData) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(characterData.length() * 2);
+        buffer.asCharBuffer().put(characterData);
+        return this.put(buffer, true);
+    }
+
+    /** @return The byte data, stored off-heap */
+    OffHeapPortletOutput put(byte[] byteData) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(byteData.length);
+        buffer.put(byteData);
+        buffer.flip();
+        return this.put(buffer, false);
+    }
+
+    /** @return A copy of output held in another store or pinned by a reader */
+    OffHeapPortletOutput put(ByteBuffer data, boolean characterData) {
+        final ByteBuffer buffer;
+        if (data.isDirect() && !data.isReadOnly()) {
+            buffer = data;
+        } else {
+            buffer = ByteBuffer.allocateDirect(data.remaining());
+            buffer.put(data.duplicate());
+            buffer.flip();
+        }
+
+        final OffHeapPortletOutput output = new OffHeapPortletOutput(this, characterData);
+        this.storedBytes.addAndGet(buffer.capacity());
+        this.buffers.put(output, buffer);
+        return output;
+    }
+
+    ByteBuffer get(OffHeapPortletOutput output) {
+        final ByteBuffer buffer = this.buffers.getIfPresent(output);
+        if (buffer == null) {
+            return null;
+        }
+        return buffer.asReadOnlyBuffer();
+    }
+
+    boolean contains(OffHeapPortletOutput output) {
+        return this.buffers.asMap().containsKey(output);
+    }
+
+    void release(OffHeapPortletOutput output) {
+        this.buffers.invalidate(output);
+    }
+
+    /** Remove all output from the store */
+    public void clear() {
+        this.buffers.invalidateAll();
+    }
+
+    /** @return The name of the store, the name of the cache region it backs */
+    public String getName() {
+        return this.name;
+    }
+
+    /** @return The byte budget of the store */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /** @return Bytes of output currently held by the store */
+    public long getStoredBytes() {
+        return this.storedBytes.get();
+    }
+
+    /** @return Number of outputs currently held by the store */
+    public long getEntryCount() {
+        return this.buffers.size();
+    }
+
+    /** @return Number of reads that found the output */
+    public long getHitCount() {
+        return this.buffers.stats().hitCount();
+    }
+
+    /** @return Number of reads that found the output had been evicted */
+    public long getMissCount() {
+        return this.buffers.stats().missCount();
+    }
+
+    /** @return Ratio of hits to reads, 1.0 if there have been no reads */
+    public double getHitRate() {
+        return this.buffers.stats().hitRate();
+    }
+
+    /** @return Number of outputs evicted to stay within the byte budget */
+    public long getEvictionCount() {
+        return this.buffers.stats().evictionCount();
+    }
+}
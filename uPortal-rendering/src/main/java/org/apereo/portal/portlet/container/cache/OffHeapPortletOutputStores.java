@@ -0,0 +1,197 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+/**
+ * Creates and tracks the {@link OffHeapPortletOutputStore} of each portlet output cache region. The
+ * Ehcache regions keep the cache keys, expiration and tags of the cached output on the heap while
+ * the output itself is moved into the region's store. Entries removed, expired or evicted from a
+ * region, or replaced by a new put, release their output from the store right away, output that is
+ * evicted from the store first turns the region's entry into a cache miss.
+ */
+@ManagedResource("uPortal:section=Cache,name=OffHeapPortletOutputStores")
+@Service("offHeapPortletOutputStores")
+public class OffHeapPortletOutputStores implements OffHeapPortletOutputStoresMXBean {
+    private final ConcurrentMap<String, OffHeapPortletOutputStore> stores =
+            new ConcurrentHashMap<String, OffHeapPortletOutputStore>();
+
+    private boolean enabled = false;
+    private long maxBytesPerRegion = 64 * 1024 * 1024;
+
+    /** @param enabled If portlet output should be cached off-heap, defaults to false */
+    @Value("${org.apereo.portal.portlet.container.cache.offHeap.enabled:false}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /** @param maxBytesPerRegion The byte budget of each cache region, defaults to 64MB */
+    @Value("${org.apereo.portal.portlet.container.cache.offHeap.maxBytesPerRegion:67108864}")
+    public void setMaxBytesPerRegion(long maxBytesPerRegion) {
+        this.maxBytesPerRegion = maxBytesPerRegion;
+    }
+
+    @Override
+    public long getMaxBytesPerRegion() {
+        return this.maxBytesPerRegion;
+    }
+
+    /** @return The store for the cache region, created and bound to the region on first use */
+    public OffHeapPortletOutputStore getStore(Ehcache cache) {
+        final String name = cache.getName();
+        OffHeapPortletOutputStore store = this.stores.get(name);
+        if (store != null) {
+            return store;
+        }
+
+        synchronized (this.stores) {
+            store = this.stores.get(name);
+            if (store == null) {
+                store = new OffHeapPortletOutputStore(name, this.maxBytesPerRegion);
+                cache.getCacheEventNotificationService()
+                        .registerListener(new ReleasingCacheEventListener(store));
+                this.stores.put(name, store);
+            }
+            return store;
+        }
+    }
+
+    @Override
+    public long getStoredBytes() {
+        long storedBytes = 0;
+        for (final OffHeapPortletOutputStore store : this.stores.values()) {
+            storedBytes += store.getStoredBytes();
+        }
+        return storedBytes;
+    }
+
+    @Override
+    public Map<String, OffHeapPortletOutputStatistics> getRegionStatistics() {
+        final Map<String, OffHeapPortletOutputStatistics> statistics =
+                new TreeMap<String, OffHeapPortletOutputStatistics>();
+        for (final OffHeapPortletOutputStore store : this.stores.values()) {
+            statistics.put(store.getName(), new OffHeapPortletOutputStatistics(store));
+        }
+        return statistics;
+    }
+
+    @Override
+    public void clear() {
+        for (final OffHeapPortletOutputStore store : this.stores.values()) {
+            store.clear();
+        }
+    }
+
+    /**
+     * Releases the off-heap output of entries as they leave the cache region or are replaced.
+     * Update notifications only carry the new element, so the output of each entry is tracked by
+     * key to find the output it replaced.
+     */
+    private static final class ReleasingCacheEventListener extends CacheEventListenerAdapter {
+        private final OffHeapPortletOutputStore store;
+        private final ConcurrentMap<Object, OffHeapPortletOutput> outputs =
+                new ConcurrentHashMap<Object, OffHeapPortletOutput>();
+
+        ReleasingCacheEventListener(OffHeapPortletOutputStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public void notifyElementPut(Ehcache cache, Element element) {
+            this.track(element);
+        }
+
+        @Override
+        public void notifyElementUpdated(Ehcache cache, Element element) {
+            this.track(element);
+        }
+
+        @Override
+        public void notifyElementRemoved(Ehcache cache, Element element) {
+            this.release(element);
+        }
+
+        @Override
+        public void notifyElementExpired(Ehcache cache, Element element) {
+            this.release(element);
+        }
+
+        @Override
+        public void notifyElementEvicted(Ehcache cache, Element element) {
+            this.release(element);
+        }
+
+        @Override
+        public void notifyRemoveAll(Ehcache cache) {
+            this.outputs.clear();
+            this.store.clear();
+        }
+
+        private void track(Element element) {
+            final OffHeapPortletOutput output = this.getOutput(element);
+            final OffHeapPortletOutput replaced =
+                    output != null
+                            ? this.outputs.put(element.getObjectKey(), output)
+                            : this.outputs.remove(element.getObjectKey());
+            if (replaced != null && replaced != output) {
+                replaced.release();
+            }
+        }
+
+        private void release(Element element) {
+            final OffHeapPortletOutput tracked = this.outputs.remove(element.getObjectKey());
+            if (tracked != null) {
+                tracked.release();
+            }
+
+            final OffHeapPortletOutput output = this.getOutput(element);
+            if (output != null && output != tracked) {
+                output.release();
+            }
+        }
+
+        private OffHeapPortletOutput getOutput(Element element) {
+            final Object value = element.getObjectValue();
+            final OffHeapPortletOutput output;
+            if (value instanceof CachedPortletData) {
+                output = ((CachedPortletData<?>) value).getOffHeapOutput();
+            } else if (value instanceof CachedPortletResourceData) {
+                output =
+                        ((CachedPortletResourceData<?>) value)
+                                .getCachedPortletData()
+                                .getOffHeapOutput();
+            } else {
+                output = null;
+            }
+
+            return output != null && output.getStore() == this.store ? output : null;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import java.util.Map;
+
+/** JMX stats for {@link OffHeapPortletOutputStores} */
+public interface OffHeapPortletOutputStoresMXBean {
+
+    /** @return true if portlet output is cached off-heap */
+    boolean isEnabled();
+
+    /** @return The byte budget of each cache region */
+    long getMaxBytesPerRegion();
+
+    /** @return Bytes of output held off-heap across all cache regions */
+    long getStoredBytes();
+
+    /** @return Hit, miss, eviction and size stats keyed by cache region */
+    Map<String, OffHeapPortletOutputStatistics> getRegionStatistics();
+
+    /** Remove all output held off-heap, the cache entries that referenced it become misses */
+    void clear();
+}
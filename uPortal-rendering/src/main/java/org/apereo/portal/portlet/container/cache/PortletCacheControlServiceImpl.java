@@ -73,6 +73,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
     // default to 100 KB
     private int cacheSizeThreshold = 102400;
 
+    private OffHeapPortletOutputStores offHeapPortletOutputStores;
+
     @Autowired
     public void setTaggedCacheEntryPurger(TaggedCacheEntryPurger taggedCacheEntryPurger) {
         this.taggedCacheEntryPurger = taggedCacheEntryPurger;
@@ -139,6 +141,12 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         return cacheSizeThreshold;
     }
 
+    @Autowired(required = false)
+    public void setOffHeapPortletOutputStores(
+            OffHeapPortletOutputStores offHeapPortletOutputStores) {
+        this.offHeapPortletOutputStores = offHeapPortletOutputStores;
+    }
+
     @Autowired
     public void setPortletWindowRegistry(IPortletWindowRegistry portletWindowRegistry) {
         this.portletWindowRegistry = portletWindowRegistry;
@@ -411,8 +419,45 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             return null;
         }
 
+        // Hold on to off-heap output for the rest of the request
+        final CachedPortletResultHolder<T> pinnedPortletData = pinOutput(cachedPortletData);
+        if (pinnedPortletData == null) {
+            logger.debug("Cached output for key {} was evicted from off-heap storage", cacheKey);
+            outputCache.remove(cacheKey);
+            return null;
+        }
+
         logger.debug("Returning cached output with key {} for {}", cacheKey, portletWindow);
-        return (CachedPortletResultHolder<T>) publicCacheElement.getObjectValue();
+        return pinnedPortletData;
+    }
+
+    private static <T extends Serializable> CachedPortletResultHolder<T> pinOutput(
+            CachedPortletResultHolder<T> cachedPortletData) {
+        if (cachedPortletData instanceof CachedPortletData) {
+            return ((CachedPortletData<T>) cachedPortletData).pinOutput();
+        }
+        if (cachedPortletData instanceof CachedPortletResourceData) {
+            return ((CachedPortletResourceData<T>) cachedPortletData).pinOutput();
+        }
+        return cachedPortletData;
+    }
+
+    /** Move the output of the data into the cache's off-heap store if off-heap caching is on */
+    protected CachedPortletResultHolder<?> moveOffHeap(
+            Ehcache cache, CachedPortletResultHolder<?> data) {
+        if (this.offHeapPortletOutputStores == null
+                || !this.offHeapPortletOutputStores.isEnabled()) {
+            return data;
+        }
+
+        final OffHeapPortletOutputStore store = this.offHeapPortletOutputStores.getStore(cache);
+        if (data instanceof CachedPortletData) {
+            return ((CachedPortletData<?>) data).moveOffHeap(store);
+        }
+        if (data instanceof CachedPortletResourceData) {
+            return ((CachedPortletResourceData<?>) data).moveOffHeap(store);
+        }
+        return data;
     }
 
     @Override
@@ -519,9 +564,11 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             Serializable cacheKey,
             CachedPortletResultHolder<?> data,
             CacheControl cacheControl) {
+        final CachedPortletResultHolder<?> cachedData = this.moveOffHeap(cache, data);
+
         // using validation method, ignore expirationTime and defer to cache configuration
         if (cacheControl.getETag() != null) {
-            final Element element = new Element(cacheKey, data);
+            final Element element = new Element(cacheKey, cachedData);
             cache.put(element);
             return;
         }
@@ -530,7 +577,7 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         // and defer to cache configuration)
         final int expirationTime = cacheControl.getExpirationTime();
         if (expirationTime == -1) {
-            final Element element = new Element(cacheKey, data);
+            final Element element = new Element(cacheKey, cachedData);
             cache.put(element);
             return;
         }
@@ -538,7 +585,7 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         // using expiration method with a positive expiration, set that value as the element's TTL
         // if it is lower than the configured cache TTL
         final CacheConfiguration cacheConfiguration = cache.getCacheConfiguration();
-        final Element element = new Element(cacheKey, data);
+        final Element element = new Element(cacheKey, cachedData);
         final long cacheTTL = cacheConfiguration.getTimeToLiveSeconds();
         if (expirationTime < cacheTTL) {
             element.setTimeToLive(expirationTime);
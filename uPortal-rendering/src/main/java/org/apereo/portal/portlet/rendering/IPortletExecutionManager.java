@@ -94,6 +94,15 @@ public interface IPortletExecutionManager {
             HttpServletRequest request,
             HttpServletResponse response);
 
+    /**
+     * @return true if the specified portlet has been requested to render it's output for the BODY
+     *     during this request and that rendering has completed, getting the output will not block.
+     */
+    boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response);
+
     /**
      * @param portletWindowId
      * @param request
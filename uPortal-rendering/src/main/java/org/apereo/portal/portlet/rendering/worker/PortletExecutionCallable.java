@@ -17,6 +17,7 @@ package org.apereo.portal.portlet.rendering.worker;
 import java.util.concurrent.Callable;
 import java.util.concurrent.FutureTask;
 import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.utils.threading.FairShareThreadPoolExecutor;
 
 /**
  * Used by {@link PortletExecutionWorker} to submit to the thread pool
@@ -24,7 +25,7 @@ import org.apereo.portal.portlet.om.IPortletWindowId;
  * @param <V>
  */
 final class PortletExecutionCallable<V> extends FutureTask<V>
-        implements Callable<V>, IPortletExecutionContext {
+        implements Callable<V>, IPortletExecutionContext, FairShareThreadPoolExecutor.KeyedTask {
     private final Callable<V> callable;
     private final IPortletExecutionContext portletExecutionContext;
 
@@ -105,6 +106,12 @@ final class PortletExecutionCallable<V> extends FutureTask<V>
         return this.portletExecutionContext.getApplicableTimeout();
     }
 
+    /** Portlets share the worker pool by fname when it uses a fair share queue */
+    @Override
+    public Object getFairShareKey() {
+        return this.getPortletFname();
+    }
+
     /* (non-Javadoc)
      * @see java.util.concurrent.Callable#call()
      */
@@ -17,6 +17,7 @@ package org.apereo.portal.rendering;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.transform.OutputKeys;
 import org.apereo.portal.character.stream.CharacterEventReader;
 import org.apereo.portal.character.stream.FilteringCharacterEventReader;
 import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
@@ -30,16 +31,33 @@ import org.apereo.portal.portlet.om.IPortletWindowId;
 import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
 import org.apereo.portal.utils.cache.CacheKey;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
-/** Inserts the results of portlet's rendering into the character stream */
+/**
+ * Inserts the results of portlet's rendering into the character stream. With progressive rendering
+ * enabled HTML pages do not wait on portlets that are still rendering when their content is
+ * reached, see {@link ProgressivePortletIncorporatingEventReader}.
+ */
 public class PortletRenderingIncorporationComponent extends CharacterPipelineComponentWrapper {
+    private static final String HTML_MEDIA_TYPE = "text/html";
+
     private IPortletExecutionManager portletExecutionManager;
+    private boolean progressiveRendering = false;
 
     @Autowired
     public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
         this.portletExecutionManager = portletExecutionManager;
     }
 
+    /**
+     * @param progressiveRendering If the content of portlets that are slow to render should be
+     *     written after the rest of the page. Defaults to false
+     */
+    @Value("${org.apereo.portal.rendering.progressiveRendering:false}")
+    public void setProgressiveRendering(boolean progressiveRendering) {
+        this.progressiveRendering = progressiveRendering;
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.rendering.PipelineComponent#getCacheKey(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -61,7 +79,16 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
         final PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader =
                 this.wrappedComponent.getEventReader(request, response);
 
-        final CharacterEventReader eventReader = pipelineEventReader.getEventReader();
+        CharacterEventReader eventReader = pipelineEventReader.getEventReader();
+        if (this.progressiveRendering) {
+            final String mediaType = pipelineEventReader.getOutputProperty(OutputKeys.MEDIA_TYPE);
+            if (mediaType == null || mediaType.startsWith(HTML_MEDIA_TYPE)) {
+                eventReader =
+                        new ProgressivePortletIncorporatingEventReader(
+                                eventReader, portletExecutionManager, request, response);
+            }
+        }
+
         final PortletIncorporatingEventReader portletIncorporatingEventReader =
                 new PortletIncorporatingEventReader(eventReader, request, response);
 
@@ -156,6 +183,10 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
 
                         return CharacterDataEventImpl.create(link);
                     }
+                case CHUNK_POINT:
+                    {
+                        return CharacterDataEventImpl.EMPTY_CHARACTER_DATA;
+                    }
                 default:
                     {
                         return event;
@@ -0,0 +1,248 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.CharacterEventReaderDelegate;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.PortletContentPlaceholderEvent;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
+
+/**
+ * Keeps slow portlets from holding up the rest of the page. When a portlet content placeholder is
+ * reached and the portlet has not finished rendering an empty slot element is written in its place
+ * and the rest of the page continues to render. The content of deferred portlets is written at the
+ * following chunk-points as their rendering completes, along with a small script that moves the
+ * content into its slot. Any portlets still rendering when the end of the body is reached are
+ * waited on, up to their render timeout, and written in the order they complete.
+ *
+ * <p>Portlet content placeholders for portlets that have completed are passed through unchanged, as
+ * are all other events, to be handled by the wrapping reader.
+ */
+class ProgressivePortletIncorporatingEventReader extends CharacterEventReaderDelegate {
+    private static final String SLOT_ID_PREFIX = "up-deferred-";
+    private static final String END_BODY = "</body>";
+
+    private final Deque<CharacterEvent> eventQueue = new ArrayDeque<CharacterEvent>();
+    private final List<DeferredPortlet> deferredPortlets = new ArrayList<DeferredPortlet>();
+    private final IPortletExecutionManager portletExecutionManager;
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+    private int slotCount = 0;
+
+    public ProgressivePortletIncorporatingEventReader(
+            CharacterEventReader delegate,
+            IPortletExecutionManager portletExecutionManager,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        super(delegate);
+        this.portletExecutionManager = portletExecutionManager;
+        this.request = request;
+        this.response = response;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.fillQueue();
+    }
+
+    @Override
+    public CharacterEvent next() {
+        if (!this.fillQueue()) {
+            throw new NoSuchElementException();
+        }
+        return this.eventQueue.poll();
+    }
+
+    @Override
+    public CharacterEvent peek() {
+        if (!this.fillQueue()) {
+            return null;
+        }
+        return this.eventQueue.peek();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** @return false if there are no more events */
+    private boolean fillQueue() {
+        while (this.eventQueue.isEmpty()) {
+            if (!super.hasNext()) {
+                if (this.deferredPortlets.isEmpty()) {
+                    return false;
+                }
+
+                // No </body> in the document, write whatever is left at the end
+                this.writeDeferredPortlets(true);
+                continue;
+            }
+
+            final CharacterEvent event = super.next();
+            switch (event.getEventType()) {
+                case PORTLET_CONTENT:
+                    {
+                        final IPortletWindowId portletWindowId =
+                                ((PortletContentPlaceholderEvent) event).getPortletWindowId();
+                        if (this.portletExecutionManager.isPortletRenderComplete(
+                                portletWindowId, this.request, this.response)) {
+                            this.eventQueue.add(event);
+                        } else {
+                            final String slotId = SLOT_ID_PREFIX + this.slotCount++;
+                            this.deferredPortlets.add(new DeferredPortlet(slotId, portletWindowId));
+                            this.eventQueue.add(
+                                    CharacterDataEventImpl.create(
+                                            "<div id=\"" + slotId + "\"></div>"));
+                        }
+                        break;
+                    }
+                case CHUNK_POINT:
+                    {
+                        this.writeDeferredPortlets(false);
+                        this.eventQueue.add(event);
+                        break;
+                    }
+                case PORTLET_ANALYTICS_DATA:
+                case PAGE_ANALYTICS_DATA:
+                    {
+                        // Analytics data covers all portlets on the page, wait for the deferred
+                        // portlets to finish but leave writing them until the next chunk-point
+                        this.resolveDeferredPortlets();
+                        this.eventQueue.add(event);
+                        break;
+                    }
+                case CHARACTER:
+                    {
+                        this.addCharacterEvent((CharacterDataEvent) event);
+                        break;
+                    }
+                default:
+                    {
+                        this.eventQueue.add(event);
+                    }
+            }
+        }
+
+        return true;
+    }
+
+    /** Write any remaining deferred portlets just before the end of the body */
+    private void addCharacterEvent(CharacterDataEvent event) {
+        if (this.deferredPortlets.isEmpty()) {
+            this.eventQueue.add(event);
+            return;
+        }
+
+        final String data = event.getData();
+        final int endBodyIndex = data.lastIndexOf(END_BODY);
+        if (endBodyIndex < 0) {
+            this.eventQueue.add(event);
+            return;
+        }
+
+        this.eventQueue.add(CharacterDataEventImpl.create(data.substring(0, endBodyIndex)));
+        this.writeDeferredPortlets(true);
+        this.eventQueue.add(CharacterDataEventImpl.create(data.substring(endBodyIndex)));
+    }
+
+    /**
+     * Queue the content of the deferred portlets that have finished rendering.
+     *
+     * @param waitForAll If true block until every deferred portlet has been written, writing each
+     *     as it completes
+     */
+    private void writeDeferredPortlets(boolean waitForAll) {
+        while (!this.deferredPortlets.isEmpty()) {
+            for (final Iterator<DeferredPortlet> deferredItr = this.deferredPortlets.iterator();
+                    deferredItr.hasNext(); ) {
+                final DeferredPortlet deferredPortlet = deferredItr.next();
+                if (deferredPortlet.output == null
+                        && !this.portletExecutionManager.isPortletRenderComplete(
+                                deferredPortlet.portletWindowId, this.request, this.response)) {
+                    continue;
+                }
+
+                this.eventQueue.add(
+                        CharacterDataEventImpl.create(
+                                this.getDeferredPortletMarkup(deferredPortlet)));
+                deferredItr.remove();
+            }
+
+            if (!waitForAll || this.deferredPortlets.isEmpty()) {
+                return;
+            }
+
+            // Wait on the oldest deferred portlet, the output call enforces the render timeout
+            this.resolveOutput(this.deferredPortlets.get(0));
+        }
+    }
+
+    /** Block until all deferred portlets have output */
+    private void resolveDeferredPortlets() {
+        for (final DeferredPortlet deferredPortlet : this.deferredPortlets) {
+            this.resolveOutput(deferredPortlet);
+        }
+    }
+
+    private void resolveOutput(DeferredPortlet deferredPortlet) {
+        if (deferredPortlet.output == null) {
+            deferredPortlet.output =
+                    this.portletExecutionManager.getPortletOutput(
+                            deferredPortlet.portletWindowId, this.request, this.response);
+        }
+    }
+
+    private String getDeferredPortletMarkup(DeferredPortlet deferredPortlet) {
+        this.resolveOutput(deferredPortlet);
+
+        final String slotId = deferredPortlet.slotId;
+        final String contentId = slotId + "-content";
+        return "<div id=\""
+                + contentId
+                + "\" hidden=\"hidden\">"
+                + deferredPortlet.output
+                + "</div><script type=\"text/javascript\">(function(){"
+                + "var c=document.getElementById('"
+                + contentId
+                + "'),s=document.getElementById('"
+                + slotId
+                + "');while(c.firstChild){s.parentNode.insertBefore(c.firstChild,s);}"
+                + "s.parentNode.removeChild(s);c.parentNode.removeChild(c);})();</script>";
+    }
+
+    private static final class DeferredPortlet {
+        private final String slotId;
+        private final IPortletWindowId portletWindowId;
+        private String output;
+
+        DeferredPortlet(String slotId, IPortletWindowId portletWindowId) {
+            this.slotId = slotId;
+            this.portletWindowId = portletWindowId;
+        }
+    }
+}
@@ -15,24 +15,35 @@
 package org.apereo.portal.rendering.cache;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-/** Holder class for an event cache and output properties */
+/**
+ * Holder class for an event cache and output properties. The events are stored in an exactly sized
+ * array rather than the list they were collected in to keep the per-entry overhead of the cache
+ * down.
+ */
 class CachedEventReader<E> implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    private final List<E> eventCache;
+    private final Object[] eventCache;
     private final Map<String, String> outputProperties;
 
     public CachedEventReader(List<E> eventCache, Map<String, String> outputProperties) {
-        this.eventCache = Collections.unmodifiableList(eventCache);
+        this.eventCache = eventCache.toArray();
         this.outputProperties = Collections.unmodifiableMap(outputProperties);
     }
 
+    @SuppressWarnings("unchecked")
     public List<E> getEventCache() {
-        return this.eventCache;
+        return Collections.unmodifiableList((List<E>) Arrays.asList(this.eventCache));
+    }
+
+    /** @return The number of cached events */
+    public int size() {
+        return this.eventCache.length;
     }
 
     public Map<String, String> getOutputProperties() {
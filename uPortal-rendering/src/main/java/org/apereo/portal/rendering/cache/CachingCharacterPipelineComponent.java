@@ -17,7 +17,10 @@ package org.apereo.portal.rendering.cache;
 import java.util.ListIterator;
 import org.apereo.portal.character.stream.CharacterEventBufferReader;
 import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
 import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.CharacterEventTypes;
 import org.apereo.portal.rendering.CharacterPipelineComponent;
 
 /** component that can cache character pipeline events */
@@ -25,6 +28,16 @@ public class CachingCharacterPipelineComponent
         extends CachingPipelineComponent<CharacterEventReader, CharacterEvent>
         implements CharacterPipelineComponent {
 
+    @Override
+    protected CharacterEvent deduplicateEvent(CharacterEvent event) {
+        if (event.getEventType() == CharacterEventTypes.CHARACTER) {
+            // Character data events are interned by the factory method
+            return CharacterDataEventImpl.create(((CharacterDataEvent) event).getData());
+        }
+
+        return event;
+    }
+
     @Override
     protected CharacterEventReader createEventReader(ListIterator<CharacterEvent> eventCache) {
         return new CharacterEventBufferReader(eventCache);
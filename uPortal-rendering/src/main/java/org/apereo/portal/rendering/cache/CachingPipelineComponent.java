@@ -14,8 +14,8 @@
  */
 package org.apereo.portal.rendering.cache;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -94,11 +94,11 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
             final PipelineEventReader<R, E> pipelineEventReader =
                     this.wrappedComponent.getEventReader(request, response);
 
-            // Copy the events from the reader into a buffer to be cached
-            final List<E> eventCache = new LinkedList<E>();
+            // Copy the events from the reader into a buffer to be cached, sharing each event with
+            // any other cached buffers that contain an equivalent event
+            final List<E> eventCache = new ArrayList<E>();
             for (final E event : pipelineEventReader) {
-                // TODO add de-duplication logic here
-                eventCache.add(event);
+                eventCache.add(this.deduplicateEvent(event));
             }
 
             final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
@@ -122,6 +122,15 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
     }
 
+    /**
+     * Called for each event before it is added to a cached buffer. Sub-classes can return a shared
+     * instance equivalent to the event so that repeated content is only held in memory once across
+     * all of the cache entries. The default implementation returns the event unchanged.
+     */
+    protected E deduplicateEvent(E event) {
+        return event;
+    }
+
     // Ugly!!! Needed because XMLEventReader implements Iterator but does not parameterize it
     protected abstract R createEventReader(ListIterator<E> eventCache);
 }
@@ -24,6 +24,11 @@ import org.apereo.portal.xml.stream.XMLEventBufferReader;
 public class CachingStAXPipelineComponent extends CachingPipelineComponent<XMLEventReader, XMLEvent>
         implements StAXPipelineComponent {
 
+    @Override
+    protected XMLEvent deduplicateEvent(XMLEvent event) {
+        return XMLEventDeduplicator.deduplicate(event);
+    }
+
     @Override
     protected XMLEventReader createEventReader(ListIterator<XMLEvent> eventCache) {
         return new XMLEventBufferReader(eventCache);
@@ -0,0 +1,255 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Replaces {@link XMLEvent}s with equivalent shared instances so that cached event buffers do not
+ * each carry their own copy of the same element names, attributes and text. Only start elements,
+ * end elements and character data are shared, events that declare namespaces or are of any other
+ * type are returned as-is.
+ *
+ * <p>The shared events are held by weak reference so the caches here never retain an event that is
+ * no longer part of a cached buffer, therefore no max-size is needed.
+ */
+final class XMLEventDeduplicator {
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+
+    private static final Interner<Name> NAME_INTERNER = Interners.newWeakInterner();
+    private static final Interner<String> VALUE_INTERNER = Interners.newWeakInterner();
+
+    private static final LoadingCache<EventKey, XMLEvent> WEAK_EVENT_CACHE =
+            CacheBuilder.newBuilder()
+                    .weakValues()
+                    .recordStats()
+                    .build(
+                            new CacheLoader<EventKey, XMLEvent>() {
+                                @Override
+                                public XMLEvent load(EventKey key) throws Exception {
+                                    return key.createEvent();
+                                }
+                            });
+
+    private XMLEventDeduplicator() {}
+
+    static Cache<EventKey, XMLEvent> getEventCache() {
+        return WEAK_EVENT_CACHE;
+    }
+
+    /**
+     * @return A shared event equivalent to the specified event, or the event itself if it cannot be
+     *     shared
+     */
+    public static XMLEvent deduplicate(XMLEvent event) {
+        final EventKey key;
+        switch (event.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                {
+                    key = createStartElementKey(event.asStartElement());
+                    break;
+                }
+            case XMLStreamConstants.END_ELEMENT:
+                {
+                    key = createEndElementKey(event.asEndElement());
+                    break;
+                }
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                {
+                    key = createCharactersKey(event.asCharacters());
+                    break;
+                }
+            default:
+                {
+                    key = null;
+                }
+        }
+
+        if (key == null) {
+            return event;
+        }
+
+        return WEAK_EVENT_CACHE.getUnchecked(key);
+    }
+
+    private static EventKey createStartElementKey(StartElement startElement) {
+        if (startElement.getNamespaces().hasNext()) {
+            // Namespace declarations are scoped to the element, don't share it
+            return null;
+        }
+
+        final List<Object> parts = new ArrayList<Object>();
+        parts.add(NAME_INTERNER.intern(new Name(startElement.getName())));
+        for (final Iterator<Attribute> attributes = startElement.getAttributes();
+                attributes.hasNext(); ) {
+            final Attribute attribute = attributes.next();
+            parts.add(NAME_INTERNER.intern(new Name(attribute.getName())));
+            parts.add(VALUE_INTERNER.intern(attribute.getValue()));
+        }
+
+        return new EventKey(XMLStreamConstants.START_ELEMENT, parts.toArray());
+    }
+
+    private static EventKey createEndElementKey(EndElement endElement) {
+        if (endElement.getNamespaces().hasNext()) {
+            return null;
+        }
+
+        return new EventKey(
+                XMLStreamConstants.END_ELEMENT,
+                new Object[] {NAME_INTERNER.intern(new Name(endElement.getName()))});
+    }
+
+    private static EventKey createCharactersKey(Characters characters) {
+        final int type;
+        if (characters.isCData()) {
+            type = XMLStreamConstants.CDATA;
+        } else if (characters.isIgnorableWhiteSpace()) {
+            type = XMLStreamConstants.SPACE;
+        } else {
+            type = XMLStreamConstants.CHARACTERS;
+        }
+
+        final String data = VALUE_INTERNER.intern(characters.getData());
+        return new EventKey(type, new Object[] {data});
+    }
+
+    /**
+     * Element or attribute name that, unlike {@link QName#equals(Object)}, also compares the
+     * prefix. Events must be written with the prefix they were read with.
+     */
+    static final class Name {
+        private final QName qname;
+        private final int hash;
+
+        Name(QName qname) {
+            this.qname = qname;
+            this.hash = 31 * qname.hashCode() + qname.getPrefix().hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Name)) return false;
+            final Name other = (Name) obj;
+            return this.qname.equals(other.qname)
+                    && this.qname.getPrefix().equals(other.qname.getPrefix());
+        }
+
+        @Override
+        public String toString() {
+            return this.qname.getPrefix().isEmpty()
+                    ? this.qname.toString()
+                    : this.qname.getPrefix() + ":" + this.qname;
+        }
+    }
+
+    /** Value describing an event, the parts are the interned names and values of the event */
+    static final class EventKey {
+        private final int type;
+        private final Object[] parts;
+        private final int hash;
+
+        EventKey(int type, Object[] parts) {
+            this.type = type;
+            this.parts = parts;
+            this.hash = 31 * type + Arrays.hashCode(parts);
+        }
+
+        XMLEvent createEvent() {
+            switch (this.type) {
+                case XMLStreamConstants.START_ELEMENT:
+                    {
+                        final List<Attribute> attributes =
+                                new ArrayList<Attribute>((this.parts.length - 1) / 2);
+                        for (int i = 1; i < this.parts.length; i += 2) {
+                            attributes.add(
+                                    EVENT_FACTORY.createAttribute(
+                                            ((Name) this.parts[i]).qname,
+                                            (String) this.parts[i + 1]));
+                        }
+                        return EVENT_FACTORY.createStartElement(
+                                ((Name) this.parts[0]).qname,
+                                attributes.iterator(),
+                                Collections.<Namespace>emptyIterator());
+                    }
+                case XMLStreamConstants.END_ELEMENT:
+                    {
+                        return EVENT_FACTORY.createEndElement(
+                                ((Name) this.parts[0]).qname,
+                                Collections.<Namespace>emptyIterator());
+                    }
+                case XMLStreamConstants.CDATA:
+                    {
+                        return EVENT_FACTORY.createCData((String) this.parts[0]);
+                    }
+                case XMLStreamConstants.SPACE:
+                    {
+                        return EVENT_FACTORY.createIgnorableSpace((String) this.parts[0]);
+                    }
+                default:
+                    {
+                        return EVENT_FACTORY.createCharacters((String) this.parts[0]);
+                    }
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof EventKey)) return false;
+            final EventKey other = (EventKey) obj;
+            return this.type == other.type
+                    && this.hash == other.hash
+                    && Arrays.equals(this.parts, other.parts);
+        }
+
+        @Override
+        public String toString() {
+            return "EventKey [type=" + this.type + ", parts=" + Arrays.toString(this.parts) + "]";
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.xslt;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apereo.portal.layout.dao.IStylesheetDescriptorDao;
+import org.apereo.portal.layout.om.IStylesheetDescriptor;
+import org.apereo.portal.xml.XmlUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ResourceLoaderAware;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+/**
+ * Compiles the stylesheet of every {@link IStylesheetDescriptor} into cached {@link
+ * javax.xml.transform.Templates} once the portal context has started so the first requests after a
+ * restart do not pay for stylesheet compilation.
+ */
+@ManagedResource("uPortal:section=Framework,name=StylesheetWarmer")
+@Service("stylesheetWarmer")
+public class StylesheetWarmer implements ResourceLoaderAware, StylesheetWarmerMXBean {
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final AtomicBoolean warmedOnStartup = new AtomicBoolean();
+
+    private IStylesheetDescriptorDao stylesheetDescriptorDao;
+    private XmlUtilities xmlUtilities;
+    private ResourceLoader resourceLoader;
+    private boolean warmOnStartup = true;
+
+    private volatile Map<String, Long> stylesheetCompileTimes = Collections.emptyMap();
+    private volatile long lastWarmupDuration = -1;
+
+    @Autowired
+    public void setStylesheetDescriptorDao(IStylesheetDescriptorDao stylesheetDescriptorDao) {
+        this.stylesheetDescriptorDao = stylesheetDescriptorDao;
+    }
+
+    @Autowired
+    public void setXmlUtilities(XmlUtilities xmlUtilities) {
+        this.xmlUtilities = xmlUtilities;
+    }
+
+    @Override
+    public void setResourceLoader(ResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+    }
+
+    /** @param warmOnStartup If stylesheets should be compiled at startup. Defaults to true */
+    @Value("${org.apereo.portal.rendering.xslt.warmStylesheetsOnStartup:true}")
+    public void setWarmOnStartup(boolean warmOnStartup) {
+        this.warmOnStartup = warmOnStartup;
+    }
+
+    @EventListener
+    public void onContextRefreshed(ContextRefreshedEvent event) {
+        // Child contexts publish their own refresh events, only warm up once
+        if (this.warmOnStartup && this.warmedOnStartup.compareAndSet(false, true)) {
+            this.warmStylesheets();
+        }
+    }
+
+    @Override
+    public void warmStylesheets() {
+        final long start = System.nanoTime();
+        final Map<String, Long> compileTimes = new LinkedHashMap<String, Long>();
+
+        for (final IStylesheetDescriptor stylesheetDescriptor :
+                this.stylesheetDescriptorDao.getStylesheetDescriptors()) {
+            final String stylesheetResource = stylesheetDescriptor.getStylesheetResource();
+            if (stylesheetResource == null || compileTimes.containsKey(stylesheetResource)) {
+                continue;
+            }
+
+            final Resource resource = this.resourceLoader.getResource(stylesheetResource);
+            final long compileStart = System.nanoTime();
+            try {
+                this.xmlUtilities.getTemplates(resource);
+            } catch (Exception e) {
+                // A broken stylesheet fails at request time as before, don't fail startup
+                this.logger.warn(
+                        "Failed to compile stylesheet {} for stylesheet descriptor {}",
+                        stylesheetResource,
+                        stylesheetDescriptor.getName(),
+                        e);
+                continue;
+            }
+            final long compileTime =
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - compileStart);
+            compileTimes.put(stylesheetResource, compileTime);
+            this.logger.debug("Compiled stylesheet {} in {}ms", stylesheetResource, compileTime);
+        }
+
+        this.stylesheetCompileTimes = Collections.unmodifiableMap(compileTimes);
+        this.lastWarmupDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        this.logger.info(
+                "Compiled {} stylesheets in {}ms", compileTimes.size(), this.lastWarmupDuration);
+    }
+
+    @Override
+    public int getCompiledStylesheetCount() {
+        return this.stylesheetCompileTimes.size();
+    }
+
+    @Override
+    public long getLastWarmupDuration() {
+        return this.lastWarmupDuration;
+    }
+
+    @Override
+    public Map<String, Long> getStylesheetCompileTimes() {
+        return this.stylesheetCompileTimes;
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.xslt;
+
+import java.util.Map;
+
+/** JMX stats for {@link StylesheetWarmer} */
+public interface StylesheetWarmerMXBean {
+
+    /** @return Number of stylesheets compiled by the last warmup */
+    int getCompiledStylesheetCount();
+
+    /** @return Wall time in milliseconds spent by the last warmup */
+    long getLastWarmupDuration();
+
+    /** @return Compile time in milliseconds by stylesheet resource for the last warmup */
+    Map<String, Long> getStylesheetCompileTimes();
+
+    /** Compile all stylesheets referenced by the stylesheet descriptors */
+    void warmStylesheets();
+}
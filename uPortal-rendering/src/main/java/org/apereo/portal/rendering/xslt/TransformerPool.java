@@ -0,0 +1,125 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.xslt;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.transform.Transformer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+/**
+ * Bounded per-thread pool of {@link Transformer}s keyed by the stylesheet they were created from.
+ * Request threads render the same handful of stylesheets over and over, keeping an idle {@link
+ * Transformer} per stylesheet on the thread avoids creating a new one from the compiled {@link
+ * javax.xml.transform.Templates} on every request.
+ *
+ * <p>A {@link Transformer} is removed from the pool while it is in use so re-entrant use on the
+ * same thread simply creates a new one. Transformers are {@link Transformer#reset()} when returned
+ * so the caller must always apply its parameters and output properties after borrowing. Each thread
+ * keeps its least recently used transformers up to {@link #setMaxTransformersPerThread(int)}.
+ */
+@ManagedResource("uPortal:section=Framework,name=TransformerPool")
+@Service("transformerPool")
+public class TransformerPool implements TransformerPoolMXBean {
+    private final ThreadLocal<Map<Serializable, Transformer>> idleTransformers =
+            new ThreadLocal<Map<Serializable, Transformer>>() {
+                @Override
+                protected Map<Serializable, Transformer> initialValue() {
+                    return new LinkedHashMap<Serializable, Transformer>(16, 0.75f, true) {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected boolean removeEldestEntry(
+                                Map.Entry<Serializable, Transformer> eldest) {
+                            return this.size() > maxTransformersPerThread;
+                        }
+                    };
+                }
+            };
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    private volatile int maxTransformersPerThread = 8;
+
+    /**
+     * @param maxTransformersPerThread Maximum number of idle transformers pooled per thread.
+     *     Defaults to 8
+     */
+    @Override
+    @Value("${org.apereo.portal.rendering.xslt.maxTransformersPerThread:8}")
+    public void setMaxTransformersPerThread(int maxTransformersPerThread) {
+        this.maxTransformersPerThread = maxTransformersPerThread;
+    }
+
+    @Override
+    public int getMaxTransformersPerThread() {
+        return this.maxTransformersPerThread;
+    }
+
+    /**
+     * @param key Key identifying the stylesheet (and its compiled state) the transformer is for
+     * @return An idle transformer for the key, null if this thread has none pooled
+     */
+    public Transformer borrowTransformer(Serializable key) {
+        final Transformer transformer = this.idleTransformers.get().remove(key);
+        if (transformer == null) {
+            this.missCount.incrementAndGet();
+        } else {
+            this.hitCount.incrementAndGet();
+        }
+        return transformer;
+    }
+
+    /**
+     * Reset the transformer and pool it on the current thread. Transformers that failed during a
+     * transformation should not be returned.
+     */
+    public void returnTransformer(Serializable key, Transformer transformer) {
+        if (this.maxTransformersPerThread <= 0) {
+            return;
+        }
+
+        transformer.reset();
+        this.idleTransformers.get().put(key, transformer);
+    }
+
+    @Override
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        final long hits = this.hitCount.get();
+        final long total = hits + this.missCount.get();
+        return total == 0 ? 1.0 : (double) hits / total;
+    }
+
+    @Override
+    public void resetStats() {
+        this.hitCount.set(0);
+        this.missCount.set(0);
+    }
+}
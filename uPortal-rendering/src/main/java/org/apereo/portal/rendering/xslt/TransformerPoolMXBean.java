@@ -0,0 +1,37 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.xslt;
+
+/** JMX stats for {@link TransformerPool} */
+public interface TransformerPoolMXBean {
+
+    /** @return Number of times a pooled {@link javax.xml.transform.Transformer} was reused */
+    long getHitCount();
+
+    /** @return Number of times a new {@link javax.xml.transform.Transformer} had to be created */
+    long getMissCount();
+
+    /** @return Ratio of hits to total requests, 1.0 if there have been no requests */
+    double getHitRate();
+
+    /** @return Maximum number of idle transformers pooled per thread */
+    int getMaxTransformersPerThread();
+
+    /** @param maxTransformersPerThread Maximum number of idle transformers pooled per thread */
+    void setMaxTransformersPerThread(int maxTransformersPerThread);
+
+    /** Reset the hit and miss counters */
+    void resetStats();
+}
@@ -41,6 +41,7 @@ import org.apereo.portal.xml.stream.XMLEventBufferWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ResourceLoaderAware;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.util.xml.FixedXMLEventStreamReader;
@@ -58,6 +59,7 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
     private ResourceLoaderURIResolver uriResolver;
     private TransformerSource transformerSource;
     private TransformerConfigurationSource xsltParameterSource;
+    private TransformerPool transformerPool;
 
     private String beanName;
 
@@ -73,6 +75,12 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
         this.transformerSource = transformerSource;
     }
 
+    /** Optional pool used to reuse {@link Transformer}s across requests on the same thread */
+    @Autowired(required = false)
+    public void setTransformerPool(TransformerPool transformerPool) {
+        this.transformerPool = transformerPool;
+    }
+
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
@@ -92,7 +100,19 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
         final PipelineEventReader<XMLEventReader, XMLEvent> pipelineEventReader =
                 this.wrappedComponent.getEventReader(request, response);
 
-        final Transformer transformer = this.transformerSource.getTransformer(request, response);
+        final CacheKey transformerKey;
+        Transformer transformer = null;
+        if (this.transformerPool != null) {
+            transformerKey = this.transformerSource.getCacheKey(request, response);
+            if (transformerKey != null) {
+                transformer = this.transformerPool.borrowTransformer(transformerKey);
+            }
+        } else {
+            transformerKey = null;
+        }
+        if (transformer == null) {
+            transformer = this.transformerSource.getTransformer(request, response);
+        }
 
         // Setup a URIResolver based on the current resource loader
         transformer.setURIResolver(this.uriResolver);
@@ -159,6 +179,11 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
 
         final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
 
+        // Only pool the transformer once it has completed successfully
+        if (transformerKey != null) {
+            this.transformerPool.returnTransformer(transformerKey, transformer);
+        }
+
         final List<XMLEvent> eventBuffer = eventWriterBuffer.getEventBuffer();
         final XMLEventReader outputEventReader =
                 new XMLEventBufferReader(eventBuffer.listIterator());
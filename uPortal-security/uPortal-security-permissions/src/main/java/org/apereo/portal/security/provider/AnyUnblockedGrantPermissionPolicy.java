@@ -14,8 +14,10 @@
  */
 package org.apereo.portal.security.provider;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
@@ -184,11 +186,21 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
         // Search ourselves and all ancestors for an unblocked GRANT.
         boolean rslt;
         try {
-            // Track groups we've already explored to avoid infinite loop
-            final Set<IGroupMember> seenGroups = new HashSet<>();
-            rslt =
-                    hasUnblockedPathToGrantWithCache(
-                            service, principal, owner, activity, target, seenGroups);
+            final CompiledPermissionSet compiled =
+                    service instanceof AuthorizationImpl
+                            ? ((AuthorizationImpl) service).getCompiledPermissionSet(principal)
+                            : null;
+            if (compiled != null) {
+                rslt =
+                        hasUnblockedPathToGrant(
+                                (AuthorizationImpl) service, compiled, owner, activity, target);
+            } else {
+                // Track groups we've already explored to avoid infinite loop
+                final Set<IGroupMember> seenGroups = new HashSet<>();
+                rslt =
+                        hasUnblockedPathToGrantWithCache(
+                                service, principal, owner, activity, target, seenGroups);
+            }
         } catch (Exception e) {
             log.error(
                     "Error searching for unblocked path to grant for principal [" + principal + "]",
@@ -222,6 +234,30 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
         return rslt;
     }
 
+    /**
+     * Answers the same question as {@link #hasUnblockedPathToGrant(IAuthorizationService,
+     * IAuthorizationPrincipal, IPermissionOwner, IPermissionActivity, IPermissionTarget, Set)} from
+     * the permissions of the principal and its ancestor groups compiled in advance, without walking
+     * the groups tree.
+     */
+    private boolean hasUnblockedPathToGrant(
+            AuthorizationImpl service,
+            CompiledPermissionSet compiled,
+            IPermissionOwner owner,
+            IPermissionActivity activity,
+            IPermissionTarget target)
+            throws AuthorizationException {
+
+        // Permissions on groups containing the target apply to the target as well
+        final List<String> targets = new ArrayList<>();
+        targets.add(target.getKey());
+        targets.addAll(
+                service.getTargetContainingGroupKeys(
+                        owner.getFname(), activity.getFname(), target.getKey()));
+
+        return compiled.hasUnblockedPathToGrant(owner.getFname(), activity.getFname(), targets);
+    }
+
     private boolean hasUnblockedPathToGrantWithCache(
             IAuthorizationService service,
             IAuthorizationPrincipal principal,
@@ -17,6 +17,7 @@ package org.apereo.portal.security.provider;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -110,6 +111,9 @@ public class AuthorizationImpl implements IAuthorizationService {
     /** The cache to hold permission resolution. */
     private Ehcache doesPrincipalHavePermissionCache;
 
+    /** The cache to hold the compiled permissions of principals and their ancestor groups. */
+    private Ehcache compiledPermissionSetCache;
+
     /** The class representing the permission set type. */
     private static final Class<IPermissionSet> PERMISSION_SET_TYPE = IPermissionSet.class;
 
@@ -168,6 +172,13 @@ public class AuthorizationImpl implements IAuthorizationService {
         this.doesPrincipalHavePermissionCache = doesPrincipalHavePermissionCache;
     }
 
+    @Autowired
+    public void setCompiledPermissionSetCache(
+            @Qualifier("org.apereo.portal.security.provider.AuthorizationImpl.COMPILED_PERMISSIONS")
+                    Ehcache compiledPermissionSetCache) {
+        this.compiledPermissionSetCache = compiledPermissionSetCache;
+    }
+
     @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
@@ -195,6 +206,9 @@ public class AuthorizationImpl implements IAuthorizationService {
             getPermissionStore().add(permissions);
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
+                // Permissions of a group apply to all of its members, whose compiled sets can't
+                // be found without walking the groups tree;  start over
+                this.compiledPermissionSetCache.removeAll();
             }
         }
     }
@@ -964,6 +978,37 @@ public class AuthorizationImpl implements IAuthorizationService {
         return new UpdatingPermissionManagerImpl(owner, this);
     }
 
+    /**
+     * Returns the compiled permissions of the principal and all of its ancestor groups, compiling
+     * and caching them if necessary. Returns null when permissions are not cached, in which case
+     * they must be looked up afresh for every check.
+     */
+    CompiledPermissionSet getCompiledPermissionSet(IAuthorizationPrincipal principal)
+            throws AuthorizationException, GroupsException {
+        if (!this.cachePermissions) {
+            return null;
+        }
+
+        final CacheKeyBuilder<Serializable, Serializable> cacheKeyBuilder =
+                CacheKey.builder(CompiledPermissionSet.class.getName());
+        if (IPerson.class.equals(principal.getType())) {
+            cacheKeyBuilder.addTag(
+                    UsernameTaggedCacheEntryPurger.createCacheEntryTag(principal.getKey()));
+        }
+        cacheKeyBuilder.addAll(principal.getKey(), principal.getType());
+        final CacheKey key = cacheKeyBuilder.build();
+
+        final Element element = this.compiledPermissionSetCache.get(key);
+        if (element != null) {
+            return (CompiledPermissionSet) element.getObjectValue();
+        }
+
+        final CompiledPermissionSet rslt = CompiledPermissionSet.compile(this, principal);
+        logger.debug("Compiled permissions for {} of {} principals", principal, rslt.size());
+        this.compiledPermissionSetCache.put(new Element(key, rslt));
+        return rslt;
+    }
+
     /**
      * Returns permissions for a principal. First check the entity caching service, and if the
      * permissions have not been cached, retrieve and cache them.
@@ -1020,73 +1065,10 @@ public class AuthorizationImpl implements IAuthorizationService {
             return perms;
         }
 
-        Set<String> containingGroups;
-
-        if (target != null) {
-
-            final Element element = this.entityParentsCache.get(target);
-            if (element != null) {
-                containingGroups = (Set<String>) element.getObjectValue();
-            } else {
-                containingGroups = new HashSet<>();
-
-                // Ignore target entity lookups for the various synthetic ALL targets
-                if (!IPermission.ALL_CATEGORIES_TARGET.equals(target)
-                        && !IPermission.ALL_GROUPS_TARGET.equals(target)
-                        && !IPermission.ALL_PORTLETS_TARGET.equals(target)
-                        && !IPermission.ALL_TARGET.equals(target)) {
-
-                    // UP-4410; It would be ideal if the target string indicated it was a group or
-                    // entity that might be
-                    // a member of a group so we could determine whether to check what groups the
-                    // target entity might be
-                    // contained within to see if the principal has permission to the containing
-                    // group, but it does not
-                    // (too significant to refactor database values at this point).  If the owner
-                    // and activity strings map to
-                    // a type of target that might be a group name or entity name, create a set of
-                    // the groups the target
-                    // entity is contained in.
-                    boolean checkTargetForContainingGroups = true;
-                    if (owner != null && activity != null) {
-                        IPermissionActivity permissionActivity =
-                                permissionOwner.getPermissionActivity(owner, activity);
-                        if (nonEntityPermissionTargetProviders.contains(
-                                permissionActivity.getTargetProviderKey())) {
-                            checkTargetForContainingGroups = false;
-                        }
-                    }
-                    if (checkTargetForContainingGroups) {
-                        logger.debug(
-                                "Target '{}' is an entity. Checking for group or groups containing entity",
-                                target);
-
-                        IGroupMember targetEntity = GroupService.findGroup(target);
-                        if (targetEntity == null) {
-                            if (target.startsWith(IPermission.PORTLET_PREFIX)) {
-                                targetEntity =
-                                        GroupService.getGroupMember(
-                                                target.replace(IPermission.PORTLET_PREFIX, ""),
-                                                IPortletDefinition.class);
-                            } else {
-                                targetEntity = GroupService.getGroupMember(target, IPerson.class);
-                            }
-                        }
-
-                        if (targetEntity != null) {
-                            for (IEntityGroup ancestor : targetEntity.getAncestorGroups()) {
-                                containingGroups.add(ancestor.getKey());
-                            }
-                        }
-                    }
-                }
-
-                this.entityParentsCache.put(new Element(target, containingGroups));
-            }
-
-        } else {
-            containingGroups = new HashSet<>();
-        }
+        final Set<String> containingGroups =
+                target != null
+                        ? getTargetContainingGroupKeys(owner, activity, target)
+                        : Collections.<String>emptySet();
 
         List<IPermission> al = new ArrayList<>(perms.length);
 
@@ -1129,6 +1111,83 @@ public class AuthorizationImpl implements IAuthorizationService {
         return ((IPermission[]) al.toArray(new IPermission[al.size()]));
     }
 
+    /**
+     * Returns the keys of the groups that contain the target, since permissions granted on a group
+     * apply to its members. The synthetic ALL targets and targets that are not entities are not
+     * contained in any group.
+     *
+     * @param owner String, may be null
+     * @param activity String, may be null
+     * @param target String
+     */
+    Set<String> getTargetContainingGroupKeys(String owner, String activity, String target)
+            throws AuthorizationException {
+
+        Set<String> containingGroups;
+
+        final Element element = this.entityParentsCache.get(target);
+        if (element != null) {
+            containingGroups = (Set<String>) element.getObjectValue();
+        } else {
+            containingGroups = new HashSet<>();
+
+            // Ignore target entity lookups for the various synthetic ALL targets
+            if (!IPermission.ALL_CATEGORIES_TARGET.equals(target)
+                    && !IPermission.ALL_GROUPS_TARGET.equals(target)
+                    && !IPermission.ALL_PORTLETS_TARGET.equals(target)
+                    && !IPermission.ALL_TARGET.equals(target)) {
+
+                // UP-4410; It would be ideal if the target string indicated it was a group or
+                // entity that might be
+                // a member of a group so we could determine whether to check what groups the
+                // target entity might be
+                // contained within to see if the principal has permission to the containing
+                // group, but it does not
+                // (too significant to refactor database values at this point).  If the owner
+                // and activity strings map to
+                // a type of target that might be a group name or entity name, create a set of
+                // the groups the target
+                // entity is contained in.
+                boolean checkTargetForContainingGroups = true;
+                if (owner != null && activity != null) {
+                    IPermissionActivity permissionActivity =
+                            permissionOwner.getPermissionActivity(owner, activity);
+                    if (nonEntityPermissionTargetProviders.contains(
+                            permissionActivity.getTargetProviderKey())) {
+                        checkTargetForContainingGroups = false;
+                    }
+                }
+                if (checkTargetForContainingGroups) {
+                    logger.debug(
+                            "Target '{}' is an entity. Checking for group or groups containing entity",
+                            target);
+
+                    IGroupMember targetEntity = GroupService.findGroup(target);
+                    if (targetEntity == null) {
+                        if (target.startsWith(IPermission.PORTLET_PREFIX)) {
+                            targetEntity =
+                                    GroupService.getGroupMember(
+                                            target.replace(IPermission.PORTLET_PREFIX, ""),
+                                            IPortletDefinition.class);
+                        } else {
+                            targetEntity = GroupService.getGroupMember(target, IPerson.class);
+                        }
+                    }
+
+                    if (targetEntity != null) {
+                        for (IEntityGroup ancestor : targetEntity.getAncestorGroups()) {
+                            containingGroups.add(ancestor.getKey());
+                        }
+                    }
+                }
+            }
+
+            this.entityParentsCache.put(new Element(target, containingGroups));
+        }
+
+        return containingGroups;
+    }
+
     /**
      * @return IPermission[]
      * @param owner String
@@ -1178,6 +1237,9 @@ public class AuthorizationImpl implements IAuthorizationService {
             getPermissionStore().delete(permissions);
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
+                // Permissions of a group apply to all of its members, whose compiled sets can't
+                // be found without walking the groups tree;  start over
+                this.compiledPermissionSetCache.removeAll();
             }
         }
     }
@@ -1194,6 +1256,9 @@ public class AuthorizationImpl implements IAuthorizationService {
             getPermissionStore().update(permissions);
             if (this.cachePermissions) {
                 removeFromPermissionsCache(permissions);
+                // Permissions of a group apply to all of its members, whose compiled sets can't
+                // be found without walking the groups tree;  start over
+                this.compiledPermissionSetCache.removeAll();
             }
         }
     }
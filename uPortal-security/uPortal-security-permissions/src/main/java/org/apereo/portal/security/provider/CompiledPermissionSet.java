@@ -0,0 +1,231 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apereo.portal.AuthorizationException;
+import org.apereo.portal.groups.GroupsException;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The permissions of a principal and of every group it (recursively) belongs to, compiled once so
+ * that {@link AnyUnblockedGrantPermissionPolicy} can answer a permission check without walking the
+ * groups tree. The principal and its ancestor groups are numbered nodes with the parents of each
+ * node kept as indices, and the permissions attached to each node are indexed by owner, activity
+ * and target.
+ *
+ * <p>Instances are immutable and are cached per principal by {@link AuthorizationImpl}, which
+ * discards them whenever permissions are added, updated or removed.
+ */
+final class CompiledPermissionSet {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompiledPermissionSet.class);
+
+    private static final IPermission[] NO_PERMISSIONS = new IPermission[0];
+
+    private final String principalString;
+    private final int[][] parents;
+    private final List<Map<String, IPermission[]>> permissions;
+
+    private CompiledPermissionSet(
+            String principalString, int[][] parents, List<Map<String, IPermission[]>> permissions) {
+        this.principalString = principalString;
+        this.parents = parents;
+        this.permissions = permissions;
+    }
+
+    /**
+     * Collects the permissions of the principal and of all of its ancestor groups.
+     *
+     * @throws AuthorizationException if the permissions of the principal cannot be retrieved
+     * @throws GroupsException if the groups of the principal cannot be retrieved
+     */
+    static CompiledPermissionSet compile(
+            IAuthorizationService service, IAuthorizationPrincipal principal)
+            throws AuthorizationException, GroupsException {
+
+        final Map<IGroupMember, Integer> ids = new HashMap<>();
+        final List<IAuthorizationPrincipal> nodes = new ArrayList<>();
+        final List<int[]> parents = new ArrayList<>();
+
+        ids.put(service.getGroupMember(principal), 0);
+        nodes.add(principal);
+
+        // Number the nodes breadth-first;  a group seen before keeps its number
+        for (int i = 0; i < nodes.size(); i++) {
+            final IAuthorizationPrincipal node = nodes.get(i);
+            Collection<IEntityGroup> parentGroups;
+            try {
+                parentGroups = service.getGroupMember(node).getParentGroups();
+            } catch (Exception e) {
+                if (i == 0) {
+                    throw e;
+                }
+                // As in AnyUnblockedGrantPermissionPolicy, a broken portion of the groups
+                // structure doesn't stop permission from being granted by the rest of it
+                logger.error("Error evaluating permissions of parent group [" + node + "]", e);
+                parentGroups = new ArrayList<>();
+            }
+            final List<Integer> parentIds = new ArrayList<>(parentGroups.size());
+            for (IEntityGroup parentGroup : parentGroups) {
+                if (parentGroup == null) {
+                    continue;
+                }
+                Integer id = ids.get(parentGroup);
+                if (id == null) {
+                    id = nodes.size();
+                    ids.put(parentGroup, id);
+                    nodes.add(service.newPrincipal(parentGroup));
+                }
+                parentIds.add(id);
+            }
+            final int[] p = new int[parentIds.size()];
+            for (int j = 0; j < p.length; j++) {
+                p[j] = parentIds.get(j);
+            }
+            parents.add(p);
+        }
+
+        final List<Map<String, IPermission[]>> permissions = new ArrayList<>(nodes.size());
+        for (IAuthorizationPrincipal node : nodes) {
+            permissions.add(index(service.getPermissionsForPrincipal(node, null, null, null)));
+        }
+
+        return new CompiledPermissionSet(
+                principal.getPrincipalString(),
+                parents.toArray(new int[parents.size()][]),
+                permissions);
+    }
+
+    private static Map<String, IPermission[]> index(IPermission[] perms) {
+        final Map<String, List<IPermission>> lists = new HashMap<>();
+        for (IPermission p : perms) {
+            final String key = getKey(p.getOwner(), p.getActivity(), p.getTarget());
+            List<IPermission> list = lists.get(key);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                lists.put(key, list);
+            }
+            list.add(p);
+        }
+
+        final Map<String, IPermission[]> rslt = new HashMap<>(lists.size() * 2);
+        for (Map.Entry<String, List<IPermission>> y : lists.entrySet()) {
+            rslt.put(y.getKey(), y.getValue().toArray(NO_PERMISSIONS));
+        }
+        return rslt;
+    }
+
+    private static String getKey(String owner, String activity, String target) {
+        return owner + '\u0000' + activity + '\u0000' + target;
+    }
+
+    /** @return Number of principals compiled: the principal itself and its ancestor groups */
+    int size() {
+        return this.parents.length;
+    }
+
+    /**
+     * Answers if there is a path from the principal up the groups tree to a GRANT of the activity
+     * that is not blocked by a DENY, the same way {@link AnyUnblockedGrantPermissionPolicy} does by
+     * walking the tree. A permission applies to a principal if its target is the specified target
+     * or one of the groups containing it.
+     *
+     * @param targets The target followed by the keys of the groups that contain it
+     */
+    boolean hasUnblockedPathToGrant(String owner, String activity, Collection<String> targets) {
+
+        final String[] keys = new String[targets.size()];
+        int k = 0;
+        for (String target : targets) {
+            keys[k++] = getKey(owner, activity, target);
+        }
+
+        final Date now = new Date();
+        final BitSet seen = new BitSet(this.parents.length);
+        final int[] stack = new int[this.parents.length];
+        int depth = 0;
+        stack[depth++] = 0;
+        seen.set(0);
+        while (depth > 0) {
+            final int node = stack[--depth];
+
+            boolean grantExists = false;
+            boolean denyExists = false;
+            final Map<String, IPermission[]> index = this.permissions.get(node);
+            if (!index.isEmpty()) {
+                for (String key : keys) {
+                    final IPermission[] perms = index.get(key);
+                    if (perms == null) {
+                        continue;
+                    }
+                    for (IPermission p : perms) {
+                        if (isActive(p, now)) {
+                            if (IPermission.PERMISSION_TYPE_DENY.equals(p.getType())) {
+                                denyExists = true;
+                            } else if (IPermission.PERMISSION_TYPE_GRANT.equals(p.getType())) {
+                                grantExists = true;
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (denyExists) {
+                // DENY trumps both GRANT & inherited permissions;  try another path
+                continue;
+            }
+            if (grantExists) {
+                return true;
+            }
+
+            for (int parent : this.parents[node]) {
+                if (!seen.get(parent)) {
+                    seen.set(parent);
+                    stack[depth++] = parent;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /** Same test as AnyUnblockedGrantPermissionPolicy.removeInactivePermissions() */
+    private static boolean isActive(IPermission p, Date now) {
+        return (p.getEffective() == null || !p.getEffective().after(now))
+                && (p.getExpires() == null || p.getExpires().after(now));
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledPermissionSet [principal="
+                + this.principalString
+                + ", principals="
+                + this.parents.length
+                + "]";
+    }
+}
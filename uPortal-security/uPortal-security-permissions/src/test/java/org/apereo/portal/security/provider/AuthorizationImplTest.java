@@ -0,0 +1,134 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.apereo.portal.EntityTypes;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IPermission;
+import org.apereo.portal.security.IPermissionStore;
+import org.apereo.portal.spring.locator.EntityTypesLocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests that changes to permissions discard the compiled permissions of all principals. */
+public class AuthorizationImplTest {
+    private static final Integer GROUP_TYPE_ID = 3;
+
+    private CacheManager cacheManager;
+    private Ehcache compiledPermissionSetCache;
+    private EntityTypesLocator entityTypesLocator;
+    private IPermissionStore permissionStore;
+    private AuthorizationImpl authorizationService;
+
+    @Before
+    public void setUp() throws Exception {
+        final Configuration configuration = new Configuration();
+        configuration.setName(AuthorizationImplTest.class.getName());
+        configuration.setUpdateCheck(false);
+        configuration.addDefaultCache(new CacheConfiguration("default", 0));
+        cacheManager = new CacheManager(configuration);
+        cacheManager.addCache("principalCache");
+        cacheManager.addCache("compiledPermissionSetCache");
+        compiledPermissionSetCache = cacheManager.getEhcache("compiledPermissionSetCache");
+
+        final EntityTypes entityTypes = mock(EntityTypes.class);
+        doReturn(GROUP_TYPE_ID).when(entityTypes).getEntityIDFromType(IEntityGroup.class);
+        doReturn(IEntityGroup.class).when(entityTypes).getEntityTypeFromID(GROUP_TYPE_ID);
+        entityTypesLocator = new EntityTypesLocator(entityTypes);
+        entityTypesLocator.afterPropertiesSet();
+
+        permissionStore = mock(IPermissionStore.class);
+        final AuthorizationImpl impl = new AuthorizationImpl();
+        impl.setPermissionStore(permissionStore);
+        impl.setPrincipalCache(cacheManager.getEhcache("principalCache"));
+        impl.setCompiledPermissionSetCache(compiledPermissionSetCache);
+        authorizationService = spy(impl);
+        // The entity caching service is not available here
+        doNothing().when(authorizationService).cacheRemove(any(IAuthorizationPrincipal.class));
+
+        compiledPermissionSetCache.put(new Element("compiled", "permissions"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        entityTypesLocator.destroy();
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testAddPermissionsClearsCompiledPermissionSets() throws Exception {
+        final IPermission[] permissions = newPermissions();
+        authorizationService.addPermissions(permissions);
+        verify(permissionStore).add(permissions);
+        assertEquals(0, compiledPermissionSetCache.getSize());
+    }
+
+    @Test
+    public void testUpdatePermissionsClearsCompiledPermissionSets() throws Exception {
+        final IPermission[] permissions = newPermissions();
+        authorizationService.updatePermissions(permissions);
+        verify(permissionStore).update(permissions);
+        assertEquals(0, compiledPermissionSetCache.getSize());
+    }
+
+    @Test
+    public void testRemovePermissionsClearsCompiledPermissionSets() throws Exception {
+        final IPermission[] permissions = newPermissions();
+        authorizationService.removePermissions(permissions);
+        verify(permissionStore).delete(permissions);
+        assertEquals(0, compiledPermissionSetCache.getSize());
+    }
+
+    @Test
+    public void testNoPermissionsKeepCompiledPermissionSets() throws Exception {
+        authorizationService.addPermissions(new IPermission[0]);
+        authorizationService.updatePermissions(new IPermission[0]);
+        authorizationService.removePermissions(new IPermission[0]);
+        assertEquals(1, compiledPermissionSetCache.getSize());
+    }
+
+    @Test
+    public void testNoCompiledPermissionSetsWithoutCaching() throws Exception {
+        authorizationService.setCachePermissions(false);
+        final IAuthorizationPrincipal principal =
+                authorizationService.newPrincipal("Staff", IEntityGroup.class);
+        assertNull(authorizationService.getCompiledPermissionSet(principal));
+    }
+
+    private static IPermission[] newPermissions() {
+        final PermissionImpl permission = new PermissionImpl("UP_TEST");
+        permission.setPrincipal(GROUP_TYPE_ID + ".Staff");
+        permission.setActivity("TEST_ACTIVITY");
+        permission.setTarget("target");
+        permission.setType(IPermission.PERMISSION_TYPE_GRANT);
+        return new IPermission[] {permission};
+    }
+}
@@ -0,0 +1,430 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.permission.IPermissionActivity;
+import org.apereo.portal.permission.IPermissionOwner;
+import org.apereo.portal.permission.target.IPermissionTarget;
+import org.apereo.portal.permission.target.IPermissionTarget.TargetType;
+import org.apereo.portal.permission.target.PermissionTargetImpl;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.apereo.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Checks that a {@link CompiledPermissionSet} gives the same answers as {@link
+ * AnyUnblockedGrantPermissionPolicy} walking the groups tree.
+ */
+public class CompiledPermissionSetTest {
+    private static final String OWNER = "UP_TEST";
+    private static final String ACTIVITY = "TEST_ACTIVITY";
+    private static final String TARGET = "target";
+    private static final String USER = "user";
+
+    /** Keys of the parent groups of each group member */
+    private final Map<String, List<String>> parents = new HashMap<>();
+    /** Permissions of each principal */
+    private final Map<String, List<IPermission>> permissions = new HashMap<>();
+    /** Keys of the groups containing TARGET */
+    private final Set<String> containingGroups = new LinkedHashSet<>();
+
+    private final Map<String, IEntityGroup> groupMembers = new HashMap<>();
+    private final IPermissionOwner owner = mock(IPermissionOwner.class);
+    private final IPermissionActivity activity = mock(IPermissionActivity.class);
+    private final IPermissionTarget target =
+            new PermissionTargetImpl(TARGET, TARGET, TargetType.PORTLET);
+    private IAuthorizationService service;
+    private CacheManager cacheManager;
+    private Cache hasUnblockedGrantCache;
+    private AnyUnblockedGrantPermissionPolicy policy;
+
+    @Before
+    public void setUp() throws Exception {
+        when(owner.getFname()).thenReturn(OWNER);
+        when(activity.getFname()).thenReturn(ACTIVITY);
+
+        service = mock(IAuthorizationService.class);
+        when(service.getPrincipalString(any(IAuthorizationPrincipal.class)))
+                .thenAnswer(
+                        new Answer<String>() {
+                            @Override
+                            public String answer(InvocationOnMock invocation) {
+                                final IAuthorizationPrincipal principal = invocation.getArgument(0);
+                                return principal.getType().getSimpleName()
+                                        + "."
+                                        + principal.getKey();
+                            }
+                        });
+        when(service.getGroupMember(any(IAuthorizationPrincipal.class)))
+                .thenAnswer(
+                        new Answer<IGroupMember>() {
+                            @Override
+                            public IGroupMember answer(InvocationOnMock invocation) {
+                                final IAuthorizationPrincipal principal = invocation.getArgument(0);
+                                return getGroupMember(principal.getKey());
+                            }
+                        });
+        when(service.newPrincipal(any(IGroupMember.class)))
+                .thenAnswer(
+                        new Answer<IAuthorizationPrincipal>() {
+                            @Override
+                            public IAuthorizationPrincipal answer(InvocationOnMock invocation) {
+                                final IGroupMember member = invocation.getArgument(0);
+                                return new AuthorizationPrincipalImpl(
+                                        member.getKey(), IEntityGroup.class, service);
+                            }
+                        });
+        // Filters permissions like AuthorizationImpl, which leaves inactive ones to the policy
+        when(service.getPermissionsForPrincipal(
+                        any(IAuthorizationPrincipal.class),
+                        nullable(String.class),
+                        nullable(String.class),
+                        nullable(String.class)))
+                .thenAnswer(
+                        new Answer<IPermission[]>() {
+                            @Override
+                            public IPermission[] answer(InvocationOnMock invocation) {
+                                final IAuthorizationPrincipal principal = invocation.getArgument(0);
+                                final String ownerFname = invocation.getArgument(1);
+                                final String activityFname = invocation.getArgument(2);
+                                final String targetKey = invocation.getArgument(3);
+                                final List<IPermission> rslt = new ArrayList<>();
+                                final List<IPermission> list = permissions.get(principal.getKey());
+                                for (IPermission p :
+                                        list != null
+                                                ? list
+                                                : Collections.<IPermission>emptyList()) {
+                                    if ((ownerFname == null || ownerFname.equals(p.getOwner()))
+                                            && (activityFname == null
+                                                    || activityFname.equals(p.getActivity()))
+                                            && (targetKey == null
+                                                    || targetKey.equals(p.getTarget())
+                                                    || containingGroups.contains(p.getTarget()))) {
+                                        rslt.add(p);
+                                    }
+                                }
+                                return rslt.toArray(new IPermission[rslt.size()]);
+                            }
+                        });
+
+        final Configuration configuration = new Configuration();
+        configuration.setName(CompiledPermissionSetTest.class.getName());
+        configuration.setUpdateCheck(false);
+        configuration.addDefaultCache(new CacheConfiguration("default", 0));
+        cacheManager = new CacheManager(configuration);
+        cacheManager.addCache("hasUnblockedGrantCache");
+        hasUnblockedGrantCache = cacheManager.getCache("hasUnblockedGrantCache");
+
+        policy = new AnyUnblockedGrantPermissionPolicy();
+        ReflectionTestUtils.setField(policy, "hasUnblockedGrantCache", hasUnblockedGrantCache);
+    }
+
+    @After
+    public void tearDown() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testNoPermissions() throws Exception {
+        addParents(USER, "Staff");
+        addParents("Staff", "Everyone");
+        assertHasUnblockedPathToGrant(false);
+    }
+
+    @Test
+    public void testGrantOnAncestor() throws Exception {
+        addParents(USER, "Staff");
+        addParents("Staff", "Everyone");
+        addPermission("Everyone", TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        assertHasUnblockedPathToGrant(true);
+    }
+
+    @Test
+    public void testDenyBlocksItsPathOnly() throws Exception {
+        addParents(USER, "Staff", "Students");
+        addParents("Staff", "Everyone");
+        addParents("Students", "Everyone");
+        addPermission("Everyone", TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        addPermission("Staff", TARGET, IPermission.PERMISSION_TYPE_DENY);
+        // Everyone can still be reached through Students
+        assertHasUnblockedPathToGrant(true);
+
+        addPermission("Students", TARGET, IPermission.PERMISSION_TYPE_DENY);
+        assertHasUnblockedPathToGrant(false);
+    }
+
+    @Test
+    public void testDenyTrumpsGrantOnTheSamePrincipal() throws Exception {
+        addParents(USER, "Staff");
+        addPermission("Staff", TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        addPermission("Staff", TARGET, IPermission.PERMISSION_TYPE_DENY);
+        assertHasUnblockedPathToGrant(false);
+
+        addPermission(USER, TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        assertHasUnblockedPathToGrant(true);
+    }
+
+    @Test
+    public void testGrantOnAnotherPath() throws Exception {
+        addParents(USER, "Staff", "Admins");
+        addParents("Staff", "Everyone");
+        addPermission("Everyone", TARGET, IPermission.PERMISSION_TYPE_DENY);
+        addPermission("Admins", TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        assertHasUnblockedPathToGrant(true);
+    }
+
+    @Test
+    public void testCycles() throws Exception {
+        addParents(USER, "A");
+        addParents("A", "B");
+        addParents("B", "C", "A");
+        addParents("C", "A");
+        assertHasUnblockedPathToGrant(false);
+
+        addPermission("C", TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        assertHasUnblockedPathToGrant(true);
+
+        addPermission("B", TARGET, IPermission.PERMISSION_TYPE_DENY);
+        assertHasUnblockedPathToGrant(false);
+    }
+
+    @Test
+    public void testInactivePermissionsAreIgnored() throws Exception {
+        final long now = System.currentTimeMillis();
+        final Date past = new Date(now - TimeUnit.DAYS.toMillis(1));
+        final Date future = new Date(now + TimeUnit.DAYS.toMillis(1));
+        addParents(USER, "Staff");
+        addParents("Staff", "Everyone");
+        addPermission("Everyone", TARGET, IPermission.PERMISSION_TYPE_GRANT, null, past);
+        addPermission("Everyone", TARGET, IPermission.PERMISSION_TYPE_GRANT, future, null);
+        assertHasUnblockedPathToGrant(false);
+
+        addPermission("Everyone", TARGET, IPermission.PERMISSION_TYPE_GRANT, past, future);
+        assertHasUnblockedPathToGrant(true);
+
+        // Neither an expired nor a future DENY blocks the path
+        addPermission("Staff", TARGET, IPermission.PERMISSION_TYPE_DENY, null, past);
+        addPermission("Staff", TARGET, IPermission.PERMISSION_TYPE_DENY, future, null);
+        assertHasUnblockedPathToGrant(true);
+
+        addPermission("Staff", TARGET, IPermission.PERMISSION_TYPE_DENY, past, null);
+        assertHasUnblockedPathToGrant(false);
+    }
+
+    @Test
+    public void testPermissionsOnGroupsContainingTheTarget() throws Exception {
+        containingGroups.add("Portlets");
+        containingGroups.add("Applications");
+        addParents(USER, "Staff", "Students");
+        addPermission("Staff", "Portlets", IPermission.PERMISSION_TYPE_GRANT);
+        addPermission("Students", "Unrelated", IPermission.PERMISSION_TYPE_GRANT);
+        assertHasUnblockedPathToGrant(true);
+
+        addPermission("Staff", "Applications", IPermission.PERMISSION_TYPE_DENY);
+        assertHasUnblockedPathToGrant(false);
+    }
+
+    @Test
+    public void testOtherOwnersAndActivitiesAreIgnored() throws Exception {
+        addParents(USER, "Staff");
+        final PermissionImpl otherOwner = new PermissionImpl("UP_OTHER");
+        otherOwner.setActivity(ACTIVITY);
+        otherOwner.setTarget(TARGET);
+        otherOwner.setType(IPermission.PERMISSION_TYPE_GRANT);
+        addPermission("Staff", otherOwner);
+        final PermissionImpl otherActivity = new PermissionImpl(OWNER);
+        otherActivity.setActivity("OTHER_ACTIVITY");
+        otherActivity.setTarget(TARGET);
+        otherActivity.setType(IPermission.PERMISSION_TYPE_GRANT);
+        addPermission("Staff", otherActivity);
+        assertHasUnblockedPathToGrant(false);
+    }
+
+    @Test
+    public void testRandomGroupsTrees() throws Exception {
+        final Random random = new Random(42);
+        final String[] targets = {TARGET, "Portlets", "Applications", "Unrelated"};
+        final long now = System.currentTimeMillis();
+        final Date past = new Date(now - TimeUnit.DAYS.toMillis(1));
+        final Date future = new Date(now + TimeUnit.DAYS.toMillis(1));
+        int granted = 0;
+        for (int i = 0; i < 1000; i++) {
+            parents.clear();
+            permissions.clear();
+            containingGroups.clear();
+            groupMembers.clear();
+
+            // Any group may be a parent of any other, cycles included
+            final int size = 2 + random.nextInt(10);
+            for (int child = 0; child < size; child++) {
+                for (int parent = 1; parent < size; parent++) {
+                    if (parent != child && random.nextInt(4) == 0) {
+                        addParents(child == 0 ? USER : "G" + child, "G" + parent);
+                    }
+                }
+                for (String t : targets) {
+                    final int r = random.nextInt(12);
+                    final String type =
+                            r % 2 == 0
+                                    ? IPermission.PERMISSION_TYPE_GRANT
+                                    : IPermission.PERMISSION_TYPE_DENY;
+                    if (r < 2) {
+                        addPermission(child == 0 ? USER : "G" + child, t, type);
+                    } else if (r < 4) {
+                        addPermission(
+                                child == 0 ? USER : "G" + child,
+                                t,
+                                type,
+                                r == 2 ? future : null,
+                                r == 3 ? past : null);
+                    }
+                }
+            }
+            for (int j = 1; j < targets.length; j++) {
+                if (random.nextBoolean()) {
+                    containingGroups.add(targets[j]);
+                }
+            }
+
+            if (assertHasUnblockedPathToGrant()) {
+                granted++;
+            }
+        }
+        // Both answers are well represented
+        assertTrue(granted > 100 && granted < 900);
+    }
+
+    private IEntityGroup getGroupMember(final String key) {
+        IEntityGroup rslt = groupMembers.get(key);
+        if (rslt == null) {
+            rslt = mock(IEntityGroup.class);
+            when(rslt.getKey()).thenReturn(key);
+            when(rslt.getParentGroups())
+                    .thenAnswer(
+                            new Answer<Set<IEntityGroup>>() {
+                                @Override
+                                public Set<IEntityGroup> answer(InvocationOnMock invocation) {
+                                    final Set<IEntityGroup> groups = new LinkedHashSet<>();
+                                    final List<String> keys = parents.get(key);
+                                    if (keys != null) {
+                                        for (String k : keys) {
+                                            groups.add(getGroupMember(k));
+                                        }
+                                    }
+                                    return groups;
+                                }
+                            });
+            groupMembers.put(key, rslt);
+        }
+        return rslt;
+    }
+
+    private void addParents(String key, String... parentKeys) {
+        List<String> list = parents.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            parents.put(key, list);
+        }
+        Collections.addAll(list, parentKeys);
+    }
+
+    private void addPermission(String principal, String target, String type) {
+        addPermission(principal, target, type, null, null);
+    }
+
+    private void addPermission(
+            String principal, String target, String type, Date effective, Date expires) {
+        final PermissionImpl permission = new PermissionImpl(OWNER);
+        permission.setActivity(ACTIVITY);
+        permission.setTarget(target);
+        permission.setType(type);
+        permission.setEffective(effective);
+        permission.setExpires(expires);
+        addPermission(principal, permission);
+    }
+
+    private void addPermission(String principal, IPermission permission) {
+        List<IPermission> list = permissions.get(principal);
+        if (list == null) {
+            list = new ArrayList<>();
+            permissions.put(principal, list);
+        }
+        list.add(permission);
+    }
+
+    private void assertHasUnblockedPathToGrant(boolean expected) throws Exception {
+        assertEquals(expected, assertHasUnblockedPathToGrant());
+    }
+
+    /** Asserts that the tree walk and the compiled permissions agree, and returns their answer. */
+    private boolean assertHasUnblockedPathToGrant() throws Exception {
+        final IAuthorizationPrincipal principal =
+                new AuthorizationPrincipalImpl(USER, IPerson.class, service);
+
+        // The cached answers are only valid for the current groups and permissions
+        hasUnblockedGrantCache.removeAll();
+        final Boolean walked =
+                ReflectionTestUtils.invokeMethod(
+                        policy,
+                        "hasUnblockedPathToGrantWithCache",
+                        service,
+                        principal,
+                        owner,
+                        activity,
+                        target,
+                        new HashSet<IGroupMember>());
+
+        final List<String> targets = new ArrayList<>();
+        targets.add(TARGET);
+        targets.addAll(containingGroups);
+        final boolean compiled =
+                CompiledPermissionSet.compile(service, principal)
+                        .hasUnblockedPathToGrant(OWNER, ACTIVITY, targets);
+
+        assertEquals(parents + " " + permissions, walked, compiled);
+        return compiled;
+    }
+}
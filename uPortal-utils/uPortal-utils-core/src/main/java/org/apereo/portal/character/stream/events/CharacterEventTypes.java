@@ -38,5 +38,7 @@ public enum CharacterEventTypes {
     /** @see PortletAnalyticsDataPlaceholderEvent */
     PORTLET_ANALYTICS_DATA,
     /** @see PageAnalyticsDataPlaceholderEvent */
-    PAGE_ANALYTICS_DATA;
+    PAGE_ANALYTICS_DATA,
+    /** @see ChunkPointPlaceholderEvent */
+    CHUNK_POINT;
 }
@@ -46,6 +46,7 @@ public class CacheManagementHelper {
     protected final Log logger = LogFactory.getLog(this.getClass());
 
     private CacheManager cacheManager;
+    private CacheUsageAnalyzer cacheUsageAnalyzer;
 
     /** @param cacheManager the cacheManager to set */
     @Autowired
@@ -53,6 +54,27 @@ public class CacheManagementHelper {
         this.cacheManager = cacheManager;
     }
 
+    @Autowired(required = false)
+    public void setCacheUsageAnalyzer(CacheUsageAnalyzer cacheUsageAnalyzer) {
+        this.cacheUsageAnalyzer = cacheUsageAnalyzer;
+    }
+
+    /**
+     * @return Sampled usage and recommended size of the cache region, null if no {@link
+     *     CacheUsageAnalyzer} is configured or the region has not been sampled enough yet
+     */
+    public CacheRegionUsage getCacheRegionUsage(String cacheName) {
+        if (this.cacheUsageAnalyzer == null) {
+            return null;
+        }
+        for (final CacheRegionUsage usage : this.cacheUsageAnalyzer.getCacheRegionUsage()) {
+            if (usage.getCacheName().equals(cacheName)) {
+                return usage;
+            }
+        }
+        return null;
+    }
+
     public Map<String, CacheStatistics> getAllCacheStatistics() {
         final Map<String, CacheStatistics> allCacheStatistics =
                 new TreeMap<>(CaseInsenstivieStringComparator.INSTANCE);
@@ -0,0 +1,131 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.cache;
+
+import java.beans.ConstructorProperties;
+
+/** Usage of a cache region over the sampling window of the {@link CacheUsageAnalyzer} */
+public final class CacheRegionUsage {
+    private final String cacheName;
+    private final long sampleWindowMillis;
+    private final long maxElementsInMemory;
+    private final long size;
+    private final long peakSize;
+    private final double hitRatio;
+    private final double evictionsPerMinute;
+    private final long estimatedEntryBytes;
+    private final long workingSetSize;
+    private final long recommendedMaxElementsInMemory;
+
+    @ConstructorProperties({
+        "cacheName",
+        "sampleWindowMillis",
+        "maxElementsInMemory",
+        "size",
+        "peakSize",
+        "hitRatio",
+        "evictionsPerMinute",
+        "estimatedEntryBytes",
+        "workingSetSize",
+        "recommendedMaxElementsInMemory"
+    })
+    public CacheRegionUsage(
+            String cacheName,
+            long sampleWindowMillis,
+            long maxElementsInMemory,
+            long size,
+            long peakSize,
+            double hitRatio,
+            double evictionsPerMinute,
+            long estimatedEntryBytes,
+            long workingSetSize,
+            long recommendedMaxElementsInMemory) {
+        this.cacheName = cacheName;
+        this.sampleWindowMillis = sampleWindowMillis;
+        this.maxElementsInMemory = maxElementsInMemory;
+        this.size = size;
+        this.peakSize = peakSize;
+        this.hitRatio = hitRatio;
+        this.evictionsPerMinute = evictionsPerMinute;
+        this.estimatedEntryBytes = estimatedEntryBytes;
+        this.workingSetSize = workingSetSize;
+        this.recommendedMaxElementsInMemory = recommendedMaxElementsInMemory;
+    }
+
+    public String getCacheName() {
+        return this.cacheName;
+    }
+
+    /** @return Time covered by the samples the usage is based on */
+    public long getSampleWindowMillis() {
+        return this.sampleWindowMillis;
+    }
+
+    /** @return The configured maximum number of elements in memory, 0 means unbounded */
+    public long getMaxElementsInMemory() {
+        return this.maxElementsInMemory;
+    }
+
+    /** @return Number of elements in the region at the last sample */
+    public long getSize() {
+        return this.size;
+    }
+
+    /** @return Largest number of elements in the region seen over the window */
+    public long getPeakSize() {
+        return this.peakSize;
+    }
+
+    /** @return Ratio of hits to requests over the window, 0 if there were no requests */
+    public double getHitRatio() {
+        return this.hitRatio;
+    }
+
+    /** @return Elements evicted per minute over the window */
+    public double getEvictionsPerMinute() {
+        return this.evictionsPerMinute;
+    }
+
+    /** @return Estimated heap bytes per element (key and value), -1 if not yet estimated */
+    public long getEstimatedEntryBytes() {
+        return this.estimatedEntryBytes;
+    }
+
+    /**
+     * @return Estimated number of elements in active use, the peak size plus the evicted elements
+     *     that were requested again
+     */
+    public long getWorkingSetSize() {
+        return this.workingSetSize;
+    }
+
+    /** @return The recommended maximum number of elements in memory */
+    public long getRecommendedMaxElementsInMemory() {
+        return this.recommendedMaxElementsInMemory;
+    }
+
+    /** @return Estimated heap bytes of the region at the recommended size, -1 if unknown */
+    public long getEstimatedRecommendedBytes() {
+        if (this.estimatedEntryBytes < 0) {
+            return -1;
+        }
+        return this.estimatedEntryBytes * this.recommendedMaxElementsInMemory;
+    }
+
+    /** @return true if the recommended size differs from the configured size */
+    public boolean isResizeRecommended() {
+        return this.recommendedMaxElementsInMemory != this.maxElementsInMemory;
+    }
+}
@@ -0,0 +1,522 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.cache;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Statistics;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.pool.sizeof.ReflectionSizeOf;
+import net.sf.ehcache.pool.sizeof.SizeOf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+/**
+ * Periodically samples the statistics of every region of the {@link CacheManager} and keeps a
+ * sliding window of samples per region. From the window it derives the hit ratio, eviction rate,
+ * peak and working-set size of each region along with an estimated per-element heap size, and
+ * recommends a maximum number of elements in memory:
+ *
+ * <ul>
+ *   <li>A region that evicted elements is sized to its working set plus headroom, growing by at
+ *       most {@link #setMaxGrowthFactor(double)} at a time. It is never grown past {@link
+ *       #setMaxSize(long)} elements or past {@link #setMaxRegionBytes(long)} of estimated heap.
+ *   <li>A region that never came close to its maximum is shrunk to its peak size plus headroom, but
+ *       not below {@link #setMinimumSize(int)}.
+ *   <li>Unbounded regions and regions sized in bytes are left as they are.
+ * </ul>
+ *
+ * The recommendations can be exported as CSV and applied to the live {@link CacheManager}, either
+ * on demand or automatically each time a region has a full window of samples. Statistics must be
+ * enabled on a region for it to be analyzed.
+ */
+@ManagedResource("uPortal:section=Cache,name=CacheUsageAnalyzer")
+@Service("cacheUsageAnalyzer")
+public class CacheUsageAnalyzer implements CacheUsageAnalyzerMXBean {
+    private static final String CSV_HEADER =
+            "cacheName,sampleWindowMillis,maxElementsInMemory,size,peakSize,hitRatio,"
+                    + "evictionsPerMinute,estimatedEntryBytes,workingSetSize,"
+                    + "recommendedMaxElementsInMemory,estimatedRecommendedBytes";
+
+    // Same default depth limit as Ehcache's own sizing
+    private static final int MAX_SIZE_OF_DEPTH = 1000;
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentMap<String, RegionHistory> regionHistories =
+            new ConcurrentHashMap<String, RegionHistory>();
+    private final ReentrantLock sampleLock = new ReentrantLock();
+    private final SizeOf sizeOf = new ReflectionSizeOf();
+    private volatile boolean reflectionSizeOf = true;
+
+    private CacheManager cacheManager;
+
+    private int maxSamples = 60;
+    private int entrySizeSampleCount = 10;
+    private long entrySizeRefreshMillis = TimeUnit.HOURS.toMillis(1);
+    private double headroom = 1.25;
+    private double maxGrowthFactor = 4;
+    private int minimumSize = 100;
+    private long maxSize = 100000;
+    private long maxRegionBytes = 64 * 1024 * 1024;
+    private volatile boolean autoApply = false;
+
+    @Autowired
+    public void setCacheManager(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    /** @param maxSamples Number of samples in the sliding window of each region, defaults to 60 */
+    @Value("${org.apereo.portal.utils.cache.CacheUsageAnalyzer.maxSamples:60}")
+    public void setMaxSamples(int maxSamples) {
+        if (maxSamples < 2) {
+            throw new IllegalArgumentException("maxSamples must be at least 2");
+        }
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * @param entrySizeSampleCount Number of elements of a region measured to estimate the size of
+     *     its elements, defaults to 10. 0 disables size estimation.
+     */
+    @Value("${org.apereo.portal.utils.cache.CacheUsageAnalyzer.entrySizeSampleCount:10}")
+    public void setEntrySizeSampleCount(int entrySizeSampleCount) {
+        this.entrySizeSampleCount = entrySizeSampleCount;
+    }
+
+    /** @param entrySizeRefreshMillis How often element sizes are re-estimated, defaults to 1h */
+    @Value("${org.apereo.portal.utils.cache.CacheUsageAnalyzer.entrySizeRefreshMillis:3600000}")
+    public void setEntrySizeRefreshMillis(long entrySizeRefreshMillis) {
+        this.entrySizeRefreshMillis = entrySizeRefreshMillis;
+    }
+
+    /** @param headroom Factor applied to the working set or peak size, defaults to 1.25 */
+    @Value("${org.apereo.portal.utils.cache.CacheUsageAnalyzer.headroom:1.25}")
+    public void setHeadroom(double headroom) {
+        this.headroom = headroom;
+    }
+
+    /** @param maxGrowthFactor Largest factor a region is grown by at once, defaults to 4 */
+    @Value("${org.apereo.portal.utils.cache.CacheUsageAnalyzer.maxGrowthFactor:4}")
+    public void setMaxGrowthFactor(double maxGrowthFactor) {
+        this.maxGrowthFactor = maxGrowthFactor;
+    }
+
+    /** @param minimumSize Smallest size recommended when shrinking a region, defaults to 100 */
+    @Value("${org.apereo.portal.utils.cache.CacheUsageAnalyzer.minimumSize:100}")
+    public void setMinimumSize(int minimumSize) {
+        this.minimumSize = minimumSize;
+    }
+
+    /**
+     * @param maxSize Largest size recommended when growing a region, defaults to 100000. Regions
+     *     configured larger are not grown.
+     */
+    @Value("${org.apereo.portal.utils.cache.CacheUsageAnalyzer.maxSize:100000}")
+    public void setMaxSize(long maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param maxRegionBytes Largest estimated heap size of a region grown to, defaults to 64MB. 0
+     *     grows regions regardless of the size of their elements.
+     */
+    @Value("${org.apereo.portal.utils.cache.CacheUsageAnalyzer.maxRegionBytes:67108864}")
+    public void setMaxRegionBytes(long maxRegionBytes) {
+        if (maxRegionBytes < 0) {
+            throw new IllegalArgumentException("maxRegionBytes must not be negative");
+        }
+        this.maxRegionBytes = maxRegionBytes;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.utils.cache.CacheUsageAnalyzer.autoApply:false}")
+    public void setAutoApply(boolean autoApply) {
+        this.autoApply = autoApply;
+    }
+
+    @Override
+    public boolean isAutoApply() {
+        return this.autoApply;
+    }
+
+    @Override
+    public void sample() {
+        if (!this.sampleLock.tryLock()) {
+            // Sampling is already in progress
+            return;
+        }
+        try {
+            final long now = System.currentTimeMillis();
+            for (final String cacheName : this.cacheManager.getCacheNames()) {
+                final Cache cache = this.cacheManager.getCache(cacheName);
+                if (cache == null || !Status.STATUS_ALIVE.equals(cache.getStatus())) {
+                    this.regionHistories.remove(cacheName);
+                    continue;
+                }
+
+                RegionHistory history = this.regionHistories.get(cacheName);
+                if (history == null) {
+                    history = new RegionHistory();
+                    this.regionHistories.put(cacheName, history);
+                }
+
+                history.addSample(new Sample(now, cache), this.maxSamples);
+
+                if (this.entrySizeSampleCount > 0
+                        && now - history.entrySizeTime >= this.entrySizeRefreshMillis) {
+                    // Empty regions are measured again on the next sample
+                    final long entryBytes = this.estimateEntryBytes(cache);
+                    if (entryBytes >= 0) {
+                        history.entrySizeTime = now;
+                        history.entryBytes = entryBytes;
+                    }
+                }
+
+                if (this.autoApply && history.getSampleCount() >= this.maxSamples) {
+                    this.applyRecommendedSize(cache, this.getUsage(cacheName, history));
+                }
+            }
+        } finally {
+            this.sampleLock.unlock();
+        }
+    }
+
+    @Override
+    public List<CacheRegionUsage> getCacheRegionUsage() {
+        final List<CacheRegionUsage> usage = new ArrayList<CacheRegionUsage>();
+        for (final String cacheName : this.getSortedCacheNames()) {
+            final RegionHistory history = this.regionHistories.get(cacheName);
+            if (history != null && history.getSampleCount() >= 2) {
+                usage.add(this.getUsage(cacheName, history));
+            }
+        }
+        return usage;
+    }
+
+    @Override
+    public String exportReport() {
+        final StringBuilder report = new StringBuilder(CSV_HEADER).append('\n');
+        for (final CacheRegionUsage usage : this.getCacheRegionUsage()) {
+            report.append(usage.getCacheName())
+                    .append(',')
+                    .append(usage.getSampleWindowMillis())
+                    .append(',')
+                    .append(usage.getMaxElementsInMemory())
+                    .append(',')
+                    .append(usage.getSize())
+                    .append(',')
+                    .append(usage.getPeakSize())
+                    .append(',')
+                    .append(String.format(Locale.ROOT, "%.4f", usage.getHitRatio()))
+                    .append(',')
+                    .append(String.format(Locale.ROOT, "%.2f", usage.getEvictionsPerMinute()))
+                    .append(',')
+                    .append(usage.getEstimatedEntryBytes())
+                    .append(',')
+                    .append(usage.getWorkingSetSize())
+                    .append(',')
+                    .append(usage.getRecommendedMaxElementsInMemory())
+                    .append(',')
+                    .append(usage.getEstimatedRecommendedBytes())
+                    .append('\n');
+        }
+        return report.toString();
+    }
+
+    @Override
+    public int applyRecommendedSizes() {
+        int resized = 0;
+        for (final CacheRegionUsage usage : this.getCacheRegionUsage()) {
+            final Cache cache = this.cacheManager.getCache(usage.getCacheName());
+            if (cache != null && this.applyRecommendedSize(cache, usage)) {
+                resized++;
+            }
+        }
+        return resized;
+    }
+
+    @Override
+    public void reset() {
+        this.regionHistories.clear();
+    }
+
+    /**
+     * Recommend the maximum number of elements in memory for a region
+     *
+     * @param maxElementsInMemory The configured maximum, 0 for unbounded
+     * @param peakSize The largest size seen
+     * @param workingSetSize The estimated working set size
+     * @param evictions Elements evicted over the window
+     * @param entryBytes The estimated heap size of an element, -1 if unknown
+     */
+    long recommendSize(
+            long maxElementsInMemory,
+            long peakSize,
+            long workingSetSize,
+            long evictions,
+            long entryBytes) {
+        if (maxElementsInMemory <= 0) {
+            return maxElementsInMemory;
+        }
+
+        if (evictions > 0) {
+            final long recommended = (long) Math.ceil(workingSetSize * this.headroom);
+            long maxGrowth = (long) Math.ceil(maxElementsInMemory * this.maxGrowthFactor);
+            maxGrowth = Math.min(maxGrowth, this.maxSize);
+            if (this.maxRegionBytes > 0 && entryBytes > 0) {
+                maxGrowth = Math.min(maxGrowth, this.maxRegionBytes / entryBytes);
+            }
+            return Math.max(maxElementsInMemory, Math.min(recommended, maxGrowth));
+        }
+
+        // Only shrink regions that use less than half of their space
+        final long recommended = (long) Math.ceil(peakSize * this.headroom);
+        if (recommended * 2 < maxElementsInMemory) {
+            return Math.min(maxElementsInMemory, Math.max(this.minimumSize, recommended));
+        }
+
+        return maxElementsInMemory;
+    }
+
+    private CacheRegionUsage getUsage(String cacheName, RegionHistory history) {
+        final Sample first;
+        final Sample last;
+        final long peakSize;
+        synchronized (history) {
+            first = history.samples.getFirst();
+            last = history.samples.getLast();
+            peakSize = history.getPeakSize();
+        }
+
+        final long hits = last.hits - first.hits;
+        final long misses = last.misses - first.misses;
+        final long evictions = last.evictions - first.evictions;
+        final long windowMillis = last.time - first.time;
+
+        final double hitRatio = hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        final double evictionsPerMinute =
+                windowMillis == 0
+                        ? 0
+                        : evictions * (double) TimeUnit.MINUTES.toMillis(1) / windowMillis;
+
+        // Each eviction that was followed by a miss is an element that belonged in the cache
+        final long workingSetSize = peakSize + Math.min(evictions, misses);
+
+        return new CacheRegionUsage(
+                cacheName,
+                windowMillis,
+                last.maxElementsInMemory,
+                last.size,
+                peakSize,
+                hitRatio,
+                evictionsPerMinute,
+                history.entryBytes,
+                workingSetSize,
+                this.recommendSize(
+                        last.maxElementsInMemory,
+                        peakSize,
+                        workingSetSize,
+                        evictions,
+                        history.entryBytes));
+    }
+
+    private boolean applyRecommendedSize(Cache cache, CacheRegionUsage usage) {
+        final CacheConfiguration cacheConfiguration = cache.getCacheConfiguration();
+        if (!usage.isResizeRecommended() || !cacheConfiguration.isCountBasedTuned()) {
+            return false;
+        }
+
+        logger.info(
+                "Resizing cache {} from {} to {} elements, hit ratio {}, working set {}",
+                usage.getCacheName(),
+                usage.getMaxElementsInMemory(),
+                usage.getRecommendedMaxElementsInMemory(),
+                usage.getHitRatio(),
+                usage.getWorkingSetSize());
+        cacheConfiguration.setMaxEntriesLocalHeap(usage.getRecommendedMaxElementsInMemory());
+
+        // Start a new window for the new size
+        this.regionHistories.remove(usage.getCacheName());
+        return true;
+    }
+
+    /** @return The median size of a sample of elements, -1 if none could be measured */
+    private long estimateEntryBytes(Cache cache) {
+        final List<?> keys;
+        try {
+            keys = cache.getKeysNoDuplicateCheck();
+        } catch (RuntimeException e) {
+            logger.debug("Failed to list keys of cache {}", cache.getName(), e);
+            return -1;
+        }
+        if (keys.isEmpty()) {
+            return -1;
+        }
+
+        final int count = Math.min(this.entrySizeSampleCount, keys.size());
+        final long[] sizes = new long[count];
+        int measured = 0;
+        final int step = keys.size() / count;
+        for (int i = 0; i < count; i++) {
+            final Element element = cache.getQuiet(keys.get(i * step));
+            if (element == null) {
+                continue;
+            }
+            final long size = this.sizeOf(element.getObjectKey(), element.getObjectValue());
+            if (size >= 0) {
+                sizes[measured++] = size;
+            }
+        }
+
+        if (measured == 0) {
+            return -1;
+        }
+        final long[] measuredSizes = Arrays.copyOf(sizes, measured);
+        Arrays.sort(measuredSizes);
+        return measuredSizes[measured / 2];
+    }
+
+    /**
+     * @return The deep heap size of the key and value, their serialized size if the object graph
+     *     can't be walked (e.g. JVM internals that are not open to reflection) or -1 if neither
+     *     works
+     */
+    private long sizeOf(Object key, Object value) {
+        if (this.reflectionSizeOf) {
+            try {
+                return this.sizeOf.deepSizeOf(MAX_SIZE_OF_DEPTH, false, key, value).getCalculated();
+            } catch (RuntimeException e) {
+                logger.info(
+                        "Walking cached objects failed ({}), estimating element sizes from their serialized size instead",
+                        e.toString());
+                this.reflectionSizeOf = false;
+            }
+        }
+
+        final CountingOutputStream out = new CountingOutputStream();
+        try {
+            final ObjectOutputStream objectOut = new ObjectOutputStream(out);
+            objectOut.writeObject(key);
+            objectOut.writeObject(value);
+            objectOut.close();
+            return out.count;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Failed to serialize element {} to estimate its size", key, e);
+            return -1;
+        }
+    }
+
+    private List<String> getSortedCacheNames() {
+        final List<String> cacheNames = new ArrayList<String>(this.regionHistories.keySet());
+        cacheNames.sort(String.CASE_INSENSITIVE_ORDER);
+        return cacheNames;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.count += len;
+        }
+    }
+
+    /** Sliding window of samples for a region */
+    private static final class RegionHistory {
+        private final Deque<Sample> samples = new ArrayDeque<Sample>();
+        private volatile long entryBytes = -1;
+        private long entrySizeTime = 0;
+
+        synchronized void addSample(Sample sample, int maxSamples) {
+            final Sample last = this.samples.peekLast();
+            if (last != null && sample.isResetSince(last)) {
+                // Statistics were cleared, the old samples can't be compared with the new one
+                this.samples.clear();
+            }
+
+            this.samples.addLast(sample);
+            while (this.samples.size() > maxSamples) {
+                this.samples.removeFirst();
+            }
+        }
+
+        synchronized int getSampleCount() {
+            return this.samples.size();
+        }
+
+        synchronized long getPeakSize() {
+            long peakSize = 0;
+            for (final Sample sample : this.samples) {
+                peakSize = Math.max(peakSize, sample.size);
+            }
+            return peakSize;
+        }
+    }
+
+    /** Statistics of a region at a point in time */
+    private static final class Sample {
+        private final long time;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long size;
+        private final long maxElementsInMemory;
+
+        Sample(long time, Cache cache) {
+            final Statistics statistics = cache.getStatistics();
+            this.time = time;
+            this.hits = statistics.getCacheHits();
+            this.misses = statistics.getCacheMisses();
+            this.evictions = statistics.getEvictionCount();
+            this.size = statistics.getObjectCount();
+            this.maxElementsInMemory = cache.getCacheConfiguration().getMaxEntriesLocalHeap();
+        }
+
+        boolean isResetSince(Sample previous) {
+            return this.hits < previous.hits
+                    || this.misses < previous.misses
+                    || this.evictions < previous.evictions
+                    || this.maxElementsInMemory != previous.maxElementsInMemory;
+        }
+    }
+}
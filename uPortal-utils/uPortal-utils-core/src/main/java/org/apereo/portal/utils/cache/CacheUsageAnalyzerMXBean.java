@@ -0,0 +1,46 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.cache;
+
+import java.util.List;
+
+/** JMX access to the {@link CacheUsageAnalyzer} */
+public interface CacheUsageAnalyzerMXBean {
+
+    /** @return Usage and recommended size of every sampled cache region */
+    List<CacheRegionUsage> getCacheRegionUsage();
+
+    /** @return Usage and recommended size of every sampled cache region as CSV */
+    String exportReport();
+
+    /**
+     * Set the maximum number of elements in memory of every region to its recommended size
+     *
+     * @return The number of regions resized
+     */
+    int applyRecommendedSizes();
+
+    /** @return true if recommended sizes are applied automatically once a full window is sampled */
+    boolean isAutoApply();
+
+    /** @param autoApply If recommended sizes are applied automatically */
+    void setAutoApply(boolean autoApply);
+
+    /** Take a sample of every cache region now */
+    void sample();
+
+    /** Discard all samples */
+    void reset();
+}
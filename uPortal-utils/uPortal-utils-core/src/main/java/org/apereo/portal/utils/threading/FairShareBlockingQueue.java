@@ -0,0 +1,400 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.threading;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apereo.portal.utils.ConcurrentMapUtils;
+
+/**
+ * A thread-safe blocking queue that places elements into sub-queues based on the key returned for
+ * each element by {@link #getElementKey(Object)} and hands them out round-robin across the keys
+ * that have elements waiting, so a key with many queued elements cannot starve the others. Within a
+ * key elements are returned in FIFO order.
+ *
+ * <p>Unlike {@link QualityOfServiceBlockingQueue} no lock is held while adding or removing
+ * elements. The sub-queues and the ring of keys with waiting elements are lock-free queues, the
+ * element count and capacity are tracked with two {@link Semaphore}s which blocking callers park
+ * on. Because consumers do not coordinate {@link #peek()} is only a hint, the peeked element may be
+ * returned to a different consumer or not be the next one returned at all.
+ *
+ * <p>Sub-queues are created on demand and kept for the life of the queue, the key space is expected
+ * to be small and stable.
+ *
+ * @param <K> The type of key used for grouping elements in the queue
+ * @param <T> The type of elements in the queue
+ */
+public abstract class FairShareBlockingQueue<K, T> extends AbstractQueue<T>
+        implements BlockingQueue<T> {
+    private final ConcurrentMap<K, KeyQueue<T>> keyedQueues =
+            new ConcurrentHashMap<K, KeyQueue<T>>();
+    private final Set<K> queueKeySet = Collections.unmodifiableSet(this.keyedQueues.keySet());
+
+    /*
+     * Round-robin ring of the sub-queues that have elements. A sub-queue is in the ring exactly
+     * once while its count is greater than zero, or is held by the one consumer that just took it
+     * from the ring and will put it back at the tail if it still has elements.
+     */
+    private final ConcurrentLinkedQueue<KeyQueue<T>> readyQueues =
+            new ConcurrentLinkedQueue<KeyQueue<T>>();
+
+    // Permits for elements that can be taken, and for free space if the queue is bounded
+    private final Semaphore available = new Semaphore(0);
+    private final Semaphore free;
+    private final int capacity;
+
+    public FairShareBlockingQueue() {
+        this.capacity = Integer.MAX_VALUE;
+        this.free = null;
+    }
+
+    public FairShareBlockingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.capacity = capacity;
+        this.free = capacity == Integer.MAX_VALUE ? null : new Semaphore(capacity);
+    }
+
+    /** @return the key for the specified element */
+    protected abstract K getElementKey(T e);
+
+    /** @return A read only Set of the keys in the queue */
+    public final Set<K> getKeySet() {
+        return this.queueKeySet;
+    }
+
+    /** @return true if there are no elements for the specified key */
+    public final boolean isKeyEmpty(K key) {
+        return this.getKeySize(key) == 0;
+    }
+
+    /** @return The number of elements in the queue for the specified key */
+    public final int getKeySize(K key) {
+        final KeyQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return 0;
+        }
+
+        int size = 0;
+        for (final Node<T> node : queue.nodes) {
+            if (node.get() != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public final boolean offer(T e) {
+        checkNotNull(e);
+        if (this.free != null && !this.free.tryAcquire()) {
+            return false;
+        }
+
+        this.enqueue(e);
+        return true;
+    }
+
+    @Override
+    public final boolean offer(T e, long timeout, TimeUnit unit) throws InterruptedException {
+        checkNotNull(e);
+        if (this.free != null && !this.free.tryAcquire(timeout, unit)) {
+            return false;
+        }
+
+        this.enqueue(e);
+        return true;
+    }
+
+    @Override
+    public final void put(T e) throws InterruptedException {
+        checkNotNull(e);
+        if (this.free != null) {
+            this.free.acquire();
+        }
+
+        this.enqueue(e);
+    }
+
+    @Override
+    public final T poll() {
+        if (!this.available.tryAcquire()) {
+            return null;
+        }
+
+        return this.dequeue();
+    }
+
+    @Override
+    public final T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!this.available.tryAcquire(timeout, unit)) {
+            return null;
+        }
+
+        return this.dequeue();
+    }
+
+    @Override
+    public final T take() throws InterruptedException {
+        this.available.acquire();
+        return this.dequeue();
+    }
+
+    @Override
+    public final T peek() {
+        for (final KeyQueue<T> queue : this.readyQueues) {
+            for (final Node<T> node : queue.nodes) {
+                final T e = node.get();
+                if (e != null) {
+                    return e;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public final boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+
+        for (final KeyQueue<T> queue : this.keyedQueues.values()) {
+            for (final Node<T> node : queue.nodes) {
+                final T e = node.get();
+                if (o.equals(e) && this.removeNode(node, e)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public final int drainTo(Collection<? super T> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public final int drainTo(Collection<? super T> c, int maxElements) {
+        checkNotNull(c);
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+
+        int count = 0;
+        T e;
+        while (count < maxElements && (e = this.poll()) != null) {
+            c.add(e);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public final int size() {
+        return this.available.availablePermits();
+    }
+
+    @Override
+    public final int remainingCapacity() {
+        if (this.free == null) {
+            return Integer.MAX_VALUE;
+        }
+
+        return this.free.availablePermits();
+    }
+
+    /** @return The capacity of the queue */
+    public final int getCapacity() {
+        return this.capacity;
+    }
+
+    /** Weakly consistent iterator over the queued elements, grouped by key */
+    @Override
+    public final Iterator<T> iterator() {
+        return new Itr();
+    }
+
+    private void enqueue(T e) {
+        final K key = this.getElementKey(e);
+        KeyQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            queue = ConcurrentMapUtils.putIfAbsent(this.keyedQueues, key, new KeyQueue<T>());
+        }
+
+        queue.nodes.add(new Node<T>(e));
+        if (queue.count.getAndIncrement() == 0) {
+            this.readyQueues.add(queue);
+        }
+        this.available.release();
+    }
+
+    /** Must only be called after acquiring a permit from {@link #available} */
+    private T dequeue() {
+        while (true) {
+            final KeyQueue<T> queue = this.readyQueues.poll();
+            if (queue == null) {
+                /*
+                 * The element for the acquired permit is in a sub-queue that is held by another
+                 * consumer which is about to put it back in the ring
+                 */
+                Thread.yield();
+                continue;
+            }
+
+            /*
+             * Take the first element of the sub-queue, skipping nodes whose element was removed
+             * via remove(Object), and put the sub-queue at the tail of the ring if it has more
+             */
+            T e;
+            int remaining;
+            do {
+                e = queue.nodes.poll().getAndSet(null);
+                remaining = queue.count.decrementAndGet();
+            } while (e == null && remaining > 0);
+
+            if (remaining > 0) {
+                this.readyQueues.add(queue);
+            }
+
+            if (e != null) {
+                if (this.free != null) {
+                    this.free.release();
+                }
+                return e;
+            }
+        }
+    }
+
+    /**
+     * Remove the element from the node, the node itself stays in its sub-queue and is skipped when
+     * it reaches the head.
+     */
+    private boolean removeNode(Node<T> node, T e) {
+        // Take the permit for the element first so no consumer counts on it
+        if (!this.available.tryAcquire()) {
+            return false;
+        }
+
+        if (!node.compareAndSet(e, null)) {
+            this.available.release();
+            return false;
+        }
+
+        if (this.free != null) {
+            this.free.release();
+        }
+        return true;
+    }
+
+    private static void checkNotNull(Object o) {
+        if (o == null) {
+            throw new NullPointerException();
+        }
+    }
+
+    private static final class KeyQueue<T> {
+        private final ConcurrentLinkedQueue<Node<T>> nodes = new ConcurrentLinkedQueue<Node<T>>();
+        private final AtomicInteger count = new AtomicInteger();
+    }
+
+    /** Holds an element while queued, the element is cleared once it is taken or removed */
+    private static final class Node<T> extends AtomicReference<T> {
+        private static final long serialVersionUID = 1L;
+
+        Node(T e) {
+            super(e);
+        }
+    }
+
+    private final class Itr implements Iterator<T> {
+        private final Iterator<KeyQueue<T>> queues = keyedQueues.values().iterator();
+        private Iterator<Node<T>> nodes = Collections.<Node<T>>emptyIterator();
+        private Node<T> nextNode;
+        private T nextElement;
+        private Node<T> lastNode;
+        private T lastElement;
+
+        Itr() {
+            this.advance();
+        }
+
+        private void advance() {
+            this.nextNode = null;
+            this.nextElement = null;
+            while (true) {
+                while (this.nodes.hasNext()) {
+                    final Node<T> node = this.nodes.next();
+                    final T e = node.get();
+                    if (e != null) {
+                        this.nextNode = node;
+                        this.nextElement = e;
+                        return;
+                    }
+                }
+
+                if (!this.queues.hasNext()) {
+                    return;
+                }
+                this.nodes = this.queues.next().nodes.iterator();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.nextNode != null;
+        }
+
+        @Override
+        public T next() {
+            if (this.nextNode == null) {
+                throw new NoSuchElementException();
+            }
+
+            this.lastNode = this.nextNode;
+            this.lastElement = this.nextElement;
+            this.advance();
+            return this.lastElement;
+        }
+
+        @Override
+        public void remove() {
+            if (this.lastNode == null) {
+                throw new IllegalStateException();
+            }
+
+            removeNode(this.lastNode, this.lastElement);
+            this.lastNode = null;
+            this.lastElement = null;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.threading;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ThreadPoolExecutor} that keeps the key of each submitted {@link KeyedTask} on the {@link
+ * java.util.concurrent.Future} it queues, so that a {@link FairShareBlockingQueue} created with
+ * {@link #createTaskQueue(int)} can share the pool round-robin between the keys. Tasks that are not
+ * a {@link KeyedTask} all share a single key.
+ */
+public class FairShareThreadPoolExecutor extends ThreadPoolExecutor {
+    private static final Object DEFAULT_KEY = new Object();
+
+    /** A task that belongs to a fair share group */
+    public interface KeyedTask {
+        /** @return The key of the group the task belongs to, null for the default group */
+        Object getFairShareKey();
+    }
+
+    /** @return A queue that shares its capacity fairly between the keys of the queued tasks */
+    public static BlockingQueue<Runnable> createTaskQueue(int capacity) {
+        return new FairShareBlockingQueue<Object, Runnable>(capacity) {
+            @Override
+            protected Object getElementKey(Runnable e) {
+                return getTaskKey(e);
+            }
+        };
+    }
+
+    public FairShareThreadPoolExecutor(
+            int corePoolSize,
+            int maximumPoolSize,
+            long keepAliveTime,
+            TimeUnit unit,
+            BlockingQueue<Runnable> workQueue,
+            ThreadFactory threadFactory,
+            RejectedExecutionHandler handler) {
+        super(
+                corePoolSize,
+                maximumPoolSize,
+                keepAliveTime,
+                unit,
+                workQueue,
+                threadFactory,
+                handler);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new KeyedFutureTask<T>(callable, getTaskKey(callable));
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new KeyedFutureTask<T>(runnable, value, getTaskKey(runnable));
+    }
+
+    private static Object getTaskKey(Object task) {
+        if (task instanceof KeyedTask) {
+            final Object key = ((KeyedTask) task).getFairShareKey();
+            if (key != null) {
+                return key;
+            }
+        }
+
+        return DEFAULT_KEY;
+    }
+
+    private static final class KeyedFutureTask<T> extends FutureTask<T> implements KeyedTask {
+        private final Object key;
+
+        KeyedFutureTask(Callable<T> callable, Object key) {
+            super(callable);
+            this.key = key;
+        }
+
+        KeyedFutureTask(Runnable runnable, T result, Object key) {
+            super(runnable, result);
+            this.key = key;
+        }
+
+        @Override
+        public Object getFairShareKey() {
+            return this.key;
+        }
+    }
+}
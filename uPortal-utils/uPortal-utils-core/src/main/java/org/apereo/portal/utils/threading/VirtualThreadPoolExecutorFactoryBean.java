@@ -0,0 +1,161 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.threading;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.springframework.scheduling.concurrent.ThreadPoolExecutorFactoryBean;
+
+/**
+ * {@link ThreadPoolExecutorFactoryBean} that can run its tasks on virtual threads when the JVM
+ * supports them (Java 21 and later). The executor is still a {@link
+ * java.util.concurrent.ThreadPoolExecutor} so pool sizing, rejection handling and the JMX and
+ * saturation reporting built on it keep working, but each worker thread is a virtual thread which
+ * makes a much larger maximum pool size practical for tasks that spend most of their time blocked
+ * on I/O. Virtual threads are always daemon threads with normal priority, the thread group, daemon
+ * and priority settings are ignored for them.
+ *
+ * <p>If virtual threads are requested but not available a warning is logged and platform threads
+ * are used.
+ *
+ * <p>When fair sharing is enabled and the queue capacity is greater than zero the pool is a {@link
+ * FairShareThreadPoolExecutor} and waiting tasks are queued in a {@link FairShareBlockingQueue} so
+ * each task key gets its turn at the next free thread.
+ */
+public class VirtualThreadPoolExecutorFactoryBean extends ThreadPoolExecutorFactoryBean {
+    private static final long serialVersionUID = 1L;
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderUnstarted = null;
+        try {
+            // Resolved reflectively as the portal is still compiled for Java 8
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builderClass.getMethod("name", String.class);
+            builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+
+            // Virtual threads are a preview feature on Java 19 and 20, make sure they work
+            builderUnstarted.invoke(ofVirtual.invoke(null), (Runnable) () -> {});
+        } catch (Exception | LinkageError e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_UNSTARTED = builderUnstarted;
+    }
+
+    private boolean virtualThreads = false;
+    private boolean fairShareQueue = false;
+
+    /** @return true if the running JVM supports virtual threads */
+    public static boolean isVirtualThreadsSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /** @param virtualThreads If the pool should use virtual threads, defaults to false */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /** @return true if the pool is using virtual threads */
+    public boolean isVirtualThreads() {
+        return this.virtualThreads;
+    }
+
+    /**
+     * @param fairShareQueue If queued tasks should be handed out round-robin by task key, defaults
+     *     to false. Only applies if the queue capacity is greater than zero.
+     */
+    public void setFairShareQueue(boolean fairShareQueue) {
+        this.fairShareQueue = fairShareQueue;
+    }
+
+    /** @return true if queued tasks are handed out round-robin by task key */
+    public boolean isFairShareQueue() {
+        return this.fairShareQueue;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (this.virtualThreads && !isVirtualThreadsSupported()) {
+            logger.warn(
+                    "Virtual threads are not supported by this JVM, "
+                            + getThreadNamePrefix()
+                            + " will use platform threads");
+            this.virtualThreads = false;
+        }
+        super.afterPropertiesSet();
+    }
+
+    @Override
+    public Thread createThread(Runnable runnable) {
+        if (!this.virtualThreads) {
+            return super.createThread(runnable);
+        }
+
+        try {
+            final Object builder = OF_VIRTUAL.invoke(null);
+            BUILDER_NAME.invoke(builder, nextThreadName());
+            return (Thread) BUILDER_UNSTARTED.invoke(builder, runnable);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create virtual thread", e);
+        }
+    }
+
+    @Override
+    protected BlockingQueue<Runnable> createQueue(int queueCapacity) {
+        if (this.fairShareQueue && queueCapacity > 0) {
+            return FairShareThreadPoolExecutor.createTaskQueue(queueCapacity);
+        }
+        return super.createQueue(queueCapacity);
+    }
+
+    @Override
+    protected ThreadPoolExecutor createExecutor(
+            int corePoolSize,
+            int maxPoolSize,
+            int keepAliveSeconds,
+            BlockingQueue<Runnable> queue,
+            ThreadFactory threadFactory,
+            RejectedExecutionHandler rejectedExecutionHandler) {
+        if (queue instanceof FairShareBlockingQueue) {
+            return new FairShareThreadPoolExecutor(
+                    corePoolSize,
+                    maxPoolSize,
+                    keepAliveSeconds,
+                    TimeUnit.SECONDS,
+                    queue,
+                    threadFactory,
+                    rejectedExecutionHandler);
+        }
+        return super.createExecutor(
+                corePoolSize,
+                maxPoolSize,
+                keepAliveSeconds,
+                queue,
+                threadFactory,
+                rejectedExecutionHandler);
+    }
+}
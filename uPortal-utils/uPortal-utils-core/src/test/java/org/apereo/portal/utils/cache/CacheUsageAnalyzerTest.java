@@ -0,0 +1,148 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheUsageAnalyzerTest {
+    private CacheManager cacheManager;
+    private Cache cache;
+    private CacheUsageAnalyzer analyzer;
+
+    @Before
+    public void setup() {
+        this.cacheManager =
+                CacheManager.newInstance(new Configuration().name("cacheUsageAnalyzerTest"));
+        this.cache = new Cache(new CacheConfiguration("region", 10).statistics(true));
+        this.cacheManager.addCache(this.cache);
+
+        this.analyzer = new CacheUsageAnalyzer();
+        this.analyzer.setCacheManager(this.cacheManager);
+        this.analyzer.setMinimumSize(5);
+    }
+
+    @After
+    public void tearDown() {
+        this.cacheManager.shutdown();
+    }
+
+    @Test
+    public void testRecommendSize() {
+        // Unbounded regions are left alone
+        assertEquals(0, this.analyzer.recommendSize(0, 5000, 6000, 100, -1));
+
+        // Evicting regions grow to the working set plus headroom, by at most 4x
+        assertEquals(1250, this.analyzer.recommendSize(500, 500, 1000, 500, -1));
+        assertEquals(2000, this.analyzer.recommendSize(500, 500, 5000, 4500, -1));
+
+        // Mostly empty regions shrink to their peak plus headroom, but not below the minimum
+        assertEquals(125, this.analyzer.recommendSize(1000, 100, 100, 0, -1));
+        assertEquals(5, this.analyzer.recommendSize(1000, 1, 1, 0, -1));
+
+        // Regions using a fair share of their space keep their size
+        assertEquals(1000, this.analyzer.recommendSize(1000, 450, 450, 0, -1));
+    }
+
+    @Test
+    public void testRecommendSizeIsCapped() {
+        this.analyzer.setMaxSize(1500);
+        this.analyzer.setMaxRegionBytes(1000000);
+
+        // Growth stops at the maximum size
+        assertEquals(1500, this.analyzer.recommendSize(500, 500, 5000, 4500, -1));
+        assertEquals(1500, this.analyzer.recommendSize(1500, 1500, 5000, 3500, -1));
+
+        // Or at the heap budget once element sizes are known
+        assertEquals(1000, this.analyzer.recommendSize(500, 500, 5000, 4500, 1000));
+
+        // Regions already past a cap are neither grown nor shrunk by it
+        assertEquals(2000, this.analyzer.recommendSize(2000, 2000, 5000, 3000, -1));
+        assertEquals(1200, this.analyzer.recommendSize(1200, 1200, 5000, 3800, 1000));
+
+        // Without a heap budget only the maximum size applies
+        this.analyzer.setMaxRegionBytes(0);
+        assertEquals(1500, this.analyzer.recommendSize(500, 500, 5000, 4500, 1000));
+    }
+
+    @Test
+    public void testAutoApplyStopsAtMaxSize() {
+        this.analyzer.setMaxSamples(2);
+        this.analyzer.setMaxSize(25);
+        this.analyzer.setAutoApply(true);
+
+        // Each window thrashes a working set far larger than the region
+        for (int window = 0; window < 4; window++) {
+            this.analyzer.sample();
+            for (int i = 0; i < 200; i++) {
+                this.cache.put(new Element(i, "value" + i));
+            }
+            for (int i = 0; i < 200; i++) {
+                this.cache.get(i);
+            }
+            this.analyzer.sample();
+        }
+
+        assertEquals(25, this.cache.getCacheConfiguration().getMaxEntriesLocalHeap());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxSizeMustBePositive() {
+        this.analyzer.setMaxSize(0);
+    }
+
+    @Test
+    public void testSampleAndApply() {
+        this.analyzer.sample();
+        assertTrue(this.analyzer.getCacheRegionUsage().isEmpty());
+
+        for (int i = 0; i < 30; i++) {
+            this.cache.put(new Element(i, "value" + i));
+        }
+        for (int i = 0; i < 30; i++) {
+            this.cache.get(i);
+        }
+        this.analyzer.sample();
+
+        final List<CacheRegionUsage> usages = this.analyzer.getCacheRegionUsage();
+        assertEquals(1, usages.size());
+        final CacheRegionUsage usage = usages.get(0);
+        assertEquals("region", usage.getCacheName());
+        assertEquals(10, usage.getMaxElementsInMemory());
+        assertEquals(10, usage.getPeakSize());
+        assertEquals(10.0 / 30, usage.getHitRatio(), 0.0001);
+        assertEquals(30, usage.getWorkingSetSize());
+        assertEquals(38, usage.getRecommendedMaxElementsInMemory());
+        assertTrue(usage.getEstimatedEntryBytes() > 0);
+
+        final String report = this.analyzer.exportReport();
+        assertTrue(report, report.startsWith("cacheName,"));
+        assertTrue(report, report.contains("\nregion,"));
+
+        assertEquals(1, this.analyzer.applyRecommendedSizes());
+        assertEquals(38, this.cache.getCacheConfiguration().getMaxEntriesLocalHeap());
+        assertTrue(this.analyzer.getCacheRegionUsage().isEmpty());
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.threading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class FairShareBlockingQueueTest {
+    /** Elements are "key:value" strings */
+    private static final class TestQueue extends FairShareBlockingQueue<String, String> {
+        TestQueue() {
+            super();
+        }
+
+        TestQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected String getElementKey(String e) {
+            return e.substring(0, e.indexOf(':'));
+        }
+    }
+
+    @Test
+    public void testRoundRobinByKey() {
+        final TestQueue queue = new TestQueue();
+        queue.add("a:1");
+        queue.add("a:2");
+        queue.add("a:3");
+        queue.add("b:1");
+        queue.add("c:1");
+        queue.add("c:2");
+
+        assertEquals(6, queue.size());
+        assertEquals(2, queue.getKeySize("c"));
+
+        final List<String> result = new ArrayList<String>();
+        queue.drainTo(result);
+
+        assertEquals(Arrays.asList("a:1", "b:1", "c:1", "a:2", "c:2", "a:3"), result);
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.isKeyEmpty("a"));
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        final TestQueue queue = new TestQueue(2);
+        assertTrue(queue.offer("a:1"));
+        assertTrue(queue.offer("b:1"));
+        assertFalse(queue.offer("c:1"));
+        assertFalse(queue.offer("c:1", 10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.remainingCapacity());
+
+        assertEquals("a:1", queue.take());
+        assertEquals(1, queue.remainingCapacity());
+        assertTrue(queue.offer("c:1"));
+        assertEquals("b:1", queue.poll(0, TimeUnit.MILLISECONDS));
+        assertEquals("c:1", queue.poll());
+    }
+
+    @Test
+    public void testRemove() {
+        final TestQueue queue = new TestQueue();
+        queue.add("a:1");
+        queue.add("a:2");
+        queue.add("b:1");
+
+        assertTrue(queue.contains("a:1"));
+        assertTrue(queue.remove("a:1"));
+        assertFalse(queue.remove("a:1"));
+        assertFalse(queue.contains("a:1"));
+        assertEquals(2, queue.size());
+
+        assertEquals("a:2", queue.peek());
+        assertEquals("a:2", queue.poll());
+        assertEquals("b:1", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final int threads = 8;
+        final int perThread = 10000;
+        final TestQueue queue = new TestQueue(64);
+        final Set<String> taken = ConcurrentHashMap.newKeySet();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++) {
+                final int producer = t;
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    start.await();
+                                    for (int i = 0; i < perThread; i++) {
+                                        queue.put((i % 5) + ":" + producer + "-" + i);
+                                    }
+                                    return null;
+                                }));
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    start.await();
+                                    for (int i = 0; i < perThread; i++) {
+                                        assertTrue(taken.add(queue.take()));
+                                    }
+                                    return null;
+                                }));
+            }
+
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * perThread, taken.size());
+        assertTrue(queue.isEmpty());
+        assertEquals(64, queue.remainingCapacity());
+    }
+}
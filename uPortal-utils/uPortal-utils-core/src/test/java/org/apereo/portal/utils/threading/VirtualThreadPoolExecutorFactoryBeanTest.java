@@ -0,0 +1,132 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.threading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class VirtualThreadPoolExecutorFactoryBeanTest {
+    private final VirtualThreadPoolExecutorFactoryBean factoryBean =
+            new VirtualThreadPoolExecutorFactoryBean();
+
+    @After
+    public void tearDown() {
+        this.factoryBean.destroy();
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        this.factoryBean.setVirtualThreads(true);
+        this.factoryBean.setThreadNamePrefix("test-worker-");
+        this.factoryBean.setMaxPoolSize(2);
+        this.factoryBean.setQueueCapacity(0);
+        this.factoryBean.afterPropertiesSet();
+
+        final boolean supported = VirtualThreadPoolExecutorFactoryBean.isVirtualThreadsSupported();
+        assertEquals(supported, this.factoryBean.isVirtualThreads());
+
+        final ExecutorService executorService = this.factoryBean.getObject();
+        assertTrue(executorService instanceof ThreadPoolExecutor);
+
+        final Thread workerThread =
+                executorService
+                        .submit(
+                                new Callable<Thread>() {
+                                    @Override
+                                    public Thread call() {
+                                        return Thread.currentThread();
+                                    }
+                                })
+                        .get(10, TimeUnit.SECONDS);
+
+        assertTrue(workerThread.getName(), workerThread.getName().startsWith("test-worker-"));
+        if (supported) {
+            assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(workerThread));
+        }
+    }
+
+    @Test
+    public void testFairShareQueue() throws Exception {
+        this.factoryBean.setFairShareQueue(true);
+        this.factoryBean.setCorePoolSize(1);
+        this.factoryBean.setMaxPoolSize(1);
+        this.factoryBean.setQueueCapacity(10);
+        this.factoryBean.afterPropertiesSet();
+
+        final ThreadPoolExecutor executorService =
+                (ThreadPoolExecutor) this.factoryBean.getObject();
+        assertTrue(executorService instanceof FairShareThreadPoolExecutor);
+        assertTrue(executorService.getQueue() instanceof FairShareBlockingQueue);
+
+        // Hold the only worker so the rest of the tasks queue up
+        final CountDownLatch release = new CountDownLatch(1);
+        executorService.submit(
+                new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        release.await();
+                        return null;
+                    }
+                });
+
+        final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+        final List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (final String name : Arrays.asList("a1", "a2", "a3", "b1", "b2")) {
+            futures.add(executorService.submit(new KeyedCallable(name, executed)));
+        }
+
+        release.countDown();
+        for (final Future<String> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(Arrays.asList("a1", "b1", "a2", "b2", "a3"), executed);
+    }
+
+    private static final class KeyedCallable
+            implements Callable<String>, FairShareThreadPoolExecutor.KeyedTask {
+        private final String name;
+        private final List<String> executed;
+
+        KeyedCallable(String name, List<String> executed) {
+            this.name = name;
+            this.executed = executed;
+        }
+
+        @Override
+        public Object getFairShareKey() {
+            return this.name.substring(0, 1);
+        }
+
+        @Override
+        public String call() {
+            this.executed.add(this.name);
+            return this.name;
+        }
+    }
+}
@@ -634,6 +634,21 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return tracker != null;
     }
 
+    /* (non-Javadoc)
+     * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#isPortletRenderComplete(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap =
+                this.getPortletRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+
+        return tracker != null && tracker.isComplete();
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#getPortletHeadOutput(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
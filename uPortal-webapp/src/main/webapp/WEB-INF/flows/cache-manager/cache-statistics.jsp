@@ -71,6 +71,23 @@
                 <tr>
                     <td><spring:message code="statistics.accuracy"/></td><td>${fn:escapeXml(statistics.statisticsAccuracyDescription)}</td>
                 </tr>
+                <c:if test="${not empty usage}">
+                    <tr>
+                        <td><spring:message code="cache.peak.size"/></td><td>${fn:escapeXml(usage.peakSize)}</td>
+                    </tr>
+                    <tr>
+                        <td><spring:message code="cache.evictions.per.minute"/></td><td><fmt:formatNumber value="${usage.evictionsPerMinute}" maxFractionDigits="2" /></td>
+                    </tr>
+                    <tr>
+                        <td><spring:message code="cache.working.set.size"/></td><td>${fn:escapeXml(usage.workingSetSize)}</td>
+                    </tr>
+                    <tr>
+                        <td><spring:message code="cache.estimated.entry.bytes"/></td><td>${fn:escapeXml(usage.estimatedEntryBytes)}</td>
+                    </tr>
+                    <tr>
+                        <td><spring:message code="cache.recommended.max.elements"/></td><td>${fn:escapeXml(usage.recommendedMaxElementsInMemory)} <small>(${fn:escapeXml(usage.maxElementsInMemory)})</small></td>
+                    </tr>
+                </c:if>
             </tbody>
         </table>
 
@@ -35,3 +35,11 @@
                     </c:forEach>
                 </form:select>
             </p>
+            <p>
+                <form:label path="percentiles"><spring:message code="percentiles"/></form:label>
+                <form:select path="percentiles">
+                    <c:forEach items="50,90,95,99" var="percentile">
+                        <form:option value="${ percentile }" label="p${ percentile }"/>
+                    </c:forEach>
+                </form:select>
+            </p>
@@ -0,0 +1,289 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.xml.namespace.QName;
+import org.apache.commons.io.IOUtils;
+import org.apereo.portal.concurrency.CallableWithoutResult;
+import org.apereo.portal.events.handlers.db.IPortalEventDao;
+import org.apereo.portal.events.handlers.db.JpaPortalEventStore;
+import org.apereo.portal.events.handlers.db.PortalEventStoreStatistics;
+import org.apereo.portal.mock.portlet.om.MockPortletWindowId;
+import org.apereo.portal.security.SystemPerson;
+import org.apereo.portal.test.BaseRawEventsJpaDaoTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.AopTestUtils;
+
+/** Compares the JDBC batch insert path of {@link JpaPortalEventStore} with the JPA path. */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "classpath:jpaRawEventsBatchInsertTestContext.xml")
+public class JpaPortalEventStoreBatchInsertTest extends BaseRawEventsJpaDaoTest {
+    /** Smaller than the number of events so the last JDBC batch is partial */
+    private static final int JDBC_BATCH_SIZE = 4;
+
+    @Autowired private IPortalEventDao portalEventDao;
+    private JpaPortalEventStore portalEventStore;
+
+    @Before
+    public void setUp() {
+        portalEventStore = AopTestUtils.getTargetObject(portalEventDao);
+        portalEventStore.setJdbcBatchSize(JDBC_BATCH_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        portalEventStore.setJdbcBatchInsert(false);
+    }
+
+    @Test
+    public void testBatchInsertStoresTheSameRows() throws Exception {
+        final List<PortalEvent> events = generateEvents();
+
+        storePortalEvents(events, false);
+        final List<List<Object>> persistedRows = getRows();
+        deleteRows();
+
+        storePortalEvents(events, true);
+        final List<List<Object>> batchInsertedRows = getRows();
+
+        assertEquals(events.size(), persistedRows.size());
+        assertEquals(persistedRows, batchInsertedRows);
+    }
+
+    @Test
+    public void testBothPathsShareTheIdSequence() throws Exception {
+        final List<PortalEvent> events = generateEvents();
+        final Set<Long> ids = new HashSet<>();
+        long previousMaxId = Long.MIN_VALUE;
+        for (int i = 0; i < 6; i++) {
+            storePortalEvents(events, i % 2 == 1);
+
+            final List<Long> newIds = new ArrayList<>();
+            for (Long id : getIds()) {
+                if (!ids.contains(id)) {
+                    newIds.add(id);
+                }
+            }
+            assertEquals(events.size(), newIds.size());
+            // Each batch continues the sequence the other path left off
+            assertTrue(newIds.toString(), Collections.min(newIds) > previousMaxId);
+            previousMaxId = Collections.max(newIds);
+            ids.addAll(newIds);
+        }
+        assertEquals(6 * events.size(), getIds().size());
+    }
+
+    @Test
+    public void testInsertsAreRecordedOnceCommitted() throws Exception {
+        final List<PortalEvent> events = generateEvents();
+        final PortalEventStoreStatistics statistics = new PortalEventStoreStatistics();
+        portalEventStore.setPortalEventStoreStatistics(statistics);
+        try {
+            for (final boolean jdbcBatchInsert : new boolean[] {false, true}) {
+                portalEventStore.setJdbcBatchInsert(jdbcBatchInsert);
+                final long insertedEventCount = statistics.getInsertedEventCount();
+                executeInTransaction(
+                        new CallableWithoutResult() {
+                            @Override
+                            protected void callWithoutResult() {
+                                portalEventDao.storePortalEvents(events);
+                                assertEquals(
+                                        insertedEventCount, statistics.getInsertedEventCount());
+                            }
+                        });
+                assertEquals(
+                        insertedEventCount + events.size(), statistics.getInsertedEventCount());
+
+                try {
+                    executeInTransaction(
+                            new CallableWithoutResult() {
+                                @Override
+                                protected void callWithoutResult() {
+                                    portalEventDao.storePortalEvents(events);
+                                    throw new IllegalStateException("Roll back");
+                                }
+                            });
+                    fail();
+                } catch (RuntimeException e) {
+                    // Translated by the exception translation of the DAO layer
+                    assertEquals("Roll back", Throwables.getRootCause(e).getMessage());
+                }
+                assertEquals(
+                        insertedEventCount + events.size(), statistics.getInsertedEventCount());
+            }
+        } finally {
+            portalEventStore.setPortalEventStoreStatistics(null);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJdbcBatchSizeMustBePositive() {
+        portalEventStore.setJdbcBatchSize(0);
+    }
+
+    private void storePortalEvents(final List<PortalEvent> events, boolean jdbcBatchInsert) {
+        portalEventStore.setJdbcBatchInsert(jdbcBatchInsert);
+        execute(
+                new CallableWithoutResult() {
+                    @Override
+                    protected void callWithoutResult() {
+                        portalEventDao.storePortalEvents(events);
+                    }
+                });
+    }
+
+    /** All columns but the generated EVENT_ID, in insertion order */
+    private List<List<Object>> getRows() {
+        return executeInTransaction(
+                new Callable<List<List<Object>>>() {
+                    @Override
+                    public List<List<Object>> call() throws Exception {
+                        final List<?> results =
+                                getEntityManager()
+                                        .createNativeQuery(
+                                                "SELECT TIMESTAMP, SERVER_ID, SESSION_ID, USER_NAME, "
+                                                        + "EVENT_TYPE, EVENT_DATA, AGGREGATED, ERROR_AGGR "
+                                                        + "FROM UP_RAW_EVENTS ORDER BY EVENT_ID")
+                                        .getResultList();
+                        final List<List<Object>> rslt = new ArrayList<>();
+                        for (Object result : results) {
+                            final List<Object> row = new ArrayList<>();
+                            for (Object value : (Object[]) result) {
+                                row.add(toComparable(value));
+                            }
+                            rslt.add(row);
+                        }
+                        return rslt;
+                    }
+                });
+    }
+
+    private List<Long> getIds() {
+        return executeInTransaction(
+                new Callable<List<Long>>() {
+                    @Override
+                    public List<Long> call() throws Exception {
+                        final List<Long> rslt = new ArrayList<>();
+                        for (Object id :
+                                getEntityManager()
+                                        .createNativeQuery("SELECT EVENT_ID FROM UP_RAW_EVENTS")
+                                        .getResultList()) {
+                            rslt.add(((Number) id).longValue());
+                        }
+                        return rslt;
+                    }
+                });
+    }
+
+    private void deleteRows() {
+        executeInTransaction(
+                new CallableWithoutResult() {
+                    @Override
+                    protected void callWithoutResult() {
+                        getEntityManager()
+                                .createNativeQuery("DELETE FROM UP_RAW_EVENTS")
+                                .executeUpdate();
+                    }
+                });
+    }
+
+    private static Object toComparable(Object value) throws SQLException, IOException {
+        if (value instanceof Clob) {
+            try (final Reader reader = ((Clob) value).getCharacterStream()) {
+                return IOUtils.toString(reader);
+            }
+        }
+        if (value instanceof byte[]) {
+            return Arrays.toString((byte[]) value);
+        }
+        return value;
+    }
+
+    private List<PortalEvent> generateEvents() {
+        final PortalEvent.PortalEventBuilder eventBuilder =
+                new PortalEvent.PortalEventBuilder(
+                        this,
+                        "example.com",
+                        "1234567890123_system_AAAAAAAAAAA",
+                        SystemPerson.INSTANCE,
+                        null);
+        final PortletExecutionEvent.PortletExecutionEventBuilder portletExecutionEventBuilder =
+                new PortletExecutionEvent.PortletExecutionEventBuilder(
+                        eventBuilder,
+                        new MockPortletWindowId("pw1"),
+                        "fname",
+                        12345,
+                        Collections.<String, List<String>>emptyMap(),
+                        WindowState.NORMAL,
+                        PortletMode.VIEW);
+        final Set<String> groups = ImmutableSet.of("Student", "Employee");
+        final Map<String, List<String>> attributes =
+                ImmutableMap.<String, List<String>>of(
+                        "username",
+                        ImmutableList.of("system"),
+                        "roles",
+                        ImmutableList.of("student", "employee"));
+
+        final List<PortalEvent> events = new ArrayList<>();
+        events.add(new LoginEvent(eventBuilder, groups, attributes));
+        events.add(
+                new FolderAddedToLayoutPortalEvent(eventBuilder, SystemPerson.INSTANCE, 1, "n32"));
+        events.add(
+                new PortletAddedToLayoutPortalEvent(
+                        eventBuilder, SystemPerson.INSTANCE, 1, "n32", "portletA"));
+        events.add(new PortletActionExecutionEvent(portletExecutionEventBuilder));
+        events.add(
+                new PortletEventExecutionEvent(
+                        portletExecutionEventBuilder,
+                        new QName("http://www.jasig.org/foo", "event", "e")));
+        events.add(new PortletRenderExecutionEvent(portletExecutionEventBuilder, true, false));
+        events.add(
+                new PortletResourceExecutionEvent(
+                        portletExecutionEventBuilder, "someImage.jpg", false, false));
+        events.add(
+                new PortletDeletedFromLayoutPortalEvent(
+                        eventBuilder, SystemPerson.INSTANCE, 1, "n24", "portletA"));
+        events.add(new LogoutEvent(eventBuilder));
+        return events;
+    }
+}
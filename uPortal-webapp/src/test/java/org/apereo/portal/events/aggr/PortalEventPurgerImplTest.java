@@ -0,0 +1,117 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apereo.portal.IPortalInfoProvider;
+import org.apereo.portal.concurrency.locking.IClusterLockService;
+import org.apereo.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
+import org.apereo.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.apereo.portal.events.handlers.db.IPortalEventDao;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortalEventPurgerImplTest {
+    @InjectMocks private PortalEventPurgerImpl portalEventPurger = new PortalEventPurgerImpl();
+
+    @Mock private IClusterLockService clusterLockService;
+    @Mock private IEventAggregationManagementDao eventAggregationManagementDao;
+    @Mock private IPortalInfoProvider portalInfoProvider;
+    @Mock private IPortalEventDao portalEventDao;
+
+    @Mock private IEventAggregatorStatus eventPurgerStatus;
+    @Mock private IEventAggregatorStatus eventAggregatorStatus;
+
+    private final DateTime lastAggregated = new DateTime(1325881376117l);
+
+    @Before
+    public void setup() {
+        when(clusterLockService.isLockOwner(PortalEventPurger.PURGE_RAW_EVENTS_LOCK_NAME))
+                .thenReturn(true);
+        when(eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.PURGING, true))
+                .thenReturn(eventPurgerStatus);
+        when(eventAggregationManagementDao.getEventAggregatorStatus(
+                        ProcessingType.AGGREGATION, false))
+                .thenReturn(eventAggregatorStatus);
+        when(portalInfoProvider.getUniqueServerName()).thenReturn("serverName_abcd");
+        when(eventAggregatorStatus.getLastEventDate()).thenReturn(lastAggregated);
+        when(eventPurgerStatus.getLastEventDate()).thenReturn(lastAggregated.minusMinutes(90));
+
+        portalEventPurger.setPurgeDelay(Period.minutes(30));
+        portalEventPurger.setPurgeChunkSize(10);
+    }
+
+    @Test
+    public void purgeRawEventsInChunks() throws Exception {
+        final DateTime purgeEnd = lastAggregated.minusMinutes(30);
+        when(portalEventDao.deletePortalEventsBefore(purgeEnd, 10)).thenReturn(10, 10, 3);
+
+        final EventProcessingResult result = portalEventPurger.doPurgeRawEvents();
+
+        assertEquals(23, result.getProcessed());
+        assertTrue(result.isComplete());
+        assertEquals(23, portalEventPurger.getPurgedEventCount());
+        assertEquals(3, portalEventPurger.getChunkDeleteTimes().getTotalSamples());
+        verify(portalEventDao, times(3)).deletePortalEventsBefore(purgeEnd, 10);
+        verify(portalEventDao, never()).deletePortalEventsBefore(any(DateTime.class));
+        verify(eventPurgerStatus).setLastEventDate(purgeEnd.minusMillis(100));
+    }
+
+    @Test
+    public void cancelChunkedPurge() throws Exception {
+        when(portalEventDao.deletePortalEventsBefore(any(DateTime.class), eq(10)))
+                .then(
+                        new Answer<Integer>() {
+                            private int calls = 0;
+
+                            @Override
+                            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                                assertTrue(portalEventPurger.isPurging());
+                                assertEquals(
+                                        calls * 10, portalEventPurger.getRunningPurgeEventCount());
+                                if (++calls == 2) {
+                                    portalEventPurger.cancelPurge();
+                                }
+                                return 10;
+                            }
+                        });
+
+        final EventProcessingResult result = portalEventPurger.doPurgeRawEvents();
+
+        assertEquals(20, result.getProcessed());
+        assertTrue(result.isComplete());
+        assertEquals(false, portalEventPurger.isPurging());
+        verify(portalEventDao, times(2)).deletePortalEventsBefore(any(DateTime.class), eq(10));
+        // The purge status is left alone so the next purge continues where this one stopped
+        verify(eventPurgerStatus, never()).setLastEventDate(any(DateTime.class));
+    }
+}
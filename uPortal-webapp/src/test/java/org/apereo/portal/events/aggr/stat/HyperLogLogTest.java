@@ -0,0 +1,145 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.stat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testGetPrecision() {
+        assertEquals(12, HyperLogLog.getPrecision(0.02));
+        assertEquals(HyperLogLog.MAX_PRECISION, HyperLogLog.getPrecision(0.0001));
+        assertEquals(HyperLogLog.MIN_PRECISION, HyperLogLog.getPrecision(0.9));
+        assertTrue(new HyperLogLog(12).getRelativeStandardError() <= 0.02);
+    }
+
+    @Test
+    public void testSmallCardinality() {
+        final HyperLogLog estimate = new HyperLogLog(12);
+        assertEquals(0, estimate.cardinality());
+
+        for (int i = 0; i < 100; i++) {
+            estimate.add("user" + i);
+        }
+        assertEquals(100, estimate.cardinality(), 2);
+    }
+
+    @Test
+    public void testDuplicatesDoNotChangeState() {
+        final HyperLogLog estimate = new HyperLogLog(10);
+        assertTrue(estimate.add("admin"));
+
+        final byte[] state = estimate.getBytes().clone();
+        assertFalse(estimate.add("admin"));
+        assertArrayEquals(state, estimate.getBytes());
+    }
+
+    @Test
+    public void testLargeCardinality() {
+        final HyperLogLog estimate = new HyperLogLog(12);
+        for (int i = 0; i < 60000; i++) {
+            estimate.add("user" + i);
+            estimate.add("user" + (i / 2));
+        }
+
+        // Within three standard errors
+        assertEquals(
+                60000, estimate.cardinality(), 60000 * 3 * estimate.getRelativeStandardError());
+    }
+
+    @Test
+    public void testMerge() {
+        final HyperLogLog all = new HyperLogLog(12);
+        final HyperLogLog first = new HyperLogLog(12);
+        final HyperLogLog second = new HyperLogLog(12);
+        for (int i = 0; i < 20000; i++) {
+            final String value = "session" + i;
+            all.add(value);
+            (i % 2 == 0 ? first : second).add(value);
+            if (i % 5 == 0) {
+                // Overlap between the two estimators
+                (i % 2 == 0 ? second : first).add(value);
+            }
+        }
+
+        first.merge(second);
+        assertArrayEquals(all.getBytes(), first.getBytes());
+        assertEquals(all.cardinality(), first.cardinality());
+    }
+
+    @Test
+    public void testMergeHigherPrecision() {
+        final HyperLogLog low = new HyperLogLog(10);
+        final HyperLogLog high = new HyperLogLog(14);
+        for (int i = 0; i < 20000; i++) {
+            low.add("a" + i);
+            high.add("b" + i);
+        }
+
+        final HyperLogLog direct = HyperLogLog.wrap(low.getBytes().clone());
+        for (int i = 0; i < 20000; i++) {
+            direct.add("b" + i);
+        }
+
+        low.merge(high);
+        assertArrayEquals(direct.getBytes(), low.getBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeLowerPrecision() {
+        new HyperLogLog(14).merge(new HyperLogLog(10));
+    }
+
+    @Test
+    public void testWrap() {
+        final HyperLogLog estimate = new HyperLogLog(8);
+        estimate.add("admin");
+
+        final HyperLogLog wrapped = HyperLogLog.wrap(estimate.getBytes());
+        assertEquals(8, wrapped.getPrecision());
+        assertEquals(1, wrapped.cardinality());
+        assertFalse(wrapped.add("admin"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrapInvalid() {
+        HyperLogLog.wrap(new byte[] {12, 0, 0});
+    }
+
+    @Test
+    public void testCardinalityTracksUpdates() {
+        final HyperLogLog estimate = new HyperLogLog(10);
+        final HyperLogLog other = new HyperLogLog(12);
+        for (int i = 0; i < 20000; i++) {
+            if (estimate.add("user" + i) || i % 1000 == 0) {
+                assertEquals(
+                        HyperLogLog.wrap(estimate.getBytes().clone()).cardinality(),
+                        estimate.cardinality());
+            }
+            other.add("other" + i);
+        }
+
+        estimate.merge(other);
+        assertEquals(
+                HyperLogLog.wrap(estimate.getBytes().clone()).cardinality(),
+                estimate.cardinality());
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr.stat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class ValueHistogramTest {
+    private static final double[] PERCENTILES = {1, 25, 50, 90, 95, 99, 99.9, 100};
+
+    @Test
+    public void testEmptyHistogram() {
+        final ValueHistogram histogram = new ValueHistogram();
+
+        assertEquals(0, histogram.getN());
+        assertTrue(Double.isNaN(histogram.getPercentile(95)));
+        assertNull(histogram.toCompactString());
+        assertNotNull(histogram.toString());
+        assertEquals(0, ValueHistogram.fromString(null).getN());
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        final ValueHistogram histogram = new ValueHistogram();
+        for (int i = 0; i < 10; i++) {
+            histogram.addValue(i);
+        }
+
+        assertEquals(0, histogram.getPercentile(10), 0);
+        assertEquals(4, histogram.getPercentile(50), 0);
+        assertEquals(9, histogram.getPercentile(100), 0);
+    }
+
+    @Test
+    public void testPercentileAccuracy() {
+        final Random r = new Random(0);
+        final double[] values = new double[10000];
+        final ValueHistogram histogram = new ValueHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // Log-normal nanosecond durations centered around 20ms
+            values[i] = Math.exp(r.nextGaussian() * 1.5 + Math.log(20000000));
+            histogram.addValue(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (final double percentile : PERCENTILES) {
+            final double expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            final double actual = histogram.getPercentile(percentile);
+            assertEquals("p" + percentile, expected, actual, expected * 0.0625);
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        final Random r = new Random(0);
+        final ValueHistogram all = new ValueHistogram();
+        final ValueHistogram first = new ValueHistogram();
+        final ValueHistogram second = new ValueHistogram();
+        for (int i = 0; i < 1000; i++) {
+            final double value = r.nextInt(100000000);
+            all.addValue(value);
+            (i % 3 == 0 ? first : second).addValue(value);
+        }
+
+        final ValueHistogram merged = new ValueHistogram(first);
+        merged.merge(second);
+
+        assertEquals(all.getN(), merged.getN());
+        assertEquals(all.toCompactString(), merged.toCompactString());
+        for (final double percentile : PERCENTILES) {
+            assertEquals(all.getPercentile(percentile), merged.getPercentile(percentile), 0);
+        }
+    }
+
+    @Test
+    public void testStringRoundTrip() {
+        final ValueHistogram histogram = new ValueHistogram();
+        histogram.addValue(-1);
+        histogram.addValue(12345);
+        histogram.addValue(12345);
+        histogram.addValue(1234567890123L);
+        histogram.addValue(Double.MAX_VALUE);
+
+        final String value = histogram.toCompactString();
+        assertTrue(value.length() < 4000);
+
+        final ValueHistogram parsed = ValueHistogram.fromString(value);
+        assertEquals(histogram.getN(), parsed.getN());
+        assertEquals(value, parsed.toCompactString());
+        for (final double percentile : PERCENTILES) {
+            assertEquals(histogram.getPercentile(percentile), parsed.getPercentile(percentile), 0);
+        }
+    }
+
+    @Test
+    public void testCompactStringIsBounded() {
+        final ValueHistogram histogram = new ValueHistogram();
+        for (int bucket = 0; bucket < ValueHistogram.BUCKET_COUNT; bucket++) {
+            histogram.addValue(ValueHistogram.getBucketMidpoint(bucket));
+        }
+        histogram.addValue(1000);
+        for (int i = 0; i < 40; i++) {
+            histogram.merge(new ValueHistogram(histogram));
+        }
+        assertTrue(histogram.toCompactString().length() > 4000);
+
+        final String value = histogram.toCompactString(4000);
+        assertTrue(value.length() <= 4000);
+
+        final ValueHistogram parsed = ValueHistogram.fromString(value);
+        assertEquals(histogram.getPercentile(50) / parsed.getPercentile(50), 1, 0.07);
+        assertEquals(histogram.getPercentile(100), parsed.getPercentile(100), 0);
+
+        final ValueHistogram allOnes = new ValueHistogram();
+        for (int bucket = 0; bucket < ValueHistogram.BUCKET_COUNT; bucket++) {
+            allOnes.addValue(ValueHistogram.getBucketMidpoint(bucket));
+        }
+        assertTrue(
+                allOnes.toCompactString(ValueHistogram.MIN_COMPACT_LENGTH).length()
+                        <= ValueHistogram.MIN_COMPACT_LENGTH);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EventRingBufferTest {
+    @Test
+    public void testOfferAndPoll() {
+        final EventRingBuffer<String> ringBuffer = new EventRingBuffer<String>(3);
+        assertEquals(4, ringBuffer.capacity());
+        assertNull(ringBuffer.poll());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ringBuffer.offer("e" + i));
+        }
+        assertFalse(ringBuffer.offer("e4"));
+        assertEquals(4, ringBuffer.size());
+
+        assertEquals("e0", ringBuffer.poll());
+        assertTrue(ringBuffer.offer("e4"));
+        for (int i = 1; i < 5; i++) {
+            assertEquals("e" + i, ringBuffer.poll());
+        }
+        assertNull(ringBuffer.poll());
+        assertEquals(0, ringBuffer.size());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final int producers = 4;
+        final int eventsPerProducer = 20000;
+        final EventRingBuffer<int[]> ringBuffer = new EventRingBuffer<int[]>(64);
+
+        final Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] =
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            for (int i = 0; i < eventsPerProducer; i++) {
+                                final int[] event = new int[] {producer, i};
+                                while (!ringBuffer.offer(event)) {
+                                    Thread.yield();
+                                }
+                            }
+                        }
+                    };
+            threads[p].start();
+        }
+
+        // Events from each producer must come out in the order they were offered
+        final int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * eventsPerProducer) {
+            final int[] event = ringBuffer.poll();
+            if (event == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(next[event[0]]++, event[1]);
+            received++;
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(ringBuffer.poll());
+    }
+}
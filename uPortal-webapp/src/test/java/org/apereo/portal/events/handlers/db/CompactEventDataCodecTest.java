@@ -0,0 +1,79 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.junit.Before;
+import org.junit.Test;
+import org.skyscreamer.jsonassert.JSONAssert;
+
+public class CompactEventDataCodecTest {
+    private ObjectMapper mapper;
+
+    @Before
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        mapper = omfb.getObject();
+    }
+
+    @Test
+    public void testLoginEventRoundTrip() throws Exception {
+        assertRoundTrip(
+                "{\"@c\":\".LoginEvent\",\"timestamp\":1371745598080,\"serverId\":\"example.com\",\"eventSessionId\":\"1234567890123_system_AAAAAAAAAAA\",\"userName\":\"system\",\"groups\":[\"Student\"],\"attributes\":{\"username\":[\"system\"],\"roles\":[\"student\",\"employee\",\"student\"]}}");
+    }
+
+    @Test
+    public void testPortletExecutionEventRoundTrip() throws Exception {
+        assertRoundTrip(
+                "{\"@c\":\".PortletRenderExecutionEvent\",\"timestamp\":1371745598080,\"serverId\":\"example.com\",\"eventSessionId\":\"1234567890123_system_AAAAAAAAAAA\",\"userName\":\"system\",\"fname\":\"fname\",\"windowState\":\"maximized\",\"portletMode\":\"view\",\"executionTimeNano\":-12345,\"parameters\":{\"query\":[\"äöü\"]},\"targeted\":true,\"usedPortalCache\":false}");
+    }
+
+    @Test
+    public void testFoldedPortalRenderEventRoundTrip() throws Exception {
+        assertRoundTrip(
+                "{\"@c\":\".PortalRenderEvent\",\"timestamp\":1371745598080,\"serverId\":\"example.com\",\"eventSessionId\":\"1234567890123_system_AAAAAAAAAAA\",\"userName\":\"system\",\"requestPathInfo\":\"/f/u1l1s2/normal/render.uP\",\"urlState\":\"NORMAL\",\"urlType\":\"RENDER\",\"parameters\":{},\"targetedLayoutNodeId\":\"u1l1s2\",\"executionTimeNano\":2000000,\"foldedExecutionTimesNano\":[1000000,3000000000,42]}");
+    }
+
+    @Test
+    public void testJsonIsNotEncoded() throws Exception {
+        assertFalse(
+                CompactEventDataCodec.isEncoded(
+                        "{\"@c\":\".LogoutEvent\",\"timestamp\":1371745598080,\"serverId\":\"example.com\",\"eventSessionId\":\"1234567890123_system_AAAAAAAAAAA\",\"userName\":\"system\"}"));
+    }
+
+    private void assertRoundTrip(String json) throws Exception {
+        final PortalEvent event = mapper.readValue(json, PortalEvent.class);
+        final String encoded = CompactEventDataCodec.encode(mapper.writer(), event);
+
+        assertTrue(CompactEventDataCodec.isEncoded(encoded));
+        assertTrue(encoded.length() < json.length());
+
+        final PersistentPortalEvent persistentPortalEvent =
+                new PersistentPortalEvent(event, encoded);
+        final PortalEvent decoded =
+                CompactEventDataCodec.decode(
+                        mapper, persistentPortalEvent, persistentPortalEvent.getEventType());
+
+        assertEquals(event.getClass(), decoded.getClass());
+        JSONAssert.assertEquals(json, mapper.writeValueAsString(decoded), true);
+    }
+}
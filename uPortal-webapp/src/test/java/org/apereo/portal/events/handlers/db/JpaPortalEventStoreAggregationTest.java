@@ -0,0 +1,262 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class JpaPortalEventStoreAggregationTest {
+    private static final long TIMESTAMP = 1371745560000L;
+    private static final String BROKEN_DATA = "{\"@c\":\".LoginEvent\",";
+
+    private ObjectMapper mapper;
+    private Session session;
+    private TestPortalEventStore store;
+
+    @Before
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        mapper = omfb.getObject();
+        session = mock(Session.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (store != null) {
+            store.gate.countDown();
+            store.destroy();
+        }
+    }
+
+    @Test
+    public void testInlineDecode() throws Exception {
+        verifyAggregation(0);
+    }
+
+    @Test
+    public void testParallelDecode() throws Exception {
+        verifyAggregation(4);
+    }
+
+    @Test
+    public void testDecodeAfterDestroy() throws Exception {
+        store = createStore(2, 5);
+        store.destroy();
+
+        final List<PersistentPortalEvent> events = createEvents(12);
+        final List<String> handled = new ArrayList<String>();
+        assertTrue(store.aggregatePortalEvents(session, scroll(events), collect(handled)));
+
+        assertEquals(12, handled.size());
+        for (final PersistentPortalEvent event : events) {
+            assertTrue(event.isAggregated());
+        }
+    }
+
+    @Test
+    public void testInterruptStopsAggregation() throws Exception {
+        store = createStore(1, 10);
+
+        final List<PersistentPortalEvent> events = createEvents(10);
+        for (int i = 1; i < events.size(); i++) {
+            store.blockedUsers.add(events.get(i).getUserName());
+        }
+
+        final boolean complete =
+                store.aggregatePortalEvents(
+                        session,
+                        scroll(events),
+                        new Function<PortalEvent, Boolean>() {
+                            @Override
+                            public Boolean apply(PortalEvent input) {
+                                Thread.currentThread().interrupt();
+                                return true;
+                            }
+                        });
+
+        assertFalse(complete);
+        assertTrue(Thread.interrupted());
+        assertTrue(events.get(0).isAggregated());
+        for (int i = 1; i < events.size(); i++) {
+            assertFalse(events.get(i).isAggregated());
+            assertFalse(events.get(i).isErrorAggregating());
+        }
+    }
+
+    @Test
+    public void testDestroyCancelsPendingDecodes() throws Exception {
+        store = createStore(1, 10);
+
+        final List<PersistentPortalEvent> events = createEvents(10);
+        store.blockedUsers.add(events.get(1).getUserName());
+
+        final List<String> handled = new ArrayList<String>();
+        final boolean complete =
+                store.aggregatePortalEvents(
+                        session,
+                        scroll(events),
+                        new Function<PortalEvent, Boolean>() {
+                            @Override
+                            public Boolean apply(PortalEvent input) {
+                                if (handled.isEmpty()) {
+                                    // The decoder is stuck on the second event, the rest of the
+                                    // batch is still queued when the store is destroyed
+                                    store.destroy();
+                                    store.gate.countDown();
+                                }
+                                handled.add(input.getUserName());
+                                return true;
+                            }
+                        });
+
+        assertFalse(complete);
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertTrue(handled.size() < events.size());
+        for (int i = 0; i < events.size(); i++) {
+            final PersistentPortalEvent event = events.get(i);
+            assertEquals(i < handled.size(), event.isAggregated());
+            assertFalse(event.isErrorAggregating());
+        }
+    }
+
+    private void verifyAggregation(int decodeThreads) throws Exception {
+        store = createStore(decodeThreads, 7);
+
+        final List<PersistentPortalEvent> events = createEvents(50);
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < events.size(); i++) {
+            if (i % 17 == 3) {
+                events.set(i, new PersistentPortalEvent(loginEvent(i), BROKEN_DATA));
+            } else {
+                expected.add(events.get(i).getUserName());
+            }
+        }
+
+        final List<String> handled = new ArrayList<String>();
+        assertTrue(store.aggregatePortalEvents(session, scroll(events), collect(handled)));
+
+        assertEquals(expected, handled);
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i % 17 == 3, events.get(i).isErrorAggregating());
+            assertEquals(i % 17 != 3, events.get(i).isAggregated());
+        }
+        verify(session, atLeastOnce()).flush();
+    }
+
+    private TestPortalEventStore createStore(int decodeThreads, int decodeBatchSize) {
+        final TestPortalEventStore store = new TestPortalEventStore();
+        store.setMapper(mapper);
+        store.setAggregationFlushPeriod(5);
+        store.setAggregationDecodeThreads(decodeThreads);
+        store.setAggregationDecodeBatchSize(decodeBatchSize);
+        store.initDecodeExecutor();
+        return store;
+    }
+
+    private List<PersistentPortalEvent> createEvents(int count) throws Exception {
+        final List<PersistentPortalEvent> events = new ArrayList<PersistentPortalEvent>(count);
+        for (int i = 0; i < count; i++) {
+            final PortalEvent event = loginEvent(i);
+            events.add(new PersistentPortalEvent(event, mapper.writeValueAsString(event)));
+        }
+        return events;
+    }
+
+    private PortalEvent loginEvent(int index) throws Exception {
+        return mapper.readValue(
+                "{\"@c\":\".LoginEvent\",\"timestamp\":"
+                        + (TIMESTAMP + index * 1000)
+                        + ",\"serverId\":\"example.com\",\"eventSessionId\":\"sess\",\"userName\":\"user"
+                        + index
+                        + "\",\"groups\":[],\"attributes\":{}}",
+                PortalEvent.class);
+    }
+
+    private static Function<PortalEvent, Boolean> collect(final List<String> handled) {
+        return new Function<PortalEvent, Boolean>() {
+            @Override
+            public Boolean apply(PortalEvent input) {
+                handled.add(input.getUserName());
+                return true;
+            }
+        };
+    }
+
+    private static ScrollableResults scroll(List<PersistentPortalEvent> events) {
+        final Iterator<PersistentPortalEvent> eventItr = events.iterator();
+        final Object[] current = new Object[1];
+
+        final ScrollableResults results = mock(ScrollableResults.class);
+        when(results.next())
+                .thenAnswer(
+                        new Answer<Boolean>() {
+                            @Override
+                            public Boolean answer(InvocationOnMock invocation) {
+                                if (!eventItr.hasNext()) {
+                                    return false;
+                                }
+                                current[0] = eventItr.next();
+                                return true;
+                            }
+                        });
+        when(results.get(0))
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                return current[0];
+                            }
+                        });
+        return results;
+    }
+
+    /** Store that holds back the decoding of the events of some users until the gate opens */
+    private static class TestPortalEventStore extends JpaPortalEventStore {
+        final List<String> blockedUsers = new ArrayList<String>();
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        protected <E extends PortalEvent> E toPortalEvent(
+                PersistentPortalEvent persistentPortalEvent, Class<E> eventType) {
+            if (this.blockedUsers.contains(persistentPortalEvent.getUserName())) {
+                Uninterruptibles.awaitUninterruptibly(this.gate);
+            }
+            return super.toPortalEvent(persistentPortalEvent, eventType);
+        }
+    }
+}
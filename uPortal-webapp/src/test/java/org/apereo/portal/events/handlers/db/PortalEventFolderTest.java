@@ -0,0 +1,169 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apereo.portal.events.LoginEvent;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.events.PortalRenderEvent;
+import org.apereo.portal.events.PortletRenderExecutionEvent;
+import org.apereo.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PortalEventFolderTest {
+    private static final long MINUTE = 1371745560000L;
+
+    private ObjectMapper mapper;
+    private PortalEventFolder folder;
+
+    @Before
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        mapper = omfb.getObject();
+
+        folder =
+                new PortalEventFolder(
+                        mapper,
+                        Arrays.<Class<? extends PortalEvent>>asList(
+                                PortletRenderExecutionEvent.class, PortalRenderEvent.class));
+    }
+
+    @Test
+    public void testFoldPortletRenderEvents() throws Exception {
+        assertTrue(folder.add(renderEvent(MINUTE + 2000, "sess", "weather", 200)));
+        assertTrue(folder.add(renderEvent(MINUTE + 5000, "sess", "weather", 500)));
+        assertTrue(folder.add(renderEvent(MINUTE + 1000, "sess", "weather", 100)));
+        assertTrue(folder.add(renderEvent(MINUTE + 3000, "sess", "news", 300)));
+        assertTrue(folder.add(renderEvent(MINUTE + 4000, "other", "weather", 400)));
+        assertTrue(folder.add(renderEvent(MINUTE + 60000, "sess", "weather", 600)));
+        assertFalse(folder.add(loginEvent(MINUTE + 1000)));
+        assertEquals(6, folder.getPendingEventCount());
+
+        // Nothing is released until the minute has ended
+        assertEquals(Collections.emptyList(), folder.drain(MINUTE + 59999));
+
+        final List<PortalEvent> events = folder.drain(MINUTE + 60000);
+        assertEquals(3, events.size());
+        assertEquals(1, folder.getPendingEventCount());
+        assertEquals(2, folder.getFoldedEventCount());
+
+        long total = 0;
+        for (final PortalEvent event : events) {
+            final PortletRenderExecutionEvent renderEvent = (PortletRenderExecutionEvent) event;
+            total += renderEvent.getExecutionTimeNano();
+            for (final long foldedTime : renderEvent.getFoldedExecutionTimesNano()) {
+                total += foldedTime;
+            }
+
+            if ("sess".equals(event.getEventSessionId())
+                    && "weather".equals(renderEvent.getFname())) {
+                // The latest event is kept and the earlier times are folded into it
+                assertEquals(MINUTE + 5000, event.getTimestamp());
+                assertEquals(500, renderEvent.getExecutionTimeNano());
+                final long[] foldedTimes = renderEvent.getFoldedExecutionTimesNano();
+                Arrays.sort(foldedTimes);
+                assertArrayEquals(new long[] {100, 200}, foldedTimes);
+            } else {
+                assertEquals(0, renderEvent.getFoldedExecutionTimesNano().length);
+            }
+        }
+        assertEquals(1500, total);
+
+        final List<PortalEvent> remaining = folder.drain(Long.MAX_VALUE);
+        assertEquals(1, remaining.size());
+        assertEquals(MINUTE + 60000, remaining.get(0).getTimestamp());
+        assertEquals(0, folder.getPendingEventCount());
+    }
+
+    @Test
+    public void testFoldedEventRoundTrip() throws Exception {
+        folder.add(tabRenderEvent(MINUTE + 1000, "u1l1s2", 100));
+        folder.add(tabRenderEvent(MINUTE + 2000, "u1l1s2", 200));
+
+        final List<PortalEvent> events = folder.drain(Long.MAX_VALUE);
+        assertEquals(1, events.size());
+
+        final PortalRenderEvent event =
+                (PortalRenderEvent)
+                        mapper.readValue(
+                                mapper.writeValueAsString(events.get(0)), PortalEvent.class);
+        assertEquals(MINUTE + 2000, event.getTimestamp());
+        assertEquals(200, event.getExecutionTimeNano());
+        assertEquals("u1l1s2", event.getTargetedLayoutNodeId());
+        assertArrayEquals(new long[] {100}, event.getFoldedExecutionTimesNano());
+    }
+
+    @Test
+    public void testUnfoldedEventHasNoFoldedTimes() throws Exception {
+        final PortalRenderEvent event = tabRenderEvent(MINUTE, "u1l1s2", 100);
+        assertEquals(0, event.getFoldedExecutionTimesNano().length);
+        assertFalse(mapper.writeValueAsString(event).contains("foldedExecutionTimesNano"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOnlyTimedEventsFolded() {
+        new PortalEventFolder(
+                mapper, Collections.<Class<? extends PortalEvent>>singletonList(LoginEvent.class));
+    }
+
+    private PortletRenderExecutionEvent renderEvent(
+            long timestamp, String sessionId, String fname, long executionTime) throws Exception {
+        return (PortletRenderExecutionEvent)
+                mapper.readValue(
+                        "{\"@c\":\".PortletRenderExecutionEvent\",\"timestamp\":"
+                                + timestamp
+                                + ",\"serverId\":\"example.com\",\"eventSessionId\":\""
+                                + sessionId
+                                + "\",\"userName\":\"system\",\"fname\":\""
+                                + fname
+                                + "\",\"windowState\":\"normal\",\"portletMode\":\"view\",\"executionTimeNano\":"
+                                + executionTime
+                                + ",\"parameters\":{},\"targeted\":false,\"usedPortalCache\":false}",
+                        PortalEvent.class);
+    }
+
+    private PortalRenderEvent tabRenderEvent(
+            long timestamp, String targetedLayoutNodeId, long executionTime) throws Exception {
+        return (PortalRenderEvent)
+                mapper.readValue(
+                        "{\"@c\":\".PortalRenderEvent\",\"timestamp\":"
+                                + timestamp
+                                + ",\"serverId\":\"example.com\",\"eventSessionId\":\"sess\",\"userName\":\"system\",\"requestPathInfo\":\"/f/u1l1s2/normal/render.uP\",\"urlState\":\"NORMAL\",\"urlType\":\"RENDER\",\"parameters\":{},\"targetedLayoutNodeId\":\""
+                                + targetedLayoutNodeId
+                                + "\",\"executionTimeNano\":"
+                                + executionTime
+                                + "}",
+                        PortalEvent.class);
+    }
+
+    private LoginEvent loginEvent(long timestamp) throws Exception {
+        return (LoginEvent)
+                mapper.readValue(
+                        "{\"@c\":\".LoginEvent\",\"timestamp\":"
+                                + timestamp
+                                + ",\"serverId\":\"example.com\",\"eventSessionId\":\"sess\",\"userName\":\"system\",\"groups\":[],\"attributes\":{}}",
+                        PortalEvent.class);
+    }
+}
@@ -0,0 +1,347 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Function;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.persistence.EntityManager;
+import org.apereo.portal.IPortalInfoProvider;
+import org.apereo.portal.concurrency.locking.IClusterLockService;
+import org.apereo.portal.events.LoginEvent;
+import org.apereo.portal.events.PortalEvent;
+import org.apereo.portal.events.PortletRenderExecutionEvent;
+import org.apereo.portal.events.aggr.IEventAggregatorStatus;
+import org.apereo.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
+import org.apereo.portal.events.aggr.IPortalEventAggregator;
+import org.apereo.portal.events.aggr.PortalEventDimensionPopulator;
+import org.apereo.portal.events.aggr.PortalRawEventsAggregator;
+import org.apereo.portal.events.aggr.PortalRawEventsAggregatorImpl;
+import org.apereo.portal.events.aggr.SimplePortalEventAggregator;
+import org.apereo.portal.events.aggr.dao.IEventAggregationManagementDao;
+import org.apereo.portal.events.aggr.session.EventSession;
+import org.apereo.portal.events.aggr.session.EventSessionDao;
+import org.apereo.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.Period;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Runs the event folding of {@link PortalEventDaoQueuingEventHandler} and the {@link
+ * PortalRawEventsAggregatorImpl} against the same in memory event store on a simulated clock.
+ */
+public class PortalEventFoldingAggregationTest {
+    private static final long START = 1371745560000L;
+    private static final long FLUSH_PERIOD = 1000;
+
+    private ObjectMapper mapper;
+    private IPortalEventDao portalEventDao;
+    private final List<PortalEvent> storedEvents = new ArrayList<PortalEvent>();
+    private final List<PortalEvent> aggregatedEvents = new ArrayList<PortalEvent>();
+    private final AtomicReference<DateTime> lastEventDate = new AtomicReference<DateTime>();
+    private long aggregatedExecutionTime;
+    private int aggregatedExecutionCount;
+
+    @Before
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        mapper = omfb.getObject();
+        portalEventDao = createPortalEventDao();
+        lastEventDate.set(new DateTime(START));
+    }
+
+    @After
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFoldingRequiresLongerAggregationDelay() throws Exception {
+        createHandler(Period.seconds(30));
+    }
+
+    @Test
+    public void testDefaultAggregationDelayWithoutFolding() throws Exception {
+        final PortalEventDaoQueuingEventHandler handler = new PortalEventDaoQueuingEventHandler();
+        handler.setMapper(mapper);
+        handler.afterPropertiesSet();
+    }
+
+    @Test
+    public void testAllFoldedEventsAggregated() throws Exception {
+        final long expectedExecutionTime = runEvents(Period.minutes(2));
+
+        assertEquals(storedEvents.size(), aggregatedEvents.size());
+        assertEquals(100, aggregatedExecutionCount);
+        assertEquals(expectedExecutionTime, aggregatedExecutionTime);
+        assertEquals(3 * 5 + 30, storedEvents.size());
+    }
+
+    @Test
+    public void testFoldedEventsSkippedWithShortAggregationDelay() throws Exception {
+        final long expectedExecutionTime = runEvents(Period.seconds(30));
+
+        // Shows why the handler refuses to fold with a delay this short
+        assertTrue(aggregatedEvents.size() < storedEvents.size());
+        assertTrue(aggregatedExecutionTime < expectedExecutionTime);
+    }
+
+    /**
+     * Render a portlet every second for the first 20 seconds of each minute and log in every ten
+     * seconds for five minutes, flushing every second and aggregating every five seconds. Then keep
+     * flushing and aggregating for another five minutes.
+     *
+     * @return The total execution time of the rendered portlets
+     */
+    private long runEvents(Period aggregationDelay) throws Exception {
+        final PortalEventDaoQueuingEventHandler handler = createHandler(Period.minutes(2));
+        final PortalRawEventsAggregatorImpl aggregator = createAggregator(aggregationDelay);
+
+        long expectedExecutionTime = 0;
+        for (int second = 0; second < 600; second++) {
+            final long now = START + second * FLUSH_PERIOD;
+            DateTimeUtils.setCurrentMillisFixed(now);
+
+            if (second < 300) {
+                if (second % 60 >= 1 && second % 60 <= 20) {
+                    final long executionTime = second + 1;
+                    handler.onApplicationEvent(
+                            renderEvent(now - 100, "sess" + (second % 3), executionTime));
+                    expectedExecutionTime += executionTime;
+                }
+                if (second % 10 == 0) {
+                    handler.onApplicationEvent(loginEvent(now - 100, "sess" + (second % 3)));
+                }
+            }
+
+            handler.flush();
+            if (second % 5 == 0) {
+                aggregator.doAggregateRawEvents();
+            }
+        }
+        return expectedExecutionTime;
+    }
+
+    private PortalEventDaoQueuingEventHandler createHandler(Period aggregationDelay)
+            throws Exception {
+        final PortalEventDaoQueuingEventHandler handler = new PortalEventDaoQueuingEventHandler();
+        handler.setMapper(mapper);
+        handler.setPortalEventDao(portalEventDao);
+        handler.setFlushPeriod(FLUSH_PERIOD);
+        handler.setAggregationDelay(aggregationDelay);
+        handler.setFoldedEventTypes(new Class[] {PortletRenderExecutionEvent.class});
+        handler.afterPropertiesSet();
+        return handler;
+    }
+
+    /** Event store that keeps the stored events in memory */
+    private IPortalEventDao createPortalEventDao() {
+        final IPortalEventDao portalEventDao = mock(IPortalEventDao.class);
+        when(portalEventDao.aggregatePortalEvents(
+                        any(DateTime.class),
+                        any(DateTime.class),
+                        anyInt(),
+                        (Function<PortalEvent, Boolean>) any(Function.class)))
+                .then(
+                        new Answer<Boolean>() {
+                            @Override
+                            public Boolean answer(InvocationOnMock invocation) {
+                                final long start =
+                                        ((DateTime) invocation.getArguments()[0]).getMillis();
+                                final long end =
+                                        ((DateTime) invocation.getArguments()[1]).getMillis();
+                                final Function<PortalEvent, Boolean> handler =
+                                        (Function<PortalEvent, Boolean>)
+                                                invocation.getArguments()[3];
+
+                                final List<PortalEvent> events =
+                                        new ArrayList<PortalEvent>(storedEvents);
+                                Collections.sort(
+                                        events,
+                                        new Comparator<PortalEvent>() {
+                                            @Override
+                                            public int compare(PortalEvent o1, PortalEvent o2) {
+                                                return Long.compare(
+                                                        o1.getTimestamp(), o2.getTimestamp());
+                                            }
+                                        });
+                                for (final PortalEvent event : events) {
+                                    if (event.getTimestamp() >= start
+                                            && event.getTimestamp() < end
+                                            && !aggregatedEvents.contains(event)) {
+                                        if (!handler.apply(event)) {
+                                            return false;
+                                        }
+                                        aggregatedEvents.add(event);
+                                    }
+                                }
+                                return true;
+                            }
+                        });
+        doAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                for (final PortalEvent event :
+                                        (Iterable<PortalEvent>) invocation.getArguments()[0]) {
+                                    storedEvents.add(event);
+                                }
+                                return null;
+                            }
+                        })
+                .when(portalEventDao)
+                .storePortalEvents(any(Iterable.class));
+        return portalEventDao;
+    }
+
+    private PortalRawEventsAggregatorImpl createAggregator(Period aggregationDelay) {
+        final PortalRawEventsAggregatorImpl aggregator = new PortalRawEventsAggregatorImpl();
+        aggregator.setAggregationDelay(aggregationDelay);
+
+        final TransactionOperations transactionOperations = mock(TransactionOperations.class);
+        when(transactionOperations.execute(any(TransactionCallback.class)))
+                .then(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                return ((TransactionCallback<?>) invocation.getArguments()[0])
+                                        .doInTransaction(mock(TransactionStatus.class));
+                            }
+                        });
+        aggregator.setTransactionOperations(transactionOperations);
+        aggregator.setEntityManager(mock(EntityManager.class));
+
+        final IClusterLockService clusterLockService = mock(IClusterLockService.class);
+        when(clusterLockService.isLockOwner(PortalRawEventsAggregator.AGGREGATION_LOCK_NAME))
+                .thenReturn(true);
+        aggregator.setClusterLockService(clusterLockService);
+
+        final PortalEventDimensionPopulator dimensionPopulator =
+                mock(PortalEventDimensionPopulator.class);
+        when(dimensionPopulator.isCheckedDimensions()).thenReturn(true);
+        aggregator.setPortalEventDimensionPopulator(dimensionPopulator);
+
+        final IEventAggregatorStatus status = mock(IEventAggregatorStatus.class);
+        when(status.getLastEventDate())
+                .then(
+                        new Answer<DateTime>() {
+                            @Override
+                            public DateTime answer(InvocationOnMock invocation) {
+                                return lastEventDate.get();
+                            }
+                        });
+        doAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) {
+                                lastEventDate.set((DateTime) invocation.getArguments()[0]);
+                                return null;
+                            }
+                        })
+                .when(status)
+                .setLastEventDate(any(DateTime.class));
+        final IEventAggregationManagementDao managementDao =
+                mock(IEventAggregationManagementDao.class);
+        when(managementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true))
+                .thenReturn(status);
+        aggregator.setEventAggregationManagementDao(managementDao);
+
+        final IPortalInfoProvider portalInfoProvider = mock(IPortalInfoProvider.class);
+        when(portalInfoProvider.getUniqueServerName()).thenReturn("example.com");
+        aggregator.setPortalInfoProvider(portalInfoProvider);
+
+        final EventSessionDao eventSessionDao = mock(EventSessionDao.class);
+        when(eventSessionDao.getEventSession(any(PortalEvent.class)))
+                .thenReturn(mock(EventSession.class));
+        aggregator.setEventSessionDao(eventSessionDao);
+
+        aggregator.setPortalEventDao(portalEventDao);
+        aggregator.setPortalEventAggregators(
+                Collections.<IPortalEventAggregator<PortalEvent>>singleton(
+                        new ExecutionTimeAggregator()));
+        return aggregator;
+    }
+
+    private PortletRenderExecutionEvent renderEvent(
+            long timestamp, String sessionId, long executionTime) throws Exception {
+        return (PortletRenderExecutionEvent)
+                mapper.readValue(
+                        "{\"@c\":\".PortletRenderExecutionEvent\",\"timestamp\":"
+                                + timestamp
+                                + ",\"serverId\":\"example.com\",\"eventSessionId\":\""
+                                + sessionId
+                                + "\",\"userName\":\"system\",\"fname\":\"weather\",\"windowState\":\"normal\",\"portletMode\":\"view\",\"executionTimeNano\":"
+                                + executionTime
+                                + ",\"parameters\":{},\"targeted\":false,\"usedPortalCache\":false}",
+                        PortalEvent.class);
+    }
+
+    private LoginEvent loginEvent(long timestamp, String sessionId) throws Exception {
+        return (LoginEvent)
+                mapper.readValue(
+                        "{\"@c\":\".LoginEvent\",\"timestamp\":"
+                                + timestamp
+                                + ",\"serverId\":\"example.com\",\"eventSessionId\":\""
+                                + sessionId
+                                + "\",\"userName\":\"system\",\"groups\":[],\"attributes\":{}}",
+                        PortalEvent.class);
+    }
+
+    /** Adds up the execution times of the aggregated render events, including folded ones */
+    private final class ExecutionTimeAggregator
+            implements SimplePortalEventAggregator<PortalEvent> {
+        @Override
+        public boolean supports(Class<? extends PortalEvent> type) {
+            return PortletRenderExecutionEvent.class.isAssignableFrom(type);
+        }
+
+        @Override
+        public boolean supports(PortalEvent event) {
+            return this.supports(event.getClass());
+        }
+
+        @Override
+        public void aggregateEvent(PortalEvent e, EventSession eventSession) {
+            final PortletRenderExecutionEvent event = (PortletRenderExecutionEvent) e;
+            aggregatedExecutionTime += event.getExecutionTimeNano();
+            aggregatedExecutionCount++;
+            for (final long foldedExecutionTime : event.getFoldedExecutionTimesNano()) {
+                aggregatedExecutionTime += foldedExecutionTime;
+                aggregatedExecutionCount++;
+            }
+        }
+    }
+}
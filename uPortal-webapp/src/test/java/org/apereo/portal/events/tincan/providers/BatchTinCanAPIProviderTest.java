@@ -0,0 +1,185 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.tincan.providers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apereo.portal.events.tincan.om.LocalizedString;
+import org.apereo.portal.events.tincan.om.LrsActor;
+import org.apereo.portal.events.tincan.om.LrsObject;
+import org.apereo.portal.events.tincan.om.LrsStatement;
+import org.apereo.portal.events.tincan.om.LrsVerb;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.web.client.RestTemplate;
+
+/** Runs {@link BatchTinCanAPIProvider} against a stub LRS */
+public class BatchTinCanAPIProviderTest {
+    private static final String ID = "test-lrs";
+
+    @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<JsonNode> statementPosts = Collections.synchronizedList(new ArrayList<>());
+    private volatile int statementStatus = 200;
+    private HttpServer server;
+    private Map<String, Object> properties;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(
+                "/xAPI",
+                new HttpHandler() {
+                    @Override
+                    public void handle(HttpExchange exchange) throws IOException {
+                        int status = 200;
+                        if (exchange.getRequestURI().getPath().endsWith("/statements")) {
+                            status = statementStatus;
+                            if (status == 200) {
+                                statementPosts.add(mapper.readTree(exchange.getRequestBody()));
+                            }
+                        }
+                        final byte[] body = "[]".getBytes("UTF-8");
+                        exchange.getResponseHeaders().add("Content-Type", "application/json");
+                        exchange.sendResponseHeaders(status, body.length);
+                        exchange.getResponseBody().write(body);
+                        exchange.close();
+                    }
+                });
+        server.start();
+
+        properties = new HashMap<>();
+        properties.put(
+                "org.apereo.portal.tincan-api." + ID + ".url",
+                "http://localhost:" + server.getAddress().getPort() + "/xAPI/");
+        properties.put("org.apereo.portal.tincan-api." + ID + ".max-batch-size", "2");
+        properties.put("org.apereo.portal.tincan-api." + ID + ".retry-initial-delay", "0");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testBatchesAndRetries() {
+        final BatchTinCanAPIProvider provider = createProvider();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(provider.sendEvent(createStatement(i)));
+        }
+
+        statementStatus = 503;
+        provider.sendBatch();
+        assertEquals(1, provider.getFailedPostCount());
+        assertEquals(0, provider.getSentStatementCount());
+        assertTrue(statementPosts.isEmpty());
+
+        statementStatus = 200;
+        provider.sendBatch();
+        assertEquals(5, provider.getSentStatementCount());
+        assertEquals(0, provider.getQueuedStatementCount());
+        assertEquals(3, statementPosts.size());
+        assertEquals(2, statementPosts.get(0).size());
+        assertEquals(1, statementPosts.get(2).size());
+        assertEquals(
+                "http://example.com/activity/0",
+                statementPosts.get(0).get(0).get("object").get("id").asText());
+    }
+
+    @Test
+    public void testRejectedBatchIsDropped() {
+        final BatchTinCanAPIProvider provider = createProvider();
+        provider.sendEvent(createStatement(0));
+
+        statementStatus = 400;
+        provider.sendBatch();
+        assertEquals(1, provider.getDroppedStatementCount());
+        assertEquals(0, provider.getFailedPostCount());
+
+        statementStatus = 200;
+        provider.sendBatch();
+        assertTrue(statementPosts.isEmpty());
+    }
+
+    @Test
+    public void testSpillAndReload() throws IOException {
+        properties.put("org.apereo.portal.tincan-api." + ID + ".max-queue-size", "2");
+        properties.put(
+                "org.apereo.portal.tincan-api." + ID + ".spill-directory",
+                tempFolder.newFolder().getAbsolutePath());
+
+        final BatchTinCanAPIProvider provider = createProvider();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(provider.sendEvent(createStatement(i)));
+        }
+        assertEquals(2, provider.getQueuedStatementCount());
+        assertEquals(3, provider.getSpilledStatementCount());
+
+        provider.destroy();
+        assertEquals(5, provider.getSpilledStatementCount());
+
+        final BatchTinCanAPIProvider restarted = createProvider();
+        assertEquals(5, restarted.getSpilledStatementCount());
+        restarted.sendBatch();
+        assertEquals(5, restarted.getSentStatementCount());
+        assertEquals(0, restarted.getSpilledStatementCount());
+        assertEquals(0, restarted.getDroppedStatementCount());
+    }
+
+    private BatchTinCanAPIProvider createProvider() {
+        final StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("test", properties));
+
+        final BatchTinCanAPIProvider provider = new BatchTinCanAPIProvider();
+        provider.setId(ID);
+        provider.setEnabled(true);
+        provider.setRestTemplate(new RestTemplate());
+        provider.setPropertyResolver(environment);
+        provider.init();
+        return provider;
+    }
+
+    private LrsStatement createStatement(int i) {
+        return new LrsStatement(
+                new LrsActor("mailto:user" + i + "@example.com", "user" + i),
+                LrsVerb.INTERACTED,
+                new LrsObject(
+                        URI.create("http://example.com/activity/" + i),
+                        "Activity",
+                        Collections.singletonMap(
+                                "name", new LocalizedString(Locale.ENGLISH, "Activity " + i))));
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.Configuration;
+import org.apereo.portal.portlet.rendering.PortletRenderResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapPortletOutputStoresTest {
+    private CacheManager cacheManager;
+    private Cache cache;
+    private OffHeapPortletOutputStores stores;
+
+    @Before
+    public void setup() {
+        this.cacheManager =
+                CacheManager.newInstance(
+                        new Configuration().name("offHeapPortletOutputStoresTest"));
+        this.cache = new Cache("portletOutput", 100, false, false, 300, 300);
+        this.cacheManager.addCache(this.cache);
+
+        this.stores = new OffHeapPortletOutputStores();
+        this.stores.setEnabled(true);
+        this.stores.setMaxBytesPerRegion(40000);
+    }
+
+    @After
+    public void tearDown() {
+        this.cacheManager.shutdown();
+    }
+
+    @Test
+    public void testOutputRoundTrip() {
+        final OffHeapPortletOutputStore store = this.stores.getStore(this.cache);
+        assertSame(store, this.stores.getStore(this.cache));
+
+        final String writerOutput = "<div>hello é world</div>";
+        final CachedPortletData<PortletRenderResult> writerData =
+                createData(writerOutput, null).moveOffHeap(store);
+        assertNotNull(writerData.getOffHeapOutput());
+        assertEquals(writerOutput, writerData.getCachedWriterOutput());
+        assertNull(writerData.getCachedStreamOutput());
+        assertSame(writerData, writerData.moveOffHeap(store));
+
+        final byte[] streamOutput = new byte[] {1, 2, 3, 4, 5};
+        final CachedPortletData<PortletRenderResult> streamData =
+                createData(null, streamOutput).moveOffHeap(store);
+        assertArrayEquals(streamOutput, streamData.getCachedStreamOutput());
+        assertNull(streamData.getCachedWriterOutput());
+
+        assertEquals(writerOutput.length() * 2 + streamOutput.length, store.getStoredBytes());
+        assertEquals(2, store.getEntryCount());
+        assertEquals(
+                store.getStoredBytes(),
+                this.stores.getRegionStatistics().get("portletOutput").getStoredBytes());
+    }
+
+    @Test
+    public void testEvictionByByteBudget() {
+        final OffHeapPortletOutputStore store = this.stores.getStore(this.cache);
+
+        final byte[] output = new byte[1000];
+        Arrays.fill(output, (byte) 7);
+        final CachedPortletData<PortletRenderResult> first =
+                createData(null, output).moveOffHeap(store);
+        final CachedPortletData<PortletRenderResult> pinned = first.pinOutput();
+        assertNotNull(pinned);
+
+        for (int i = 0; i < 100; i++) {
+            createData(null, output).moveOffHeap(store);
+        }
+
+        assertTrue(store.getStoredBytes() <= 40000);
+        assertTrue(store.getEvictionCount() > 0);
+        assertEquals(store.getEntryCount() * output.length, store.getStoredBytes());
+
+        // Pinned output can still be replayed after it is evicted
+        if (!first.getOffHeapOutput().isStored()) {
+            assertNull(first.pinOutput());
+        }
+        assertArrayEquals(output, pinned.getCachedStreamOutput());
+    }
+
+    @Test
+    public void testReleasedWithCacheEntry() {
+        final OffHeapPortletOutputStore store = this.stores.getStore(this.cache);
+
+        final CachedPortletData<PortletRenderResult> data =
+                createData("cached output", null).moveOffHeap(store);
+        this.cache.put(new Element("key", data));
+        assertEquals(26, this.stores.getStoredBytes());
+
+        this.cache.remove("key");
+        assertEquals(0, this.stores.getStoredBytes());
+        assertNull(data.pinOutput());
+        assertEquals(1, store.getMissCount());
+    }
+
+    @Test
+    public void testReleasedWhenReplaced() {
+        final OffHeapPortletOutputStore store = this.stores.getStore(this.cache);
+
+        final CachedPortletData<PortletRenderResult> first =
+                createData("first output", null).moveOffHeap(store);
+        this.cache.put(new Element("key", first));
+        assertEquals(24, this.stores.getStoredBytes());
+
+        final CachedPortletData<PortletRenderResult> second =
+                createData("second output", null).moveOffHeap(store);
+        this.cache.put(new Element("key", second));
+        assertEquals(26, this.stores.getStoredBytes());
+        assertEquals(1, store.getEntryCount());
+        assertNull(first.pinOutput());
+        assertEquals("second output", second.pinOutput().getCachedWriterOutput());
+
+        // Putting the same data again must not release it
+        this.cache.put(new Element("key", second));
+        assertEquals(26, this.stores.getStoredBytes());
+
+        this.cache.remove("key");
+        assertEquals(0, this.stores.getStoredBytes());
+    }
+
+    private static CachedPortletData<PortletRenderResult> createData(
+            String writerOutput, byte[] streamOutput) {
+        return new CachedPortletData<PortletRenderResult>(
+                new PortletRenderResult("title", null, 0, 1000l),
+                writerOutput,
+                streamOutput,
+                "text/html",
+                false,
+                null,
+                300);
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.transform.OutputKeys;
+import org.apereo.portal.character.stream.CharacterEventBufferReader;
+import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.CharacterEventTypes;
+import org.apereo.portal.character.stream.events.ChunkPointPlaceholderEvent;
+import org.apereo.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.apereo.portal.mock.portlet.om.MockPortletWindowId;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class PortletRenderingIncorporationComponentTest {
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @Mock private IPortletExecutionManager portletExecutionManager;
+    @Mock private CharacterPipelineComponent wrappedComponent;
+    private final IPortletWindowId fastPortletWindowId = new MockPortletWindowId("fast");
+    private final IPortletWindowId slowPortletWindowId = new MockPortletWindowId("slow");
+
+    private PortletRenderingIncorporationComponent incorporationComponent;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        when(portletExecutionManager.isPortletRenderComplete(
+                        fastPortletWindowId, request, response))
+                .thenReturn(true);
+        when(portletExecutionManager.getPortletOutput(fastPortletWindowId, request, response))
+                .thenReturn("[fast]");
+        when(portletExecutionManager.isPortletRenderComplete(
+                        slowPortletWindowId, request, response))
+                .thenReturn(false);
+        when(portletExecutionManager.getPortletOutput(slowPortletWindowId, request, response))
+                .thenReturn("[slow]");
+
+        final List<CharacterEvent> events =
+                Arrays.asList(
+                        CharacterDataEventImpl.create("<html><body>"),
+                        new PortletContentPlaceholderEventImpl(slowPortletWindowId),
+                        ChunkPointPlaceholderEvent.INSTANCE,
+                        new PortletContentPlaceholderEventImpl(fastPortletWindowId),
+                        ChunkPointPlaceholderEvent.INSTANCE,
+                        CharacterDataEventImpl.create("<footer/></body></html>"));
+        final PipelineEventReaderImpl<CharacterEventReader, CharacterEvent> pipelineEventReader =
+                new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                        new CharacterEventBufferReader(
+                                new ArrayList<CharacterEvent>(events).listIterator()));
+        pipelineEventReader.setOutputProperty(OutputKeys.MEDIA_TYPE, "text/html");
+        when(wrappedComponent.getEventReader(request, response)).thenReturn(pipelineEventReader);
+
+        incorporationComponent = new PortletRenderingIncorporationComponent();
+        incorporationComponent.setWrappedComponent(wrappedComponent);
+        incorporationComponent.setPortletExecutionManager(portletExecutionManager);
+    }
+
+    @Test
+    public void testLayoutOrder() {
+        assertEquals("<html><body>[slow][fast]<footer/></body></html>", this.renderPage());
+    }
+
+    @Test
+    public void testProgressiveRendering() {
+        incorporationComponent.setProgressiveRendering(true);
+
+        final String page = this.renderPage();
+
+        final int slot = page.indexOf("<div id=\"up-deferred-0\"></div>");
+        final int fast = page.indexOf("[fast]");
+        final int footer = page.indexOf("<footer/>");
+        final int slow = page.indexOf("[slow]");
+        final int endBody = page.indexOf("</body>");
+        assertTrue(page, 0 < slot && slot < fast && fast < footer);
+        assertTrue(page, footer < slow && slow < endBody);
+        assertTrue(page, page.endsWith("</body></html>"));
+    }
+
+    private String renderPage() {
+        final StringBuilder page = new StringBuilder();
+        for (final CharacterEvent event :
+                incorporationComponent.getEventReader(request, response)) {
+            assertEquals(CharacterEventTypes.CHARACTER, event.getEventType());
+            page.append(((CharacterDataEvent) event).getData());
+        }
+        return page.toString();
+    }
+}
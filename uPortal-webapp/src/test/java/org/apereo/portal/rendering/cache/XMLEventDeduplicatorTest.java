@@ -0,0 +1,110 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.events.XMLEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** */
+public class XMLEventDeduplicatorTest {
+    private static final String DOCUMENT =
+            "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body class=\"up\">"
+                    + "<div id=\"a\" class=\"portlet\">text<![CDATA[cdata]]></div>"
+                    + "<div id=\"a\" class=\"portlet\">text</div>"
+                    + "</body></html>";
+
+    @Test
+    public void testEquivalentEventsShared() throws Exception {
+        final List<XMLEvent> first = deduplicate(parse(DOCUMENT));
+        final List<XMLEvent> second = deduplicate(parse(DOCUMENT));
+
+        Assert.assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            final XMLEvent event = first.get(i);
+            if (event.isStartDocument()
+                    || event.isEndDocument()
+                    || (event.isStartElement() && event.asStartElement().getNamespaces().hasNext())
+                    || (event.isEndElement() && event.asEndElement().getNamespaces().hasNext())) {
+                // Not shared
+                Assert.assertNotSame(event, second.get(i));
+            } else {
+                Assert.assertSame(event, second.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testDeduplicatedEventsReplay() throws Exception {
+        final List<XMLEvent> original = parse(DOCUMENT);
+        final List<XMLEvent> deduplicated = deduplicate(original);
+
+        Assert.assertEquals(write(original), write(deduplicated));
+    }
+
+    @Test
+    public void testPrefixesPreserved() throws Exception {
+        // Two prefixes bound to the same namespace, QName.equals() would consider the names equal
+        final String document =
+                "<root xmlns:a=\"urn:test\" xmlns:b=\"urn:test\">"
+                        + "<a:item a:id=\"1\">one</a:item>"
+                        + "<b:item b:id=\"1\">one</b:item>"
+                        + "</root>";
+        final List<XMLEvent> original = parse(document);
+        final List<XMLEvent> deduplicated = deduplicate(original);
+
+        final String written = write(deduplicated);
+        Assert.assertEquals(write(original), written);
+        Assert.assertTrue(written, written.contains("<b:item b:id=\"1\">"));
+        Assert.assertTrue(written, written.contains("</b:item>"));
+    }
+
+    private static List<XMLEvent> parse(String document) throws Exception {
+        final XMLEventReader eventReader =
+                XMLInputFactory.newFactory().createXMLEventReader(new StringReader(document));
+        final List<XMLEvent> events = new ArrayList<XMLEvent>();
+        while (eventReader.hasNext()) {
+            events.add(eventReader.nextEvent());
+        }
+        return events;
+    }
+
+    private static List<XMLEvent> deduplicate(List<XMLEvent> events) {
+        final List<XMLEvent> deduplicated = new ArrayList<XMLEvent>(events.size());
+        for (final XMLEvent event : events) {
+            deduplicated.add(XMLEventDeduplicator.deduplicate(event));
+        }
+        return deduplicated;
+    }
+
+    private static String write(List<XMLEvent> events) throws Exception {
+        final StringWriter writer = new StringWriter();
+        final XMLEventWriter eventWriter =
+                XMLOutputFactory.newFactory().createXMLEventWriter(writer);
+        for (final XMLEvent event : events) {
+            eventWriter.add(event);
+        }
+        eventWriter.close();
+        return writer.toString();
+    }
+}
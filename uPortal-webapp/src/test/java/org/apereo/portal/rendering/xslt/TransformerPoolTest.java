@@ -0,0 +1,86 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.xslt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransformerPoolTest {
+    private TransformerFactory transformerFactory;
+    private TransformerPool transformerPool;
+
+    @Before
+    public void setup() {
+        this.transformerFactory = TransformerFactory.newInstance();
+        this.transformerPool = new TransformerPool();
+        this.transformerPool.setMaxTransformersPerThread(2);
+    }
+
+    @Test
+    public void testBorrowReturn() throws Exception {
+        assertNull(this.transformerPool.borrowTransformer("a"));
+
+        final Transformer transformer = this.transformerFactory.newTransformer();
+        transformer.setParameter("foo", "bar");
+        this.transformerPool.returnTransformer("a", transformer);
+
+        final Transformer pooled = this.transformerPool.borrowTransformer("a");
+        assertSame(transformer, pooled);
+        assertNull("Pooled transformer should have been reset", pooled.getParameter("foo"));
+
+        // Borrowed transformers are not shared
+        assertNull(this.transformerPool.borrowTransformer("a"));
+
+        assertEquals(1, this.transformerPool.getHitCount());
+        assertEquals(2, this.transformerPool.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        this.transformerPool.returnTransformer("a", this.transformerFactory.newTransformer());
+        this.transformerPool.returnTransformer("b", this.transformerFactory.newTransformer());
+        this.transformerPool.returnTransformer("c", this.transformerFactory.newTransformer());
+
+        assertNull(this.transformerPool.borrowTransformer("a"));
+        assertNotNull(this.transformerPool.borrowTransformer("b"));
+        assertNotNull(this.transformerPool.borrowTransformer("c"));
+    }
+
+    @Test
+    public void testPerThread() throws Exception {
+        this.transformerPool.returnTransformer("a", this.transformerFactory.newTransformer());
+
+        final Transformer[] borrowed = new Transformer[1];
+        final Thread thread =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                borrowed[0] = transformerPool.borrowTransformer("a");
+                            }
+                        });
+        thread.start();
+        thread.join();
+
+        assertNull(borrowed[0]);
+    }
+}